@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.filesys.server.memory.ByteBufferPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Byte Buffer Pool Benchmark Class
+ *
+ * <p>Measures buffer allocate/release from the memory pool with a number of threads contending for the pool.
+ *
+ * @author gkspencer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ByteBufferPoolBenchmark {
+
+    // Pool buffer sizes and allocations, same as the default server configuration
+    private static final int[] BufferSizes = {256, 4096, 16384, 66000};
+    private static final int[] InitialAllocations = {20, 20, 5, 5};
+    private static final int[] MaximumAllocations = {100, 50, 50, 50};
+
+    // Pool type
+    @Param({"Standard", "Striped"})
+    public String poolType;
+
+    // Size of buffer to allocate
+    @Param({"4096", "66000"})
+    public int bufferSize;
+
+    // Memory pool
+    private ByteBufferPool m_pool;
+
+    /**
+     * Create the memory pool
+     */
+    @Setup
+    public void setup() {
+        m_pool = new ByteBufferPool(BufferSizes, InitialAllocations, MaximumAllocations, ByteBufferPool.PoolType.valueOf(poolType));
+    }
+
+    /**
+     * Allocate and release a buffer, single thread
+     *
+     * @return int
+     */
+    @Benchmark
+    @Threads(1)
+    public int allocateRelease() {
+        return allocateAndRelease();
+    }
+
+    /**
+     * Allocate and release a buffer, contended by eight threads
+     *
+     * @return int
+     */
+    @Benchmark
+    @Threads(8)
+    public int allocateReleaseContended() {
+        return allocateAndRelease();
+    }
+
+    /**
+     * Allocate and release a buffer from the pool
+     *
+     * @return int
+     */
+    private int allocateAndRelease() {
+        byte[] buf = m_pool.allocateBuffer(bufferSize);
+        int len = buf.length;
+        m_pool.releaseBuffer(buf);
+        return len;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.filesys.util.DataPacker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Data Packer Benchmark Class
+ *
+ * <p>Measures packing and unpacking of Unicode strings, used for file names and paths in most SMB requests
+ * and responses.
+ *
+ * @author gkspencer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataPackerBenchmark {
+
+    // String length
+    @Param({"12", "64", "255"})
+    public int length;
+
+    // String to pack, and buffer containing the packed string
+    private String m_string;
+    private byte[] m_packBuf;
+    private byte[] m_unpackBuf;
+
+    /**
+     * Create the string and buffers
+     */
+    @Setup
+    public void setup() {
+
+        // Build a path style string of the required length
+        StringBuilder str = new StringBuilder(length);
+        String part = "\\Documents\\Report";
+
+        while (str.length() < length)
+            str.append(part.charAt(str.length() % part.length()));
+
+        m_string = str.toString();
+
+        // Allocate the buffers, and pack the string to be unpacked
+        m_packBuf = new byte[(length * 2) + 16];
+        m_unpackBuf = new byte[(length * 2) + 16];
+
+        DataPacker.putUnicodeString(m_string, m_unpackBuf, 0, true);
+    }
+
+    /**
+     * Pack a null terminated Unicode string
+     *
+     * @return int
+     */
+    @Benchmark
+    public int putUnicodeString() {
+        return DataPacker.putUnicodeString(m_string, m_packBuf, 0, true);
+    }
+
+    /**
+     * Unpack a null terminated Unicode string
+     *
+     * @return String
+     */
+    @Benchmark
+    public String getUnicodeString() {
+        return DataPacker.getUnicodeString(m_unpackBuf, 0, length + 1);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.filesys.server.config.InvalidConfigurationException;
+import org.filesys.server.filesys.cache.FileState;
+import org.filesys.server.filesys.cache.FileStateCache;
+import org.filesys.server.filesys.cache.ShardedFileStateCache;
+import org.filesys.server.filesys.cache.StandaloneFileStateCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.extensions.config.element.GenericConfigElement;
+
+/**
+ * File State Cache Benchmark Class
+ *
+ * <p>Measures file state lookups, as done for each file open and exists check, for the standalone and sharded
+ * file state caches.
+ *
+ * @author gkspencer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileStateCacheBenchmark {
+
+    // State cache type
+    @Param({"standalone", "sharded"})
+    public String cacheType;
+
+    // Number of file states in the cache
+    @Param({"10000", "100000"})
+    public int states;
+
+    // File state cache, and paths of the cached states
+    private FileStateCache m_cache;
+    private String[] m_paths;
+
+    /**
+     * Create and populate the file state cache
+     *
+     * @exception InvalidConfigurationException Error initializing the cache
+     */
+    @Setup
+    public void setup()
+            throws InvalidConfigurationException {
+
+        // Create the file state cache
+        if (cacheType.equals("sharded"))
+            m_cache = new ShardedFileStateCache();
+        else
+            m_cache = new StandaloneFileStateCache();
+
+        m_cache.initializeCache(new GenericConfigElement("stateCache"), null);
+
+        // Populate the cache
+        m_paths = new String[states];
+
+        for (int i = 0; i < states; i++) {
+            m_paths[i] = "\\Projects\\Folder" + (i % 100) + "\\File" + i + ".dat";
+            m_cache.findFileState(m_paths[i], true);
+        }
+    }
+
+    /**
+     * Find a file state, single thread
+     *
+     * @return FileState
+     */
+    @Benchmark
+    @Threads(1)
+    public FileState findFileState() {
+        return m_cache.findFileState(randomPath());
+    }
+
+    /**
+     * Find a file state, contended by eight threads
+     *
+     * @return FileState
+     */
+    @Benchmark
+    @Threads(8)
+    public FileState findFileStateContended() {
+        return m_cache.findFileState(randomPath());
+    }
+
+    /**
+     * Return a random cached path
+     *
+     * @return String
+     */
+    private String randomPath() {
+        return m_paths[ThreadLocalRandom.current().nextInt(m_paths.length)];
+    }
+}
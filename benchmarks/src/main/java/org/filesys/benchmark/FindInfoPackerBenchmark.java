@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.filesys.server.filesys.FileAttribute;
+import org.filesys.server.filesys.FileInfo;
+import org.filesys.server.filesys.UnsupportedInfoLevelException;
+import org.filesys.smb.server.FindInfoPacker;
+import org.filesys.util.DataBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Find Info Packer Benchmark Class
+ *
+ * <p>Measures packing of a folder search result entry for each of the commonly used information levels.
+ *
+ * @author gkspencer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FindInfoPackerBenchmark {
+
+    // Information level, as a hex string
+    @Param({"1", "2", "101", "102", "103", "104", "106"})
+    public String infoLevel;
+
+    // Pack Unicode strings
+    @Param({"true"})
+    public boolean unicode;
+
+    // File information to pack, and buffer to pack into
+    private FileInfo m_fileInfo;
+    private DataBuffer m_buffer;
+    private int m_level;
+
+    /**
+     * Create the file information and pack buffer
+     */
+    @Setup
+    public void setup() {
+
+        // Convert the information level
+        m_level = Integer.parseInt(infoLevel, 16);
+
+        // Create the file information
+        long now = System.currentTimeMillis();
+
+        m_fileInfo = new FileInfo("Quarterly Report - Final.docx", 1234567L, FileAttribute.NTNormal);
+        m_fileInfo.setShortName("QUARTE~1.DOC");
+        m_fileInfo.setFileId(12345);
+        m_fileInfo.setAllocationSize(1245184L);
+        m_fileInfo.setCreationDateTime(now);
+        m_fileInfo.setModifyDateTime(now);
+        m_fileInfo.setAccessDateTime(now);
+        m_fileInfo.setChangeDateTime(now);
+
+        // Allocate the pack buffer
+        m_buffer = new DataBuffer(4096);
+    }
+
+    /**
+     * Pack a file information entry
+     *
+     * @return int
+     * @exception UnsupportedInfoLevelException Unsupported information level
+     */
+    @Benchmark
+    public int packInfo()
+            throws UnsupportedInfoLevelException {
+        m_buffer.setPosition(0);
+        return FindInfoPacker.packInfo(m_fileInfo, m_buffer, m_level, unicode);
+    }
+}
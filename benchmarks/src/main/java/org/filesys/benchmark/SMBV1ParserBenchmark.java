@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.filesys.smb.PacketTypeV1;
+import org.filesys.smb.server.SMBV1;
+import org.filesys.smb.server.SMBV1Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * SMB V1 Parser Benchmark Class
+ *
+ * <p>Measures unpacking of SMB v1 ReadAndX and NTCreateAndX requests, as done by the protocol handler for each
+ * received request.
+ *
+ * @author gkspencer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SMBV1ParserBenchmark {
+
+    // Request buffer size
+    private static final int BufferSize = 512;
+
+    // File name used in the create request
+    private static final String FileName = "\\Documents\\Projects\\2019\\Quarterly Report - Final.docx";
+
+    // Request buffers and lengths
+    private byte[] m_readBuf;
+    private int m_readLen;
+
+    private byte[] m_createBuf;
+    private int m_createLen;
+
+    /**
+     * Build the request packets
+     */
+    @Setup
+    public void setup() {
+
+        // Build a ReadAndX request
+        m_readBuf = new byte[BufferSize];
+        SMBV1Parser parser = initRequest(m_readBuf, PacketTypeV1.ReadAndX, 12);
+
+        parser.setAndXCommand(PacketTypeV1.NoChainedCommand);
+        parser.setParameter(2, 0x4001);
+        parser.setParameterLong(3, 65536);
+        parser.setParameter(5, 61440);
+        parser.setParameter(6, 61440);
+        parser.setParameterLong(7, 0);
+        parser.setParameter(9, 0);
+        parser.setParameterLong(10, 0);
+        parser.setByteCount(0);
+
+        m_readLen = parser.getLength() + SMBV1.SIGNATURE;
+
+        // Build an NTCreateAndX request with a Unicode file name
+        m_createBuf = new byte[BufferSize];
+        parser = initRequest(m_createBuf, PacketTypeV1.NTCreateAndX, 24);
+
+        parser.setAndXCommand(PacketTypeV1.NoChainedCommand);
+        parser.setParameter(3, FileName.length() * 2);
+        parser.setParameterLong(11, 0x00120089);
+
+        parser.resetBytePointer();
+        parser.packByte(0);
+        parser.packString(FileName, true);
+        parser.setByteCount();
+
+        m_createLen = parser.getLength() + SMBV1.SIGNATURE;
+    }
+
+    /**
+     * Unpack a ReadAndX request
+     *
+     * @param bh Blackhole
+     */
+    @Benchmark
+    public void unpackReadAndX(Blackhole bh) {
+
+        SMBV1Parser parser = new SMBV1Parser(m_readBuf, m_readLen);
+
+        bh.consume(parser.checkPacketIsValid(10, 0));
+        bh.consume(parser.getCommand());
+        bh.consume(parser.getAndXCommand());
+        bh.consume(parser.getParameter(2));
+        bh.consume(parser.getParameterLong(3));
+        bh.consume(parser.getParameter(5));
+        bh.consume(parser.getParameterLong(10));
+    }
+
+    /**
+     * Unpack an NTCreateAndX request, including the Unicode file name
+     *
+     * @param bh Blackhole
+     */
+    @Benchmark
+    public void unpackNTCreateAndX(Blackhole bh) {
+
+        SMBV1Parser parser = new SMBV1Parser(m_createBuf, m_createLen);
+
+        bh.consume(parser.checkPacketIsValid(24, 1));
+        bh.consume(parser.getCommand());
+        bh.consume(parser.getParameter(3));
+        bh.consume(parser.getParameterLong(11));
+
+        parser.resetBytePointer();
+        parser.unpackByte();
+        bh.consume(parser.unpackString(true));
+    }
+
+    /**
+     * Initialize an SMB v1 request header
+     *
+     * @param buf    byte[]
+     * @param cmd    int
+     * @param params int
+     * @return SMBV1Parser
+     */
+    private static SMBV1Parser initRequest(byte[] buf, int cmd, int params) {
+
+        // Set the SMB signature
+        buf[SMBV1.SIGNATURE] = (byte) 0xFF;
+        buf[SMBV1.SIGNATURE + 1] = 'S';
+        buf[SMBV1.SIGNATURE + 2] = 'M';
+        buf[SMBV1.SIGNATURE + 3] = 'B';
+
+        // Set the command and parameter count
+        SMBV1Parser parser = new SMBV1Parser(buf, buf.length);
+
+        parser.setCommand(cmd);
+        parser.setFlags2(SMBV1.FLG2_UNICODE | SMBV1.FLG2_LONGERRORCODE);
+        parser.setParameterCount(params);
+        parser.setByteCount(0);
+
+        return parser;
+    }
+}
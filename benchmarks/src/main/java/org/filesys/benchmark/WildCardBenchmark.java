@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.filesys.util.WildCard;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Wildcard Benchmark Class
+ *
+ * <p>Measures matching of file names against the wildcard patterns used by folder searches.
+ *
+ * @author gkspencer
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WildCardBenchmark {
+
+    // File names to match against the pattern
+    private static final String[] FileNames = {
+            "Quarterly Report - Final.docx",
+            "budget2019.xlsx",
+            "IMG_20190712_153012.jpg",
+            "readme.txt",
+            "Project Plan v2.mpp",
+            "archive.tar.gz",
+            "~$Quarterly Report - Final.docx",
+            "notes"
+    };
+
+    // Search pattern
+    @Param({"*.*", "*.docx", "budget*.xls?", "IMG_2019*_15*.jpg", "readme.txt"})
+    public String pattern;
+
+    // Case sensitive matching
+    @Param({"false"})
+    public boolean caseSensitive;
+
+    // Wildcard matcher
+    private WildCard m_wildcard;
+
+    /**
+     * Create the wildcard matcher
+     */
+    @Setup
+    public void setup() {
+        m_wildcard = new WildCard(pattern, caseSensitive);
+    }
+
+    /**
+     * Match the file names against the pattern
+     *
+     * @param bh Blackhole
+     */
+    @Benchmark
+    public void matchesPattern(Blackhole bh) {
+        for (String fileName : FileNames)
+            bh.consume(m_wildcard.matchesPattern(fileName));
+    }
+}
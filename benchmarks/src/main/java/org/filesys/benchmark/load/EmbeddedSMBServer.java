@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.filesys.benchmark.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.filesys.app.SMBOnlyXMLServerConfiguration;
+import org.filesys.server.config.ServerConfiguration;
+import org.filesys.smb.server.SMBServer;
+
+/**
+ * Embedded SMB Server Class
+ *
+ * <p>Runs an SMB server in the current JVM with a single JavaNIODiskDriver share on a temporary directory. The
+ * server only listens on the loopback address using native SMB, NetBIOS and host announcements are not enabled.
+ *
+ * @author gkspencer
+ */
+public class EmbeddedSMBServer {
+
+    // Server host name, share name and the load test user account
+    public static final String HostName = "LOADSRV";
+    public static final String ShareName = "LOAD";
+    public static final String UserName = "load";
+    public static final String Password = "load";
+
+    // Time to wait for the server to start accepting connections, in milliseconds
+    private static final long StartupTimeout = 10000L;
+
+    // Native SMB port, and the thread pool size/queue size for the server
+    private int m_port;
+    private int m_threads;
+    private int m_queueSize;
+
+    // Run requests using virtual threads
+    private boolean m_virtualThreads;
+
+    // Enable the server request statistics
+    private boolean m_statistics;
+
+    // Working directory, root directory for the share, and the server log file
+    private File m_workDir;
+    private File m_rootDir;
+    private File m_logFile;
+
+    // Server configuration and SMB server
+    private ServerConfiguration m_srvConfig;
+    private SMBServer m_smbServer;
+
+    /**
+     * Class constructor
+     *
+     * @param port int, zero to allocate a free port
+     * @param threads int, zero to use the default thread pool size
+     * @param queueSize int, zero to use an unbounded request queue
+     * @param virtualThreads boolean
+     */
+    public EmbeddedSMBServer(int port, int threads, int queueSize, boolean virtualThreads) {
+        m_port = port;
+        m_threads = threads;
+        m_queueSize = queueSize;
+        m_virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Return the native SMB port the server is listening on
+     *
+     * @return int
+     */
+    public final int getPort() {
+        return m_port;
+    }
+
+    /**
+     * Return the share root directory
+     *
+     * @return File
+     */
+    public final File getRootDirectory() {
+        return m_rootDir;
+    }
+
+    /**
+     * Return the server log file
+     *
+     * @return File
+     */
+    public final File getLogFile() {
+        return m_logFile;
+    }
+
+    /**
+     * Enable the server request and pool statistics, must be called before the server is started
+     *
+     * @param ena boolean
+     */
+    public final void setStatistics(boolean ena) {
+        m_statistics = ena;
+    }
+
+    /**
+     * Return the SMB server
+     *
+     * @return SMBServer
+     */
+    public final SMBServer getServer() {
+        return m_smbServer;
+    }
+
+    /**
+     * Create the share directory and configuration, and start the SMB server
+     *
+     * @exception Exception Failed to start the server
+     */
+    public final void start()
+        throws Exception {
+
+        // Create the working directory, with the share root directory and server log file
+        m_workDir = File.createTempFile("jfsload", "");
+        m_rootDir = new File(m_workDir, "share");
+        m_logFile = new File(m_workDir, "server.log");
+
+        if (m_workDir.delete() == false || m_rootDir.mkdirs() == false)
+            throw new IOException("Failed to create share directory " + m_rootDir);
+
+        // Allocate a free loopback port if not specified
+        if (m_port == 0) {
+            ServerSocket sock = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            m_port = sock.getLocalPort();
+            sock.close();
+        }
+
+        // Load the server configuration
+        SMBOnlyXMLServerConfiguration config = new SMBOnlyXMLServerConfiguration();
+        config.loadConfiguration(new StringReader(buildConfiguration()));
+        m_srvConfig = config;
+
+        // Create and start the SMB server
+        m_smbServer = new SMBServer(m_srvConfig);
+        m_srvConfig.addServer(m_smbServer);
+
+        m_smbServer.startServer();
+
+        // Wait for the server to accept connections
+        long timeout = System.currentTimeMillis() + StartupTimeout;
+
+        while (isListening() == false) {
+
+            if (m_smbServer.hasException())
+                throw m_smbServer.getException();
+
+            if (System.currentTimeMillis() > timeout)
+                throw new IOException("SMB server failed to start on port " + m_port);
+
+            Thread.sleep(50L);
+        }
+    }
+
+    /**
+     * Shutdown the SMB server, and delete the working directory
+     */
+    public final void stop() {
+
+        if (m_smbServer != null) {
+            m_smbServer.shutdownServer(false);
+            m_smbServer = null;
+        }
+
+        if (m_srvConfig != null) {
+            m_srvConfig.closeConfiguration();
+            m_srvConfig = null;
+        }
+
+        if (m_workDir != null) {
+            deleteTree(m_workDir);
+            m_workDir = null;
+        }
+    }
+
+    /**
+     * Check if the server is accepting connections
+     *
+     * @return boolean
+     */
+    private boolean isListening() {
+        Socket sock = new Socket();
+
+        try {
+            sock.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), m_port), 500);
+            return true;
+        }
+        catch (IOException ex) {
+            return false;
+        }
+        finally {
+            try {
+                sock.close();
+            }
+            catch (IOException ex) {
+            }
+        }
+    }
+
+    /**
+     * Build the XML server configuration
+     *
+     * @return String
+     */
+    private String buildConfiguration() {
+
+        StringBuilder str = new StringBuilder(2048);
+
+        str.append("<?xml version=\"1.0\" standalone=\"no\"?>\n");
+        str.append("<fileserver>\n");
+        str.append("  <servers><SMB enable=\"true\"/><FTP enable=\"false\"/><NFS enable=\"false\"/></servers>\n");
+
+        // Core server settings
+        if (m_threads > 0 || m_virtualThreads || m_statistics) {
+            str.append("  <server-core>\n");
+            if (m_threads > 0) {
+                str.append("    <threadPool init=\"").append(m_threads).append("\" max=\"").append(m_threads).append("\"");
+                if (m_queueSize > 0)
+                    str.append(" queueSize=\"").append(m_queueSize).append("\"");
+                str.append("/>\n");
+            }
+            if (m_virtualThreads)
+                str.append("    <virtualThreads/>\n");
+            if (m_statistics)
+                str.append("    <statistics jmx=\"true\"/>\n");
+            str.append("  </server-core>\n");
+        }
+
+        // SMB server, native SMB on the loopback address only
+        str.append("  <SMB>\n");
+        str.append("    <host name=\"").append(HostName).append("\" domain=\"LOADTEST\">\n");
+        str.append("      <smbdialects>SMB1</smbdialects>\n");
+        str.append("      <bindto>").append(InetAddress.getLoopbackAddress().getHostAddress()).append("</bindto>\n");
+        str.append("      <tcpipSMB port=\"").append(m_port).append("\"/>\n");
+        str.append("    </host>\n");
+        str.append("    <authenticator type=\"local\">\n");
+        str.append("      <mode>USER</mode>\n");
+        str.append("    </authenticator>\n");
+        str.append("  </SMB>\n");
+
+        // Send server debug output to a log file
+        str.append("  <debug>\n");
+        str.append("    <output type=\"file\">\n");
+        str.append("      <logFile>").append(m_logFile.getAbsolutePath()).append("</logFile>\n");
+        str.append("    </output>\n");
+        str.append("  </debug>\n");
+
+        // Disk share
+        str.append("  <shares>\n");
+        str.append("    <diskshare name=\"").append(ShareName).append("\" comment=\"Load test share\">\n");
+        str.append("      <driver>\n");
+        str.append("        <class>org.filesys.smb.server.disk.JavaNIODiskDriver</class>\n");
+        str.append("        <LocalPath>").append(m_rootDir.getAbsolutePath()).append("</LocalPath>\n");
+        str.append("      </driver>\n");
+        str.append("    </diskshare>\n");
+        str.append("  </shares>\n");
+
+        // Load test user account, and the JCE provider for the MD4 hashing used by NTLM authentication
+        str.append("  <security>\n");
+        str.append("    <JCEProvider>org.bouncycastle.jce.provider.BouncyCastleProvider</JCEProvider>\n");
+        str.append("    <users>\n");
+        str.append("      <user name=\"").append(UserName).append("\"><password>").append(Password).append("</password></user>\n");
+        str.append("    </users>\n");
+        str.append("  </security>\n");
+        str.append("</fileserver>\n");
+
+        return str.toString();
+    }
+
+    /**
+     * Delete a directory tree
+     *
+     * @param dir File
+     */
+    private static void deleteTree(File dir) {
+        File[] files = dir.listFiles();
+
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory())
+                    deleteTree(file);
+                else
+                    file.delete();
+            }
+        }
+
+        dir.delete();
+    }
+}
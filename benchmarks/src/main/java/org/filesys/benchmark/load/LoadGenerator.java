@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.filesys.benchmark.load;
+
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.filesys.client.SessionSettings;
+import org.filesys.server.stats.CommandStatistics;
+import org.filesys.server.stats.LatencyHistogram;
+import org.filesys.smb.PCShare;
+import org.filesys.smb.Protocol;
+
+/**
+ * Load Generator Class
+ *
+ * <p>Starts an embedded SMB server with a disk share on a temporary directory, then runs a workload against it from
+ * a number of concurrent client sessions using the bundled SMB client. All traffic is over the loopback address.
+ * Reports the request rate and latency percentiles for each SMB request type.
+ *
+ * <p>Usage :-
+ * <pre>
+ *   java -cp benchmarks/target/benchmarks.jar org.filesys.benchmark.load.LoadGenerator [options]
+ *
+ *   -workload &lt;name&gt;   readwrite, listing, lockstorm, smallfiles or mixed (default mixed)
+ *   -sessions &lt;n&gt;      number of concurrent client sessions (default 8)
+ *   -duration &lt;secs&gt;   measurement time (default 30)
+ *   -warmup &lt;secs&gt;     warmup time before measuring (default 5)
+ *   -files &lt;n&gt;         data files per session (default 32)
+ *   -fileSize &lt;bytes&gt;  data file size (default 262144)
+ *   -ioSize &lt;bytes&gt;    read/write request size (default 4096)
+ *   -port &lt;n&gt;          server port, zero allocates a free port (default 0)
+ *   -threads &lt;n&gt;       server thread pool size (default server setting)
+ *   -queueSize &lt;n&gt;     bounded server request queue size (default unbounded)
+ *   -virtualThreads    run server requests using virtual threads
+ *   -serverStats       enable the server request statistics and report them
+ * </pre>
+ *
+ * @author gkspencer
+ */
+public class LoadGenerator {
+
+    // Load generator phases
+    private static final int PhaseSetup = 0;
+    private static final int PhaseWarmup = 1;
+    private static final int PhaseMeasure = 2;
+    private static final int PhaseStopped = 3;
+
+    // Percentiles reported for each request type
+    private static final double[] Percentiles = {50.0, 90.0, 99.0, 99.9};
+
+    // Load settings
+    private Workload m_workload = Workload.Mixed;
+    private int m_sessions = 8;
+    private int m_duration = 30;
+    private int m_warmup = 5;
+    private int m_files = 32;
+    private int m_fileSize = 256 * 1024;
+    private int m_ioSize = 4096;
+
+    // Server settings
+    private int m_port;
+    private int m_threads;
+    private int m_queueSize;
+    private boolean m_virtualThreads;
+    private boolean m_serverStats;
+
+    // Current phase, and the latch used to start all sessions together
+    private volatile int m_phase = PhaseSetup;
+    private CountDownLatch m_startLatch = new CountDownLatch(1);
+
+    /**
+     * Return the workload
+     *
+     * @return Workload
+     */
+    public final Workload getWorkload() {
+        return m_workload;
+    }
+
+    /**
+     * Return the number of data files per session
+     *
+     * @return int
+     */
+    public final int getFilesPerSession() {
+        return m_files;
+    }
+
+    /**
+     * Return the data file size
+     *
+     * @return int
+     */
+    public final int getFileSize() {
+        return m_fileSize;
+    }
+
+    /**
+     * Return the read/write request size
+     *
+     * @return int
+     */
+    public final int getIOSize() {
+        return m_ioSize;
+    }
+
+    /**
+     * Check if the sessions should keep running
+     *
+     * @return boolean
+     */
+    public final boolean isRunning() {
+        return m_phase != PhaseStopped;
+    }
+
+    /**
+     * Check if request latencies should be recorded
+     *
+     * @return boolean
+     */
+    public final boolean isMeasuring() {
+        return m_phase == PhaseMeasure;
+    }
+
+    /**
+     * Wait for the load generator to start the sessions
+     *
+     * @exception InterruptedException Wait interrupted
+     */
+    public final void waitForStart()
+        throws InterruptedException {
+        m_startLatch.await();
+    }
+
+    /**
+     * Parse the command line arguments
+     *
+     * @param args String[]
+     * @return boolean
+     */
+    private boolean parseArguments(String[] args) {
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+
+                if (arg.equalsIgnoreCase("-virtualThreads")) {
+                    m_virtualThreads = true;
+                    continue;
+                }
+
+                if (arg.equalsIgnoreCase("-serverStats")) {
+                    m_serverStats = true;
+                    continue;
+                }
+
+                // Remaining options require a value
+                if (i + 1 >= args.length) {
+                    System.err.println("Missing value for " + arg);
+                    return false;
+                }
+                String val = args[++i];
+
+                if (arg.equalsIgnoreCase("-workload")) {
+                    m_workload = Workload.fromString(val);
+                    if (m_workload == null) {
+                        System.err.println("Invalid workload " + val);
+                        return false;
+                    }
+                }
+                else if (arg.equalsIgnoreCase("-sessions"))
+                    m_sessions = Integer.parseInt(val);
+                else if (arg.equalsIgnoreCase("-duration"))
+                    m_duration = Integer.parseInt(val);
+                else if (arg.equalsIgnoreCase("-warmup"))
+                    m_warmup = Integer.parseInt(val);
+                else if (arg.equalsIgnoreCase("-files"))
+                    m_files = Integer.parseInt(val);
+                else if (arg.equalsIgnoreCase("-fileSize"))
+                    m_fileSize = Integer.parseInt(val);
+                else if (arg.equalsIgnoreCase("-ioSize"))
+                    m_ioSize = Integer.parseInt(val);
+                else if (arg.equalsIgnoreCase("-port"))
+                    m_port = Integer.parseInt(val);
+                else if (arg.equalsIgnoreCase("-threads"))
+                    m_threads = Integer.parseInt(val);
+                else if (arg.equalsIgnoreCase("-queueSize"))
+                    m_queueSize = Integer.parseInt(val);
+                else {
+                    System.err.println("Unknown option " + arg);
+                    return false;
+                }
+            }
+        }
+        catch (NumberFormatException ex) {
+            System.err.println("Invalid numeric value, " + ex.getMessage());
+            return false;
+        }
+
+        // Validate the settings
+        if (m_sessions < 1 || m_duration < 1 || m_warmup < 0 || m_files < 1 || m_ioSize < 1 || m_fileSize < m_ioSize) {
+            System.err.println("Invalid load settings, sessions/duration/files must be positive and fileSize >= ioSize");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Run the load test
+     *
+     * @param out PrintStream
+     * @exception Exception Error running the load test
+     */
+    public final void runLoad(PrintStream out)
+        throws Exception {
+
+        // Start the embedded server
+        EmbeddedSMBServer server = new EmbeddedSMBServer(m_port, m_threads, m_queueSize, m_virtualThreads);
+        server.setStatistics(m_serverStats);
+        server.start();
+
+        List<LoadSession> sessions = new ArrayList<LoadSession>(m_sessions);
+        List<Thread> threads = new ArrayList<Thread>(m_sessions);
+
+        try {
+            out.println("Server listening on 127.0.0.1:" + server.getPort() + ", share root " + server.getRootDirectory());
+            out.println("Workload " + m_workload + ", " + m_sessions + " sessions, files=" + m_files + ", fileSize=" + m_fileSize +
+                    ", ioSize=" + m_ioSize);
+
+            PCShare share = new PCShare(InetAddress.getLoopbackAddress().getHostAddress(), EmbeddedSMBServer.ShareName,
+                    EmbeddedSMBServer.UserName, EmbeddedSMBServer.Password);
+
+            // Connect the sessions and create the workload files
+            for (int i = 0; i < m_sessions; i++) {
+                // Client settings, native SMB to the server port. Use a non-zero virtual circuit so the server does
+                // not reset the other sessions from this address.
+                SessionSettings settings = new SessionSettings(Protocol.NativeSMB, Protocol.None);
+                settings.setNativeSMBPort(server.getPort());
+                settings.setVirtualCircuit(i + 1);
+
+                LoadSession sess = new LoadSession(this, i);
+                sessions.add(sess);
+                sess.setup(share, settings);
+
+                Thread thread = new Thread(sess, "LoadSession_" + i);
+                thread.setDaemon(true);
+                threads.add(thread);
+                thread.start();
+            }
+
+            // Warmup, then measure
+            m_phase = PhaseWarmup;
+            m_startLatch.countDown();
+
+            out.println("Warming up for " + m_warmup + "s ...");
+            Thread.sleep(m_warmup * 1000L);
+
+            out.println("Measuring for " + m_duration + "s ...");
+            long measureStart = System.nanoTime();
+            m_phase = PhaseMeasure;
+
+            Thread.sleep(m_duration * 1000L);
+
+            m_phase = PhaseStopped;
+            long measureTime = System.nanoTime() - measureStart;
+
+            for (Thread thread : threads)
+                thread.join(10000L);
+
+            // Output the results
+            printResults(out, sessions, measureTime);
+
+            // Output the server side statistics, these include the setup and warmup requests
+            if (m_serverStats && server.getServer().getCommandStatistics() != null) {
+                out.println();
+                out.println("Server statistics:");
+
+                for (CommandStatistics stats : server.getServer().getCommandStatistics().getCommands())
+                    out.println("  " + stats);
+            }
+        }
+        finally {
+
+            // Close the sessions and shutdown the server
+            m_phase = PhaseStopped;
+            m_startLatch.countDown();
+
+            for (LoadSession sess : sessions)
+                sess.close();
+
+            server.stop();
+        }
+    }
+
+    /**
+     * Output the per request results
+     *
+     * @param out PrintStream
+     * @param sessions List of LoadSession
+     * @param measureTime long
+     */
+    private void printResults(PrintStream out, List<LoadSession> sessions, long measureTime) {
+
+        double secs = measureTime / 1.0e9;
+        long totalOps = 0;
+
+        out.println();
+        out.println(String.format("%-20s %10s %10s %10s %10s %10s %10s %10s %10s %8s", "Request", "Count", "Ops/sec", "Mean(us)",
+                "p50(us)", "p90(us)", "p99(us)", "p99.9(us)", "Max(us)", "Errors"));
+
+        for (SMBCommand cmd : SMBCommand.values()) {
+
+            // Merge the per session results
+            LatencyHistogram hist = new LatencyHistogram();
+            long errors = 0;
+
+            for (LoadSession sess : sessions) {
+                hist.add(sess.getLatency(cmd));
+                errors += sess.getErrors(cmd);
+            }
+
+            if (hist.getCount() == 0 && errors == 0)
+                continue;
+
+            totalOps += hist.getCount();
+
+            StringBuilder str = new StringBuilder(128);
+            str.append(String.format("%-20s %10d %10.1f %10.1f", cmd.getRequestName(), hist.getCount(), hist.getCount() / secs,
+                    hist.getMean() / 1000.0));
+
+            for (double pct : Percentiles)
+                str.append(String.format(" %10.1f", hist.getPercentile(pct) / 1000.0));
+
+            str.append(String.format(" %10.1f %8d", hist.getMaximum() / 1000.0, errors));
+            out.println(str.toString());
+        }
+
+        out.println();
+        out.println(String.format("Total %d requests in %.1fs, %.1f requests/sec", totalOps, secs, totalOps / secs));
+
+        // Report any sessions that failed
+        boolean untrackedLocks = false;
+
+        for (int i = 0; i < sessions.size(); i++) {
+            LoadSession sess = sessions.get(i);
+            if (sess.hasException())
+                out.println("Session " + i + " failed, " + sess.getException());
+            if (sess.hasUntrackedLocks())
+                untrackedLocks = true;
+        }
+
+        if (untrackedLocks)
+            out.println("Share driver does not implement byte range locking, only lock requests were sent");
+    }
+
+    /**
+     * Application startup
+     *
+     * @param args String[]
+     */
+    public static void main(String[] args) {
+
+        LoadGenerator loadGen = new LoadGenerator();
+        if (loadGen.parseArguments(args) == false)
+            System.exit(1);
+
+        try {
+            loadGen.runLoad(System.out);
+        }
+        catch (Exception ex) {
+            System.err.println("Load test failed, " + ex);
+            ex.printStackTrace(System.err);
+            System.exit(1);
+        }
+
+        System.exit(0);
+    }
+}
@@ -0,0 +1,559 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.filesys.benchmark.load;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.filesys.client.CIFSDiskSession;
+import org.filesys.client.CIFSFile;
+import org.filesys.client.DiskSession;
+import org.filesys.client.SearchContext;
+import org.filesys.client.SessionFactory;
+import org.filesys.client.SessionSettings;
+import org.filesys.client.SMBFile;
+import org.filesys.server.filesys.AccessMode;
+import org.filesys.server.filesys.FileAction;
+import org.filesys.server.filesys.FileAttribute;
+import org.filesys.server.stats.LatencyHistogram;
+import org.filesys.smb.FileInfoLevel;
+import org.filesys.smb.PCShare;
+import org.filesys.smb.SMBException;
+import org.filesys.smb.SMBStatus;
+import org.filesys.smb.SeekType;
+import org.filesys.smb.SharingMode;
+
+/**
+ * Load Session Class
+ *
+ * <p>Runs the configured workload against the server using a single client session, recording the latency of each
+ * SMB request whilst the load generator is in the measurement phase.
+ *
+ * @author gkspencer
+ */
+public class LoadSession implements Runnable {
+
+    // Lock storm file name, shared by all sessions, and the lock region size/count
+    public static final String LockFileName = "\\locks.dat";
+    public static final int LockRegionSize = 512;
+    public static final int LockRegions = 256;
+
+    // Small file size
+    public static final int SmallFileSize = 1024;
+
+    // Load generator that owns this session, and the session id
+    private LoadGenerator m_generator;
+    private int m_id;
+
+    // Workload for this session
+    private Workload m_workload;
+
+    // Client session and the session working directory
+    private CIFSDiskSession m_sess;
+    private String m_dir;
+
+    // Shared lock file, and flag to indicate the share does not track byte range locks
+    private CIFSFile m_lockFile;
+    private boolean m_locksNotTracked;
+
+    // Read/write buffer, and small file data
+    private byte[] m_ioBuf;
+    private byte[] m_smallBuf;
+
+    // Random number generator
+    private Random m_random;
+
+    // Small file sequence number
+    private int m_smallSeq;
+
+    // Per command latency histograms and error counts
+    private LatencyHistogram[] m_latency;
+    private long[] m_errors;
+
+    // Exception that stopped the session
+    private Exception m_exception;
+
+    /**
+     * Class constructor
+     *
+     * @param generator LoadGenerator
+     * @param id int
+     */
+    public LoadSession(LoadGenerator generator, int id) {
+        m_generator = generator;
+        m_id = id;
+
+        m_workload = generator.getWorkload();
+        m_random = new Random(0x5EED0000L + id);
+
+        m_ioBuf = new byte[generator.getIOSize()];
+        m_smallBuf = new byte[SmallFileSize];
+        m_random.nextBytes(m_ioBuf);
+        m_random.nextBytes(m_smallBuf);
+
+        m_latency = new LatencyHistogram[SMBCommand.values().length];
+        for (int i = 0; i < m_latency.length; i++)
+            m_latency[i] = new LatencyHistogram();
+        m_errors = new long[m_latency.length];
+    }
+
+    /**
+     * Return the latency histogram for a command
+     *
+     * @param cmd SMBCommand
+     * @return LatencyHistogram
+     */
+    public final LatencyHistogram getLatency(SMBCommand cmd) {
+        return m_latency[cmd.ordinal()];
+    }
+
+    /**
+     * Return the error count for a command
+     *
+     * @param cmd SMBCommand
+     * @return long
+     */
+    public final long getErrors(SMBCommand cmd) {
+        return m_errors[cmd.ordinal()];
+    }
+
+    /**
+     * Check if the session stopped due to an error
+     *
+     * @return boolean
+     */
+    public final boolean hasException() {
+        return m_exception != null;
+    }
+
+    /**
+     * Return the exception that stopped the session
+     *
+     * @return Exception
+     */
+    public final Exception getException() {
+        return m_exception;
+    }
+
+    /**
+     * Check if the share does not track byte range locks, granted locks could not be unlocked
+     *
+     * @return boolean
+     */
+    public final boolean hasUntrackedLocks() {
+        return m_locksNotTracked;
+    }
+
+    /**
+     * Connect to the server and create the files used by the workload
+     *
+     * @param share PCShare
+     * @param settings SessionSettings
+     * @exception Exception Failed to setup the session
+     */
+    public final void setup(PCShare share, SessionSettings settings)
+        throws Exception {
+
+        // Connect to the load test share
+        DiskSession sess = SessionFactory.OpenDisk(share, settings);
+        if (sess instanceof CIFSDiskSession == false) {
+            sess.CloseSession();
+            throw new IOException("Server did not negotiate an NT dialect");
+        }
+        m_sess = (CIFSDiskSession) sess;
+
+        // Create the session directory
+        m_dir = "\\session" + m_id;
+        m_sess.CreateDirectory(m_dir);
+
+        // Create the data files used by the read/write and listing workloads
+        if (m_workload != Workload.LockStorm && m_workload != Workload.SmallFiles) {
+            int blocks = m_generator.getFileSize() / m_ioBuf.length;
+
+            for (int i = 0; i < m_generator.getFilesPerSession(); i++) {
+                SMBFile file = m_sess.NTCreate(dataFileName(i), AccessMode.NTReadWrite, FileAttribute.NTNormal,
+                        SharingMode.READ_WRITE.intValue(), FileAction.NTOverwriteIf, 0, 0);
+
+                for (int blk = 0; blk < blocks; blk++)
+                    file.Write(m_ioBuf, m_ioBuf.length, 0);
+                file.Close();
+            }
+        }
+
+        // Open the shared lock file
+        if (m_workload == Workload.LockStorm || m_workload == Workload.Mixed)
+            m_lockFile = m_sess.NTCreate(LockFileName, AccessMode.NTReadWrite, FileAttribute.NTNormal,
+                    SharingMode.READ_WRITE.intValue(), FileAction.NTOpenIf, 0, 0);
+    }
+
+    /**
+     * Run the workload until the load generator stops
+     */
+    public void run() {
+
+        try {
+
+            // Wait for all sessions to be ready
+            m_generator.waitForStart();
+
+            // Run the workload
+            while (m_generator.isRunning()) {
+
+                Workload workload = m_workload;
+                if (workload == Workload.Mixed)
+                    workload = selectWorkload();
+
+                switch (workload) {
+                    case ReadWrite:
+                        runReadWrite();
+                        break;
+                    case Listing:
+                        runListing();
+                        break;
+                    case LockStorm:
+                        runLockStorm();
+                        break;
+                    case SmallFiles:
+                        runSmallFiles();
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        catch (Exception ex) {
+            m_exception = ex;
+        }
+    }
+
+    /**
+     * Close the shared lock file and the client session
+     */
+    public final void close() {
+
+        try {
+            if (m_lockFile != null && m_lockFile.isClosed() == false)
+                m_lockFile.Close();
+        }
+        catch (Exception ex) {
+        }
+
+        try {
+            if (m_sess != null)
+                m_sess.CloseSession();
+        }
+        catch (Exception ex) {
+        }
+    }
+
+    /**
+     * Select a workload for a mixed workload iteration, weighted towards file I/O
+     *
+     * @return Workload
+     */
+    private Workload selectWorkload() {
+        int pct = m_random.nextInt(100);
+
+        if (pct < 50)
+            return Workload.ReadWrite;
+        else if (pct < 70)
+            return Workload.SmallFiles;
+        else if (pct < 85)
+            return Workload.Listing;
+        return Workload.LockStorm;
+    }
+
+    /**
+     * Open a data file, write and read a block at random offsets, and close the file
+     *
+     * @exception IOException Socket error
+     * @exception SMBException SMB error
+     */
+    private void runReadWrite()
+        throws IOException, SMBException {
+
+        // Open an existing data file
+        long startTime = System.nanoTime();
+        CIFSFile file = null;
+
+        try {
+            file = m_sess.NTCreate(dataFileName(m_random.nextInt(m_generator.getFilesPerSession())), AccessMode.NTReadWrite,
+                    FileAttribute.NTNormal, SharingMode.READ_WRITE.intValue(), FileAction.NTOpen, 0, 0);
+            record(SMBCommand.NTCreateAndX, startTime);
+        }
+        catch (SMBException ex) {
+            recordError(SMBCommand.NTCreateAndX);
+            return;
+        }
+
+        int blocks = m_generator.getFileSize() / m_ioBuf.length;
+
+        // Write a block, the write is buffered by the client so flush to send the request
+        startTime = System.nanoTime();
+
+        try {
+            file.Seek((long) m_random.nextInt(blocks) * m_ioBuf.length, SeekType.StartOfFile);
+            file.Write(m_ioBuf, m_ioBuf.length, 0);
+            file.Flush();
+            record(SMBCommand.WriteAndX, startTime);
+        }
+        catch (SMBException ex) {
+            recordError(SMBCommand.WriteAndX);
+        }
+
+        // Read a block
+        startTime = System.nanoTime();
+
+        try {
+            file.Seek((long) m_random.nextInt(blocks) * m_ioBuf.length, SeekType.StartOfFile);
+            file.Read(m_ioBuf, m_ioBuf.length, 0);
+            record(SMBCommand.ReadAndX, startTime);
+        }
+        catch (SMBException ex) {
+            recordError(SMBCommand.ReadAndX);
+        }
+
+        // Close the file
+        startTime = System.nanoTime();
+
+        try {
+            file.Close();
+            record(SMBCommand.Close, startTime);
+        }
+        catch (SMBException ex) {
+            recordError(SMBCommand.Close);
+        }
+    }
+
+    /**
+     * List the session directory and query the information for one of the files
+     *
+     * @exception IOException Socket error
+     * @exception SMBException SMB error
+     */
+    private void runListing()
+        throws IOException, SMBException {
+
+        // Start the directory search
+        long startTime = System.nanoTime();
+        SearchContext srch = null;
+
+        try {
+            srch = m_sess.StartSearch(m_dir + "\\*.*", FileAttribute.Directory, FileInfoLevel.FindFileBothDirectory);
+            record(SMBCommand.FindFirst, startTime);
+        }
+        catch (SMBException ex) {
+            recordError(SMBCommand.FindFirst);
+            return;
+        }
+
+        // Enumerate the remaining entries, continuation requests are sent when the buffered results are used up
+        startTime = System.nanoTime();
+
+        try {
+            while (srch.nextFileInfo() != null)
+                ;
+            record(SMBCommand.FindNext, startTime);
+        }
+        catch (SMBException ex) {
+            recordError(SMBCommand.FindNext);
+        }
+
+        // Query the information for a file
+        if (m_generator.getFilesPerSession() > 0) {
+            startTime = System.nanoTime();
+
+            try {
+                m_sess.getFileInformation(dataFileName(m_random.nextInt(m_generator.getFilesPerSession())));
+                record(SMBCommand.QueryPathInfo, startTime);
+            }
+            catch (SMBException ex) {
+                recordError(SMBCommand.QueryPathInfo);
+            }
+        }
+    }
+
+    /**
+     * Lock and unlock a random region of the shared lock file, lock conflicts are counted as errors.
+     *
+     * <p>If the share driver does not implement byte range locking the server grants all locks but fails the
+     * unlocks, in which case only lock requests are sent.
+     *
+     * @exception IOException Socket error
+     * @exception SMBException SMB error
+     */
+    private void runLockStorm()
+        throws IOException, SMBException {
+
+        long offset = (long) m_random.nextInt(LockRegions) * LockRegionSize;
+
+        // Lock the region
+        long startTime = System.nanoTime();
+
+        try {
+            m_lockFile.Lock(offset, LockRegionSize);
+            record(SMBCommand.Lock, startTime);
+        }
+        catch (SMBException ex) {
+
+            // Lock conflict with another session
+            recordError(SMBCommand.Lock);
+            return;
+        }
+
+        // Unlock the region
+        if (m_locksNotTracked)
+            return;
+
+        startTime = System.nanoTime();
+
+        try {
+            m_lockFile.Unlock(offset, LockRegionSize);
+            record(SMBCommand.Unlock, startTime);
+        }
+        catch (SMBException ex) {
+
+            // Check if the server does not track locks for the share
+            if ((ex.getErrorClass() == SMBStatus.NTErr && ex.getErrorCode() == SMBStatus.NTRangeNotLocked) ||
+                    (ex.getErrorClass() == SMBStatus.ErrDos && ex.getErrorCode() == SMBStatus.DOSNotLocked))
+                m_locksNotTracked = true;
+            else
+                recordError(SMBCommand.Unlock);
+        }
+    }
+
+    /**
+     * Create, write, close, query, rename and delete a small file
+     *
+     * @exception IOException Socket error
+     * @exception SMBException SMB error
+     */
+    private void runSmallFiles()
+        throws IOException, SMBException {
+
+        String fileName = m_dir + "\\small" + m_smallSeq + ".tmp";
+        String newName = m_dir + "\\small" + m_smallSeq + ".dat";
+        m_smallSeq++;
+
+        // Create the file
+        long startTime = System.nanoTime();
+        CIFSFile file = null;
+
+        try {
+            file = m_sess.NTCreate(fileName, AccessMode.NTReadWrite, FileAttribute.NTNormal, SharingMode.READ_WRITE.intValue(),
+                    FileAction.NTOverwriteIf, 0, 0);
+            record(SMBCommand.NTCreateAndX, startTime);
+        }
+        catch (SMBException ex) {
+            recordError(SMBCommand.NTCreateAndX);
+            return;
+        }
+
+        // Write the file data
+        startTime = System.nanoTime();
+
+        try {
+            file.Write(m_smallBuf, m_smallBuf.length, 0);
+            file.Flush();
+            record(SMBCommand.WriteAndX, startTime);
+        }
+        catch (SMBException ex) {
+            recordError(SMBCommand.WriteAndX);
+        }
+
+        // Close the file
+        startTime = System.nanoTime();
+
+        try {
+            file.Close();
+            record(SMBCommand.Close, startTime);
+        }
+        catch (SMBException ex) {
+            recordError(SMBCommand.Close);
+        }
+
+        // Query the file information
+        startTime = System.nanoTime();
+
+        try {
+            m_sess.getFileInformation(fileName);
+            record(SMBCommand.QueryPathInfo, startTime);
+        }
+        catch (SMBException ex) {
+            recordError(SMBCommand.QueryPathInfo);
+        }
+
+        // Rename the file
+        startTime = System.nanoTime();
+
+        try {
+            if (m_sess.RenameFile(fileName, newName)) {
+                record(SMBCommand.Rename, startTime);
+                fileName = newName;
+            }
+            else
+                recordError(SMBCommand.Rename);
+        }
+        catch (SMBException ex) {
+            recordError(SMBCommand.Rename);
+        }
+
+        // Delete the file
+        startTime = System.nanoTime();
+
+        try {
+            m_sess.DeleteFile(fileName);
+            record(SMBCommand.Delete, startTime);
+        }
+        catch (SMBException ex) {
+            recordError(SMBCommand.Delete);
+        }
+    }
+
+    /**
+     * Return the path of a data file
+     *
+     * @param idx int
+     * @return String
+     */
+    private String dataFileName(int idx) {
+        return m_dir + "\\file" + idx + ".dat";
+    }
+
+    /**
+     * Record the latency of a request, if the load generator is measuring
+     *
+     * @param cmd SMBCommand
+     * @param startTime long
+     */
+    private void record(SMBCommand cmd, long startTime) {
+        long elapsed = System.nanoTime() - startTime;
+
+        if (m_generator.isMeasuring())
+            m_latency[cmd.ordinal()].record(elapsed);
+    }
+
+    /**
+     * Record a failed request, if the load generator is measuring
+     *
+     * @param cmd SMBCommand
+     */
+    private void recordError(SMBCommand cmd) {
+        if (m_generator.isMeasuring())
+            m_errors[cmd.ordinal()]++;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.filesys.benchmark.load;
+
+/**
+ * SMB Command Enum Class
+ *
+ * <p>SMB requests timed by the load generator. Each client library call issues a single request, apart from
+ * directory search continuations where a call may be satisfied from the buffered search results.
+ *
+ * @author gkspencer
+ */
+public enum SMBCommand {
+    NTCreateAndX    ("NTCreateAndX"),
+    ReadAndX        ("ReadAndX"),
+    WriteAndX       ("WriteAndX"),
+    Close           ("Close"),
+    Lock            ("LockingAndX lock"),
+    Unlock          ("LockingAndX unlock"),
+    FindFirst       ("Trans2FindFirst2"),
+    FindNext        ("Trans2FindNext2"),
+    QueryPathInfo   ("Trans2QueryPathInfo"),
+    Rename          ("Rename"),
+    Delete          ("Delete");
+
+    private final String m_name;
+
+    /**
+     * Enum constructor
+     *
+     * @param name String
+     */
+    SMBCommand(String name) {
+        m_name = name;
+    }
+
+    /**
+     * Return the SMB request name
+     *
+     * @return String
+     */
+    public final String getRequestName() {
+        return m_name;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.filesys.benchmark.load;
+
+/**
+ * Workload Enum Class
+ *
+ * <p>Request mixes that the load generator sessions can run.
+ *
+ * @author gkspencer
+ */
+public enum Workload {
+
+    // Open an existing file, write and read a block at a random offset, close
+    ReadWrite,
+
+    // Search a directory and enumerate all entries, query file information
+    Listing,
+
+    // Lock and unlock random byte ranges of a file shared by all sessions
+    LockStorm,
+
+    // Create, write, close, query, rename and delete small files
+    SmallFiles,
+
+    // Random selection of the other workloads per iteration
+    Mixed;
+
+    /**
+     * Return the workload for the specified name, case insensitive
+     *
+     * @param name String
+     * @return Workload, or null if the name is not valid
+     */
+    public static Workload fromString(String name) {
+        for (Workload workload : values()) {
+            if (workload.name().equalsIgnoreCase(name))
+                return workload;
+        }
+        return null;
+    }
+}
@@ -66,7 +66,11 @@ import org.filesys.server.filesys.FilesystemsConfigSection;
 import org.filesys.server.filesys.SrvDiskInfo;
 import org.filesys.server.filesys.VolumeInfo;
 import org.filesys.server.filesys.cache.FileStateCache;
+import org.filesys.server.filesys.cache.ShardedFileStateCache;
 import org.filesys.server.filesys.cache.StandaloneFileStateCache;
+import org.filesys.server.filesys.readahead.ReadAheadCache;
+import org.filesys.server.memory.ByteBufferPool;
+import org.filesys.server.stats.ServerStatistics;
 import org.filesys.server.thread.ThreadRequestPool;
 import org.filesys.smb.Dialect;
 import org.filesys.smb.DialectSelector;
@@ -276,6 +280,24 @@ public class SMBOnlyXMLServerConfiguration extends ServerConfiguration {
 			return;
 		}
 
+		// Check if requests should be run using virtual threads
+		boolean virtualThreads = findChildNode("virtualThreads", srvCore.getChildNodes()) != null;
+
+		// Check if request and pool statistics are enabled, pools register their statistics as they are created
+		Element statsElem = findChildNode("statistics", srvCore.getChildNodes());
+		if ( statsElem != null) {
+
+			// Get the JMX domain, and check if the statistics should be published via JMX
+			String domain = statsElem.getAttribute("domain");
+			if ( domain == null || domain.length() == 0)
+				domain = ServerStatistics.DefaultDomain;
+
+			String jmxStr = statsElem.getAttribute("jmx");
+			boolean jmx = jmxStr == null || jmxStr.length() == 0 || Boolean.parseBoolean( jmxStr);
+
+			coreConfig.setStatistics( domain, jmx);
+		}
+
 		// Check if the thread pool size has been specified
 		Element elem = findChildNode("threadPool", srvCore.getChildNodes());
 		if ( elem != null) {
@@ -329,13 +351,28 @@ public class SMBOnlyXMLServerConfiguration extends ServerConfiguration {
 			else if ( maxSizeStr != null)
 				throw new InvalidConfigurationException("Thread pool maximum size not specified");
 			
+			// Check if a bounded request queue size has been specified
+			String queueSizeStr = elem.getAttribute("queueSize");
+			int queueSize = 0;
+			
+			if ( queueSizeStr != null && queueSizeStr.length() > 0) {
+				
+				// Validate the request queue size
+				try {
+					queueSize = Integer.parseInt( queueSizeStr);
+				}
+				catch (NumberFormatException ex) {
+					throw new InvalidConfigurationException("Invalid thread pool queue size value, " + queueSizeStr);
+				}
+			}
+			
 			// Configure the thread pool
-			coreConfig.setThreadPool( initSize, maxSize);
+			coreConfig.setThreadPool( initSize, maxSize, virtualThreads, queueSize);
 		}
 		else {
 			
 			// Configure a default thread pool size
-			coreConfig.setThreadPool( getDefaultThreads(), getMaximumThreads());
+			coreConfig.setThreadPool( getDefaultThreads(), getMaximumThreads(), virtualThreads);
 		}
 		
 		// Check if thread pool debug output is enabled
@@ -345,6 +382,19 @@ public class SMBOnlyXMLServerConfiguration extends ServerConfiguration {
 		// Check if the memory pool configuration has been specified
 		elem = findChildNode("memoryPool", srvCore.getChildNodes());
 		if ( elem != null) {
+
+			// Check if the memory pool type has been specified
+			ByteBufferPool.PoolType poolType = ByteBufferPool.PoolType.Standard;
+			String poolTypeStr = elem.getAttribute("type");
+
+			if ( poolTypeStr != null && poolTypeStr.length() > 0) {
+				if ( poolTypeStr.equalsIgnoreCase("standard"))
+					poolType = ByteBufferPool.PoolType.Standard;
+				else if ( poolTypeStr.equalsIgnoreCase("striped"))
+					poolType = ByteBufferPool.PoolType.Striped;
+				else
+					throw new InvalidConfigurationException("Invalid memory pool type, " + poolTypeStr);
+			}
 			
 			// Check if the packet sizes/allocations have been specified
 			Element pktElem = findChildNode("packetSizes", elem.getChildNodes());
@@ -469,7 +519,47 @@ public class SMBOnlyXMLServerConfiguration extends ServerConfiguration {
 				}
 				
 				// Configure the memory pool
-				coreConfig.setMemoryPool( pktSizes, initSizes, maxSizes);
+				coreConfig.setMemoryPool( pktSizes, initSizes, maxSizes, poolType);
+			}
+			else {
+
+				// Configure a default memory pool using the requested pool type
+				coreConfig.setMemoryPool( getMemoryBufferSizes(), getMemoryBufferAllocations(), getMemoryBufferMaximumAllocations(), poolType);
+			}
+
+			// Check if direct buffers should be used for socket channel I/O
+			Element directElem = findChildNode("directBuffers", elem.getChildNodes());
+			if ( directElem != null) {
+
+				// Get the direct buffer size and maximum buffer count
+				String bufSizeStr = directElem.getAttribute("size");
+				String maxBufStr  = directElem.getAttribute("max");
+
+				if ( bufSizeStr == null || bufSizeStr.length() == 0)
+					throw new InvalidConfigurationException("Direct buffer size not specified");
+
+				if ( maxBufStr == null || maxBufStr.length() == 0)
+					throw new InvalidConfigurationException("Direct buffer maximum allocation not specified");
+
+				int bufSize = 0;
+				int maxBufs = 0;
+
+				try {
+					bufSize = MemorySize.getByteValueInt( bufSizeStr);
+				}
+				catch ( NumberFormatException ex) {
+					throw new InvalidConfigurationException("Direct buffer size, invalid size value, " + bufSizeStr);
+				}
+
+				try {
+					maxBufs = Integer.parseInt( maxBufStr);
+				}
+				catch ( NumberFormatException ex) {
+					throw new InvalidConfigurationException("Invalid direct buffer maximum allocation, " + maxBufStr);
+				}
+
+				// Configure the direct buffer pool
+				coreConfig.setDirectBufferPool( bufSize, maxBufs);
 			}
 		}
 		else {
@@ -477,6 +567,63 @@ public class SMBOnlyXMLServerConfiguration extends ServerConfiguration {
 			// Configure a default memory pool
 			coreConfig.setMemoryPool( getMemoryBufferSizes(), getMemoryBufferAllocations(), getMemoryBufferMaximumAllocations());
 		}
+
+		// Check if the read-ahead cache should be enabled for sequential file reads
+		elem = findChildNode("readAhead", srvCore.getChildNodes());
+		if ( elem != null) {
+
+			// Get the read-ahead memory limit, block size, depth and maximum block age
+			long maxMemory = ReadAheadCache.DefaultMemorySize;
+			int blockSize = ReadAheadCache.DefaultBlockSize;
+			int depth = ReadAheadCache.DefaultReadAheadDepth;
+			long maxAge = ReadAheadCache.DefaultMaximumAge;
+
+			String attrStr = elem.getAttribute("memory");
+			if ( attrStr != null && attrStr.length() > 0) {
+				try {
+					maxMemory = MemorySize.getByteValue( attrStr);
+				}
+				catch ( NumberFormatException ex) {
+					throw new InvalidConfigurationException("Read-ahead memory, invalid size value, " + attrStr);
+				}
+			}
+
+			attrStr = elem.getAttribute("blockSize");
+			if ( attrStr != null && attrStr.length() > 0) {
+				try {
+					blockSize = MemorySize.getByteValueInt( attrStr);
+				}
+				catch ( NumberFormatException ex) {
+					throw new InvalidConfigurationException("Read-ahead block size, invalid size value, " + attrStr);
+				}
+			}
+
+			attrStr = elem.getAttribute("depth");
+			if ( attrStr != null && attrStr.length() > 0) {
+				try {
+					depth = Integer.parseInt( attrStr);
+				}
+				catch ( NumberFormatException ex) {
+					throw new InvalidConfigurationException("Invalid read-ahead depth, " + attrStr);
+				}
+			}
+
+			attrStr = elem.getAttribute("maxAge");
+			if ( attrStr != null && attrStr.length() > 0) {
+				try {
+					maxAge = Long.parseLong( attrStr);
+				}
+				catch ( NumberFormatException ex) {
+					throw new InvalidConfigurationException("Invalid read-ahead maximum age, " + attrStr);
+				}
+			}
+
+			// Enable the read-ahead cache
+			coreConfig.setReadAheadCache( maxMemory, blockSize, depth, maxAge);
+
+			if ( findChildNode("debug", elem.getChildNodes()) != null)
+				coreConfig.getReadAheadCache().setDebug( true);
+		}
 	}
 
 	/**
@@ -2030,6 +2177,11 @@ public class SMBOnlyXMLServerConfiguration extends ServerConfiguration {
 				// Create a standalone file state cache
 				stateCache = new StandaloneFileStateCache();
 			}
+			else if ( attr.equalsIgnoreCase( "sharded")) {
+				
+				// Create a sharded, optionally size bounded, standalone file state cache
+				stateCache = new ShardedFileStateCache();
+			}
 			else if ( attr.equalsIgnoreCase( "cluster")) {
 				
 				// Create a clustered file state cache, need to load the class to avoid a reference to it
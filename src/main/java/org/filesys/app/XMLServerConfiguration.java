@@ -34,6 +34,7 @@ import org.filesys.ftp.InvalidPathException;
 import org.filesys.oncrpc.nfs.NFSConfigSection;
 import org.filesys.server.config.InvalidConfigurationException;
 import org.filesys.server.filesys.cache.hazelcast.ClusterConfigSection;
+import org.filesys.util.MemorySize;
 import org.springframework.extensions.config.ConfigElement;
 import org.springframework.extensions.config.element.ConfigElementAdapter;
 import org.w3c.dom.Document;
@@ -590,6 +591,40 @@ public class XMLServerConfiguration extends SMBOnlyXMLServerConfiguration {
 			ftpConfig.setRequireSecureSession( true);
 		}
 		
+		// Check if MODE Z compressed transfers are disabled, or the compression level has been specified
+		if ( findChildNode("disableModeZ", ftp.getChildNodes()) != null)
+			ftpConfig.setModeZEnabled( false);
+
+		elem = findChildNode("modeZ", ftp.getChildNodes());
+		if ( elem != null) {
+			String levelStr = elem.getAttribute("level");
+			if ( levelStr != null && levelStr.length() > 0) {
+				try {
+					ftpConfig.setModeZCompressionLevel( Integer.parseInt( levelStr));
+				}
+				catch (NumberFormatException ex) {
+					throw new InvalidConfigurationException("Invalid FTP MODE Z compression level, " + levelStr);
+				}
+			}
+		}
+
+		// Check if the TLS session cache size and/or timeout have been specified
+		elem = findChildNode("tlsSessionCache", ftp.getChildNodes());
+		if ( elem != null) {
+			String attr = elem.getAttribute("size");
+			try {
+				if ( attr != null && attr.length() > 0)
+					ftpConfig.setTLSSessionCacheSize( Integer.parseInt( attr));
+
+				attr = elem.getAttribute("timeout");
+				if ( attr != null && attr.length() > 0)
+					ftpConfig.setTLSSessionTimeout( Integer.parseInt( attr));
+			}
+			catch (NumberFormatException ex) {
+				throw new InvalidConfigurationException("Invalid FTP TLS session cache setting, " + attr);
+			}
+		}
+
 		// Check that all the required FTPS parameters have been set
 		if ( ftpConfig.getKeyStorePath() != null) {
 			
@@ -678,6 +713,57 @@ public class XMLServerConfiguration extends SMBOnlyXMLServerConfiguration {
 			}
 		}
 
+		// Check if the NIO based RPC over TCP transport should be disabled
+		if ( findChildNode("disableNIO", nfs.getChildNodes()) != null)
+			nfsConfig.setDisableNIOCode( true);
+
+		// Check if the UNSTABLE write gather cache size has been specified, zero disables write gathering
+		elem = findChildNode("WriteGather", nfs.getChildNodes());
+		if ( elem != null) {
+
+			String cacheSizeStr = elem.getAttribute("size");
+			if ( cacheSizeStr != null && cacheSizeStr.length() > 0) {
+				try {
+					long cacheSize = MemorySize.getByteValue( cacheSizeStr);
+					if ( cacheSize < 0)
+						throw new InvalidConfigurationException("Invalid NFS write gather cache size, " + cacheSizeStr);
+
+					nfsConfig.setNFSWriteGatherSize( cacheSize);
+				}
+				catch (NumberFormatException ex) {
+					throw new InvalidConfigurationException("Invalid NFS write gather cache size, " + cacheSizeStr);
+				}
+			}
+		}
+
+		// Check if the open file and file id cache limits have been specified
+		elem = findChildNode("FileCacheLimits", nfs.getChildNodes());
+		if ( elem != null) {
+
+			try {
+				String openFilesStr = elem.getAttribute("openFiles");
+				if ( openFilesStr != null && openFilesStr.length() > 0) {
+					int openFiles = Integer.parseInt(openFilesStr);
+					if ( openFiles < 16)
+						throw new InvalidConfigurationException("Invalid NFS file cache open files limit, " + openFilesStr);
+
+					nfsConfig.setNFSFileCacheMaximumFiles( openFiles);
+				}
+
+				String fileIdsStr = elem.getAttribute("fileIds");
+				if ( fileIdsStr != null && fileIdsStr.length() > 0) {
+					int fileIds = Integer.parseInt(fileIdsStr);
+					if ( fileIds < 1024)
+						throw new InvalidConfigurationException("Invalid NFS file id cache size, " + fileIdsStr);
+
+					nfsConfig.setNFSFileIdCacheSize( fileIds);
+				}
+			}
+			catch (NumberFormatException ex) {
+				throw new InvalidConfigurationException("Invalid NFS file cache limit, " + ex.toString());
+			}
+		}
+
 		// Check for a port mapper server port
 		if ( findChildNode("disablePortMapperRegistration", nfs.getChildNodes()) != null) {
 			
@@ -80,6 +80,9 @@ public enum FTPCommand {
     PROT    (48),
     CCC     (49),
     MFMT    (50),
+    RANG    (51),
+    HASH    (52),
+    XCRC    (53),
 
     INVALID_CMD (-1);
 
@@ -43,6 +43,13 @@ public class FTPConfigSection extends ConfigSection {
     public static final String DefaultKeyStoreType = "JKS";
     public static final String DefaultTrustStoreType = "JKS";
 
+    // Default MODE Z compression level
+    public static final int DefaultModeZLevel = 6;
+
+    // Default TLS session cache size and session timeout, in seconds
+    public static final int DefaultTLSSessionCacheSize = 1000;
+    public static final int DefaultTLSSessionTimeout = 3600;
+
     //  Bind address and FTP server port. A port of -1 indicates do not start FTP server.
     private InetAddress m_ftpBindAddress;
     private int m_ftpPort = -1;
@@ -88,6 +95,14 @@ public class FTPConfigSection extends ConfigSection {
     // Only allow FTPS/encrypted session logons
     private boolean m_requireSecureSess;
 
+    // MODE Z compressed transfers enabled, and the default compression level
+    private boolean m_modeZEnabled = true;
+    private int m_modeZLevel = DefaultModeZLevel;
+
+    // TLS session cache size and timeout, sessions are resumed by the data connections and reconnecting clients
+    private int m_tlsSessCacheSize = DefaultTLSSessionCacheSize;
+    private int m_tlsSessTimeout = DefaultTLSSessionTimeout;
+
     /**
      * Class constructor
      *
@@ -314,6 +329,42 @@ public class FTPConfigSection extends ConfigSection {
         return m_requireSecureSess;
     }
 
+    /**
+     * Check if MODE Z compressed transfers are enabled
+     *
+     * @return boolean
+     */
+    public final boolean isModeZEnabled() {
+        return m_modeZEnabled;
+    }
+
+    /**
+     * Return the default MODE Z compression level, 1 (fastest) to 9 (best compression)
+     *
+     * @return int
+     */
+    public final int getModeZCompressionLevel() {
+        return m_modeZLevel;
+    }
+
+    /**
+     * Return the maximum number of TLS sessions to cache for resumption, zero for no limit
+     *
+     * @return int
+     */
+    public final int getTLSSessionCacheSize() {
+        return m_tlsSessCacheSize;
+    }
+
+    /**
+     * Return the cached TLS session timeout, in seconds
+     *
+     * @return int
+     */
+    public final int getTLSSessionTimeout() {
+        return m_tlsSessTimeout;
+    }
+
     /**
      * Set the FTP character set
      *
@@ -716,6 +767,90 @@ public class FTPConfigSection extends ConfigSection {
         return sts;
     }
 
+    /**
+     * Enable/disable MODE Z compressed transfers
+     *
+     * @param ena boolean
+     * @return int
+     * @exception InvalidConfigurationException Error setting the MODE Z enable flag
+     */
+    public final int setModeZEnabled(boolean ena)
+            throws InvalidConfigurationException {
+
+        //  Inform listeners, validate the configuration change
+        int sts = fireConfigurationChange(ConfigId.FTPModeZEnable, new Boolean(ena));
+        m_modeZEnabled = ena;
+
+        //  Return the change status
+        return sts;
+    }
+
+    /**
+     * Set the default MODE Z compression level
+     *
+     * @param level int
+     * @return int
+     * @exception InvalidConfigurationException Error setting the compression level
+     */
+    public final int setModeZCompressionLevel(int level)
+            throws InvalidConfigurationException {
+
+        //  Validate the compression level
+        if (level < 1 || level > 9)
+            throw new InvalidConfigurationException("Invalid MODE Z compression level, " + level);
+
+        //  Inform listeners, validate the configuration change
+        int sts = fireConfigurationChange(ConfigId.FTPModeZLevel, new Integer(level));
+        m_modeZLevel = level;
+
+        //  Return the change status
+        return sts;
+    }
+
+    /**
+     * Set the maximum number of TLS sessions to cache for resumption, zero for no limit
+     *
+     * @param cacheSize int
+     * @return int
+     * @exception InvalidConfigurationException Error setting the TLS session cache size
+     */
+    public final int setTLSSessionCacheSize(int cacheSize)
+            throws InvalidConfigurationException {
+
+        //  Validate the cache size
+        if (cacheSize < 0)
+            throw new InvalidConfigurationException("Invalid TLS session cache size, " + cacheSize);
+
+        //  Inform listeners, validate the configuration change
+        int sts = fireConfigurationChange(ConfigId.FTPTLSSessionCacheSize, new Integer(cacheSize));
+        m_tlsSessCacheSize = cacheSize;
+
+        //  Return the change status
+        return sts;
+    }
+
+    /**
+     * Set the cached TLS session timeout, in seconds
+     *
+     * @param tmo int
+     * @return int
+     * @exception InvalidConfigurationException Error setting the TLS session timeout
+     */
+    public final int setTLSSessionTimeout(int tmo)
+            throws InvalidConfigurationException {
+
+        //  Validate the timeout
+        if (tmo < 0)
+            throw new InvalidConfigurationException("Invalid TLS session timeout, " + tmo);
+
+        //  Inform listeners, validate the configuration change
+        int sts = fireConfigurationChange(ConfigId.FTPTLSSessionTimeout, new Integer(tmo));
+        m_tlsSessTimeout = tmo;
+
+        //  Return the change status
+        return sts;
+    }
+
     /**
      * Close the configuration section
      */
@@ -21,9 +21,12 @@ package org.filesys.ftp;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 /**
  * FTP Data Session Class
@@ -33,6 +36,9 @@ import java.net.UnknownHostException;
  * <p>The PORT command will actively connect to the specified address/port on the client. The PASV command will create a
  * listening socket and wait for the client to connect.
  *
+ * <p>Data sockets are created using NIO channels so that file data can be transferred directly from the file to
+ * the data connection, see getChannel().
+ *
  * @author gkspencer
  */
 public class FTPDataSession implements Runnable {
@@ -47,8 +53,9 @@ public class FTPDataSession implements Runnable {
     //	Local port to use
     private int m_localPort;
 
-    //	Active data session socket
+    //	Active data session socket, and flag to indicate the socket is protected using SSL/TLS
     private Socket m_activeSock;
+    private boolean m_protected;
 
     //	Passive data session socket
     private ServerSocket m_passiveSock;
@@ -78,7 +85,7 @@ public class FTPDataSession implements Runnable {
         m_cmdSess = sess;
 
         //	Create a server socket to listen for the incoming connection
-        m_passiveSock = new ServerSocket(0, 1, null);
+        m_passiveSock = openServerSocket(0, null);
     }
 
     /**
@@ -100,7 +107,7 @@ public class FTPDataSession implements Runnable {
 
         //	Create a server socket to listen for the incoming connection on the specified network adapter
         m_localPort = localPort;
-        m_passiveSock = new ServerSocket(localPort, 1, bindAddr);
+        m_passiveSock = openServerSocket(localPort, bindAddr);
     }
 
     /**
@@ -120,7 +127,7 @@ public class FTPDataSession implements Runnable {
         m_cmdSess = sess;
 
         //	Create a server socket to listen for the incoming connection on the specified network adapter
-        m_passiveSock = new ServerSocket(0, 1, bindAddr);
+        m_passiveSock = openServerSocket(0, bindAddr);
     }
 
     /**
@@ -270,21 +277,77 @@ public class FTPDataSession implements Runnable {
         if (m_passiveSock != null)
             m_activeSock = m_passiveSock.accept();
         else {
-            if (m_localPort != 0) {
 
-                //	Use the specified local port
-                m_activeSock = new Socket(m_clientAddr, m_clientPort, null, m_localPort);
-            } else
-                m_activeSock = new Socket(m_clientAddr, m_clientPort);
+            //	Connect to the client using a socket channel
+            SocketChannel sockChannel = SocketChannel.open();
+
+            try {
+                if (m_localPort != 0) {
+
+                    //	Use the specified local port
+                    sockChannel.socket().bind(new InetSocketAddress(m_localPort));
+                }
+
+                sockChannel.connect(new InetSocketAddress(m_clientAddr, m_clientPort));
+            }
+            catch (IOException ex) {
+                sockChannel.close();
+                throw ex;
+            }
+
+            m_activeSock = sockChannel.socket();
         }
 
         //	Set the socket to close immediately
         m_activeSock.setSoLinger(false, 0);
 
+        //	Protect the data connection using SSL/TLS, if PROT P has been negotiated
+        if (m_cmdSess != null && m_cmdSess.isDataProtected()) {
+            m_activeSock = m_cmdSess.createProtectedDataSocket(m_activeSock);
+            m_protected = true;
+        }
+
         //	Return the data socket
         return m_activeSock;
     }
 
+    /**
+     * Return the channel for the data connection, or null if the data connection is not open, is protected
+     * using SSL/TLS, or does not have a channel
+     *
+     * @return SocketChannel
+     */
+    public final SocketChannel getChannel() {
+        if (m_activeSock != null && m_protected == false)
+            return m_activeSock.getChannel();
+        return null;
+    }
+
+    /**
+     * Open a server socket channel, listening on the specified port and network adapter, and return the associated
+     * server socket
+     *
+     * @param localPort int
+     * @param bindAddr  InetAddress
+     * @return ServerSocket
+     * @exception IOException Error opening the server socket
+     */
+    private static ServerSocket openServerSocket(int localPort, InetAddress bindAddr)
+            throws IOException {
+
+        ServerSocketChannel srvChannel = ServerSocketChannel.open();
+
+        try {
+            srvChannel.socket().bind(new InetSocketAddress(bindAddr, localPort), 1);
+        }
+        catch (IOException ex) {
+            srvChannel.close();
+            throw ex;
+        }
+
+        return srvChannel.socket();
+    }
+
     /**
      * Close the data connection
      */
@@ -19,7 +19,6 @@
 
 package org.filesys.ftp;
 
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -28,6 +27,9 @@ import java.util.TimeZone;
 /**
  * FTP Date Utility Class
  *
+ * <p>The StringBuffer/Calendar versions of the pack methods do not allocate, and are used when generating directory
+ * listings. The Calendar object is not thread safe so should be allocated per session, using createCalendar().
+ *
  * @author gkspencer
  */
 public class FTPDate {
@@ -41,19 +43,16 @@ public class FTPDate {
     protected final static String[] _months = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov",
             "Dec"};
 
-    // Machine listing date/time formatters
-    protected final static SimpleDateFormat _mlstFormat = new SimpleDateFormat("yyyyMMddHHmmss");
-    protected final static SimpleDateFormat _mlstFormatLong = new SimpleDateFormat("yyyyMMddHHmmss.SSS");
-
+    // UTC timezone, used by the date/time formatting
+    protected final static TimeZone _utc = TimeZone.getTimeZone("UTC");
 
     /**
-     * Static initializer
+     * Create a UTC calendar for use with the pack methods
+     *
+     * @return Calendar
      */
-    static {
-
-        // Set the formatters to UTC
-        _mlstFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-        _mlstFormatLong.setTimeZone(TimeZone.getTimeZone("UTC"));
+    public final static Calendar createCalendar() {
+        return new GregorianCalendar(_utc);
     }
 
     /**
@@ -73,16 +72,30 @@ public class FTPDate {
             return;
         }
 
-        // Get the time raw value
-        long timeVal = dt.getTime();
+        packUnixDate(buf, dt.getTime(), createCalendar(), System.currentTimeMillis());
+    }
+
+    /**
+     * Pack a date string in Unix format, using the supplied calendar and current time
+     * <p>
+     * The format is 'Mmm dd hh:mm' if the file is less than six months old, else the format is 'Mmm
+     * dd yyyy'.
+     *
+     * @param buf     StringBuffer
+     * @param timeVal long
+     * @param cal     Calendar
+     * @param timeNow long
+     */
+    public final static void packUnixDate(StringBuffer buf, long timeVal, Calendar cal, long timeNow) {
+
+        // Check if the date is valid
         if (timeVal < 0) {
             buf.append("------------");
             return;
         }
 
         // Add the month name and date parts to the string
-        Calendar cal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
-        cal.setTime(dt);
+        cal.setTimeInMillis(timeVal);
         buf.append(_months[cal.get(Calendar.MONTH)]);
         buf.append(" ");
 
@@ -93,7 +106,6 @@ public class FTPDate {
         buf.append(" ");
 
         // If the file is less than six months old we append the file time, else we append the year
-        long timeNow = System.currentTimeMillis();
         if (Math.abs(timeNow - timeVal) > SIX_MONTHS) {
 
             // Append the year
@@ -103,16 +115,9 @@ public class FTPDate {
         } else {
 
             // Append the file time as hh:mm
-            int hr = cal.get(Calendar.HOUR_OF_DAY);
-            if (hr < 10)
-                buf.append("0");
-            buf.append(hr);
+            appendTwoDigits(buf, cal.get(Calendar.HOUR_OF_DAY));
             buf.append(":");
-
-            int mins = cal.get(Calendar.MINUTE);
-            if (mins < 10)
-                buf.append("0");
-            buf.append(mins);
+            appendTwoDigits(buf, cal.get(Calendar.MINUTE));
         }
     }
 
@@ -123,7 +128,9 @@ public class FTPDate {
      * @return String
      */
     public final static String packMlstDateTime(long dateTime) {
-        return _mlstFormat.format(new Date(dateTime));
+        StringBuffer buf = new StringBuffer(14);
+        packMlstDateTime(buf, dateTime, createCalendar(), false);
+        return buf.toString();
     }
 
     /**
@@ -133,6 +140,52 @@ public class FTPDate {
      * @return String
      */
     public final static String packMlstDateTimeLong(long dateTime) {
-        return _mlstFormatLong.format(new Date(dateTime));
+        StringBuffer buf = new StringBuffer(18);
+        packMlstDateTime(buf, dateTime, createCalendar(), true);
+        return buf.toString();
+    }
+
+    /**
+     * Append a machine listing date/time, in the format 'YYYYMMDDHHSS' or 'YYYYMMDDHHSS.sss', using the supplied
+     * calendar
+     *
+     * @param buf      StringBuffer
+     * @param dateTime long
+     * @param cal      Calendar
+     * @param millis   boolean
+     */
+    public final static void packMlstDateTime(StringBuffer buf, long dateTime, Calendar cal, boolean millis) {
+
+        // Set the date/time and append the date/time fields
+        cal.setTimeInMillis(dateTime);
+
+        buf.append(cal.get(Calendar.YEAR));
+        appendTwoDigits(buf, cal.get(Calendar.MONTH) + 1);
+        appendTwoDigits(buf, cal.get(Calendar.DATE));
+        appendTwoDigits(buf, cal.get(Calendar.HOUR_OF_DAY));
+        appendTwoDigits(buf, cal.get(Calendar.MINUTE));
+        appendTwoDigits(buf, cal.get(Calendar.SECOND));
+
+        // Append the milliseconds
+        if (millis) {
+            int ms = cal.get(Calendar.MILLISECOND);
+
+            buf.append(".");
+            if (ms < 100)
+                buf.append("0");
+            appendTwoDigits(buf, ms);
+        }
+    }
+
+    /**
+     * Append a value as at least two digits, with a leading zero
+     *
+     * @param buf StringBuffer
+     * @param val int
+     */
+    private final static void appendTwoDigits(StringBuffer buf, int val) {
+        if (val < 10)
+            buf.append("0");
+        buf.append(val);
     }
 }
@@ -19,13 +19,30 @@
 
 package org.filesys.ftp;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
 
 import org.filesys.debug.Debug;
 import org.filesys.server.ServerListener;
@@ -33,10 +50,15 @@ import org.filesys.server.SrvSession;
 import org.filesys.server.Version;
 import org.filesys.server.config.ConfigId;
 import org.filesys.server.config.ConfigurationListener;
+import org.filesys.server.config.CoreServerConfigSection;
 import org.filesys.server.config.InvalidConfigurationException;
 import org.filesys.server.config.ServerConfiguration;
 import org.filesys.server.core.SharedDeviceList;
 import org.filesys.server.filesys.NetworkFileServer;
+import org.filesys.server.filesys.readahead.ReadAheadCache;
+import org.filesys.server.memory.ByteBufferPool;
+import org.filesys.server.stats.ProtocolStatistics;
+import org.filesys.server.thread.VirtualThreads;
 import org.filesys.util.UTF8Normalizer;
 
 
@@ -92,6 +114,26 @@ public class FTPServer extends NetworkFileServer implements Runnable, Configurat
     // UTF-8 string normalizer
     private UTF8Normalizer m_normalizer;
 
+    // FTP command statistics, if statistics are enabled
+    private ProtocolStatistics m_cmdStats;
+
+    // Virtual thread factory for session threads, or null to use a platform thread per session
+    private ThreadFactory m_sessThreadFactory;
+
+    // Memory pool used to allocate file transfer buffers, and the buffers currently allocated from the pool
+    private ByteBufferPool m_bufferPool;
+    private Set<byte[]> m_pooledBuffers = new HashSet<byte[]>();
+
+    // Read-ahead cache, overlapping read-ahead data is discarded when files are uploaded
+    private ReadAheadCache m_readAhead;
+
+    // SSL contexts shared by all FTPS sessions, indexed by protocol. Sharing the context shares the TLS session
+    // cache so that data connections, and reconnecting clients, can resume a session without a full handshake
+    private HashMap<String, SSLContext> m_sslContexts;
+
+    // Thread pool used to run the SSL engine delegated tasks, created when the first FTPS session is started
+    private ExecutorService m_sslTaskPool;
+
     /**
      * Class constructor
      *
@@ -136,6 +178,20 @@ public class FTPServer extends NetworkFileServer implements Runnable, Configurat
 
             // Set the FTP SITE interface
             setSiteInterface(getFTPConfiguration().getFTPSiteInterface());
+
+            // Create the per command statistics, if enabled
+            CoreServerConfigSection coreConfig = (CoreServerConfigSection) config.getConfigSection(CoreServerConfigSection.SectionName);
+            if (coreConfig != null && coreConfig.hasStatistics())
+                m_cmdStats = coreConfig.getStatistics().getProtocolStatistics("FTP", FTPCommand.values().length);
+
+            // Run sessions using virtual threads, if enabled, and allocate transfer buffers from the memory pool
+            if (coreConfig != null) {
+                if (coreConfig.useVirtualThreads())
+                    m_sessThreadFactory = VirtualThreads.newThreadFactory("Sess_FTP");
+
+                m_bufferPool = coreConfig.getMemoryPool();
+                m_readAhead = coreConfig.getReadAheadCache();
+            }
         } else
             setEnabled(false);
 
@@ -418,6 +474,191 @@ public class FTPServer extends NetworkFileServer implements Runnable, Configurat
         return m_sessId++;
     }
 
+    /**
+     * Return the read-ahead cache, or null if read-ahead is not enabled
+     *
+     * @return ReadAheadCache
+     */
+    protected final ReadAheadCache getReadAheadCache() {
+        return m_readAhead;
+    }
+
+    /**
+     * Allocate a buffer for file data transfers, from the memory pool if available
+     *
+     * @param size int
+     * @return byte[]
+     */
+    protected final byte[] allocateTransferBuffer(int size) {
+
+        // Allocate the buffer from the memory pool, do not wait if there are no buffers available
+        byte[] buf = null;
+
+        if (m_bufferPool != null && size <= m_bufferPool.getLargestSize()) {
+            buf = m_bufferPool.allocateBuffer(size);
+
+            // Track pooled buffers so that only those are returned to the pool
+            if (buf != null) {
+                synchronized (m_pooledBuffers) {
+                    m_pooledBuffers.add(buf);
+                }
+            }
+        }
+
+        // Allocate a new buffer if the pool could not satisfy the request
+        if (buf == null)
+            buf = new byte[size];
+        return buf;
+    }
+
+    /**
+     * Release a file data transfer buffer
+     *
+     * @param buf byte[]
+     */
+    protected final void releaseTransferBuffer(byte[] buf) {
+
+        // Return the buffer to the memory pool, if it was allocated from the pool
+        boolean pooled = false;
+
+        synchronized (m_pooledBuffers) {
+            pooled = m_pooledBuffers.remove(buf);
+        }
+
+        if (pooled)
+            m_bufferPool.releaseBuffer(buf);
+    }
+
+    /**
+     * Return the SSL context for the specified protocol, the context is created, and the key store/trust store
+     * loaded, the first time the protocol is requested
+     *
+     * @param protocol String
+     * @return SSLContext
+     * @exception IOException Error reading the key store or trust store
+     * @exception GeneralSecurityException Error initializing the SSL context
+     */
+    protected final synchronized SSLContext getSSLContext(String protocol)
+            throws IOException, GeneralSecurityException {
+
+        // Check if the SSL context has already been created
+        if (m_sslContexts == null)
+            m_sslContexts = new HashMap<String, SSLContext>();
+
+        SSLContext sslContext = m_sslContexts.get(protocol);
+        if (sslContext != null)
+            return sslContext;
+
+        // Load the key store
+        FTPConfigSection ftpConfig = getFTPConfiguration();
+
+        KeyStore keyStore = KeyStore.getInstance(ftpConfig.getKeyStoreType());
+        FileInputStream keyIn = new FileInputStream(ftpConfig.getKeyStorePath());
+
+        try {
+            keyStore.load(keyIn, ftpConfig.getKeyStorePassphrase());
+        }
+        finally {
+            keyIn.close();
+        }
+
+        KeyManagerFactory keyFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyFactory.init(keyStore, ftpConfig.getKeyStorePassphrase());
+
+        // MNT-7301 FTPS server requires unnecessarly to have a trustStore while a keyStore should be sufficient
+        TrustManager[] trManager = null;
+
+        if (ftpConfig.getTrustStorePath() != null) {
+            KeyStore trustStore = KeyStore.getInstance(ftpConfig.getTrustStoreType());
+            FileInputStream trustIn = new FileInputStream(ftpConfig.getTrustStorePath());
+
+            try {
+                trustStore.load(trustIn, ftpConfig.getTrustStorePassphrase());
+            }
+            finally {
+                trustIn.close();
+            }
+
+            TrustManagerFactory trustFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustFactory.init(trustStore);
+            trManager = trustFactory.getTrustManagers();
+        }
+
+        // Create the SSL context
+        sslContext = SSLContext.getInstance(protocol);
+        sslContext.init(keyFactory.getKeyManagers(), trManager, null);
+
+        // Set the TLS session cache size and timeout
+        SSLSessionContext sessContext = sslContext.getServerSessionContext();
+        if (sessContext != null) {
+            sessContext.setSessionCacheSize(ftpConfig.getTLSSessionCacheSize());
+            sessContext.setSessionTimeout(ftpConfig.getTLSSessionTimeout());
+        }
+
+        m_sslContexts.put(protocol, sslContext);
+
+        // DEBUG
+        if (Debug.EnableInfo && hasDebug())
+            Debug.println("[FTP] Created " + protocol + " context, session cache size=" + ftpConfig.getTLSSessionCacheSize() +
+                    ", timeout=" + ftpConfig.getTLSSessionTimeout() + "s");
+
+        // Return the SSL context
+        return sslContext;
+    }
+
+    /**
+     * Run an SSL engine delegated task using the shared SSL task thread pool, and wait for the task to complete
+     *
+     * <p>Delegated tasks perform the CPU intensive parts of the TLS handshake, running them on a small pool of
+     * platform threads keeps them off the session threads, which may be virtual threads.
+     *
+     * @param task Runnable
+     * @exception IOException Task failed
+     */
+    protected final void runSSLTask(Runnable task)
+            throws IOException {
+
+        // Create the SSL task thread pool, if not already created
+        ExecutorService taskPool = null;
+
+        synchronized (this) {
+            if (m_sslTaskPool == null) {
+                m_sslTaskPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                    private int mi_threadId = 1;
+
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "FTP_SSLTask_" + mi_threadId++);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+
+            taskPool = m_sslTaskPool;
+        }
+
+        // Queue the task and wait for it to complete
+        try {
+            Future<?> result = taskPool.submit(task);
+            result.get();
+        }
+        catch (InterruptedException ex) {
+            throw new IOException("SSL task interrupted");
+        }
+        catch (ExecutionException ex) {
+            throw new IOException("SSL task failed", ex.getCause());
+        }
+    }
+
+    /**
+     * Return the FTP command statistics, or null if statistics are not enabled
+     *
+     * @return ProtocolStatistics
+     */
+    public final ProtocolStatistics getCommandStatistics() {
+        return m_cmdStats;
+    }
+
     /**
      * Return the FTP server configuration
      *
@@ -537,18 +778,18 @@ public class FTPServer extends NetworkFileServer implements Runnable, Configurat
                 //	Inform listeners that a new session has been created
                 fireSessionOpenEvent(srvSess);
 
-                //  Start the new session in a seperate thread
-                Thread srvThread = new Thread(FTPThreadGroup, srvSess);
-                srvThread.setDaemon(true);
-                srvThread.setName("Sess_FTP" + srvSess.getSessionId() + "_" + sessSock.getInetAddress().getHostAddress());
-                srvThread.start();
+                //  Start the new session in a seperate thread, a virtual thread if enabled
+                Thread srvThread = null;
 
-                //	Sleep for a while
-                try {
-                    Thread.sleep(1000L);
-                }
-                catch (InterruptedException ex) {
+                if (m_sessThreadFactory != null)
+                    srvThread = m_sessThreadFactory.newThread(srvSess);
+                else {
+                    srvThread = new Thread(FTPThreadGroup, srvSess);
+                    srvThread.setDaemon(true);
                 }
+
+                srvThread.setName("Sess_FTP" + srvSess.getSessionId() + "_" + sessSock.getInetAddress().getHostAddress());
+                srvThread.start();
             }
         }
         catch (SocketException ex) {
@@ -632,6 +873,14 @@ public class FTPServer extends NetworkFileServer implements Runnable, Configurat
             }
         }
 
+        // Stop the SSL task thread pool
+        synchronized (this) {
+            if (m_sslTaskPool != null) {
+                m_sslTaskPool.shutdownNow();
+                m_sslTaskPool = null;
+            }
+        }
+
         // Close the authenticator
         m_configSection.closeConfig();
 
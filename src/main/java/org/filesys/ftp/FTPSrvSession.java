@@ -19,7 +19,6 @@
 
 package org.filesys.ftp;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -33,27 +32,26 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
-import java.security.KeyManagementException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.TimeZone;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
-import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLSession;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLEngineResult.HandshakeStatus;
 
 import org.filesys.debug.Debug;
@@ -66,6 +64,10 @@ import org.filesys.server.core.ShareType;
 import org.filesys.server.core.SharedDevice;
 import org.filesys.server.core.SharedDeviceList;
 import org.filesys.server.filesys.*;
+import org.filesys.server.filesys.readahead.ReadAheadCache;
+import org.filesys.server.stats.ProtocolStatistics;
+import org.filesys.util.DataPacker;
+import org.filesys.util.HexDump;
 import org.filesys.util.UTF8Normalizer;
 import org.filesys.util.WildCard;
 
@@ -100,6 +102,9 @@ public class FTPSrvSession extends SrvSession implements Runnable {
     public static final boolean FeatureSIZE = true;
     public static final boolean FeatureMLST = true;
     public static final boolean FeatureAUTH = true;
+    public static final boolean FeatureMODEZ = true;
+    public static final boolean FeatureRANG = true;
+    public static final boolean FeatureHASH = true;
 
     // Root directory and FTP directory seperator
     private static final String ROOT_DIRECTORY      = "/";
@@ -113,6 +118,17 @@ public class FTPSrvSession extends SrvSession implements Runnable {
     // File transfer buffer size
     private static final int DEFAULT_BUFFERSIZE = 64000;
 
+    // Hash algorithms supported by the HASH command, and the default algorithm
+    protected static final String[] _hashAlgorithms = {"SHA-1", "SHA-256", "SHA-512", "MD5", "CRC32"};
+    protected static final String DefaultHashAlgorithm = "SHA-256";
+    protected static final String HashCRC32 = "CRC32";
+
+    // Buffer size for MODE Z compressed data streams
+    private static final int ModeZBufferSize = 16384;
+
+    // Maximum length of a direct file to data connection transfer, between checks for an abort request
+    private static final long DirectTransferSize = 1024L * 1024L;
+
     // Carriage return/line feed combination required for response messages
     protected final static String CRLF = "\r\n";
 
@@ -139,6 +155,11 @@ public class FTPSrvSession extends SrvSession implements Runnable {
     // MLSD buffer size to allocate
     protected static final int MLSD_BUFFER_SIZE = 4096;
 
+    // Directory listing formats
+    protected static final int ListLong = 0;
+    protected static final int ListNames = 1;
+    protected static final int ListMachine = 2;
+
     // Modify date/time minimum date/time argument length
     protected static final int MDTM_DATETIME_MINLEN = 14; // YYYYMMDDHHMMSS
 
@@ -149,6 +170,7 @@ public class FTPSrvSession extends SrvSession implements Runnable {
     // Valid protection levels for PROT command
     protected static final String ProtLevels = "CSEP";
     protected static final String ProtLevelClear = "C";
+    protected static final String ProtLevelPrivate = "P";
 
     // Maximum size to extend the command buffer to
     protected static final int DefCommandBufSize = 1024;
@@ -180,6 +202,12 @@ public class FTPSrvSession extends SrvSession implements Runnable {
     // Restart position for binary file transfer
     private long m_restartPos = 0;
 
+    // Range end position, inclusive, set by the RANG command. -1 indicates the range ends at the end of the file
+    private long m_restartEnd = -1;
+
+    // Hash algorithm used by the HASH command
+    private String m_hashAlgorithm = DefaultHashAlgorithm;
+
     // Flag to indicate if UTF-8 paths are enabled
     private boolean m_utf8Paths = true;
     private UTF8Normalizer m_normalizer;
@@ -196,7 +224,8 @@ public class FTPSrvSession extends SrvSession implements Runnable {
     // List of shared device connections used by this session
     private TreeConnectionHash m_connections;
 
-    // SSL/TLS testing
+    // SSL/TLS context, shared by all sessions, and the SSL engine for the control session. The SSL output buffer
+    // is allocated from the memory pool, the input buffer wraps the command buffer.
     private SSLContext m_sslContext;
     private SSLEngine m_sslEngine;
 
@@ -207,6 +236,22 @@ public class FTPSrvSession extends SrvSession implements Runnable {
     private int m_pbSize = -1;
     private String m_protLevel;
 
+    // Calendar used to format directory listing dates
+    private Calendar m_dateCal;
+
+    // Data transfer byte counts and error status for the command being processed, used by the command statistics
+    private long m_statBytesIn;
+    private long m_statBytesOut;
+    private boolean m_statError;
+
+    // MODE Z compressed transfers enabled, compression level, and the compressor/decompressor which are reused
+    // by each transfer
+    private boolean m_modeZ;
+    private int m_compressLevel = -1;
+
+    private Deflater m_deflater;
+    private Inflater m_inflater;
+
     /**
      * Class constructor
      *
@@ -256,6 +301,20 @@ public class FTPSrvSession extends SrvSession implements Runnable {
             m_dataSess = null;
         }
 
+        // Release the MODE Z compressor/decompressor
+        if (m_deflater != null) {
+            m_deflater.end();
+            m_deflater = null;
+        }
+
+        if (m_inflater != null) {
+            m_inflater.end();
+            m_inflater = null;
+        }
+
+        // Release the SSL buffers
+        releaseSSLBuffers();
+
         // Check if there is an active transaction
         if (hasTransaction()) {
 
@@ -578,6 +637,10 @@ public class FTPSrvSession extends SrvSession implements Runnable {
     public final void sendFTPResponse(int stsCode, String msg)
             throws IOException {
 
+        // Track error responses for the command statistics
+        if (stsCode >= 400)
+            m_statError = true;
+
         // Build the output record
         StringBuffer outbuf = new StringBuffer(10 + (msg != null ? msg.length() : 0));
         outbuf.append(stsCode);
@@ -673,6 +736,10 @@ public class FTPSrvSession extends SrvSession implements Runnable {
         if (Debug.EnableInfo && hasDebug(DBG_TXDATA))
             debugPrintln("Tx msg=" + msg);
 
+        // Track error responses for the command statistics, the message starts with the status code
+        if (msg.length() > 0 && (msg.charAt(0) == '4' || msg.charAt(0) == '5'))
+            m_statError = true;
+
         // Output the FTP response
         if (m_out != null) {
 
@@ -724,13 +791,8 @@ public class FTPSrvSession extends SrvSession implements Runnable {
                 // Decrypt the received data
                 SSLEngineResult sslRes = m_sslEngine.wrap(inByts, m_sslOut);
 
-                if (m_sslEngine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
-
-                    Runnable task;
-                    while ((task = m_sslEngine.getDelegatedTask()) != null) {
-                        task.run();
-                    }
-                }
+                if (m_sslEngine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK)
+                    runDelegatedTasks();
 
                 // Output the encrypted response
                 m_sslOut.flip();
@@ -1211,53 +1273,16 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 
             // Open an output stream to the client
             if (isUTF8Enabled())
-                dataWrt = new OutputStreamWriter(dataSock.getOutputStream(), "UTF-8");
+                dataWrt = new OutputStreamWriter(getDataOutputStream(dataSock), "UTF-8");
             else
-                dataWrt = new OutputStreamWriter(dataSock.getOutputStream());
+                dataWrt = new OutputStreamWriter(getDataOutputStream(dataSock));
 
-            // Check if a path has been specified to list
-            List<FileInfo> files = null;
+            // Stream the file list to the client
+            int fileCnt = writeFileListing(ftpPath, hidden, ListLong, dataWrt);
 
-            if (req.hasArgument()) {
-            }
-
-            // Get a list of file information objects for the current directory
-            files = listFilesForPath(ftpPath, false, hidden);
-
-            // Output the file list to the client
-            if (files != null) {
-
-                // DEBUG
-                if (Debug.EnableInfo && hasDebug(DBG_SEARCH))
-                    debugPrintln("List found " + files.size() + " files in " + ftpPath.getFTPPath());
-
-                // Output the file information to the client
-                StringBuffer str = new StringBuffer(256);
-
-                for (int i = 0; i < files.size(); i++) {
-
-                    // Get the current file information
-                    FileInfo finfo = files.get(i);
-
-                    // Build the output record
-                    str.setLength(0);
-
-                    str.append(finfo.isDirectory() ? "d" : "-");
-                    str.append("rw-rw-rw-   1 user group ");
-                    str.append(finfo.getSize());
-                    str.append(" ");
-
-                    FTPDate.packUnixDate(str, new Date(finfo.getModifyDateTime()));
-
-                    str.append(" ");
-
-                    str.append(finfo.getFileName());
-                    str.append(CRLF);
-
-                    // Output the file information record
-                    dataWrt.write(str.toString());
-                }
-            }
+            // DEBUG
+            if (Debug.EnableInfo && hasDebug(DBG_SEARCH))
+                debugPrintln("List found " + fileCnt + " files in " + ftpPath.getFTPPath());
 
             // End of file list transmission
             sendFTPResponse(226, "Closing data connection");
@@ -1356,37 +1381,16 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 
             // Open an output stream to the client
             if (isUTF8Enabled())
-                dataWrt = new OutputStreamWriter(dataSock.getOutputStream(), "UTF-8");
+                dataWrt = new OutputStreamWriter(getDataOutputStream(dataSock), "UTF-8");
             else
-                dataWrt = new OutputStreamWriter(dataSock.getOutputStream());
-
-            // Check if a path has been specified to list
-            List<FileInfo> files = null;
-
-            if (req.hasArgument()) {
-            }
+                dataWrt = new OutputStreamWriter(getDataOutputStream(dataSock));
 
-            // Get a list of file information objects for the current directory
-            files = listFilesForPath(ftpPath, false, false);
+            // Stream the file name list to the client
+            int fileCnt = writeFileListing(ftpPath, false, ListNames, dataWrt);
 
-            // Output the file list to the client
-            if (files != null) {
-
-                // DEBUG
-                if (Debug.EnableInfo && hasDebug(DBG_SEARCH))
-                    debugPrintln("List found " + files.size() + " files in " + ftpPath.getFTPPath());
-
-                // Output the file information to the client
-                for (int i = 0; i < files.size(); i++) {
-
-                    // Get the current file information
-                    FileInfo finfo = files.get(i);
-
-                    // Output the file information record
-                    dataWrt.write(finfo.getFileName());
-                    dataWrt.write(CRLF);
-                }
-            }
+            // DEBUG
+            if (Debug.EnableInfo && hasDebug(DBG_SEARCH))
+                debugPrintln("List found " + fileCnt + " files in " + ftpPath.getFTPPath());
 
             // End of file list transmission
             sendFTPResponse(226, "Closing data connection");
@@ -1584,6 +1588,64 @@ public class FTPSrvSession extends SrvSession implements Runnable {
             // DEBUG
             if (Debug.EnableInfo && hasDebug(DBG_SEARCH))
                 debugPrintln("MLst options facts=" + factStr.toString());
+        }
+
+        // MODE Z compression level command
+        else if (isModeZAvailable() && optsCmd.equalsIgnoreCase("MODE")) {
+
+            // Check for the 'Z LEVEL n' arguments
+            int level = -1;
+
+            try {
+                if (token.countTokens() == 3 && token.nextToken().equalsIgnoreCase("Z") && token.nextToken().equalsIgnoreCase("LEVEL"))
+                    level = Integer.parseInt(token.nextToken());
+            }
+            catch (NumberFormatException ex) {
+            }
+
+            if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+                sendFTPResponse(501, "OPTS MODE Z Invalid argument");
+                return;
+            }
+
+            // Set the compression level for this session
+            m_compressLevel = level;
+
+            if (m_deflater != null)
+                m_deflater.setLevel(level);
+
+            sendFTPResponse(200, "MODE Z LEVEL set to " + level);
+
+            // DEBUG
+            if (Debug.EnableInfo && hasDebug(DBG_FILEIO))
+                debugPrintln("MODE Z options level=" + level);
+        }
+
+        // HASH algorithm selection command
+        else if (FeatureHASH && optsCmd.equalsIgnoreCase("HASH")) {
+
+            // Return the current algorithm if no algorithm is specified
+            if (token.hasMoreTokens()) {
+
+                // Validate the hash algorithm
+                String algorithm = token.nextToken().toUpperCase();
+                boolean valid = false;
+
+                for (int i = 0; i < _hashAlgorithms.length && valid == false; i++) {
+                    if (_hashAlgorithms[i].equals(algorithm))
+                        valid = true;
+                }
+
+                if (valid == false) {
+                    sendFTPResponse(504, "Unknown hash algorithm " + algorithm);
+                    return;
+                }
+
+                // Set the hash algorithm for this session
+                m_hashAlgorithm = algorithm;
+            }
+
+            sendFTPResponse(200, m_hashAlgorithm);
         } else {
 
             // Unknown options request or feature not enabled
@@ -1591,6 +1653,83 @@ public class FTPSrvSession extends SrvSession implements Runnable {
         }
     }
 
+    /**
+     * Check if MODE Z compressed transfers are available
+     *
+     * @return boolean
+     */
+    protected final boolean isModeZAvailable() {
+        return FeatureMODEZ && getFTPServer().getFTPConfiguration().isModeZEnabled();
+    }
+
+    /**
+     * Check if MODE Z compressed transfers are enabled for this session
+     *
+     * @return boolean
+     */
+    public final boolean isModeZ() {
+        return m_modeZ;
+    }
+
+    /**
+     * Return the MODE Z compression level for this session
+     *
+     * @return int
+     */
+    protected final int getCompressionLevel() {
+        if (m_compressLevel == -1)
+            m_compressLevel = getFTPServer().getFTPConfiguration().getModeZCompressionLevel();
+        return m_compressLevel;
+    }
+
+    /**
+     * Return the output stream for data sent to the client over the data connection, compressed if MODE Z is
+     * enabled. Closing the stream completes the compressed data and closes the data connection.
+     *
+     * @param dataSock Socket
+     * @return OutputStream
+     * @exception IOException Socket error
+     */
+    protected final OutputStream getDataOutputStream(Socket dataSock)
+            throws IOException {
+
+        // Check if MODE Z is enabled
+        if (m_modeZ == false)
+            return dataSock.getOutputStream();
+
+        // Reuse the session compressor
+        if (m_deflater == null)
+            m_deflater = new Deflater(getCompressionLevel());
+        else
+            m_deflater.reset();
+
+        return new DeflaterOutputStream(dataSock.getOutputStream(), m_deflater, ModeZBufferSize);
+    }
+
+    /**
+     * Return the input stream for data received from the client over the data connection, decompressed if MODE Z
+     * is enabled
+     *
+     * @param dataSock Socket
+     * @return InputStream
+     * @exception IOException Socket error
+     */
+    protected final InputStream getDataInputStream(Socket dataSock)
+            throws IOException {
+
+        // Check if MODE Z is enabled
+        if (m_modeZ == false)
+            return dataSock.getInputStream();
+
+        // Reuse the session decompressor
+        if (m_inflater == null)
+            m_inflater = new Inflater();
+        else
+            m_inflater.reset();
+
+        return new InflaterInputStream(dataSock.getInputStream(), m_inflater, ModeZBufferSize);
+    }
+
     /**
      * Process a quit command
      *
@@ -1634,55 +1773,407 @@ public class FTPSrvSession extends SrvSession implements Runnable {
             setBinary(true);
         else {
 
-            // Invalid argument
-            sendFTPResponse(501, "Syntax error, invalid parameter");
-            return;
-        }
+            // Invalid argument
+            sendFTPResponse(501, "Syntax error, invalid parameter");
+            return;
+        }
+
+        // Return a success status
+        sendFTPResponse(200, "Command OK");
+
+        // DEBUG
+        if (Debug.EnableInfo && hasDebug(DBG_STATE))
+            debugPrintln("Type arg=" + req.getArgument() + ", binary=" + m_binary);
+    }
+
+    /**
+     * Process a restart command
+     *
+     * @param req FTPRequest
+     * @exception IOException Socket error
+     */
+    protected final void procRestart(FTPRequest req)
+            throws IOException {
+
+        // Check if the user is logged in
+        if (isLoggedOn() == false) {
+            sendFTPNotLoggedOnResponse();
+            return;
+        }
+
+        // Check if an argument has been specified
+        if (req.hasArgument() == false) {
+            sendFTPResponse(501, "Syntax error, parameter required");
+            return;
+        }
+
+        // Validate the restart position, a restart position resets any byte range set by RANG
+        try {
+            long restartPos = Long.parseLong(req.getArgument());
+            if (restartPos < 0)
+                throw new NumberFormatException();
+
+            m_restartPos = restartPos;
+            m_restartEnd = -1;
+        }
+        catch (NumberFormatException ex) {
+            sendFTPResponse(501, "Invalid restart position");
+            return;
+        }
+
+        // Return a success status
+        sendFTPResponse(350, "Restart OK");
+
+        // DEBUG
+        if (Debug.EnableInfo && hasDebug(DBG_FILEIO))
+            debugPrintln("Restart pos=" + m_restartPos);
+    }
+
+    /**
+     * Process a byte range command, the range applies to the next RETR or HASH command. The start and end
+     * positions are inclusive, a range of '1 0' resets the range.
+     *
+     * @param req FTPRequest
+     * @exception IOException Socket error
+     */
+    protected final void procRange(FTPRequest req)
+            throws IOException {
+
+        // Check if the user is logged in
+        if (isLoggedOn() == false) {
+            sendFTPNotLoggedOnResponse();
+            return;
+        }
+
+        // Check if the start and end positions have been specified
+        StringTokenizer token = new StringTokenizer(req.hasArgument() ? req.getArgument() : "", " ");
+        if (token.countTokens() != 2) {
+            sendFTPResponse(501, "Syntax error, start and end positions required");
+            return;
+        }
+
+        // Validate the range
+        long startPos = -1L;
+        long endPos = -1L;
+
+        try {
+            startPos = Long.parseLong(token.nextToken());
+            endPos = Long.parseLong(token.nextToken());
+        }
+        catch (NumberFormatException ex) {
+        }
+
+        // Check for a range reset
+        if (startPos == 1L && endPos == 0L) {
+            m_restartPos = 0;
+            m_restartEnd = -1;
+
+            sendFTPResponse(350, "Resetting range");
+            return;
+        }
+
+        if (startPos < 0 || endPos < startPos) {
+            sendFTPResponse(501, "Invalid range");
+            return;
+        }
+
+        // Set the range for the next transfer
+        m_restartPos = startPos;
+        m_restartEnd = endPos;
+
+        sendFTPResponse(350, "Restarting at " + startPos + ". Ending at " + endPos + ".");
+
+        // DEBUG
+        if (Debug.EnableInfo && hasDebug(DBG_FILEIO))
+            debugPrintln("Range start=" + m_restartPos + ", end=" + m_restartEnd);
+    }
+
+    /**
+     * Return the end position, exclusive, of the current transfer range for a file of the specified size
+     *
+     * @param fileSize long
+     * @return long
+     */
+    private final long getRangeEnd(long fileSize) {
+        if (m_restartEnd != -1 && m_restartEnd < fileSize)
+            return m_restartEnd + 1;
+        return fileSize;
+    }
+
+    /**
+     * Process a file hash command, the hash is calculated for the whole file or the byte range set by the
+     * REST/RANG commands, using the hash algorithm selected by OPTS HASH.
+     *
+     * @param req FTPRequest
+     * @exception IOException Socket error
+     */
+    protected final void procHash(FTPRequest req)
+            throws IOException {
+
+        // Check if the user is logged in
+        if (isLoggedOn() == false) {
+            sendFTPNotLoggedOnResponse();
+            return;
+        }
+
+        // Check if an argument has been specified
+        if (req.hasArgument() == false) {
+            sendFTPResponse(501, "Syntax error, parameter required");
+            return;
+        }
+
+        // Create the path for the file request
+        FTPPath ftpPath = generatePathForRequest(req, true);
+        if (ftpPath == null) {
+            sendFTPResponse(550, "Invalid path");
+            return;
+        }
+
+        // Calculate the hash for the file, or requested byte range
+        long[] range = new long[]{m_restartPos, m_restartEnd};
+        String hash = calculateFileHash(ftpPath, m_hashAlgorithm, range);
+
+        if (hash != null) {
+
+            // Return the hash, and the byte range that was hashed
+            StringBuilder str = new StringBuilder(256);
+
+            str.append(m_hashAlgorithm);
+            str.append(" ");
+            str.append(range[0]);
+            str.append("-");
+            str.append(range[1]);
+            str.append(" ");
+            str.append(hash);
+            str.append(" ");
+            str.append(req.getArgument());
+
+            sendFTPResponse(213, str.toString());
+        }
+        else
+            sendFTPResponse(550, "File " + req.getArgument() + " not available");
+    }
+
+    /**
+     * Process a CRC32 checksum command. The arguments are the file name, with optional start and end positions,
+     * the end position is exclusive.
+     *
+     * @param req FTPRequest
+     * @exception IOException Socket error
+     */
+    protected final void procChecksum(FTPRequest req)
+            throws IOException {
+
+        // Check if the user is logged in
+        if (isLoggedOn() == false) {
+            sendFTPNotLoggedOnResponse();
+            return;
+        }
+
+        // Check if an argument has been specified
+        if (req.hasArgument() == false) {
+            sendFTPResponse(501, "Syntax error, parameter required");
+            return;
+        }
+
+        // Split the file name and the optional start/end positions, the file name may be quoted
+        String arg = req.getArgument().trim();
+        long[] range = new long[]{0L, -1L};
+        String posArgs = null;
+
+        if (arg.startsWith("\"")) {
+            int pos = arg.indexOf('"', 1);
+            if (pos == -1) {
+                sendFTPResponse(501, "Invalid argument");
+                return;
+            }
+
+            posArgs = arg.substring(pos + 1).trim();
+            arg = arg.substring(1, pos);
+        }
+        else {
+
+            // Strip up to two trailing numeric arguments
+            for (int i = 0; i < 2; i++) {
+                int pos = arg.lastIndexOf(' ');
+                if (pos == -1 || isNumeric(arg.substring(pos + 1)) == false)
+                    break;
+
+                posArgs = arg.substring(pos + 1) + (posArgs != null ? " " + posArgs : "");
+                arg = arg.substring(0, pos).trim();
+            }
+        }
+
+        // Parse the start and end positions
+        if (posArgs != null && posArgs.length() > 0) {
+            StringTokenizer token = new StringTokenizer(posArgs, " ");
+
+            try {
+                if (token.hasMoreTokens())
+                    range[0] = Long.parseLong(token.nextToken());
+                if (token.hasMoreTokens())
+                    range[1] = Long.parseLong(token.nextToken()) - 1;
+            }
+            catch (NumberFormatException ex) {
+                range[0] = -1L;
+            }
+
+            if (range[0] < 0 || (range[1] != -1L && range[1] < range[0])) {
+                sendFTPResponse(501, "Invalid range");
+                return;
+            }
+        }
+
+        // Create the path for the file request
+        req.updateArgument(arg);
+
+        FTPPath ftpPath = generatePathForRequest(req, true);
+        if (ftpPath == null) {
+            sendFTPResponse(550, "Invalid path");
+            return;
+        }
+
+        // Calculate the CRC32 checksum for the file, or requested byte range
+        String crc = calculateFileHash(ftpPath, HashCRC32, range);
+
+        if (crc != null)
+            sendFTPResponse(250, crc.toUpperCase());
+        else
+            sendFTPResponse(550, "File " + arg + " not available");
+    }
+
+    /**
+     * Check if a string is a non-empty string of digits
+     *
+     * @param str String
+     * @return boolean
+     */
+    private static final boolean isNumeric(String str) {
+        if (str.length() == 0)
+            return false;
+
+        for (int i = 0; i < str.length(); i++) {
+            if (Character.isDigit(str.charAt(i)) == false)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Calculate the hash of a file, or a byte range within the file, reading the file data using a streaming
+     * digest. The range array holds the start and end positions, inclusive, an end position of -1 indicates the
+     * end of the file. On return the range is updated with the byte range that was hashed.
+     *
+     * @param ftpPath   FTPPath
+     * @param algorithm String
+     * @param range     long[]
+     * @return String hex hash value, or null if the file is not available
+     * @exception IOException Socket error
+     */
+    protected final String calculateFileHash(FTPPath ftpPath, String algorithm, long[] range)
+            throws IOException {
+
+        // Check if the path is a file on a share
+        if (ftpPath.isRootPath() || ftpPath.isRootSharePath())
+            return null;
+
+        DiskInterface disk = null;
+        TreeConnection tree = null;
+        NetworkFile netFile = null;
+        byte[] buf = null;
+
+        try {
+
+            // Create a temporary tree connection
+            tree = getTreeConnection(ftpPath.getSharedDevice());
+            if (tree == null || tree.hasReadAccess() == false)
+                return null;
+
+            // Check if the file exists and it is a file, if so then open the file
+            disk = (DiskInterface) ftpPath.getSharedDevice().getInterface();
+
+            if (disk.fileExists(this, tree, ftpPath.getSharePath()) != FileStatus.FileExists)
+                return null;
+
+            FileOpenParams params = new FileOpenParams(ftpPath.getSharePath(), FileAction.OpenIfExists, AccessMode.ReadOnly, 0, 0);
+            netFile = disk.openFile(this, tree, params);
+
+            if (netFile == null)
+                return null;
+
+            // Get the byte range to hash
+            long filePos = Math.min(range[0], netFile.getFileSize());
+            long endPos = netFile.getFileSize();
+
+            if (range[1] != -1 && range[1] < endPos)
+                endPos = range[1] + 1;
+
+            range[0] = filePos;
+            range[1] = endPos > filePos ? endPos - 1 : filePos;
+
+            // Create the digest, or checksum
+            MessageDigest digest = null;
+            CRC32 crc = null;
+
+            if (algorithm.equals(HashCRC32))
+                crc = new CRC32();
+            else
+                digest = MessageDigest.getInstance(algorithm);
+
+            // Read the file data and update the hash
+            buf = getFTPServer().allocateTransferBuffer(DEFAULT_BUFFERSIZE);
+
+            while (filePos < endPos) {
+
+                int len = disk.readFile(this, tree, netFile, buf, 0, (int) Math.min(buf.length, endPos - filePos), filePos);
+                if (len <= 0)
+                    break;
 
-        // Return a success status
-        sendFTPResponse(200, "Command OK");
+                if (crc != null)
+                    crc.update(buf, 0, len);
+                else
+                    digest.update(buf, 0, len);
 
-        // DEBUG
-        if (Debug.EnableInfo && hasDebug(DBG_STATE))
-            debugPrintln("Type arg=" + req.getArgument() + ", binary=" + m_binary);
-    }
+                filePos += len;
+            }
 
-    /**
-     * Process a restart command
-     *
-     * @param req FTPRequest
-     * @exception IOException Socket error
-     */
-    protected final void procRestart(FTPRequest req)
-            throws IOException {
+            // DEBUG
+            if (Debug.EnableInfo && hasDebug(DBG_FILEIO))
+                debugPrintln("Hash " + algorithm + " file=" + ftpPath.getSharePath() + ", range=" + range[0] + "-" + range[1]);
 
-        // Check if the user is logged in
-        if (isLoggedOn() == false) {
-            sendFTPNotLoggedOnResponse();
-            return;
-        }
+            // Return the hash value as a hex string
+            if (crc != null) {
+                byte[] crcByts = new byte[4];
+                DataPacker.putInt((int) crc.getValue(), crcByts, 0);
+                return HexDump.hexString(crcByts);
+            }
 
-        // Check if an argument has been specified
-        if (req.hasArgument() == false) {
-            sendFTPResponse(501, "Syntax error, parameter required");
-            return;
+            return HexDump.hexString(digest.digest());
         }
+        catch (Exception ex) {
 
-        // Validate the restart position
-        try {
-            m_restartPos = Integer.parseInt(req.getArgument());
-        }
-        catch (NumberFormatException ex) {
-            sendFTPResponse(501, "Invalid restart position");
-            return;
+            // DEBUG
+            if (Debug.EnableInfo && hasDebug(DBG_ERROR))
+                debugPrintln(" Error calculating hash, " + ex.toString());
         }
+        finally {
 
-        // Return a success status
-        sendFTPResponse(350, "Restart OK");
+            // Release the read buffer
+            if (buf != null)
+                getFTPServer().releaseTransferBuffer(buf);
 
-        // DEBUG
-        if (Debug.EnableInfo && hasDebug(DBG_FILEIO))
-            debugPrintln("Restart pos=" + m_restartPos);
+            // Close the file
+            if (netFile != null) {
+                try {
+                    disk.closeFile(this, tree, netFile);
+                }
+                catch (Exception ex) {
+                }
+            }
+        }
+
+        // Failed to calculate the hash
+        return null;
     }
 
     /**
@@ -1760,7 +2251,7 @@ public class FTPSrvSession extends SrvSession implements Runnable {
         try {
 
             // Open an output stream to the client
-            os = dataSock.getOutputStream();
+            os = getDataOutputStream(dataSock);
 
             // Create a temporary tree connection
             tree = getTreeConnection(ftpPath.getSharedDevice());
@@ -1786,35 +2277,81 @@ public class FTPSrvSession extends SrvSession implements Runnable {
                 return;
             }
 
-            // Allocate the buffer for the file data
-            byte[] buf = new byte[DEFAULT_BUFFERSIZE];
             long filePos = m_restartPos;
-
-            int len = -1;
+            long endPos = getRangeEnd(netFile.getFileSize());
             boolean abort = false;
 
-            while (filePos < netFile.getFileSize() && abort == false) {
+            // Check if the file data can be transferred directly from the file to the data connection
+            SocketChannel dataChannel = m_dataSess.getChannel();
 
-                // Read another block of data from the file
-                len = disk.readFile(this, tree, netFile, buf, 0, buf.length, filePos);
+            if (netFile.allowsDirectTransfer() && netFile instanceof FileTransferInterface && dataChannel != null && m_modeZ == false) {
 
-                // DEBUG
-                if (Debug.EnableInfo && hasDebug(DBG_FILEIO))
-                    debugPrintln(" Write len=" + len + " bytes");
+                FileTransferInterface xferFile = (FileTransferInterface) netFile;
+
+                while (filePos < endPos && abort == false) {
+
+                    // Transfer another block of data from the file to the client
+                    long xferLen = xferFile.transferFile(filePos, Math.min(endPos - filePos, DirectTransferSize), dataChannel);
 
-                // Write the current data block to the client, update the file position
-                if (len > 0) {
+                    // DEBUG
+                    if (Debug.EnableInfo && hasDebug(DBG_FILEIO))
+                        debugPrintln(" Transfer len=" + xferLen + " bytes");
 
-                    // Write the data to the client
-                    os.write(buf, 0, len);
+                    // Check for end of file, the file may have been truncated
+                    if (xferLen < 0)
+                        break;
 
                     // Update the file position
-                    filePos += len;
+                    m_statBytesOut += xferLen;
+                    filePos += xferLen;
 
                     // Check if the transfer has been aborted
                     abort = checkForAbort();
                 }
             }
+            else {
+
+                // Allocate the buffer for the file data
+                byte[] buf = getFTPServer().allocateTransferBuffer(DEFAULT_BUFFERSIZE);
+
+                try {
+                    int len = -1;
+
+                    while (filePos < endPos && abort == false) {
+
+                        // Read another block of data from the file
+                        len = disk.readFile(this, tree, netFile, buf, 0, (int) Math.min(buf.length, endPos - filePos), filePos);
+
+                        // DEBUG
+                        if (Debug.EnableInfo && hasDebug(DBG_FILEIO))
+                            debugPrintln(" Write len=" + len + " bytes");
+
+                        // Write the current data block to the client, update the file position
+                        if (len > 0) {
+
+                            // Write the data to the client
+                            os.write(buf, 0, len);
+                            m_statBytesOut += len;
+
+                            // Update the file position
+                            filePos += len;
+
+                            // Check if the transfer has been aborted
+                            abort = checkForAbort();
+                        }
+                        else {
+
+                            // End of file, the file may have been truncated
+                            break;
+                        }
+                    }
+                }
+                finally {
+
+                    // Release the transfer buffer
+                    getFTPServer().releaseTransferBuffer(buf);
+                }
+            }
 
             // Close the output stream to the client
             os.close();
@@ -1968,6 +2505,10 @@ public class FTPSrvSession extends SrvSession implements Runnable {
                 if (sts == FileStatus.FileExists) {
                     // Open and truncate the existing file
                     netFile = disk.openFile(this, tree, params);
+
+                    // Discard read-ahead data for the truncated file
+                    if (append == false && getFTPServer().getReadAheadCache() != null)
+                        getFTPServer().getReadAheadCache().fileModified(tree, netFile, 0L, -1L);
                 } else {
                     // Create a new file
                     netFile = disk.createFile(this, tree, params);
@@ -2005,7 +2546,7 @@ public class FTPSrvSession extends SrvSession implements Runnable {
                 dataSock.setSoTimeout(getFTPServer().getFTPConfiguration().getFTPSrvSessionTimeout());
 
                 // Open an input stream from the client
-                is = dataSock.getInputStream();
+                is = getDataInputStream(dataSock);
 
                 // DEBUG
                 if (Debug.EnableInfo && hasDebug(DBG_FILE))
@@ -2013,32 +2554,46 @@ public class FTPSrvSession extends SrvSession implements Runnable {
                             + ftpPath.getSharePath() + (append ? " (Append)" : ""));
 
                 // Allocate the buffer for the file data
-                byte[] buf = new byte[DEFAULT_BUFFERSIZE];
+                byte[] buf = getFTPServer().allocateTransferBuffer(DEFAULT_BUFFERSIZE);
                 long filePos = 0;
-                int len = is.read(buf, 0, buf.length);
                 boolean abort = false;
 
-                // If the data is to be appended then set the starting file position to the end of the
-                // file
-                if (append == true)
-                    filePos = netFile.getFileSize();
+                ReadAheadCache readAhead = getFTPServer().getReadAheadCache();
 
-                // Read/write loop
-                while (len > 0 && abort == false) {
+                try {
+                    int len = is.read(buf, 0, buf.length);
 
-                    // DEBUG
-                    if (Debug.EnableInfo && hasDebug(DBG_FILEIO))
-                        debugPrintln(" Receive len=" + len + " bytes");
+                    // If the data is to be appended then set the starting file position to the end of the
+                    // file
+                    if (append == true)
+                        filePos = netFile.getFileSize();
+
+                    // Read/write loop
+                    while (len > 0 && abort == false) {
 
-                    // Write the current data block to the file, update the file position
-                    disk.writeFile(this, tree, netFile, buf, 0, len, filePos);
-                    filePos += len;
+                        // DEBUG
+                        if (Debug.EnableInfo && hasDebug(DBG_FILEIO))
+                            debugPrintln(" Receive len=" + len + " bytes");
 
-                    // Read another block of data from the client
-                    len = is.read(buf, 0, buf.length);
+                        // Write the current data block to the file, update the file position
+                        disk.writeFile(this, tree, netFile, buf, 0, len, filePos);
 
-                    // Check if the file transfer has been aborted
-                    abort = checkForAbort();
+                        if (readAhead != null)
+                            readAhead.fileModified(tree, netFile, filePos, len);
+                        filePos += len;
+                        m_statBytesIn += len;
+
+                        // Read another block of data from the client
+                        len = is.read(buf, 0, buf.length);
+
+                        // Check if the file transfer has been aborted
+                        abort = checkForAbort();
+                    }
+                }
+                finally {
+
+                    // Release the transfer buffer
+                    getFTPServer().releaseTransferBuffer(buf);
                 }
 
                 // Close the input stream from the client
@@ -2766,48 +3321,16 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 
             // Open an output stream to the client
             if (isUTF8Enabled())
-                dataWrt = new OutputStreamWriter(dataSock.getOutputStream(), "UTF-8");
+                dataWrt = new OutputStreamWriter(getDataOutputStream(dataSock), "UTF-8");
             else
-                dataWrt = new OutputStreamWriter(dataSock.getOutputStream());
-
-            // Get a list of file information objects for the current directory
-            List<FileInfo> files = null;
-
-            files = listFilesForPath(ftpPath, false, false);
-
-            // Output the file list to the client
-            if (files != null) {
-
-                // DEBUG
-                if (Debug.EnableInfo && hasDebug(DBG_SEARCH))
-                    debugPrintln("MLsd found " + files.size() + " files in " + ftpPath.getFTPPath());
-
-                // Output the file information to the client
-                StringBuffer str = new StringBuffer(MLSD_BUFFER_SIZE);
-
-                for (int i = 0; i < files.size(); i++) {
+                dataWrt = new OutputStreamWriter(getDataOutputStream(dataSock));
 
-                    // Get the current file information
-                    FileInfo finfo = files.get(i);
+            // Stream the machine listing to the client
+            int fileCnt = writeFileListing(ftpPath, false, ListMachine, dataWrt);
 
-                    generateMlstString(finfo, m_mlstFacts, str, false);
-                    str.append(CRLF);
-
-                    // Output the file information record when the buffer is full
-                    if (str.length() >= MLSD_BUFFER_SIZE) {
-
-                        // Output the file data records
-                        dataWrt.write(str.toString());
-
-                        // Reset the buffer
-                        str.setLength(0);
-                    }
-                }
-
-                // Flush any remaining file record data
-                if (str.length() > 0)
-                    dataWrt.write(str.toString());
-            }
+            // DEBUG
+            if (Debug.EnableInfo && hasDebug(DBG_SEARCH))
+                debugPrintln("MLsd found " + fileCnt + " files in " + ftpPath.getFTPPath());
 
             // End of file list transmission
             sendFTPResponse(226, "Closing data connection");
@@ -3082,8 +3605,35 @@ public class FTPSrvSession extends SrvSession implements Runnable {
             sendFTPResponse(" MLSD");
         }
 
-        if (FeatureAUTH)
+        if (FeatureAUTH && getFTPServer().getFTPConfiguration().isFTPSEnabled()) {
             sendFTPResponse(" AUTH TLS");
+            sendFTPResponse(" PBSZ");
+            sendFTPResponse(" PROT");
+        }
+
+        if (isModeZAvailable())
+            sendFTPResponse(" MODE Z");
+
+        if (FeatureRANG)
+            sendFTPResponse(" RANG STREAM");
+
+        if (FeatureHASH) {
+
+            // List the supported hash algorithms, the current algorithm is marked with a '*'
+            StringBuilder hashStr = new StringBuilder(64);
+            hashStr.append(" HASH ");
+
+            for (int i = 0; i < _hashAlgorithms.length; i++) {
+                if (i > 0)
+                    hashStr.append(";");
+                hashStr.append(_hashAlgorithms[i]);
+                if (_hashAlgorithms[i].equals(m_hashAlgorithm))
+                    hashStr.append("*");
+            }
+
+            sendFTPResponse(hashStr.toString());
+            sendFTPResponse(" XCRC");
+        }
 
         sendFTPResponse(211, "END");
     }
@@ -3205,7 +3755,7 @@ public class FTPSrvSession extends SrvSession implements Runnable {
     }
 
     /**
-     * Process a mode command. This command is obsolete.
+     * Process a mode command. Stream mode and, if enabled, MODE Z deflate compressed stream mode are supported.
      *
      * @param req FTPRequest
      * @exception IOException Socket error
@@ -3216,8 +3766,22 @@ public class FTPSrvSession extends SrvSession implements Runnable {
         // Check for the stream transfer mode argument
         if (req.hasArgument() && req.getArgument().equalsIgnoreCase("S")) {
 
+            // Switch back to uncompressed transfers
+            m_modeZ = false;
+
             // Return a success status
             sendFTPResponse(200, "OK");
+        } else if (req.hasArgument() && req.getArgument().equalsIgnoreCase("Z") && isModeZAvailable()) {
+
+            // Enable compressed transfers
+            m_modeZ = true;
+
+            // DEBUG
+            if (Debug.EnableInfo && hasDebug(DBG_FILEIO))
+                debugPrintln("MODE Z enabled, level=" + getCompressionLevel());
+
+            // Return a success status
+            sendFTPResponse(200, "MODE Z ok");
         } else {
 
             // Return an error response
@@ -3357,16 +3921,60 @@ public class FTPSrvSession extends SrvSession implements Runnable {
             return;
         }
 
-        // Only accept the 'clear' protection level
-        if (arg.equals(ProtLevelClear)) {
+        // Accept the 'clear' and 'private' protection levels
+        if (arg.equals(ProtLevelClear) || arg.equals(ProtLevelPrivate)) {
 
-            // Accept the clear protection level, data connections sent in clear text
+            // Data connections are sent in clear text, or are protected using the control session SSL context
+            m_protLevel = arg;
             sendFTPResponse(200, "Protection level accepted");
         } else {
 
-            // Reject the protection level for now, we do not support protected data connections
-            sendFTPResponse(534, "Protected data connections not supported");
+            // Reject the safe and confidential protection levels
+            sendFTPResponse(534, "Protection level not supported, " + arg);
+        }
+    }
+
+    /**
+     * Check if data connections should be protected using SSL/TLS
+     *
+     * @return boolean
+     */
+    protected final boolean isDataProtected() {
+        return m_sslContext != null && ProtLevelPrivate.equals(m_protLevel);
+    }
+
+    /**
+     * Layer an SSL/TLS connection over a data connection socket, and perform the handshake. The SSL context is
+     * shared with the control session so the client can resume the control session TLS session rather than
+     * perform a full handshake on each data connection.
+     *
+     * @param sock Socket
+     * @return Socket
+     * @exception IOException Socket error
+     */
+    protected final Socket createProtectedDataSocket(Socket sock)
+            throws IOException {
+
+        // Create the SSL socket, in server mode, closing the SSL socket will close the underlying socket
+        SSLSocket sslSock = (SSLSocket) m_sslContext.getSocketFactory().createSocket(sock, sock.getInetAddress().getHostAddress(),
+                sock.getPort(), true);
+        sslSock.setUseClientMode(false);
+
+        try {
+            sslSock.startHandshake();
+        }
+        catch (IOException ex) {
+            sslSock.close();
+            throw ex;
         }
+
+        // DEBUG
+        if (Debug.EnableDbg && hasDebug(DBG_SSL))
+            debugPrintln("Data connection protected, protocol=" + sslSock.getSession().getProtocol() + ", cipher=" +
+                    sslSock.getSession().getCipherSuite());
+
+        // Return the protected socket
+        return sslSock;
     }
 
     /**
@@ -3391,12 +3999,10 @@ public class FTPSrvSession extends SrvSession implements Runnable {
         m_sslEngine.closeOutbound();
         getSSLCommand(m_inbuf, 0);
 
-        // Release resources used by the secure connection
+        // Release resources used by the secure connection, the SSL context is kept as data connections remain
+        // protected if PROT P was negotiated
         m_sslEngine = null;
-        m_sslContext = null;
-
-        m_sslIn = null;
-        m_sslOut = null;
+        releaseSSLBuffers();
     }
 
     /**
@@ -3594,22 +4200,33 @@ public class FTPSrvSession extends SrvSession implements Runnable {
     }
 
     /**
-     * Build a list of file name or file information objects for the specified server path
+     * Stream a directory listing for the specified server path to the data connection. Listing records are
+     * formatted into a reusable buffer and written out in MLSD_BUFFER_SIZE chunks as the search is iterated, so the
+     * directory is never held in memory.
      *
-     * @param path     FTPPath
-     * @param nameOnly boolean
-     * @param hidden   boolean
-     * @return List of file information objects
+     * @param path       FTPPath
+     * @param hidden     boolean
+     * @param listFormat int
+     * @param dataWrt    Writer
+     * @return int
+     * @exception IOException Error writing to the data connection
      */
-    protected final List<FileInfo> listFilesForPath(FTPPath path, boolean nameOnly, boolean hidden) {
+    protected final int writeFileListing(FTPPath path, boolean hidden, int listFormat, Writer dataWrt)
+            throws IOException {
 
         // Check if the path is valid
         if (path == null)
-            return null;
+            return 0;
 
-        // Check if the path is the root path
-        List<FileInfo> files = new ArrayList<FileInfo>();
+        // Allocate the record buffer, and the character buffer used to output the records
+        StringBuffer str = new StringBuffer(MLSD_BUFFER_SIZE + 512);
+        char[] outBuf = new char[MLSD_BUFFER_SIZE + 512];
+
+        Calendar cal = getDateCalendar();
+        long timeNow = System.currentTimeMillis();
+        int fileCnt = 0;
 
+        // Check if the path is the root path
         if (path.hasSharedDevice() == false) {
 
             // The first level of directories are mapped to the available shares
@@ -3624,8 +4241,13 @@ public class FTPSrvSession extends SrvSession implements Runnable {
                     // Get the current shared device
                     SharedDevice shr = enm.nextElement();
 
-                    // Create a file information object for the top level directory details
-                    files.add(new FileInfo(shr.getName(), 0L, FileAttribute.Directory));
+                    // Output a file information record for the top level directory details
+                    FileInfo finfo = new FileInfo(shr.getName(), 0L, FileAttribute.Directory);
+
+                    formatListingRecord(finfo, listFormat, str, cal, timeNow);
+                    fileCnt++;
+
+                    outBuf = writeListingBuffer(str, outBuf, dataWrt, false);
                 }
             }
         } else {
@@ -3654,33 +4276,126 @@ public class FTPSrvSession extends SrvSession implements Runnable {
             catch (Exception ex) {
             }
 
-            // Add the files to the list
+            // Output the file information records
             if (ctx != null) {
 
-                // Get the file names/information
-                while (ctx.hasMoreFiles()) {
+                try {
 
-                    // Check if a file name or file information is required
-                    if (nameOnly) {
+                    // Use a single file information object for the search
+                    FileInfo finfo = new FileInfo();
 
-                        // Add a file name to the list
-                        files.add( new FileInfo( ctx.nextFileName(), 0, FileAttribute.NTNormal));
-                    } else {
+                    while (ctx.hasMoreFiles()) {
 
-                        // Create a file information object
-                        FileInfo finfo = new FileInfo();
+                        // Get the next file information
+                        finfo.resetInfo();
 
                         if (ctx.nextFileInfo(finfo) == false)
                             break;
-                        if (finfo.getFileName() != null)
-                            files.add(finfo);
+                        if (finfo.getFileName() == null)
+                            continue;
+
+                        // Format the listing record, output the buffered records when the buffer is full
+                        formatListingRecord(finfo, listFormat, str, cal, timeNow);
+                        fileCnt++;
+
+                        outBuf = writeListingBuffer(str, outBuf, dataWrt, false);
                     }
                 }
+                finally {
+
+                    // Release any resources used by the search
+                    ctx.closeSearch();
+                }
             }
         }
 
-        // Return the list of file names/information
-        return files;
+        // Output any remaining listing records
+        writeListingBuffer(str, outBuf, dataWrt, true);
+
+        // Return the count of files output
+        return fileCnt;
+    }
+
+    /**
+     * Format a directory listing record for a file
+     *
+     * @param finfo      FileInfo
+     * @param listFormat int
+     * @param str        StringBuffer
+     * @param cal        Calendar
+     * @param timeNow    long
+     */
+    private final void formatListingRecord(FileInfo finfo, int listFormat, StringBuffer str, Calendar cal, long timeNow) {
+
+        switch (listFormat) {
+
+            // Unix style long listing
+            case ListLong:
+                str.append(finfo.isDirectory() ? "d" : "-");
+                str.append("rw-rw-rw-   1 user group ");
+                str.append(finfo.getSize());
+                str.append(" ");
+
+                FTPDate.packUnixDate(str, finfo.getModifyDateTime(), cal, timeNow);
+
+                str.append(" ");
+                str.append(finfo.getFileName());
+                break;
+
+            // File names only
+            case ListNames:
+                str.append(finfo.getFileName());
+                break;
+
+            // Machine listing
+            case ListMachine:
+                generateMlstString(finfo, m_mlstFacts, str, false);
+                break;
+        }
+
+        str.append(CRLF);
+    }
+
+    /**
+     * Write the buffered listing records to the data connection, if the buffer is full or this is the final write
+     *
+     * @param str     StringBuffer
+     * @param outBuf  char[]
+     * @param dataWrt Writer
+     * @param flush   boolean
+     * @return char[]
+     * @exception IOException Error writing to the data connection
+     */
+    private final char[] writeListingBuffer(StringBuffer str, char[] outBuf, Writer dataWrt, boolean flush)
+            throws IOException {
+
+        // Check if there is enough buffered data to output
+        int len = str.length();
+
+        if (len == 0 || (len < MLSD_BUFFER_SIZE && flush == false))
+            return outBuf;
+
+        // Make sure the output buffer is large enough, a long file name may overflow the buffer
+        if (outBuf.length < len)
+            outBuf = new char[len];
+
+        // Output the listing records, and reset the record buffer
+        str.getChars(0, len, outBuf, 0);
+        dataWrt.write(outBuf, 0, len);
+
+        str.setLength(0);
+        return outBuf;
+    }
+
+    /**
+     * Return the calendar used to format listing dates, allocated on first use
+     *
+     * @return Calendar
+     */
+    protected final Calendar getDateCalendar() {
+        if (m_dateCal == null)
+            m_dateCal = FTPDate.createCalendar();
+        return m_dateCal;
     }
 
     /**
@@ -3977,7 +4692,6 @@ public class FTPSrvSession extends SrvSession implements Runnable {
 
         int unwrapLen = sslRes.bytesProduced();
         boolean loopDone = false;
-        Runnable task = null;
 
         while (loopDone == false && m_sslEngine.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING &&
                 sslRes.getStatus() != SSLEngineResult.Status.CLOSED) {
@@ -3989,10 +4703,8 @@ public class FTPSrvSession extends SrvSession implements Runnable {
                     if (Debug.EnableDbg && hasDebug(DBG_SSL))
                         debugPrintln("SSL engine status=NEED_TASK");
 
-                    // Run the SSL engine task in the current thread
-                    while ((task = m_sslEngine.getDelegatedTask()) != null) {
-                        task.run();
-                    }
+                    // Run the SSL engine tasks using the shared SSL task thread pool
+                    runDelegatedTasks();
                     break;
                 case NEED_WRAP:
 
@@ -4000,13 +4712,12 @@ public class FTPSrvSession extends SrvSession implements Runnable {
                     if (Debug.EnableDbg && hasDebug(DBG_SSL))
                         debugPrintln("SSL engine status=NEED_WRAP");
 
-                    m_sslIn.limit(m_sslIn.capacity());
-                    m_sslIn.flip();
-
+                    // Wrap using an empty buffer, any unprocessed data in the input buffer is kept
+                    ByteBuffer emptyBuf = ByteBuffer.allocate(0);
                     m_sslOut.clear();
 
                     while (m_sslEngine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
-                        sslRes = m_sslEngine.wrap(m_sslIn, m_sslOut);
+                        sslRes = m_sslEngine.wrap(emptyBuf, m_sslOut);
 
                         // DEBUG
                         if (Debug.EnableDbg && hasDebug(DBG_SSL))
@@ -4060,15 +4771,14 @@ public class FTPSrvSession extends SrvSession implements Runnable {
                         if (Debug.EnableDbg && hasDebug(DBG_SSL))
                             debugPrintln("  unwrap() len=" + rdlen + ",returned " + sslRes.bytesProduced() + " bytes, res=" + sslRes);
 
-                        // Run the SSL engine task in the current thread
+                        // Run the SSL engine tasks using the shared SSL task thread pool
                         if (m_sslEngine.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
-                            while ((task = m_sslEngine.getDelegatedTask()) != null) {
-                                task.run();
 
-                                // DEBUG
-                                if (Debug.EnableDbg && hasDebug(DBG_SSL))
-                                    debugPrintln("  task during unwrap");
-                            }
+                            // DEBUG
+                            if (Debug.EnableDbg && hasDebug(DBG_SSL))
+                                debugPrintln("  task during unwrap");
+
+                            runDelegatedTasks();
                         }
                     }
 
@@ -4106,6 +4816,23 @@ public class FTPSrvSession extends SrvSession implements Runnable {
             }
         }
 
+        // Unwrap any command data received with the final handshake message, the client may send the next
+        // command without waiting for the server (TLS 1.3)
+        if (unwrapLen == 0 && m_sslIn.hasRemaining() && m_sslEngine.getHandshakeStatus() == HandshakeStatus.NOT_HANDSHAKING) {
+
+            m_sslOut.clear();
+
+            while (m_sslIn.hasRemaining() && sslRes.getStatus() == SSLEngineResult.Status.OK)
+                sslRes = m_sslEngine.unwrap(m_sslIn, m_sslOut);
+
+            m_sslOut.flip();
+            unwrapLen = m_sslOut.remaining();
+
+            // DEBUG
+            if (Debug.EnableDbg && hasDebug(DBG_SSL))
+                debugPrintln("  unwrap() after handshake returned " + unwrapLen + " bytes, res=" + sslRes);
+        }
+
         // Move decrypted data to the input buffer
         if (unwrapLen > 0)
             System.arraycopy(m_sslOut.array(), 0, m_inbuf, 0, unwrapLen);
@@ -4119,57 +4846,56 @@ public class FTPSrvSession extends SrvSession implements Runnable {
      *
      * @param engineTyp String
      * @exception IOException Socket error
-     * @throws NoSuchAlgorithmException No such SSL algorithm error
-     * @throws CertificateException Certificate error
-     * @throws KeyStoreException Key store error
-     * @throws UnrecoverableKeyException Unrecoverable key error
-     * @throws KeyManagementException Key management error
+     * @exception GeneralSecurityException Error initializing the SSL context
      */
     protected final void setupSSLEngine(String engineTyp)
-            throws IOException, NoSuchAlgorithmException, CertificateException,
-            KeyStoreException, UnrecoverableKeyException, KeyManagementException {
-
-        // Get the FTP configuration
-        FTPConfigSection ftpConfig = getFTPServer().getFTPConfiguration();
-
-        // Load the key store and trust store
-        KeyStore keyStore = KeyStore.getInstance(ftpConfig.getKeyStoreType());
-        keyStore.load(new FileInputStream(ftpConfig.getKeyStorePath()), ftpConfig.getKeyStorePassphrase());
-
-        String defaultAlgorithm = KeyManagerFactory.getDefaultAlgorithm();
-
-        KeyManagerFactory keyFactory = KeyManagerFactory.getInstance(defaultAlgorithm);
-        keyFactory.init(keyStore, ftpConfig.getKeyStorePassphrase());
-
-        defaultAlgorithm = TrustManagerFactory.getDefaultAlgorithm();
-
-        m_sslContext = SSLContext.getInstance(engineTyp);
-
-        // MNT-7301 FTPS server requires unnecessarly to have a trustStore while a keyStore should be sufficient
-        TrustManager[] trManager = null;
-
-        if (ftpConfig.getTrustStorePath() != null) {
-            KeyStore trustStore = KeyStore.getInstance(ftpConfig.getTrustStoreType());
-            trustStore.load(new FileInputStream(ftpConfig.getTrustStorePath()), ftpConfig.getTrustStorePassphrase());
-            TrustManagerFactory trustFactory = TrustManagerFactory.getInstance(defaultAlgorithm);
-            trustFactory.init(trustStore);
-            trManager = trustFactory.getTrustManagers();
-        }
+            throws IOException, GeneralSecurityException {
 
-        m_sslContext.init(keyFactory.getKeyManagers(), trManager, null);
+        // Get the shared SSL context, the key store and trust store are only loaded when the context is created
+        m_sslContext = getFTPServer().getSSLContext(engineTyp);
 
         m_sslEngine = m_sslContext.createSSLEngine();
         m_sslEngine.setUseClientMode(false);
         m_sslEngine.setWantClientAuth(true);
 
+        // Allocate the SSL output buffer from the memory pool
         SSLSession sslSess = m_sslEngine.getSession();
-        m_sslOut = ByteBuffer.allocate(sslSess.getApplicationBufferSize() + 50);
+        releaseSSLBuffers();
+
+        m_sslOut = ByteBuffer.wrap(getFTPServer().allocateTransferBuffer(sslSess.getApplicationBufferSize() + 50));
 
         if (m_inbuf.length < sslSess.getApplicationBufferSize())
             m_inbuf = new byte[sslSess.getApplicationBufferSize()];
         m_sslIn = ByteBuffer.wrap(m_inbuf);
     }
 
+    /**
+     * Run the SSL engine delegated tasks using the shared SSL task thread pool
+     *
+     * @exception IOException Task failed
+     */
+    private final void runDelegatedTasks()
+            throws IOException {
+
+        Runnable task;
+        while ((task = m_sslEngine.getDelegatedTask()) != null)
+            getFTPServer().runSSLTask(task);
+    }
+
+    /**
+     * Release the SSL buffers
+     */
+    private final void releaseSSLBuffers() {
+
+        // Return the SSL output buffer to the memory pool
+        if (m_sslOut != null) {
+            getFTPServer().releaseTransferBuffer(m_sslOut.array());
+            m_sslOut = null;
+        }
+
+        m_sslIn = null;
+    }
+
     /**
      * Check if the session is in SSL/TLS mode
      *
@@ -4214,7 +4940,7 @@ public class FTPSrvSession extends SrvSession implements Runnable {
                         if (finfo.hasModifyDateTime()) {
                             buf.append(_factNames[i]);
                             buf.append("=");
-                            buf.append(FTPDate.packMlstDateTime(finfo.getModifyDateTime()));
+                            FTPDate.packMlstDateTime(buf, finfo.getModifyDateTime(), getDateCalendar(), false);
                             buf.append(";");
                         }
                         break;
@@ -4224,7 +4950,7 @@ public class FTPSrvSession extends SrvSession implements Runnable {
                         if (finfo.hasCreationDateTime()) {
                             buf.append(_factNames[i]);
                             buf.append("=");
-                            buf.append(FTPDate.packMlstDateTime(finfo.getCreationDateTime()));
+                            FTPDate.packMlstDateTime(buf, finfo.getCreationDateTime(), getDateCalendar(), false);
                             buf.append(";");
                         }
                         break;
@@ -4343,6 +5069,17 @@ public class FTPSrvSession extends SrvSession implements Runnable {
                 if (Debug.EnableInfo && hasDebug(DBG_RXDATA))
                     debugPrintln("Rx cmd=" + ftpReq);
 
+                // Reset the command statistics counters
+                ProtocolStatistics cmdStats = getFTPServer().getCommandStatistics();
+                long statStart = 0L;
+
+                if (cmdStats != null) {
+                    statStart = System.nanoTime();
+                    m_statBytesIn = 0L;
+                    m_statBytesOut = 0L;
+                    m_statError = false;
+                }
+
                 // Parse the received command, and validate
                 switch (ftpReq.isCommand()) {
 
@@ -4385,8 +5122,35 @@ public class FTPSrvSession extends SrvSession implements Runnable {
                     case RETR:
                         procReturnFile(ftpReq);
 
-                        // Reset the restart position
+                        // Reset the restart position and range
                         m_restartPos = 0;
+                        m_restartEnd = -1;
+                        break;
+
+                    // Byte range command
+                    case RANG:
+                        procRange(ftpReq);
+                        break;
+
+                    // File hash command
+                    case HASH:
+                        if (FeatureHASH) {
+                            procHash(ftpReq);
+
+                            // Reset the restart position and range
+                            m_restartPos = 0;
+                            m_restartEnd = -1;
+                        }
+                        else
+                            sendFTPResponse(502, "Command not implemented");
+                        break;
+
+                    // CRC32 checksum command
+                    case XCRC:
+                        if (FeatureHASH)
+                            procChecksum(ftpReq);
+                        else
+                            sendFTPResponse(502, "Command not implemented");
                         break;
 
                     // Store file command
@@ -4581,6 +5345,11 @@ public class FTPSrvSession extends SrvSession implements Runnable {
                         debugPrintln("Processed cmd " + ftpReq.isCommand().name() + " in " + duration + "ms");
                 }
 
+                // Update the command statistics
+                if (cmdStats != null)
+                    cmdStats.getCommand(ftpReq.isCommand().ordinal(), ftpReq.isCommand().name()).requestCompleted(statStart, m_statError,
+                            m_statBytesIn, m_statBytesOut);
+
                 // Commit/rollback a transaction that the filesystem driver may have stored in the
                 // session
                 endTransaction();
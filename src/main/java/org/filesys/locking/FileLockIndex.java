@@ -0,0 +1,557 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.locking;
+
+import java.util.List;
+
+/**
+ * File Lock Index Class
+ *
+ * <p>Interval index of byte range locks, implemented as a treap ordered by lock offset and length. Each node holds
+ * the highest end offset within its subtree so that overlap checks only visit the parts of the tree that can
+ * contain an overlapping lock, and the subtree size so locks can be accessed by index.
+ *
+ * <p>Only bounded locks, with a non-negative length whose end offset does not overflow, can be indexed, other locks
+ * such as whole file locks must be checked separately.
+ *
+ * @author gkspencer
+ */
+class FileLockIndex {
+
+    /**
+     * Index Node Inner Class
+     */
+    private static class Node {
+
+        // Lock details, lock offset/length when indexed, and end offset of the locked range
+        FileLock lock;
+        long lo;
+        long len;
+        long hi;
+
+        // Insertion sequence, orders locks with the same offset and length
+        long seq;
+
+        // Node priority
+        int prio;
+
+        // Child nodes, subtree size and highest end offset within the subtree
+        Node left;
+        Node right;
+        int size;
+        long maxHi;
+
+        /**
+         * Class constructor
+         *
+         * @param lock FileLock
+         * @param seq  long
+         * @param prio int
+         */
+        Node(FileLock lock, long seq, int prio) {
+            this.lock = lock;
+            this.lo = lock.getOffset();
+            this.len = lock.getLength();
+            this.hi = rangeEnd(lo, len);
+            this.seq = seq;
+            this.prio = prio;
+
+            this.size = 1;
+            this.maxHi = hi;
+        }
+
+        /**
+         * Update the subtree size and highest end offset
+         */
+        final void update() {
+            size = 1;
+            maxHi = hi;
+
+            if (left != null) {
+                size += left.size;
+                if (left.maxHi > maxHi)
+                    maxHi = left.maxHi;
+            }
+
+            if (right != null) {
+                size += right.size;
+                if (right.maxHi > maxHi)
+                    maxHi = right.maxHi;
+            }
+        }
+    }
+
+    // Root of the index
+    private Node m_root;
+
+    // Next insertion sequence number, and priority generator state
+    private long m_nextSeq;
+    private int m_prioSeed = 0x2545F491;
+
+    /**
+     * Check if a lock byte range can be indexed
+     *
+     * @param offset long
+     * @param len    long
+     * @return boolean
+     */
+    static boolean isBounded(long offset, long len) {
+        if (len < 0)
+            return false;
+        return len == 0 || offset + (len - 1) >= offset;
+    }
+
+    /**
+     * Return the end offset of a bounded byte range, zero length ranges are treated as a single byte at the
+     * start offset
+     *
+     * @param offset long
+     * @param len    long
+     * @return long
+     */
+    static long rangeEnd(long offset, long len) {
+        return len == 0 ? offset : offset + (len - 1);
+    }
+
+    /**
+     * Return the number of locks in the index
+     *
+     * @return int
+     */
+    final int size() {
+        return m_root != null ? m_root.size : 0;
+    }
+
+    /**
+     * Remove all locks from the index
+     */
+    final void clear() {
+        m_root = null;
+    }
+
+    /**
+     * Add a bounded lock to the index
+     *
+     * @param lock FileLock
+     */
+    final void add(FileLock lock) {
+        m_root = insert(m_root, new Node(lock, m_nextSeq++, nextPriority()));
+    }
+
+    /**
+     * Return the lock at the specified index, in offset order
+     *
+     * @param idx int
+     * @return FileLock
+     */
+    final FileLock get(int idx) {
+
+        Node node = m_root;
+
+        while (node != null) {
+            int leftSize = node.left != null ? node.left.size : 0;
+
+            if (idx < leftSize)
+                node = node.left;
+            else if (idx == leftSize)
+                return node.lock;
+            else {
+                idx -= leftSize + 1;
+                node = node.right;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Remove the lock at the specified index, in offset order
+     *
+     * @param idx int
+     * @return FileLock
+     */
+    final FileLock removeAt(int idx) {
+
+        // Find the node, then remove it using its key
+        Node node = m_root;
+
+        while (node != null) {
+            int leftSize = node.left != null ? node.left.size : 0;
+
+            if (idx < leftSize)
+                node = node.left;
+            else if (idx == leftSize)
+                break;
+            else {
+                idx -= leftSize + 1;
+                node = node.right;
+            }
+        }
+
+        if (node == null)
+            return null;
+
+        m_root = delete(m_root, node);
+        return node.lock;
+    }
+
+    /**
+     * Find the earliest added lock with the specified offset and length
+     *
+     * @param offset long
+     * @param len    long
+     * @return FileLock
+     */
+    final FileLock find(long offset, long len) {
+        Node node = findNode(offset, len);
+        return node != null ? node.lock : null;
+    }
+
+    /**
+     * Remove the earliest added lock with the specified offset and length
+     *
+     * @param offset long
+     * @param len    long
+     * @return FileLock
+     */
+    final FileLock remove(long offset, long len) {
+
+        Node node = findNode(offset, len);
+        if (node == null)
+            return null;
+
+        m_root = delete(m_root, node);
+        return node.lock;
+    }
+
+    /**
+     * Find a lock that overlaps the specified byte range, optionally ignoring locks owned by the specified process
+     *
+     * @param offset     long
+     * @param len        long
+     * @param pid        int
+     * @param ignorePid  boolean
+     * @return FileLock
+     */
+    final FileLock findOverlap(long offset, long len, int pid, boolean ignorePid) {
+
+        // Get the range to search, if the range cannot be indexed then check all locks
+        long lo = Long.MIN_VALUE;
+        long hi = Long.MAX_VALUE;
+
+        if (isBounded(offset, len)) {
+            lo = offset;
+            hi = Math.max(offset, rangeEnd(offset, len));
+        }
+
+        return findOverlap(m_root, lo, hi, offset, len, pid, ignorePid);
+    }
+
+    /**
+     * Add the locks that overlap the specified byte range to a list
+     *
+     * @param offset   long
+     * @param len      long
+     * @param lockList List of FileLock
+     */
+    final void findOverlaps(long offset, long len, List<FileLock> lockList) {
+
+        // Get the range to search, if the range cannot be indexed then check all locks
+        long lo = Long.MIN_VALUE;
+        long hi = Long.MAX_VALUE;
+
+        if (isBounded(offset, len)) {
+            lo = offset;
+            hi = Math.max(offset, rangeEnd(offset, len));
+        }
+
+        findOverlaps(m_root, lo, hi, offset, len, lockList);
+    }
+
+    /**
+     * Add all locks to a list, in offset order
+     *
+     * @param lockList List of FileLock
+     */
+    final void addAllTo(List<FileLock> lockList) {
+        addAllTo(m_root, lockList);
+    }
+
+    /**
+     * Find the earliest added node with the specified offset and length
+     *
+     * @param offset long
+     * @param len    long
+     * @return Node
+     */
+    private Node findNode(long offset, long len) {
+
+        Node node = m_root;
+        Node match = null;
+
+        while (node != null) {
+            int cmp = compareKey(offset, len, node);
+
+            if (cmp < 0)
+                node = node.left;
+            else if (cmp > 0)
+                node = node.right;
+            else {
+
+                // Keep looking for an earlier lock with the same range
+                match = node;
+                node = node.left;
+            }
+        }
+
+        return match;
+    }
+
+    /**
+     * Search a subtree for a lock that overlaps the byte range
+     *
+     * @param node      Node
+     * @param lo        long
+     * @param hi        long
+     * @param offset    long
+     * @param len       long
+     * @param pid       int
+     * @param ignorePid boolean
+     * @return FileLock
+     */
+    private FileLock findOverlap(Node node, long lo, long hi, long offset, long len, int pid, boolean ignorePid) {
+
+        while (node != null && node.maxHi >= lo) {
+
+            // Search the left subtree
+            FileLock lock = findOverlap(node.left, lo, hi, offset, len, pid, ignorePid);
+            if (lock != null)
+                return lock;
+
+            // All remaining locks start after the end of the range
+            if (node.lo > hi)
+                return null;
+
+            // Check the current lock
+            if (node.hi >= lo && node.lock.hasOverlap(offset, len) && (ignorePid == false || node.lock.getProcessId() != pid))
+                return node.lock;
+
+            node = node.right;
+        }
+
+        return null;
+    }
+
+    /**
+     * Add the locks in a subtree that overlap the byte range to a list
+     *
+     * @param node     Node
+     * @param lo       long
+     * @param hi       long
+     * @param offset   long
+     * @param len      long
+     * @param lockList List of FileLock
+     */
+    private void findOverlaps(Node node, long lo, long hi, long offset, long len, List<FileLock> lockList) {
+
+        while (node != null && node.maxHi >= lo) {
+
+            // Search the left subtree
+            findOverlaps(node.left, lo, hi, offset, len, lockList);
+
+            // All remaining locks start after the end of the range
+            if (node.lo > hi)
+                return;
+
+            // Check the current lock
+            if (node.hi >= lo && node.lock.hasOverlap(offset, len))
+                lockList.add(node.lock);
+
+            node = node.right;
+        }
+    }
+
+    /**
+     * Add the locks in a subtree to a list, in offset order
+     *
+     * @param node     Node
+     * @param lockList List of FileLock
+     */
+    private void addAllTo(Node node, List<FileLock> lockList) {
+        while (node != null) {
+            addAllTo(node.left, lockList);
+            lockList.add(node.lock);
+            node = node.right;
+        }
+    }
+
+    /**
+     * Insert a node into a subtree
+     *
+     * @param root Node
+     * @param node Node
+     * @return Node New subtree root
+     */
+    private Node insert(Node root, Node node) {
+
+        if (root == null)
+            return node;
+
+        if (node.prio > root.prio) {
+
+            // New node becomes the root of this subtree
+            split(root, node);
+            node.update();
+            return node;
+        }
+
+        // Insert into the child subtree
+        if (compare(node, root) < 0)
+            root.left = insert(root.left, node);
+        else
+            root.right = insert(root.right, node);
+
+        root.update();
+        return root;
+    }
+
+    /**
+     * Split a subtree around a node key, the parts become the left and right children of the node
+     *
+     * @param root Node
+     * @param node Node
+     */
+    private void split(Node root, Node node) {
+
+        if (root == null) {
+            node.left = null;
+            node.right = null;
+        }
+        else if (compare(root, node) < 0) {
+
+            // Root and its left subtree are below the node key
+            split(root.right, node);
+            root.right = node.left;
+            root.update();
+            node.left = root;
+        }
+        else {
+
+            // Root and its right subtree are above the node key
+            split(root.left, node);
+            root.left = node.right;
+            root.update();
+            node.right = root;
+        }
+    }
+
+    /**
+     * Delete a node from a subtree
+     *
+     * @param root Node
+     * @param node Node
+     * @return Node New subtree root
+     */
+    private Node delete(Node root, Node node) {
+
+        if (root == null)
+            return null;
+
+        if (root == node)
+            return merge(root.left, root.right);
+
+        if (compare(node, root) < 0)
+            root.left = delete(root.left, node);
+        else
+            root.right = delete(root.right, node);
+
+        root.update();
+        return root;
+    }
+
+    /**
+     * Merge two subtrees, all keys in the left subtree are below the keys in the right subtree
+     *
+     * @param left  Node
+     * @param right Node
+     * @return Node New subtree root
+     */
+    private Node merge(Node left, Node right) {
+
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
+
+        if (left.prio > right.prio) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    /**
+     * Compare the keys of two nodes
+     *
+     * @param n1 Node
+     * @param n2 Node
+     * @return int
+     */
+    private static int compare(Node n1, Node n2) {
+        int cmp = compareKey(n1.lo, n1.len, n2);
+        if (cmp != 0)
+            return cmp;
+        return n1.seq < n2.seq ? -1 : (n1.seq == n2.seq ? 0 : 1);
+    }
+
+    /**
+     * Compare a lock offset and length with a node key, ignoring the insertion sequence
+     *
+     * @param offset long
+     * @param len    long
+     * @param node   Node
+     * @return int
+     */
+    private static int compareKey(long offset, long len, Node node) {
+        if (offset != node.lo)
+            return offset < node.lo ? -1 : 1;
+
+        if (len != node.len)
+            return len < node.len ? -1 : 1;
+
+        return 0;
+    }
+
+    /**
+     * Generate the next node priority
+     *
+     * @return int
+     */
+    private int nextPriority() {
+        int x = m_prioSeed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        m_prioSeed = x;
+        return x;
+    }
+}
@@ -19,28 +19,40 @@
 
 package org.filesys.locking;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * File Lock List Class
  *
  * <p>Contains a list of the current locks on a file.
  *
+ * <p>Byte range locks are held in an interval index so that lock conflict and read/write access checks do not
+ * need to check every lock on the file. Whole file locks, and locks with a range that cannot be indexed, are held
+ * in a separate list. Locks are returned by index in offset order, followed by any unindexed locks.
+ *
  * @author gkspencer
  */
 public class FileLockList implements Serializable {
 
     // Serialization id
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+
+    // Index of byte range locks
+    private transient FileLockIndex m_lockIndex;
 
-    // List of file locks
-    private ArrayList<FileLock> m_lockList;
+    // List of whole file locks, and other locks that cannot be indexed
+    private transient ArrayList<FileLock> m_lockList;
 
     /**
      * Construct an empty file lock list.
      */
     public FileLockList() {
+        m_lockIndex = new FileLockIndex();
         m_lockList = new ArrayList<FileLock>();
     }
 
@@ -50,7 +62,10 @@ public class FileLockList implements Serializable {
      * @param lock Lock to be added to the list.
      */
     public final void addLock(FileLock lock) {
-        m_lockList.add(lock);
+        if (FileLockIndex.isBounded(lock.getOffset(), lock.getLength()))
+            m_lockIndex.add(lock);
+        else
+            m_lockList.add(lock);
     }
 
     /**
@@ -77,13 +92,15 @@ public class FileLockList implements Serializable {
         if (numberOfLocks() == 0)
             return null;
 
-        // Search for the required lock
-        FileLock fLock = null;
+        // Search the lock index
+        if (FileLockIndex.isBounded(offset, len))
+            return m_lockIndex.find(offset, len);
 
-        for (int i = 0; i < numberOfLocks(); i++) {
+        // Search the unindexed locks
+        for (int i = 0; i < m_lockList.size(); i++) {
 
             // Get the current lock details
-            fLock = getLockAt(i);
+            FileLock fLock = m_lockList.get(i);
             if (fLock.getOffset() == offset && fLock.getLength() == len) {
 
                 // Return the matching lock
@@ -119,11 +136,15 @@ public class FileLockList implements Serializable {
         if (numberOfLocks() == 0)
             return null;
 
-        // Search for the required lock
-        for (int i = 0; i < numberOfLocks(); i++) {
+        // Remove from the lock index
+        if (FileLockIndex.isBounded(offset, len))
+            return m_lockIndex.remove(offset, len);
+
+        // Search the unindexed locks
+        for (int i = 0; i < m_lockList.size(); i++) {
 
             // Get the current lock details
-            FileLock curLock = getLockAt(i);
+            FileLock curLock = m_lockList.get(i);
             if (curLock.getOffset() == offset && curLock.getLength() == len) {
 
                 // Remove the lock from the list
@@ -140,6 +161,7 @@ public class FileLockList implements Serializable {
      * Remove all locks from the list
      */
     public final void removeAllLocks() {
+        m_lockIndex.clear();
         m_lockList.clear();
     }
 
@@ -150,6 +172,14 @@ public class FileLockList implements Serializable {
      * @return FileLock
      */
     public final FileLock getLockAt(int idx) {
+
+        // Check for an indexed lock
+        int idxCnt = m_lockIndex.size();
+        if (idx < idxCnt)
+            return m_lockIndex.get(idx);
+
+        // Check for an unindexed lock
+        idx -= idxCnt;
         if (idx < m_lockList.size())
             return m_lockList.get(idx);
         return null;
@@ -162,6 +192,14 @@ public class FileLockList implements Serializable {
      * @return FileLock
      */
     public final FileLock removeLockAt(int idx) {
+
+        // Check for an indexed lock
+        int idxCnt = m_lockIndex.size();
+        if (idx < idxCnt)
+            return m_lockIndex.removeAt(idx);
+
+        // Check for an unindexed lock
+        idx -= idxCnt;
         if (idx < m_lockList.size())
             return m_lockList.remove(idx);
         return null;
@@ -179,17 +217,34 @@ public class FileLockList implements Serializable {
         if (numberOfLocks() == 0)
             return true;
 
-        // Search for any overlapping locks
-        for (int i = 0; i < numberOfLocks(); i++) {
+        // Check for an overlapping lock
+        return findOverlappingLock(lock.getOffset(), lock.getLength(), 0, false) == null;
+    }
 
-            // Get the current lock details
-            FileLock curLock = getLockAt(i);
+    /**
+     * Return the locks that overlap the byte range of the specified lock
+     *
+     * @param lock FileLock
+     * @return List of FileLock, or null if there are no overlapping locks
+     */
+    public final List<FileLock> findOverlappingLocks(FileLock lock) {
+
+        // Check if there are any locks in the list
+        if (numberOfLocks() == 0)
+            return null;
+
+        // Search the lock index
+        List<FileLock> overlaps = new ArrayList<FileLock>();
+        m_lockIndex.findOverlaps(lock.getOffset(), lock.getLength(), overlaps);
+
+        // Check the unindexed locks
+        for (int i = 0; i < m_lockList.size(); i++) {
+            FileLock curLock = m_lockList.get(i);
             if (curLock.hasOverlap(lock))
-                return false;
+                overlaps.add(curLock);
         }
 
-        // The lock does not overlap with any existing locks
-        return true;
+        return overlaps.size() > 0 ? overlaps : null;
     }
 
     /**
@@ -216,23 +271,8 @@ public class FileLockList implements Serializable {
         if (numberOfLocks() == 0)
             return true;
 
-        // Search for a lock that prevents the read
-        for (int i = 0; i < numberOfLocks(); i++) {
-
-            // Get the current lock details
-            FileLock curLock = getLockAt(i);
-
-            // Check if the process owns the lock, if not then check if there is an overlap
-            if (curLock.getProcessId() != pid) {
-
-                // Check if the read overlaps with the locked area
-                if (curLock.hasOverlap(offset, len) == true)
-                    return false;
-            }
-        }
-
-        // The lock does not overlap with any existing locks
-        return true;
+        // Check for a lock owned by another process that overlaps with the read
+        return findOverlappingLock(offset, len, pid, true) == null;
     }
 
     /**
@@ -255,36 +295,87 @@ public class FileLockList implements Serializable {
      */
     public final boolean canWriteFile(long offset, long len, int pid) {
 
-        // If the list is empty we can allow the read request
+        // If the list is empty we can allow the write request
         if (numberOfLocks() == 0)
             return true;
 
-        // Search for a lock that prevents the read
-        for (int i = 0; i < numberOfLocks(); i++) {
+        // Check for a lock owned by another process that overlaps with the write
+        return findOverlappingLock(offset, len, pid, true) == null;
+    }
 
-            // Get the current lock details
-            FileLock curLock = getLockAt(i);
+    /**
+     * Return the count of locks in the list.
+     *
+     * @return int Number of locks in the list.
+     */
+    public final int numberOfLocks() {
+        return m_lockIndex.size() + m_lockList.size();
+    }
 
-            // Check if the process owns the lock, if not then check if there is an overlap
-            if (curLock.getProcessId() != pid) {
+    /**
+     * Find a lock that overlaps the specified byte range, optionally ignoring locks owned by the specified process
+     *
+     * @param offset    long
+     * @param len       long
+     * @param pid       int
+     * @param ignorePid boolean
+     * @return FileLock
+     */
+    private FileLock findOverlappingLock(long offset, long len, int pid, boolean ignorePid) {
 
-                // Check if the read overlaps with the locked area
-                if (curLock.hasOverlap(offset, len) == true)
-                    return false;
-            }
+        // Check the unindexed locks, usually whole file locks
+        for (int i = 0; i < m_lockList.size(); i++) {
+            FileLock curLock = m_lockList.get(i);
+            if (curLock.hasOverlap(offset, len) && (ignorePid == false || curLock.getProcessId() != pid))
+                return curLock;
         }
 
-        // The lock does not overlap with any existing locks
-        return true;
+        // Search the lock index
+        return m_lockIndex.findOverlap(offset, len, pid, ignorePid);
     }
 
     /**
-     * Return the count of locks in the list.
+     * Write the lock list
      *
-     * @return int Number of locks in the list.
+     * @param out ObjectOutputStream
+     * @throws IOException I/O error
      */
-    public final int numberOfLocks() {
-        return m_lockList.size();
+    private void writeObject(ObjectOutputStream out)
+            throws IOException {
+
+        // Write the locks
+        out.defaultWriteObject();
+        out.writeInt(numberOfLocks());
+
+        List<FileLock> locks = new ArrayList<FileLock>(numberOfLocks());
+        m_lockIndex.addAllTo(locks);
+        locks.addAll(m_lockList);
+
+        for (FileLock lock : locks)
+            out.writeObject(lock);
+    }
+
+    /**
+     * Read the lock list, and rebuild the lock index
+     *
+     * @param in ObjectInputStream
+     * @throws IOException I/O error
+     * @throws ClassNotFoundException Class not found
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+
+        // Allocate the lock index and list
+        in.defaultReadObject();
+
+        m_lockIndex = new FileLockIndex();
+        m_lockList = new ArrayList<FileLock>();
+
+        // Read the locks
+        int lockCnt = in.readInt();
+
+        for (int i = 0; i < lockCnt; i++)
+            addLock((FileLock) in.readObject());
     }
 
     /**
@@ -299,8 +390,12 @@ public class FileLockList implements Serializable {
         str.append(numberOfLocks());
 
         if (numberOfLocks() > 0) {
-            for (int i = 0; i < numberOfLocks(); i++) {
-                str.append(getLockAt(i));
+            List<FileLock> locks = new ArrayList<FileLock>(numberOfLocks());
+            m_lockIndex.addAllTo(locks);
+            locks.addAll(m_lockList);
+
+            for (FileLock lock : locks) {
+                str.append(lock);
                 str.append(",");
             }
         }
@@ -66,6 +66,9 @@ public class RpcPacket {
     //	Packet pool that owns this packet, if allocated from a pool
     private RpcPacketPool m_ownerPool;
 
+    //	Time the packet was queued for processing, used for thread pool statistics
+    private long m_queueTime;
+
     /**
      * Default constructor
      */
@@ -169,6 +172,15 @@ public class RpcPacket {
         return m_ownerPool;
     }
 
+    /**
+     * Return the time the packet was queued for processing
+     *
+     * @return long
+     */
+    public final long getQueueTime() {
+        return m_queueTime;
+    }
+
     /**
      * Determine if the client address has been set
      *
@@ -461,6 +473,27 @@ public class RpcPacket {
         return DataPacker.getInt(m_buffer, pos);
     }
 
+    /**
+     * Return the service status from an accepted RPC response, this is the first word of the response parameters.
+     * Returns -1 if the RPC was not accepted or the accept status is not success.
+     *
+     * @return int
+     */
+    public final int getServiceStatus() {
+
+        // Check that the RPC was accepted
+        if (DataPacker.getInt(m_buffer, m_offset + 8) != Rpc.CallAccepted)
+            return -1;
+
+        // Check the accept status, follows the verifier
+        int verfLen = DataPacker.getInt(m_buffer, m_offset + 16);
+        if (DataPacker.getInt(m_buffer, m_offset + 20 + verfLen) != Rpc.StsSuccess)
+            return -1;
+
+        // Return the service status
+        return DataPacker.getInt(m_buffer, m_offset + 24 + verfLen);
+    }
+
     /**
      * Align the buffer position on a longword/32bit boundary
      */
@@ -957,6 +990,15 @@ public class RpcPacket {
         m_pktHandler = pktHandler;
     }
 
+    /**
+     * Set the time the packet was queued for processing
+     *
+     * @param queueTime long
+     */
+    public final void setQueueTime(long queueTime) {
+        m_queueTime = queueTime;
+    }
+
     /**
      * Set the XID
      *
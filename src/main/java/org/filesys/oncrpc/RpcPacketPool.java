@@ -200,6 +200,21 @@ public class RpcPacketPool {
      * @return RpcPacket
      */
     public final RpcPacket allocatePacket(int reqSize) {
+        return allocatePacket(reqSize, true);
+    }
+
+    /**
+     * Allocate a packet from the packet pool, optionally waiting for a packet to be released if the pool
+     * allocation limit has been reached
+     *
+     * <p>Non-blocking callers, such as the NIO request handlers, must not wait and will get a null packet
+     * if the pool is exhausted.
+     *
+     * @param reqSize int
+     * @param wait boolean
+     * @return RpcPacket
+     */
+    public final RpcPacket allocatePacket(int reqSize, boolean wait) {
 
         // Check if the packet should come from the small or large packet list
         RpcPacket pkt = null;
@@ -207,19 +222,19 @@ public class RpcPacketPool {
         if (reqSize <= m_smallPktSize) {
 
             // Allocate a packet from the small packet list
-            pkt = allocateSmallPacket();
+            pkt = allocateSmallPacket(wait);
 
             // DEBUG
-            if (m_debug)
+            if (m_debug && pkt != null)
                 Debug.println("RpcPacketPool Allocated (small) " + pkt.getBuffer() + ", len=" + pkt.getBuffer().length
                         + ", list=" + m_smallPackets.size() + "/" + m_smallPktLimit);
         } else {
 
             // Allocate a packet from the large packet list
-            pkt = allocateLargePacket();
+            pkt = allocateLargePacket(wait);
 
             // DEBUG
-            if (m_debug)
+            if (m_debug && pkt != null)
                 Debug.println("RpcPacketPool Allocated (large) " + pkt.getBuffer() + ", len=" + pkt.getBuffer().length
                         + ", list=" + m_largePackets.size() + "/" + m_largePktLimit);
         }
@@ -273,9 +288,10 @@ public class RpcPacketPool {
     /**
      * Allocate, or create, a small RPC packet
      *
+     * @param wait boolean
      * @return RpcPacket
      */
-    private final RpcPacket allocateSmallPacket() {
+    private final RpcPacket allocateSmallPacket(boolean wait) {
 
         RpcPacket pkt = null;
 
@@ -291,7 +307,7 @@ public class RpcPacketPool {
                 // Allocate a new packet
                 pkt = new RpcPacket(m_smallPktSize, this);
                 m_smallPktCount++;
-            } else {
+            } else if (wait == true) {
 
                 // Wait for a packet to be released to the small packet list
                 try {
@@ -318,9 +334,10 @@ public class RpcPacketPool {
     /**
      * Allocate, or create, a large RPC packet
      *
+     * @param wait boolean
      * @return RpcPacket
      */
-    private final RpcPacket allocateLargePacket() {
+    private final RpcPacket allocateLargePacket(boolean wait) {
 
         RpcPacket pkt = null;
 
@@ -336,7 +353,7 @@ public class RpcPacketPool {
                 // Allocate a new packet
                 pkt = new RpcPacket(m_largePktSize, this);
                 m_largePktCount++;
-            } else {
+            } else if (wait == true) {
 
                 // Wait for a packet to be released to the large packet list
                 try {
@@ -19,12 +19,17 @@
 
 package org.filesys.oncrpc;
 
+import java.util.concurrent.ThreadFactory;
+
 import org.filesys.debug.Debug;
+import org.filesys.server.thread.ThreadPoolStatistics;
+import org.filesys.server.thread.VirtualThreads;
 
 /**
  * ONC/RPC Request Thread Pool Class
  *
- * <p>Processes RPC requests using a pool of worker threads.
+ * <p>Processes RPC requests using a pool of worker threads, or using a new virtual thread per request if virtual
+ * threads are enabled and supported by the JVM.
  *
  * @author gkspencer
  */
@@ -41,6 +46,12 @@ public class RpcRequestThreadPool {
     //	Worker threads
     private ThreadWorker[] m_workers;
 
+    //	Virtual thread factory, if requests are run using virtual threads
+    private ThreadFactory m_virtualFactory;
+
+    //	Request statistics
+    private ThreadPoolStatistics m_stats = new ThreadPoolStatistics();
+
     //	RPC dispatcher
     private RpcProcessor m_rpcProcessor;
 
@@ -98,13 +109,13 @@ public class RpcRequestThreadPool {
 
             //	Loop until shutdown
             RpcPacket rpc = null;
-            RpcPacket response = null;
 
             while (mi_shutdown == false) {
 
                 try {
 
                     //	Wait for an RPC request to be queued
+                    rpc = null;
                     rpc = m_queue.removeRequest();
                 }
                 catch (InterruptedException ex) {
@@ -115,41 +126,41 @@ public class RpcRequestThreadPool {
                 }
 
                 //	If the request is valid process it
-                if (rpc != null) {
-
-                    try {
-
-                        //	Process the request
-                        response = m_rpcProcessor.processRpc(rpc);
-                        if (response != null)
-                            response.getPacketHandler().sendRpcResponse(response);
-                    }
-                    catch (Throwable ex) {
-
-                        //	Do not display errors if shutting down
-                        if (mi_shutdown == false) {
-                            Debug.println("Worker " + Thread.currentThread().getName() + ":");
-                            Debug.println(ex);
-                        }
-                    }
-                    finally {
-
-                        //	Release the RPC packet(s) back to the packet pool
-                        if (rpc.getClientProtocol() == Rpc.TCP && rpc.isAllocatedFromPool())
-                            rpc.getOwnerPacketPool().releasePacket(rpc);
-
-                        if (response != null && response.getClientProtocol() == Rpc.TCP &&
-                                response.getBuffer() != rpc.getBuffer() && response.isAllocatedFromPool())
-                            response.getOwnerPacketPool().releasePacket(response);
-
-                    }
-                }
+                if (rpc != null)
+                    processRpcRequest(rpc);
             }
         }
     }
 
     ;
 
+    /**
+     * Virtual Thread Request Inner Class
+     */
+    protected class VirtualRequest implements Runnable {
+
+        //	RPC request to process
+        private RpcPacket mi_rpc;
+
+        /**
+         * Class constructor
+         *
+         * @param rpc RpcPacket
+         */
+        public VirtualRequest(RpcPacket rpc) {
+            mi_rpc = rpc;
+        }
+
+        /**
+         * Run the request
+         */
+        public void run() {
+            processRpcRequest(mi_rpc);
+        }
+    }
+
+    ;
+
     /**
      * Class constructor
      *
@@ -168,10 +179,33 @@ public class RpcRequestThreadPool {
      * @param rpcServer  RpcProcessor
      */
     public RpcRequestThreadPool(String threadName, int poolSize, RpcProcessor rpcServer) {
+        this(threadName, poolSize, rpcServer, false);
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param threadName        String
+     * @param poolSize          int
+     * @param rpcServer         RpcProcessor
+     * @param useVirtualThreads boolean
+     */
+    public RpcRequestThreadPool(String threadName, int poolSize, RpcProcessor rpcServer, boolean useVirtualThreads) {
 
         //	Save the RPC handler
         m_rpcProcessor = rpcServer;
 
+        //	Check if requests should be run using virtual threads
+        if (useVirtualThreads) {
+            m_virtualFactory = VirtualThreads.newThreadFactory(threadName);
+
+            if (m_virtualFactory != null)
+                return;
+
+            //	DEBUG
+            Debug.println("[RPC] Virtual threads not available, using worker thread pool");
+        }
+
         //	Create the request queue
         m_queue = new RpcRequestQueue();
 
@@ -201,16 +235,81 @@ public class RpcRequestThreadPool {
      * @return int
      */
     public final int getNumberOfRequests() {
+        if (isUsingVirtualThreads())
+            return (int) m_stats.getQueueDepth();
         return m_queue.numberOfRequests();
     }
 
+    /**
+     * Check if requests are run using virtual threads
+     *
+     * @return boolean
+     */
+    public final boolean isUsingVirtualThreads() {
+        return m_virtualFactory != null;
+    }
+
+    /**
+     * Return the request statistics
+     *
+     * @return ThreadPoolStatistics
+     */
+    public final ThreadPoolStatistics getStatistics() {
+        return m_stats;
+    }
+
     /**
      * Queue an RPC request to the thread pool for processing
      *
      * @param pkt RpcPacket
      */
     public final void queueRpcRequest(RpcPacket pkt) {
-        m_queue.addRequest(pkt);
+
+        //	Record the queue time
+        pkt.setQueueTime(m_stats.requestQueued());
+
+        //	Run the request on a new virtual thread, or queue to the worker threads
+        if (isUsingVirtualThreads())
+            m_virtualFactory.newThread(new VirtualRequest(pkt)).start();
+        else
+            m_queue.addRequest(pkt);
+    }
+
+    /**
+     * Process an RPC request and send the response
+     *
+     * @param rpc RpcPacket
+     */
+    protected final void processRpcRequest(RpcPacket rpc) {
+
+        //	Update the request statistics
+        long startTime = m_stats.requestStarted(rpc.getQueueTime());
+        RpcPacket response = null;
+
+        try {
+
+            //	Process the request
+            response = m_rpcProcessor.processRpc(rpc);
+            if (response != null)
+                response.getPacketHandler().sendRpcResponse(response);
+        }
+        catch (Throwable ex) {
+            Debug.println("Worker " + Thread.currentThread().getName() + ":");
+            Debug.println(ex);
+        }
+        finally {
+
+            //	Release the RPC packet(s) back to the packet pool
+            if (rpc.getClientProtocol() == Rpc.TCP && rpc.isAllocatedFromPool())
+                rpc.getOwnerPacketPool().releasePacket(rpc);
+
+            if (response != null && response.getClientProtocol() == Rpc.TCP &&
+                    response.getBuffer() != rpc.getBuffer() && response.isAllocatedFromPool())
+                response.getOwnerPacketPool().releasePacket(response);
+
+            //	Update the request statistics
+            m_stats.requestCompleted(startTime);
+        }
     }
 
     /**
@@ -30,12 +30,15 @@ import org.filesys.oncrpc.RpcAuthenticator;
 import org.filesys.oncrpc.RpcNetworkServer;
 import org.filesys.oncrpc.RpcPacket;
 import org.filesys.oncrpc.RpcProcessor;
+import org.filesys.oncrpc.RpcRequestThreadPool;
 import org.filesys.oncrpc.TcpRpcSessionHandler;
 import org.filesys.oncrpc.UdpRpcDatagramHandler;
 import org.filesys.oncrpc.nfs.NFSConfigSection;
+import org.filesys.oncrpc.nio.NIORpcSessionHandler;
 import org.filesys.oncrpc.nfs.NFSHandle;
 import org.filesys.oncrpc.nfs.NFSSrvSession;
 import org.filesys.server.ServerListener;
+import org.filesys.server.SessionHandlerBase;
 import org.filesys.server.Version;
 import org.filesys.server.auth.acl.AccessControl;
 import org.filesys.server.auth.acl.AccessControlManager;
@@ -80,7 +83,7 @@ public class MountServer extends RpcNetworkServer implements RpcProcessor {
     private UdpRpcDatagramHandler m_udpHandler;
 
     //	Incoming session handler for TCP requests
-    private TcpRpcSessionHandler m_tcpHandler;
+    private SessionHandlerBase m_tcpHandler;
 
     //	Tree connection hash
     private TreeConnectionHash m_connections;
@@ -163,11 +166,21 @@ public class MountServer extends RpcNetworkServer implements RpcProcessor {
             udpThread.start();
 
             //	Create the TCP handler for accepting incoming requests
-            m_tcpHandler = new TcpRpcSessionHandler("Mountd", "Mnt", this, this, null, getPort(), MaxRequestSize);
+            if (getNFSConfiguration().hasDisableNIOCode() == false) {
+
+                //	Use the NIO based handler, requests are processed by a small thread pool
+                NIORpcSessionHandler nioHandler = new NIORpcSessionHandler("Mountd", "Mnt", this, this, null, getPort(), MaxRequestSize);
+                nioHandler.setThreadPool(RpcRequestThreadPool.MinimumWorkerThreads);
+
+                m_tcpHandler = nioHandler;
+            }
+            else
+                m_tcpHandler = new TcpRpcSessionHandler("Mountd", "Mnt", this, this, null, getPort(), MaxRequestSize);
+
             m_tcpHandler.initializeSessionHandler(this);
 
             //	Start the UDP request listener is a seperate thread
-            Thread tcpThread = new Thread(m_tcpHandler);
+            Thread tcpThread = new Thread((Runnable) m_tcpHandler);
             tcpThread.setName("Mountd_TCP");
             tcpThread.start();
 
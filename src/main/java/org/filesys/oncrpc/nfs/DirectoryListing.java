@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.oncrpc.nfs;
+
+import java.util.List;
+
+import org.filesys.server.filesys.FileInfo;
+
+/**
+ * Directory Listing Class
+ *
+ * <p>Snapshot of the contents of a directory, including the file attributes, taken at the start of a READDIR or
+ * READDIRPLUS listing. Continuation requests are served from the snapshot using the position encoded in the cookie.
+ *
+ * <p>Positions zero and one are the '.' and '..' entries, the directory entries follow.
+ *
+ * @author gkspencer
+ */
+public class DirectoryListing {
+
+    // Number of positions used by the '.' and '..' entries
+    public static final int DotEntries = 2;
+
+    // Listing id, used in the high 32 bits of the cookies
+    private int m_id;
+
+    // Share id and share relative path of the directory
+    private int m_shareId;
+    private String m_path;
+
+    // Cookie verifier, the directory modification date/time when the listing was taken
+    private long m_verifier;
+
+    // Parent directory information, for the '..' entry
+    private FileInfo m_parentInfo;
+
+    // Directory entries
+    private List<FileInfo> m_entries;
+
+    // Last access time
+    private volatile long m_lastAccess;
+
+    /**
+     * Class constructor
+     *
+     * @param id         int
+     * @param shareId    int
+     * @param path       String
+     * @param verifier   long
+     * @param parentInfo FileInfo
+     * @param entries    List&lt;FileInfo&gt;
+     */
+    protected DirectoryListing(int id, int shareId, String path, long verifier, FileInfo parentInfo, List<FileInfo> entries) {
+        m_id = id;
+        m_shareId = shareId;
+        m_path = path;
+        m_verifier = verifier;
+        m_parentInfo = parentInfo;
+        m_entries = entries;
+
+        m_lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * Return the listing id
+     *
+     * @return int
+     */
+    public final int getId() {
+        return m_id;
+    }
+
+    /**
+     * Return the share id
+     *
+     * @return int
+     */
+    public final int getShareId() {
+        return m_shareId;
+    }
+
+    /**
+     * Return the directory path
+     *
+     * @return String
+     */
+    public final String getPath() {
+        return m_path;
+    }
+
+    /**
+     * Return the cookie verifier
+     *
+     * @return long
+     */
+    public final long getVerifier() {
+        return m_verifier;
+    }
+
+    /**
+     * Check if a cookie verifier from a client matches the listing, also checks the reverse byte order
+     *
+     * @param verf long
+     * @return boolean
+     */
+    public final boolean isValidVerifier(long verf) {
+        return verf == 0L || verf == m_verifier || Long.reverseBytes(verf) == m_verifier;
+    }
+
+    /**
+     * Check if the listing is for the specified directory
+     *
+     * @param shareId int
+     * @param path    String
+     * @return boolean
+     */
+    public final boolean isDirectory(int shareId, String path) {
+        return m_shareId == shareId && m_path.equals(path);
+    }
+
+    /**
+     * Return the parent directory information
+     *
+     * @return FileInfo
+     */
+    public final FileInfo getParentInformation() {
+        return m_parentInfo;
+    }
+
+    /**
+     * Return the number of directory entries, excluding the '.' and '..' entries
+     *
+     * @return int
+     */
+    public final int numberOfEntries() {
+        return m_entries.size();
+    }
+
+    /**
+     * Return the number of positions in the listing, including the '.' and '..' entries
+     *
+     * @return int
+     */
+    public final int numberOfPositions() {
+        return m_entries.size() + DotEntries;
+    }
+
+    /**
+     * Return the directory entry at the specified position, positions zero and one are the '.' and '..' entries
+     *
+     * @param pos int
+     * @return FileInfo
+     */
+    public final FileInfo getEntryAt(int pos) {
+        return m_entries.get(pos - DotEntries);
+    }
+
+    /**
+     * Return the cookie for the entry at the specified position, the cookie is the position of the following entry
+     *
+     * @param pos int
+     * @return long
+     */
+    public final long getCookie(int pos) {
+        return (((long) m_id) << 32) + pos + 1;
+    }
+
+    /**
+     * Return the last access time
+     *
+     * @return long
+     */
+    public final long getLastAccess() {
+        return m_lastAccess;
+    }
+
+    /**
+     * Update the last access time
+     */
+    public final void updateLastAccess() {
+        m_lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * Return the listing as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[Listing id=");
+        str.append(m_id);
+        str.append(", share=");
+        str.append(m_shareId);
+        str.append(", path=");
+        str.append(m_path);
+        str.append(", entries=");
+        str.append(m_entries.size());
+        str.append("]");
+
+        return str.toString();
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.oncrpc.nfs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.filesys.debug.Debug;
+import org.filesys.server.filesys.FileInfo;
+
+/**
+ * Directory Listing Cache Class
+ *
+ * <p>Holds the directory listing snapshots for active READDIR and READDIRPLUS listings, for all sessions. The listing
+ * id is held in the high 32 bits of the cookies returned to the client, and the position within the listing in the
+ * low 32 bits, so continuation requests do not need to restart a search on the filesystem.
+ *
+ * <p>The cache is limited by the total number of directory entries held, the least recently used listings are
+ * removed when the limit is reached. Listings that have not been accessed within the listing timeout are removed when
+ * new listings are added.
+ *
+ * @author gkspencer
+ */
+public class DirectoryListingCache {
+
+    // Default maximum number of directory entries held by the cache
+    public static final int DefaultMaximumEntries = 500000;
+
+    // Default listing timeout
+    public static final long DefaultListingTimeout = 60000L;    // 1 minute
+
+    // Mask for the listing id and position in a cookie
+    public static final long CookiePositionMask = 0xFFFFFFFFL;
+
+    // Active listings, in least recently used order
+    private LinkedHashMap<Integer, DirectoryListing> m_listings;
+
+    // Total number of entries held by the active listings
+    private long m_entryCount;
+
+    // Maximum number of entries and listing timeout
+    private int m_maxEntries;
+    private long m_listingTmo;
+
+    // Next listing id to allocate
+    private int m_nextId = 1;
+
+    // Time of the last expiry check
+    private long m_lastExpiry;
+
+    // Debug enable flag
+    private boolean m_debug;
+
+    /**
+     * Default constructor
+     */
+    public DirectoryListingCache() {
+        this(DefaultMaximumEntries, DefaultListingTimeout);
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param maxEntries int
+     * @param listingTmo long
+     */
+    public DirectoryListingCache(int maxEntries, long listingTmo) {
+        m_maxEntries = maxEntries;
+        m_listingTmo = listingTmo;
+
+        m_listings = new LinkedHashMap<Integer, DirectoryListing>(64, 0.75f, true);
+    }
+
+    /**
+     * Return the listing id from a cookie
+     *
+     * @param cookie long
+     * @return int
+     */
+    public static int getListingId(long cookie) {
+        return (int) (cookie >>> 32);
+    }
+
+    /**
+     * Return the listing position from a cookie
+     *
+     * @param cookie long
+     * @return int
+     */
+    public static int getPosition(long cookie) {
+        return (int) (cookie & CookiePositionMask);
+    }
+
+    /**
+     * Determine if debug output is enabled
+     *
+     * @return boolean
+     */
+    public final boolean hasDebug() {
+        return m_debug;
+    }
+
+    /**
+     * Return the number of active listings
+     *
+     * @return int
+     */
+    public final synchronized int numberOfListings() {
+        return m_listings.size();
+    }
+
+    /**
+     * Return the total number of entries held by the active listings
+     *
+     * @return long
+     */
+    public final synchronized long numberOfEntries() {
+        return m_entryCount;
+    }
+
+    /**
+     * Add a new directory listing to the cache
+     *
+     * @param shareId    int
+     * @param path       String
+     * @param verifier   long
+     * @param parentInfo FileInfo
+     * @param entries    List&lt;FileInfo&gt;
+     * @return DirectoryListing
+     */
+    public final synchronized DirectoryListing addListing(int shareId, String path, long verifier, FileInfo parentInfo,
+                                                          List<FileInfo> entries) {
+
+        // Remove expired listings, and make room for the new listing
+        long timeNow = System.currentTimeMillis();
+
+        if (timeNow - m_lastExpiry > m_listingTmo / 4) {
+            expireListings(timeNow);
+            m_lastExpiry = timeNow;
+        }
+
+        Iterator<DirectoryListing> iter = m_listings.values().iterator();
+
+        while (m_entryCount + entries.size() > m_maxEntries && iter.hasNext()) {
+            DirectoryListing listing = iter.next();
+            iter.remove();
+
+            m_entryCount -= listing.numberOfEntries();
+
+            // DEBUG
+            if (Debug.EnableInfo && hasDebug())
+                Debug.println("[NFS] Directory listing cache full, removed " + listing);
+        }
+
+        // Allocate a listing id, the id must not be zero so that cookies are never zero
+        int id = m_nextId;
+
+        while (id <= 0 || m_listings.containsKey(id)) {
+            id++;
+            if (id <= 0)
+                id = 1;
+        }
+
+        m_nextId = id + 1;
+
+        // Create the listing and add to the cache
+        DirectoryListing listing = new DirectoryListing(id, shareId, path, verifier, parentInfo, entries);
+
+        m_listings.put(id, listing);
+        m_entryCount += entries.size();
+
+        return listing;
+    }
+
+    /**
+     * Find an active listing
+     *
+     * @param id int
+     * @return DirectoryListing
+     */
+    public final synchronized DirectoryListing findListing(int id) {
+
+        // Find the listing, update the last access time
+        DirectoryListing listing = m_listings.get(id);
+        if (listing != null)
+            listing.updateLastAccess();
+
+        return listing;
+    }
+
+    /**
+     * Remove a listing from the cache
+     *
+     * @param listing DirectoryListing
+     */
+    public final synchronized void removeListing(DirectoryListing listing) {
+        if (m_listings.remove(listing.getId()) != null)
+            m_entryCount -= listing.numberOfEntries();
+    }
+
+    /**
+     * Remove listings that have not been accessed within the listing timeout, must be called with the cache locked
+     *
+     * @param timeNow long
+     */
+    private final void expireListings(long timeNow) {
+
+        // Listings are in least recently used order so stop at the first listing that has not expired
+        Iterator<DirectoryListing> iter = m_listings.values().iterator();
+
+        while (iter.hasNext()) {
+            DirectoryListing listing = iter.next();
+
+            if (timeNow - listing.getLastAccess() < m_listingTmo)
+                break;
+
+            iter.remove();
+            m_entryCount -= listing.numberOfEntries();
+
+            // DEBUG
+            if (Debug.EnableInfo && hasDebug())
+                Debug.println("[NFS] Directory listing expired " + listing);
+        }
+    }
+
+    /**
+     * Enable/disable debug output
+     *
+     * @param dbg boolean
+     */
+    public final void setDebug(boolean dbg) {
+        m_debug = dbg;
+    }
+
+    /**
+     * Return the cache details as a string
+     *
+     * @return String
+     */
+    public synchronized String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[DirectoryListingCache listings=");
+        str.append(m_listings.size());
+        str.append(", entries=");
+        str.append(m_entryCount);
+        str.append("/");
+        str.append(m_maxEntries);
+        str.append("]");
+
+        return str.toString();
+    }
+}
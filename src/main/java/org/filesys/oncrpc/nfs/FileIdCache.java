@@ -19,25 +19,94 @@
 
 package org.filesys.oncrpc.nfs;
 
-import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.filesys.util.ConcurrentIntMap;
+import org.filesys.util.TimerWheel;
 
 /**
  * File Id Cache Class
  *
  * <p>Converts a file/directory id to a share relative path.
  *
+ * <p>The cache is bounded, when the maximum number of entries is reached the least recently added/used entries
+ * are removed. Entries may also be expired after a period of no access. Filesystems that support lookup by file
+ * id can rebuild a path that has been removed from the cache, for other filesystems a removed path results in a
+ * stale handle error, so the limits should be large.
+ *
  * @author gkspencer
  */
 public class FileIdCache {
 
+    // Default maximum number of entries
+    public static final int DefaultMaximumEntries = 1000000;
+
+    // Default idle timeout for filesystems that can rebuild paths using the file id, in milliseconds
+    public static final long DefaultIdleTimeout = 60L * 60L * 1000L;    // 1 hour
+
+    // Expiry timer tick interval and number of slots
+    private static final long ExpiryTick  = 60000L;     // 1 minute
+    private static final int ExpirySlots  = 64;
+
+    // Number of entries removed in one pass when the cache is full
+    private static final int EvictBatchSize = 64;
+
     //	File id to path cache
-    private Hashtable<Integer, String> m_idCache;
+    private ConcurrentIntMap<PathEntry> m_idCache;
+
+    // Expiry timer wheel, ordered by last access when an idle timeout is set, else by insertion time
+    private TimerWheel<PathEntry> m_expiry;
+
+    // Maximum number of entries, and idle timeout or zero if entries are only removed when the cache is full
+    private int m_maxEntries;
+    private long m_idleTmo;
+
+    // Cache statistics
+    private AtomicLong m_hits = new AtomicLong();
+    private AtomicLong m_misses = new AtomicLong();
+    private AtomicLong m_evictions = new AtomicLong();
+
+    /**
+     * Path Entry Class
+     */
+    private static final class PathEntry extends TimerWheel.Entry {
+
+        // File id and path
+        private int mi_fid;
+        private String mi_path;
+
+        /**
+         * Class constructor
+         *
+         * @param fid  int
+         * @param path String
+         */
+        PathEntry(int fid, String path) {
+            mi_fid = fid;
+            mi_path = path;
+        }
+    }
 
     /**
      * Default constructor
      */
     public FileIdCache() {
-        m_idCache = new Hashtable<Integer, String>();
+        this(DefaultMaximumEntries, 0L);
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param maxEntries int
+     * @param idleTmo    long
+     */
+    public FileIdCache(int maxEntries, long idleTmo) {
+        m_idCache = new ConcurrentIntMap<PathEntry>(ConcurrentIntMap.MaximumSegments, ConcurrentIntMap.DefaultSegmentSize);
+        m_expiry = new TimerWheel<PathEntry>(ExpiryTick, ExpirySlots);
+
+        m_maxEntries = maxEntries > 0 ? maxEntries : DefaultMaximumEntries;
+        m_idleTmo = idleTmo;
     }
 
     /**
@@ -47,7 +116,25 @@ public class FileIdCache {
      * @param path String
      */
     public final void addPath(int fid, String path) {
-        m_idCache.put(new Integer(fid), path);
+
+        // Create the new entry and replace any existing entry
+        long timeNow = System.currentTimeMillis();
+
+        PathEntry entry = new PathEntry(fid, path);
+        entry.setExpiryTime(timeNow + getEntryLifetime());
+
+        PathEntry oldEntry = m_idCache.put(fid, entry);
+        if (oldEntry != null)
+            oldEntry.cancel();
+
+        m_expiry.schedule(entry);
+
+        // Expire idle entries and check if the cache is full
+        if (m_expiry.isDue(timeNow))
+            expireEntries(timeNow);
+
+        if (oldEntry == null && m_idCache.size() > m_maxEntries)
+            evictEntries();
     }
 
     /**
@@ -57,7 +144,21 @@ public class FileIdCache {
      * @return String
      */
     public final String findPath(int fid) {
-        return m_idCache.get(new Integer(fid));
+
+        PathEntry entry = m_idCache.get(fid);
+
+        if (entry == null) {
+            m_misses.incrementAndGet();
+            return null;
+        }
+
+        m_hits.incrementAndGet();
+
+        // Refresh the idle timeout
+        if (m_idleTmo > 0L)
+            entry.setExpiryTime(System.currentTimeMillis() + m_idleTmo);
+
+        return entry.mi_path;
     }
 
     /**
@@ -66,6 +167,134 @@ public class FileIdCache {
      * @param fid int
      */
     public final void deletePath(int fid) {
-        m_idCache.remove(new Integer(fid));
+        PathEntry entry = m_idCache.remove(fid);
+        if (entry != null)
+            entry.cancel();
+    }
+
+    /**
+     * Return the count of entries in the cache
+     *
+     * @return int
+     */
+    public final int numberOfEntries() {
+        return m_idCache.size();
+    }
+
+    /**
+     * Return the maximum number of entries
+     *
+     * @return int
+     */
+    public final int getMaximumEntries() {
+        return m_maxEntries;
+    }
+
+    /**
+     * Return the idle timeout, in milliseconds, or zero if entries do not expire
+     *
+     * @return long
+     */
+    public final long getIdleTimeout() {
+        return m_idleTmo;
+    }
+
+    /**
+     * Return the count of lookups that found a path
+     *
+     * @return long
+     */
+    public final long getHitCount() {
+        return m_hits.get();
+    }
+
+    /**
+     * Return the count of lookups that did not find a path
+     *
+     * @return long
+     */
+    public final long getMissCount() {
+        return m_misses.get();
+    }
+
+    /**
+     * Return the count of entries removed because the cache was full or the entry was idle
+     *
+     * @return long
+     */
+    public final long getEvictionCount() {
+        return m_evictions.get();
+    }
+
+    /**
+     * Return the lifetime of a new or refreshed entry
+     *
+     * @return long
+     */
+    private long getEntryLifetime() {
+
+        // Without an idle timeout entries stay in the wheel for one turn, then are requeued in insertion order
+        return m_idleTmo > 0L ? m_idleTmo : ExpiryTick * ExpirySlots;
+    }
+
+    /**
+     * Remove entries that have been idle for longer than the idle timeout
+     *
+     * @param timeNow long
+     */
+    private void expireEntries(long timeNow) {
+
+        List<PathEntry> expired = m_expiry.advance(timeNow);
+        if (expired == null)
+            return;
+
+        for (PathEntry entry : expired) {
+
+            // Requeue the entry if there is no idle timeout
+            if (m_idleTmo == 0L) {
+                entry.setExpiryTime(timeNow + getEntryLifetime());
+                m_expiry.schedule(entry);
+            }
+            else if (m_idCache.remove(entry.mi_fid, entry))
+                m_evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Remove the oldest entries when the cache is full
+     */
+    private void evictEntries() {
+
+        int cnt = m_idCache.size() - m_maxEntries;
+        if (cnt <= 0)
+            return;
+
+        for (PathEntry entry : m_expiry.removeOldest(Math.max(cnt, EvictBatchSize))) {
+            if (m_idCache.remove(entry.mi_fid, entry))
+                m_evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Return the cache details as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[FileIdCache entries=");
+        str.append(numberOfEntries());
+        str.append("/");
+        str.append(getMaximumEntries());
+        str.append(", hits=");
+        str.append(getHitCount());
+        str.append(", misses=");
+        str.append(getMissCount());
+        str.append(", evictions=");
+        str.append(getEvictionCount());
+        str.append("]");
+
+        return str.toString();
     }
 }
@@ -75,6 +75,16 @@ public class NFSConfigSection extends ConfigSection {
 
     private boolean m_nfsFileCacheDebug;
 
+    //  Disable the NIO based RPC over TCP transport
+    private boolean m_disableNIO;
+
+    //  UNSTABLE write gather cache size per share, zero disables write gathering
+    private long m_writeGatherSize = WriteGatherCache.DefaultCacheSize;
+
+    //  Maximum open files per session file cache, and maximum entries per share file id cache
+    private int m_fileCacheMaxFiles = NetworkFileCache.DefaultMaximumFiles;
+    private int m_fileIdCacheSize = FileIdCache.DefaultMaximumEntries;
+
     /**
      * Class constructor
      *
@@ -220,6 +230,116 @@ public class NFSConfigSection extends ConfigSection {
         return m_nfsFileCacheDebug;
     }
 
+    /**
+     * Determine if the NIO based RPC over TCP transport should be disabled, and the thread per connection
+     * transport used
+     *
+     * @return boolean
+     */
+    public final boolean hasDisableNIOCode() {
+        return m_disableNIO;
+    }
+
+    /**
+     * Return the UNSTABLE write gather cache size per share, in bytes. Zero indicates that write gathering is
+     * disabled.
+     *
+     * @return long
+     */
+    public final long getNFSWriteGatherSize() {
+        return m_writeGatherSize;
+    }
+
+    /**
+     * Return the maximum number of open files per session file cache
+     *
+     * @return int
+     */
+    public final int getNFSFileCacheMaximumFiles() {
+        return m_fileCacheMaxFiles;
+    }
+
+    /**
+     * Return the maximum number of file id to path entries per share
+     *
+     * @return int
+     */
+    public final int getNFSFileIdCacheSize() {
+        return m_fileIdCacheSize;
+    }
+
+    /**
+     * Set the UNSTABLE write gather cache size per share, in bytes
+     *
+     * @param cacheSize long
+     * @return int
+     * @exception InvalidConfigurationException Error setting the write gather cache size
+     */
+    public final int setNFSWriteGatherSize(long cacheSize)
+            throws InvalidConfigurationException {
+
+        //  Inform listeners, validate the configuration change
+        int sts = fireConfigurationChange(ConfigId.NFSWriteGatherSize, new Long(cacheSize));
+        m_writeGatherSize = cacheSize;
+
+        //  Return the change status
+        return sts;
+    }
+
+    /**
+     * Set the maximum number of open files per session file cache
+     *
+     * @param maxFiles int
+     * @return int
+     * @exception InvalidConfigurationException Error setting the maximum open files
+     */
+    public final int setNFSFileCacheMaximumFiles(int maxFiles)
+            throws InvalidConfigurationException {
+
+        //  Inform listeners, validate the configuration change
+        int sts = fireConfigurationChange(ConfigId.NFSFileCacheMaxFiles, new Integer(maxFiles));
+        m_fileCacheMaxFiles = maxFiles;
+
+        //  Return the change status
+        return sts;
+    }
+
+    /**
+     * Set the maximum number of file id to path entries per share
+     *
+     * @param cacheSize int
+     * @return int
+     * @exception InvalidConfigurationException Error setting the file id cache size
+     */
+    public final int setNFSFileIdCacheSize(int cacheSize)
+            throws InvalidConfigurationException {
+
+        //  Inform listeners, validate the configuration change
+        int sts = fireConfigurationChange(ConfigId.NFSFileIdCacheSize, new Integer(cacheSize));
+        m_fileIdCacheSize = cacheSize;
+
+        //  Return the change status
+        return sts;
+    }
+
+    /**
+     * Set the disable NIO RPC transport flag
+     *
+     * @param disableNIO boolean
+     * @return int
+     * @exception InvalidConfigurationException Error setting the disable NIO flag
+     */
+    public final int setDisableNIOCode(boolean disableNIO)
+            throws InvalidConfigurationException {
+
+        //  Inform listeners, validate the configuration change
+        int sts = fireConfigurationChange(ConfigId.NFSDisableNIO, new Boolean(disableNIO));
+        m_disableNIO = disableNIO;
+
+        //  Return the change status
+        return sts;
+    }
+
     /**
      * Set the NFS port mapper enable flag
      *
@@ -22,7 +22,9 @@ package org.filesys.oncrpc.nfs;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.DirectoryNotEmptyException;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 
 import org.filesys.debug.Debug;
 import org.filesys.oncrpc.AuthType;
@@ -37,18 +39,24 @@ import org.filesys.oncrpc.RpcPacket;
 import org.filesys.oncrpc.RpcPacketPool;
 import org.filesys.oncrpc.RpcProcessor;
 import org.filesys.oncrpc.RpcRequestThreadPool;
+import org.filesys.oncrpc.nio.NIORpcSessionHandler;
 import org.filesys.server.ServerListener;
+import org.filesys.server.SessionHandlerBase;
 import org.filesys.server.SrvSession;
 import org.filesys.server.Version;
 import org.filesys.server.auth.ISMBAuthenticator;
 import org.filesys.server.auth.acl.AccessControl;
 import org.filesys.server.auth.acl.AccessControlManager;
+import org.filesys.server.config.CoreServerConfigSection;
 import org.filesys.server.config.ServerConfiguration;
 import org.filesys.server.core.InvalidDeviceInterfaceException;
 import org.filesys.server.core.ShareType;
 import org.filesys.server.core.SharedDevice;
 import org.filesys.server.core.SharedDeviceList;
 import org.filesys.server.filesys.*;
+import org.filesys.server.filesys.readahead.ReadAheadCache;
+import org.filesys.server.stats.CommandStatistics;
+import org.filesys.server.stats.ProtocolStatistics;
 import org.filesys.util.HexDump;
 
 /**
@@ -58,7 +66,7 @@ import org.filesys.util.HexDump;
  *
  * @author gkspencer
  */
-public class NFSServer extends RpcNetworkServer implements RpcProcessor {
+public class NFSServer extends RpcNetworkServer implements RpcProcessor, WriteGatherListener {
 
     //  Constants
     //
@@ -94,17 +102,6 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
     public static final int MODE_DIR_DEFAULT    = MODE_STDIR + (MODE_STREAD | MODE_STWRITE);
     public static final int MODE_FILE_DEFAULT   = MODE_STFILE + (MODE_STREAD | MODE_STWRITE);
 
-    //	Readdir/Readdirplus cookie masks/shift
-    //
-    //	32bit cookies (required by Solaris)
-    public static final long COOKIE_RESUMEID_MASK = 0x00FFFFFFL;
-    public static final long COOKIE_SEARCHID_MASK = 0xFF000000L;
-    public static final int COOKIE_SEARCHID_SHIFT = 24;
-
-    //	Cookie ids for . and .. directory entries
-    public static final long COOKIE_DOT_DIRECTORY       = 0x00FFFFFFL;
-    public static final long COOKIE_DOTDOT_DIRECTORY    = 0x00FFFFFEL;
-
     //	ReadDir and ReadDirPlus reply header and per file fixed structure lengths.
     //
     //	Add file name length rounded to 4 byte boundary to the per file structure
@@ -141,7 +138,7 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
     private MultiThreadedUdpRpcDatagramHandler m_udpHandler;
 
     //	Incoming session handler for TCP requests
-    private MultiThreadedTcpRpcSessionHandler m_tcpHandler;
+    private SessionHandlerBase m_tcpHandler;
 
     //	Share details hash
     private ShareDetailsHash m_shareDetails;
@@ -168,8 +165,21 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
     //	RPC authenticator, from the main server configuration
     private RpcAuthenticator m_rpcAuthenticator;
 
-    //	Write verifier, generated from the server start time
-    private long m_writeVerifier;
+    //	Write verifier, generated from the server start time. Changed if gathered UNSTABLE write data cannot be
+    //	written out so that clients resend any uncommitted data.
+    private volatile long m_writeVerifier;
+
+    // NFS procedure statistics, if statistics are enabled
+    private ProtocolStatistics m_procStats;
+
+    // Read-ahead cache for sequential reads, if enabled
+    private ReadAheadCache m_readAhead;
+
+    // Directory listing snapshots for active READDIR/READDIRPLUS listings
+    private DirectoryListingCache m_dirCache;
+
+    // File expiry thread shared by the per session open file caches
+    private NetworkFileExpiry m_fileExpiry;
 
     /**
      * Class constructor
@@ -226,6 +236,15 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
         return m_nfsConfig;
     }
 
+    /**
+     * Return the file expiry thread shared by the session open file caches
+     *
+     * @return NetworkFileExpiry
+     */
+    protected final NetworkFileExpiry getFileExpiry() {
+        return m_fileExpiry;
+    }
+
     /**
      * Set the port to use
      *
@@ -247,6 +266,13 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
             m_shareDetails = new ShareDetailsHash();
             m_connections = new TreeConnectionHash();
 
+            //	Create the directory listing cache
+            m_dirCache = new DirectoryListingCache();
+            m_dirCache.setDebug(hasDebugFlag(DBG_SEARCH));
+
+            //	Start the open file expiry thread
+            m_fileExpiry = new NetworkFileExpiry("NFS", NetworkFileExpiry.DefaultTickInterval);
+
             checkForNewShares();
 
             //	Get the thread pool and packet pool sizes
@@ -260,8 +286,20 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
             if (getNFSConfiguration().getNFSPacketPoolSize() > 0)
                 packetPoolSize = getNFSConfiguration().getNFSPacketPoolSize();
 
+            //	Check if RPC requests should be run using virtual threads
+            CoreServerConfigSection coreConfig = (CoreServerConfigSection) getConfiguration().getConfigSection(CoreServerConfigSection.SectionName);
+            boolean virtualThreads = coreConfig != null && coreConfig.useVirtualThreads();
+
+            //	Create the per procedure statistics, if enabled
+            if (coreConfig != null && coreConfig.hasStatistics())
+                m_procStats = coreConfig.getStatistics().getProtocolStatistics("NFS", NFS.ProcMax + 1);
+
+            //	Use the read-ahead cache for file reads, if enabled
+            if (coreConfig != null)
+                m_readAhead = coreConfig.getReadAheadCache();
+
             //	Create the share thread pool for RPC processing
-            m_threadPool = new RpcRequestThreadPool("NFS", threadPoolSize, this);
+            m_threadPool = new RpcRequestThreadPool("NFS", threadPoolSize, this, virtualThreads);
 
             //	Create the shared packet pool
             m_packetPool = new RpcPacketPool(MaxRequestSize, packetPoolSize);
@@ -280,17 +318,29 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
             udpThread.setName("NFS_UDP");
             udpThread.start();
 
-            //	Create the TCP handler for accepting incoming requests
-            m_tcpHandler = new MultiThreadedTcpRpcSessionHandler("Nfsd", "Nfs", this, this, null, getPort(), MaxRequestSize);
+            //	Create the TCP handler for accepting incoming requests, the NIO based handler is used unless disabled
+            //	and uses the shared thread pool and packet pool
+            if (getNFSConfiguration().hasDisableNIOCode() == false) {
+                NIORpcSessionHandler nioHandler = new NIORpcSessionHandler("Nfsd", "Nfs", this, this, null, getPort(), MaxRequestSize);
 
-            //	Use the shared thread pool and packet pool
-            m_tcpHandler.setThreadPool(m_threadPool);
-            m_tcpHandler.setPacketPool(m_packetPool);
+                nioHandler.setThreadPool(m_threadPool);
+                nioHandler.setPacketPool(m_packetPool);
+
+                m_tcpHandler = nioHandler;
+            }
+            else {
+                MultiThreadedTcpRpcSessionHandler mtHandler = new MultiThreadedTcpRpcSessionHandler("Nfsd", "Nfs", this, this, null, getPort(), MaxRequestSize);
+
+                mtHandler.setThreadPool(m_threadPool);
+                mtHandler.setPacketPool(m_packetPool);
+
+                m_tcpHandler = mtHandler;
+            }
 
             m_tcpHandler.initializeSessionHandler(this);
 
-            //	Start the UDP request listener is a seperate thread
-            Thread tcpThread = new Thread(m_tcpHandler);
+            //	Start the TCP request listener is a seperate thread
+            Thread tcpThread = new Thread((Runnable) m_tcpHandler);
             tcpThread.setName("NFS_TCP");
             tcpThread.start();
 
@@ -349,6 +399,18 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
         //  Stop the thread pool
         m_threadPool.shutdownThreadPool();
 
+        //  Stop the open file expiry thread
+        if (m_fileExpiry != null)
+            m_fileExpiry.requestShutdown();
+
+        //  Write out any gathered write data
+        if (m_shareDetails != null) {
+            for (ShareDetails details : m_shareDetails.getShareDetails().values()) {
+                if (details.hasWriteCache() && details.getWriteCache().flushAll() > 0)
+                    Debug.println("[NFS] Failed to write gathered data for share " + details.getName());
+            }
+        }
+
         //	Fire a shutdown notification event
         fireServerEvent(ServerListener.ServerShutdown);
 
@@ -403,6 +465,11 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
         //	Position the RPC buffer pointer at the start of the call parameters
         rpc.positionAtParameters();
 
+        //	Save the request details for the procedure statistics
+        int procId = rpc.getProcedureId();
+        int reqLen = rpc.getLength();
+        long startTime = m_procStats != null ? System.nanoTime() : 0L;
+
         //	Process the RPC request
         RpcPacket response = null;
 
@@ -523,6 +590,18 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
         if (nfsSess != null)
             nfsSess.endTransaction();
 
+        //	Update the procedure statistics
+        if (m_procStats != null) {
+            CommandStatistics stats = m_procStats.getCommand(procId, NFS.getProcedureName(procId));
+
+            if (stats != null) {
+                if (response != null)
+                    stats.requestCompleted(startTime, response.getServiceStatus() != NFS.StsSuccess, reqLen, response.getLength());
+                else
+                    stats.requestCompleted(startTime, true, reqLen, 0L);
+            }
+        }
+
         //	Dump the response
         if (Debug.EnableInfo && hasDebugFlag(DBG_DUMPDATA)) {
             Debug.println("NFS Resp=" + (rpc != null ? rpc.toString() : "<Null>"));
@@ -611,9 +690,13 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
                 //  Blend in live file details, if the file is open
                 if (netFile != null) {
 
-                    // Update file size from open file
+                    // Update file size from open file, including any gathered write data
                     finfo.setFileSize(netFile.getFileSize());
 
+                    long pendingSize = getGatheredFileSize(shareId, netFile.getFileId());
+                    if (pendingSize > finfo.getSize())
+                        finfo.setFileSize(pendingSize);
+
                     //  DEBUG
                     if (Debug.EnableInfo && hasDebugFlag(DBG_INFO))
                         sess.debugPrintln("GetAttr added details from open file");
@@ -708,6 +791,10 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
             //	Get the disk interface from the disk driver
             DiskInterface disk = (DiskInterface) conn.getSharedDevice().getInterface();
 
+            //	Write out any gathered write data for the file, so a size change is applied after the writes
+            if (NFSHandle.isFileHandle(handle))
+                flushGatheredWrites(shareId, getFileIdForHandle(handle));
+
             //	Get the current file information
             FileInfo oldInfo = disk.getFileInformation(sess, conn, path);
 
@@ -841,6 +928,7 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
 
                     //	Change the file size
                     disk.truncateFile(sess, conn, netFile, fsize);
+                    discardReadAhead(conn, netFile, fsize, -1L);
 
                     //	Close the file
 //					netFile.close();
@@ -1339,6 +1427,9 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
             //	Get the network file, it may be cached
             netFile = getNetworkFileForHandle(sess, handle, conn, true);
 
+            //	Write out any gathered write data for the file before reading
+            flushGatheredWrites(shareId, netFile.getFileId());
+
             //	Get the disk interface from the disk driver
             DiskInterface disk = (DiskInterface) conn.getSharedDevice().getInterface();
 
@@ -1365,10 +1456,16 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
                 if (netFile.isClosed())
                     netFile.openFile(false);
 
-                //	Read a block of data from the file
-                rdlen = disk.readFile(sess, conn, netFile, rpc.getBuffer(), bufPos + 12, count, offset);
+                //	Read a block of data from the file, if read-ahead is not enabled
+                if (m_readAhead == null)
+                    rdlen = disk.readFile(sess, conn, netFile, rpc.getBuffer(), bufPos + 12, count, offset);
             }
 
+            //	Read via the read-ahead cache, outside of the network file lock as the read may wait for a
+            //	read-ahead load
+            if (m_readAhead != null)
+                rdlen = m_readAhead.readFile(sess, conn, disk, netFile, rpc.getBuffer(), bufPos + 12, count, offset);
+
             //	Set the read length and end of file flag
             rpc.packInt(rdlen);
             rpc.packInt(rdlen < count ? Rpc.True : Rpc.False);
@@ -1465,7 +1562,10 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
             //	Get the disk interface from the disk driver
             DiskInterface disk = (DiskInterface) conn.getSharedDevice().getInterface();
 
-            //	Check if threaded writes should be used
+            //	Get the write gather cache for the share, if enabled
+            ShareDetails details = m_shareDetails.findDetails(shareId);
+            WriteGatherCache writeCache = details != null ? details.getWriteCache() : null;
+
             FileInfo preInfo = null;
 
             synchronized (netFile) {
@@ -1476,17 +1576,45 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
 
                 //	Get the pre-operation file details
                 preInfo = disk.getFileInformation(sess, conn, path);
+            }
+
+            //	Gather UNSTABLE writes in memory until the client commits the data, if the cache is full write the
+            //	data directly to the file
+            boolean gathered = false;
+
+            if (stable == NFS.WriteUnstable && writeCache != null)
+                gathered = writeCache.gatherWrite(sess, conn, netFile, rpc.getBuffer(), rpc.getPosition(), count, offset);
+
+            if (gathered == false) {
+
+                //	Write out any gathered data for the file first, so overlapping writes are applied in order
+                if (writeCache != null)
+                    writeCache.flushFile(netFile.getFileId());
+
+                synchronized (netFile) {
 
-                //	Write to the network file
-                disk.writeFile(sess, conn, netFile, rpc.getBuffer(), rpc.getPosition(), count, offset);
+                    //	Make sure the network file is open
+                    if (netFile.isClosed())
+                        netFile.openFile(false);
+
+                    //	Write to the network file
+                    disk.writeFile(sess, conn, netFile, rpc.getBuffer(), rpc.getPosition(), count, offset);
+                    discardReadAhead(conn, netFile, offset, count);
+                }
             }
 
             //	Get file information for the path and pack the response
             FileInfo finfo = disk.getFileInformation(sess, conn, path);
 
-            // Set the current file size from the open file
+            // Set the current file size from the open file, including any gathered write data
             finfo.setFileSize(netFile.getFileSize());
 
+            if (writeCache != null) {
+                long pendingSize = writeCache.getPendingFileSize(netFile.getFileId());
+                if (pendingSize > finfo.getSize())
+                    finfo.setFileSize(pendingSize);
+            }
+
             // Pack the response
             rpc.buildResponseHeader();
             rpc.packInt(NFS.StsSuccess);
@@ -1500,7 +1628,7 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
 
             //	DEBUG
             if (Debug.EnableInfo && hasDebugFlag(DBG_FILEIO))
-                sess.debugPrintln("Write fid=" + netFile.getFileId() + ", name=" + netFile.getName() + ", wrlen=" + count);
+                sess.debugPrintln("Write fid=" + netFile.getFileId() + ", name=" + netFile.getName() + ", wrlen=" + count + ", gathered=" + gathered);
         }
         catch (BadHandleException ex) {
             errorSts = NFS.StsBadHandle;
@@ -2182,10 +2310,14 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
                 //	Delete the file
                 disk.deleteFile(sess, conn, delPath);
 
-                //	Remove the path from the cache
+                //	Remove the path from the cache, and discard any gathered write data for the deleted file so it is
+                //	not written to a new file that reuses the file id
                 if (finfo != null) {
                     details.getFileIdCache().deletePath(finfo.getFileId());
                     sess.getFileCache().removeFile(finfo.getFileId());
+
+                    if (details.hasWriteCache())
+                        details.getWriteCache().discardFile(finfo.getFileId());
                 }
 
                 //	Get the post-operation details for the directory
@@ -2320,10 +2452,14 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
                 //	Delete the directory
                 disk.deleteDirectory(sess, conn, delPath);
 
-                //	Remove the path from the cache
-                if (finfo != null)
+                //	Remove the path from the cache, and discard any gathered write data using the file id
+                if (finfo != null) {
                     details.getFileIdCache().deletePath(finfo.getFileId());
 
+                    if (details.hasWriteCache())
+                        details.getWriteCache().discardFile(finfo.getFileId());
+                }
+
                 //	Pack the post operation attributes for the parent directory
                 packPostOpAttr(sess, conn, handle, rpc);
 
@@ -2475,6 +2611,17 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
 
                     // Get the open file
                     NetworkFile netFile = getOpenNetworkFileForHandle(sess, fHandle, conn);
+
+                    // Write out any gathered write data for the file whilst the original path is valid, the rename
+                    // fails if the data cannot be written
+                    if (details.hasWriteCache()) {
+                        WriteGatherCache writeCache = details.getWriteCache();
+                        writeCache.flushFile(finfo.getFileId());
+
+                        if (netFile != null && netFile.getFileId() != finfo.getFileId())
+                            writeCache.flushFile(netFile.getFileId());
+                    }
+
                     if (netFile != null) {
 
                         // DEBUG
@@ -2485,13 +2632,7 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
                         disk.closeFile(sess, conn, netFile);
 
                         // Remove the file from the open file cache
-                        NetworkFileCache fileCache = sess.getFileCache();
-
-                        synchronized (fileCache) {
-
-                            // Remove the file from the open file cache
-                            fileCache.removeFile(netFile.getFileId());
-                        }
+                        sess.getFileCache().removeFile(netFile.getFileId());
                     }
                 }
 
@@ -2565,6 +2706,13 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
         catch (FileExistsException ex) {
             errorSts = NFS.StsExist;
         }
+        catch (IOException ex) {
+            errorSts = NFS.StsIO;
+
+            //	DEBUG
+            if (Debug.EnableError && hasDebugFlag(DBG_ERROR))
+                sess.debugPrintln("Rename I/O error: " + ex.toString());
+        }
         catch (Exception ex) {
             errorSts = NFS.StsServerFault;
 
@@ -2667,24 +2815,6 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
             //	Get the path from the handle
             path = getPathForHandle(sess, handle, conn);
 
-            //	If the filesystem driver cannot convert file ids to relative paths we need to build a relative path for
-            //	every file and sub-directory in the search
-            StringBuffer pathBuf = null;
-            int pathLen = 0;
-            FileIdCache fileCache = details.getFileIdCache();
-
-            if (details.hasFileIdSupport() == false) {
-
-                //	Allocate the buffer for building the relative paths
-                pathBuf = new StringBuffer(256);
-                pathBuf.append(path);
-                if (path.endsWith("\\") == false)
-                    pathBuf.append("\\");
-
-                //	Set the length of the search path portion of the string
-                pathLen = pathBuf.length();
-            }
-
             //	Build the response header
             rpc.buildResponseHeader();
             rpc.packInt(NFS.StsSuccess);
@@ -2693,149 +2823,67 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
             FileInfo dinfo = disk.getFileInformation(sess, conn, path);
             packPostOpAttr(sess, dinfo, shareId, rpc);
 
-            //	Generate the search path
-            String searchPath = generatePath(path, "*.*");
-
-            //	DEBUG
-            if (Debug.EnableInfo && hasDebugFlag(DBG_SEARCH))
-                sess.debugPrintln("ReadDir searchPath=" + searchPath + ", cookie=" + cookie);
-
-            //	Check if this is the start of a search
-            SearchContext search = null;
-            long searchId = -1;
-
-            if (cookie == 0) {
-
-                //	Start a new search, allocate a search id
-                search = disk.startSearch(sess, conn, searchPath, FileAttribute.Directory + FileAttribute.Normal);
-
-                //	Allocate a search id for the new search
-                searchId = sess.allocateSearchSlot(search);
-
-                //	Set the cookie verifier
-                cookieVerf = dinfo.getModifyDateTime();
-
-                //	DEBUG
-                if (Debug.EnableInfo && hasDebugFlag(DBG_SEARCH))
-                    sess.debugPrintln("ReadDir allocated searchId=" + searchId);
-            } else {
-
-                //	Check if the cookie verifier is valid, check reverse byte order
-                if (cookieVerf != 0L && cookieVerf != dinfo.getModifyDateTime() &&
-                        Long.reverseBytes(cookieVerf) != dinfo.getModifyDateTime())
-                    throw new BadCookieException();
-
-                //	Retrieve the search from the active search cache
-                searchId = (cookie & COOKIE_SEARCHID_MASK) >> COOKIE_SEARCHID_SHIFT;
-
-                //	Get the active search
-                search = sess.getSearchContext((int) searchId);
-
-                //	Check if the search has been closed, if so then restart the search
-                if (search == null) {
-
-                    //	Restart the search
-                    search = disk.startSearch(sess, conn, searchPath, FileAttribute.Directory + FileAttribute.Normal);
-
-                    //	Allocate a search id for the new search
-                    searchId = sess.allocateSearchSlot(search);
-
-                    //	Set the cookie verifier
-                    cookieVerf = dinfo.getModifyDateTime();
-
-                    //	DEBUG
-                    if (Debug.EnableInfo && hasDebugFlag(DBG_SEARCH))
-                        sess.debugPrintln("ReadDir restarted search, searchId=" + searchId);
-                }
-
-                //	Check if the search is at the required restart point
-                int resumeId = (int) (cookie & COOKIE_RESUMEID_MASK);
-                if (search.getResumeId() != resumeId)
-                    search.restartAt(resumeId);
-            }
+            //	Get the directory listing, a new listing is taken at the start of a listing and continuation requests
+            //	use the listing snapshot identified by the cookie
+            DirectoryListing listing = getDirectoryListing(sess, conn, disk, details, shareId, path, dinfo, cookie, cookieVerf);
 
             //	Pack the cookie verifier
-            rpc.packLong(cookieVerf);
+            rpc.packLong(listing.getVerifier());
 
-            //	Check if the search id is valid
-            if (searchId == -1)
-                throw new Exception("Bad search id");
-
-            //	Search id is masked into the top of the file index to make the resume cookie
-            long searchMask = ((long) searchId) << COOKIE_SEARCHID_SHIFT;
-
-            //	Build the return file list
+            //	Add entries until there are no more entries or the buffer is full
+            int pos = DirectoryListingCache.getPosition(cookie);
             int entCnt = 0;
 
-            //	Loop until the return buffer is full or there are no more files
-            FileInfo finfo = new FileInfo();
-
-            //	Check if this is the start of a search, if so then add the '.' and '..' entries
-            if (cookie == 0) {
-
-                //	Add the search directory details, the '.' directory
-                rpc.packInt(Rpc.True);
-                rpc.packLong(dinfo.getFileIdLong() + FILE_ID_OFFSET);
-                rpc.packString(".");
-                rpc.packLong(COOKIE_DOT_DIRECTORY);
-
-                //	Get the file information for the parent directory
-                String parentPath = generatePath(path, "..");
-                FileInfo parentInfo = disk.getFileInformation(sess, conn, parentPath);
-
-                //	Add the parent of the search directory, the '..' directory
-                rpc.packInt(Rpc.True);
-                rpc.packLong(parentInfo.getFileIdLong() + FILE_ID_OFFSET);
-                rpc.packString("..");
-                rpc.packLong(COOKIE_DOTDOT_DIRECTORY);
-
-                //	Update the entry count and current used reply buffer count
-                entCnt = 2;
-            }
+            while (pos < listing.numberOfPositions() && entCnt < maxCount) {
 
-            //	Add file/sub-directory entries until there are no more entries or the buffer is full
-            boolean replyFull = false;
+                //	Get the entry details, the first two positions are the '.' and '..' entries
+                FileInfo finfo = null;
+                String fname = null;
 
-            while (entCnt++ < maxCount && replyFull == false && search.nextFileInfo(finfo)) {
+                if (pos == 0) {
+                    finfo = dinfo;
+                    fname = ".";
+                }
+                else if (pos == 1) {
+                    finfo = listing.getParentInformation();
+                    fname = "..";
+                }
+                else {
+                    finfo = listing.getEntryAt(pos);
+                    fname = finfo.getFileName();
+                }
 
                 //	Check if the new file entry will fit into the reply buffer without exceeding the clients maximum
                 //	reply size
-                int entryLen = READDIR_ENTRY_LENGTH + ((finfo.getFileName().length() + 3) & 0xFFFFFFFC);
+                int entryLen = READDIR_ENTRY_LENGTH + ((fname.length() + 3) & 0xFFFFFFFC);
 
                 if (entryLen > rpc.getAvailableLength() ||
                         (rpc.getPosition() + entryLen > maxCount)) {
-                    replyFull = true;
 
                     //  DEBUG
                     if (Debug.EnableInfo && hasDebugFlag(DBG_SEARCH))
-                        sess.debugPrintln("ReadDir response full, restart at=" + finfo.getFileName() + ", resumeId=" + search.getResumeId());
-
-                    search.restartAt(finfo);
+                        sess.debugPrintln("ReadDir response full, restart at=" + fname + ", pos=" + pos);
                     break;
                 }
 
                 //	Fill in the entry details
                 rpc.packInt(Rpc.True);
                 rpc.packLong(finfo.getFileIdLong() + FILE_ID_OFFSET);
-                rpc.packUTF8String(finfo.getFileName());
-                rpc.packLong(search.getResumeId() + searchMask);
-
-                //	Check if the relative path should be added to the file id cache
-                if (details.hasFileIdSupport() == false && fileCache.findPath(finfo.getFileId()) == null) {
+                rpc.packUTF8String(fname);
+                rpc.packLong(listing.getCookie(pos));
 
-                    //	Create a relative path for the current file/sub-directory and add to the file id cache
-                    pathBuf.setLength(pathLen);
-                    pathBuf.append(finfo.getFileName());
-
-                    fileCache.addPath(finfo.getFileId(), pathBuf.toString());
-                }
+                //	Update the position and entry count
+                pos++;
+                entCnt++;
             }
 
             //	Indicate no more file entries in this response
             rpc.packInt(Rpc.False);
 
-            //	Check if the search is complete
-            if (search.hasMoreFiles()) {
+            //	Check if the listing is complete
+            boolean eof = pos >= listing.numberOfPositions();
+
+            if (eof == false) {
 
                 //	Indicate that there are more files to be returned
                 rpc.packInt(Rpc.False);
@@ -2844,18 +2892,13 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
                 //	Set the end of search flag
                 rpc.packInt(Rpc.True);
 
-                //	Close the search, release the search slot
-                search.closeSearch();
-                sess.deallocateSearchSlot((int) searchId);
-
-                //	DEBUG
-                if (Debug.EnableInfo && hasDebugFlag(DBG_SEARCH))
-                    sess.debugPrintln("ReadDir released searchId=" + searchId);
+                //	Release the listing
+                m_dirCache.removeListing(listing);
             }
 
             //	DEBUG
             if (Debug.EnableInfo && hasDebugFlag(DBG_SEARCH))
-                sess.debugPrintln("ReadDir return entries=" + (entCnt - 1) + ", eof=" + search.hasMoreFiles());
+                sess.debugPrintln("ReadDir return entries=" + entCnt + ", eof=" + eof + ", listing=" + listing);
         }
         catch (BadHandleException ex) {
             errorSts = NFS.StsBadHandle;
@@ -2941,24 +2984,6 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
             //	Get the path from the handle
             path = getPathForHandle(sess, handle, conn);
 
-            //	If the filesystem driver cannot convert file ids to relative paths we need to build a relative path for
-            //	every file and sub-directory in the search
-            StringBuffer pathBuf = null;
-            int pathLen = 0;
-            FileIdCache fileCache = details.getFileIdCache();
-
-            if (details.hasFileIdSupport() == false) {
-
-                //	Allocate the buffer for building the relative paths
-                pathBuf = new StringBuffer(256);
-                pathBuf.append(path);
-                if (path.endsWith("\\") == false)
-                    pathBuf.append("\\");
-
-                //	Set the length of the search path portion of the string
-                pathLen = pathBuf.length();
-            }
-
             //	Build the response header
             rpc.buildResponseHeader();
             rpc.packInt(NFS.StsSuccess);
@@ -2967,178 +2992,78 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
             FileInfo dinfo = disk.getFileInformation(sess, conn, path);
             packPostOpAttr(sess, dinfo, shareId, rpc);
 
-            //	Generate the search path
-            String searchPath = generatePath(path, "*.*");
-
-            //	DEBUG
-            if (Debug.EnableInfo && hasDebugFlag(DBG_SEARCH))
-                sess.debugPrintln("ReadDirPlus searchPath=" + searchPath + ", cookie=" + cookie);
-
-            //	Check if this is the start of a search
-            SearchContext search = null;
-            long searchId = -1;
-
-            if (cookie == 0L) {
-
-                //	Start a new search, allocate a search id
-                search = disk.startSearch(sess, conn, searchPath, FileAttribute.Directory + FileAttribute.Normal);
-
-                //	Allocate a search id for the new search
-                searchId = sess.allocateSearchSlot(search);
-
-                //	Set the cookie verifier
-                cookieVerf = dinfo.getModifyDateTime();
-
-                //	DEBUG
-                if (Debug.EnableInfo && hasDebugFlag(DBG_SEARCH))
-                    sess.debugPrintln("ReadDirPlus allocated searchId=" + searchId);
-            } else {
-
-                //	Check if the cookie verifier is valid, check reverse byte order
-                if (cookieVerf != 0L && cookieVerf != dinfo.getModifyDateTime() &&
-                        Long.reverseBytes(cookieVerf) != dinfo.getModifyDateTime()) {
-                    sess.debugPrintln("Bad cookie verifier, verf=0x" + Long.toHexString(cookieVerf) + ", modTime=0x" + Long.toHexString(dinfo.getModifyDateTime()));
-                    throw new BadCookieException();
-                }
-
-                //	Retrieve the search from the active search cache
-                searchId = (cookie & COOKIE_SEARCHID_MASK) >> COOKIE_SEARCHID_SHIFT;
-
-                //	Get the active search
-                search = sess.getSearchContext((int) searchId);
-
-                //	Check if the search has been closed, if so then restart the search
-                if (search == null) {
-
-                    //	Restart the search
-                    search = disk.startSearch(sess, conn, searchPath, FileAttribute.Directory + FileAttribute.Normal);
-
-                    //	Allocate a search id for the new search
-                    searchId = sess.allocateSearchSlot(search);
-
-                    //	Set the cookie verifier
-                    cookieVerf = dinfo.getModifyDateTime();
-
-                    //	DEBUG
-                    if (Debug.EnableInfo && hasDebugFlag(DBG_SEARCH))
-                        sess.debugPrintln("ReadDirPlus restarted search, searchId=" + searchId);
-                }
-
-                //	Get the search resume id from the cookie
-                int resumeId = (int) (cookie & COOKIE_RESUMEID_MASK);
-                if (search != null && search.getResumeId() != resumeId)
-                    search.restartAt(resumeId);
-            }
+            //	Get the directory listing, a new listing is taken at the start of a listing and continuation requests
+            //	use the listing snapshot identified by the cookie
+            DirectoryListing listing = getDirectoryListing(sess, conn, disk, details, shareId, path, dinfo, cookie, cookieVerf);
 
             //	Pack the cookie verifier
-            rpc.packLong(cookieVerf);
-
-            //	Check if the search id is valid
-            if (searchId == -1)
-                throw new Exception("Bad search id");
+            rpc.packLong(listing.getVerifier());
 
-            //	Search id is masked into the top of the file index to make the resume cookie
-            long searchMask = ((long) searchId) << COOKIE_SEARCHID_SHIFT;
-
-            //	Build the return file list
+            //	Add entries until there are no more entries or the buffer is full, the file attributes were loaded
+            //	when the listing was taken
+            int pos = DirectoryListingCache.getPosition(cookie);
             int entCnt = 0;
 
-            //	Loop until the return buffer is full or there are no more files
-            FileInfo finfo = new FileInfo();
+            while (pos < listing.numberOfPositions() && entCnt < maxDir) {
 
-            //	Check if this is the start of a search, if so then add the '.' and '..' entries
-            if (cookie == 0) {
+                //	Get the entry details, the first two positions are the '.' and '..' entries
+                FileInfo finfo = null;
+                String fname = null;
 
-                //	Add the search directory details, the '.' directory
-                rpc.packInt(Rpc.True);
-                rpc.packLong(dinfo.getFileIdLong() + FILE_ID_OFFSET);
-                rpc.packString(".");
-                rpc.packLong(COOKIE_DOT_DIRECTORY);
-
-                //	Fill in the file attributes
-                rpc.packInt(Rpc.True);
-                packAttributes3(rpc, dinfo, shareId);
-
-                //	Fill in the file handle
-                packDirectoryHandle(shareId, dinfo.getFileId(), rpc);
-
-                //	Get the file information for the parent directory
-                String parentPath = generatePath(path, "..");
-                FileInfo parentInfo = disk.getFileInformation(sess, conn, parentPath);
-
-                //	Add the parent of the search directory, the '..' directory
-                rpc.packInt(Rpc.True);
-                rpc.packLong(parentInfo.getFileIdLong() + FILE_ID_OFFSET);
-                rpc.packString("..");
-                rpc.packLong(COOKIE_DOTDOT_DIRECTORY);
-
-                //	Fill in the file attributes
-                rpc.packInt(Rpc.True);
-                packAttributes3(rpc, parentInfo, shareId);
-
-                //	Fill in the file handle
-                packDirectoryHandle(shareId, parentInfo.getFileId(), rpc);
-
-                //	Update the entry count and current used reply buffer count
-                entCnt = 2;
-            }
-
-            //	Pack the file entries
-            boolean replyFull = false;
-
-            while (entCnt++ < maxDir && replyFull == false && search.nextFileInfo(finfo)) {
+                if (pos == 0) {
+                    finfo = dinfo;
+                    fname = ".";
+                }
+                else if (pos == 1) {
+                    finfo = listing.getParentInformation();
+                    fname = "..";
+                }
+                else {
+                    finfo = listing.getEntryAt(pos);
+                    fname = finfo.getFileName();
+                }
 
                 //	Check if the new file entry will fit into the reply buffer without exceeding the clients maximum
                 //	reply size
-                int entryLen = READDIRPLUS_ENTRY_LENGTH + ((finfo.getFileName().length() + 3) & 0xFFFFFFFC);
+                int entryLen = READDIRPLUS_ENTRY_LENGTH + ((fname.length() + 3) & 0xFFFFFFFC);
 
                 if (entryLen > rpc.getAvailableLength() ||
                         (rpc.getPosition() + entryLen > maxCount)) {
-                    replyFull = true;
 
                     //  DEBUG
                     if (Debug.EnableInfo && hasDebugFlag(DBG_SEARCH))
-                        sess.debugPrintln("ReadDirPlus response full, restart at=" + finfo.getFileName() + ", resumeId=" + search.getResumeId());
-
-                    search.restartAt(finfo);
+                        sess.debugPrintln("ReadDirPlus response full, restart at=" + fname + ", pos=" + pos);
                     break;
                 }
 
                 //	Fill in the entry details
                 rpc.packInt(Rpc.True);
                 rpc.packLong(finfo.getFileIdLong() + FILE_ID_OFFSET);
-                rpc.packUTF8String(finfo.getFileName());
-                rpc.packLong(search.getResumeId() + searchMask);
+                rpc.packUTF8String(fname);
+                rpc.packLong(listing.getCookie(pos));
 
                 //	Fill in the file attributes
                 rpc.packInt(Rpc.True);
                 packAttributes3(rpc, finfo, shareId);
 
                 //	Fill in the file or directory handle
-                if (finfo.isDirectory())
+                if (pos < DirectoryListing.DotEntries || finfo.isDirectory())
                     packDirectoryHandle(shareId, finfo.getFileId(), rpc);
                 else
                     packFileHandle(shareId, dinfo.getFileId(), finfo.getFileId(), rpc);
 
-                //	Check if the relative path should be added to the file id cache
-                if (details.hasFileIdSupport() == false && fileCache.findPath(finfo.getFileId()) == null) {
-
-                    //	Create a relative path for the current file/sub-directory and add to the file id cache
-                    pathBuf.setLength(pathLen);
-                    pathBuf.append(finfo.getFileName());
-
-                    fileCache.addPath(finfo.getFileId(), pathBuf.toString());
-                }
-
-                // Reset the file type
-                finfo.setFileType(FileType.RegularFile);
+                //	Update the position and entry count
+                pos++;
+                entCnt++;
             }
 
             //	Indicate that there are no more file entries in this response
             rpc.packInt(Rpc.False);
 
-            //	Check if the search is complete
-            if (search.hasMoreFiles()) {
+            //	Check if the listing is complete
+            boolean eof = pos >= listing.numberOfPositions();
+
+            if (eof == false) {
 
                 //	Indicate that there are more files to be returned
                 rpc.packInt(Rpc.False);
@@ -3147,14 +3072,13 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
                 //	Set the end of search flag
                 rpc.packInt(Rpc.True);
 
-                //	Close the search, release the search slot
-                search.closeSearch();
-                sess.deallocateSearchSlot((int) searchId);
+                //	Release the listing
+                m_dirCache.removeListing(listing);
             }
 
             //	DEBUG
             if (Debug.EnableInfo && hasDebugFlag(DBG_SEARCH))
-                sess.debugPrintln("ReadDirPlus return entries=" + (entCnt - 1) + ", eof=" + (search.hasMoreFiles() ? false : true));
+                sess.debugPrintln("ReadDirPlus return entries=" + entCnt + ", eof=" + eof + ", listing=" + listing);
         }
         catch (BadHandleException ex) {
             errorSts = NFS.StsBadHandle;
@@ -3527,25 +3451,116 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
     /**
      * Commit request
      *
+     * <p>Writes out any gathered UNSTABLE write data for the file and flushes the file to stable storage.
+     *
      * @param sess NFSSrvSession
      * @param rpc  RpcPacket
      * @return RpcPacket
      */
     private final RpcPacket procCommit(NFSSrvSession sess, RpcPacket rpc) {
 
+        //	Unpack the commit parameters
+        byte[] handle = new byte[NFS.FileHandleSize];
+        rpc.unpackByteArrayWithLength(handle);
+
+        long offset = rpc.unpackLong();
+        int count = rpc.unpackInt();
+
         //	DEBUG
         if (Debug.EnableInfo && hasDebugFlag(DBG_FILEIO))
-            sess.debugPrintln("Commit request from " + rpc.getClientDetails());
+            sess.debugPrintln("Commit request from " + rpc.getClientDetails() + ", offset=" + offset + ", count=" + count);
 
-        //	Pack the response
-        rpc.buildResponseHeader();
+        int shareId = -1;
+        NetworkFile netFile = null;
+        int errorSts = NFS.StsSuccess;
 
-        rpc.packInt(NFS.StsSuccess);
-        packWccData(rpc, null);
-        packPostOpAttr(sess, null, 0, rpc);
+        try {
+
+            //	Get the share id and associated shared device
+            shareId = getShareIdFromHandle(handle);
+            TreeConnection conn = getTreeConnection(sess, shareId);
+
+            //	Check if the session has the required access to the shared filesystem
+            if (conn.hasWriteAccess() == false)
+                throw new AccessDeniedException();
+
+            //	Get the network file, it may be cached
+            netFile = getNetworkFileForHandle(sess, handle, conn, false);
+            if (netFile == null)
+                throw new StaleHandleException();
+
+            //	Get the disk interface from the disk driver
+            DiskInterface disk = (DiskInterface) conn.getSharedDevice().getInterface();
+
+            //	Get the pre-operation file details
+            String path = getPathForHandle(sess, handle, conn);
+            FileInfo preInfo = disk.getFileInformation(sess, conn, path);
+
+            //	Write out the gathered write data for the file, the whole file is committed whatever the range
+            //	requested
+            ShareDetails details = m_shareDetails.findDetails(shareId);
+            if (details != null && details.hasWriteCache())
+                details.getWriteCache().flushFile(netFile.getFileId());
+
+            //	Flush the file data to stable storage
+            synchronized (netFile) {
+                if (netFile.isClosed() == false)
+                    disk.flushFile(sess, conn, netFile);
+            }
+
+            //	Get the post-operation file details
+            FileInfo finfo = disk.getFileInformation(sess, conn, path);
+            if (finfo != null)
+                finfo.setFileSize(netFile.getFileSize());
+
+            //	Pack the response
+            rpc.buildResponseHeader();
+            rpc.packInt(NFS.StsSuccess);
 
-        //	Pack the write verifier, indicates if the server has been restarted since the file write requests
-        rpc.packLong(m_writeVerifier);
+            packPreOpAttr(sess, preInfo, rpc);
+            packPostOpAttr(sess, finfo, shareId, rpc);
+
+            //	Pack the write verifier, indicates if the server has been restarted since the file write requests
+            rpc.packLong(m_writeVerifier);
+
+            //	DEBUG
+            if (Debug.EnableInfo && hasDebugFlag(DBG_FILEIO))
+                sess.debugPrintln("Commit fid=" + netFile.getFileId() + ", name=" + netFile.getName());
+        }
+        catch (BadHandleException ex) {
+            errorSts = NFS.StsBadHandle;
+        }
+        catch (StaleHandleException ex) {
+            errorSts = NFS.StsStale;
+        }
+        catch (AccessDeniedException ex) {
+            errorSts = NFS.StsAccess;
+        }
+        catch (DiskFullException ex) {
+            errorSts = NFS.StsNoSpc;
+        }
+        catch (Exception ex) {
+            errorSts = NFS.StsServerFault;
+
+            //	DEBUG
+            if (Debug.EnableError && hasDebugFlag(DBG_ERROR)) {
+                sess.debugPrintln("Commit Exception: netFile=" + netFile);
+                sess.debugPrintln(ex);
+            }
+        }
+
+        //	Check for a failure status
+        if (errorSts != NFS.StsSuccess) {
+
+            //	Pack the error response
+            rpc.buildErrorResponse(errorSts);
+            packWccData(rpc, null); // before attributes
+            packWccData(rpc, null); // after attributes
+
+            //	DEBUG
+            if (Debug.EnableInfo && hasDebugFlag(DBG_ERROR))
+                sess.debugPrintln("Commit error=" + NFS.getStatusString(errorSts));
+        }
 
         //	Return the response
         rpc.setLength();
@@ -4091,14 +4106,17 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
         //	Get the file id from the handle
         int fileId = getFileIdForHandle(handle);
 
-        //	Get the per session network file cache, use this to synchronize
+        //	Check the per session network file cache, file may already be open
         NetworkFileCache fileCache = sess.getFileCache();
-        NetworkFile file = null;
+        NetworkFile file = fileCache.findFile(fileId, sess);
 
+        if (file != null && (file.getGrantedAccess() != NetworkFile.Access.READ_ONLY || readOnly))
+            return file;
+
+        //	Synchronize on the file cache whilst the file is opened, recheck the file cache
         synchronized (fileCache) {
 
-            //  Check the file cache, file may already be open
-            file = fileCache.findFile(fileId, sess);
+            file = fileCache.findFile(fileId, sess, false);
 
             if (file == null || (file.getGrantedAccess() == NetworkFile.Access.READ_ONLY && readOnly == false)) {
 
@@ -4161,18 +4179,99 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
         //  Get the file id from the handle
         int fileId = getFileIdForHandle(handle);
 
-        //  Get the per session network file cache, use this to synchronize
-        NetworkFileCache fileCache = sess.getFileCache();
-        NetworkFile file = null;
+        //  Check the per session network file cache, file may already be open
+        return sess.getFileCache().findFile(fileId, sess);
+    }
 
-        synchronized (fileCache) {
+    /**
+     * Return the file size including any gathered write data for the file, or -1 if there is no gathered data
+     *
+     * @param shareId int
+     * @param fileId  int
+     * @return long
+     */
+    protected final long getGatheredFileSize(int shareId, int fileId) {
+
+        //	Check if the share has a write gather cache
+        ShareDetails details = m_shareDetails.findDetails(shareId);
+        if (details == null || details.hasWriteCache() == false)
+            return -1L;
+
+        return details.getWriteCache().getPendingFileSize(fileId);
+    }
+
+    /**
+     * Write out any gathered write data for a file. A failure to write the data changes the write verifier so that
+     * clients resend any uncommitted data.
+     *
+     * @param shareId int
+     * @param fileId  int
+     */
+    protected final void flushGatheredWrites(int shareId, int fileId) {
+
+        //	Check if the share has a write gather cache
+        ShareDetails details = m_shareDetails.findDetails(shareId);
+        if (details == null || details.hasWriteCache() == false)
+            return;
 
-            //    Check the file cache, file may already be open
-            file = fileCache.findFile(fileId, sess);
+        try {
+            details.getWriteCache().flushFile(fileId);
+        }
+        catch (IOException ex) {
         }
+    }
 
-        //  Return the network file
-        return file;
+    /**
+     * Write out any gathered write data for a network file that is about to be closed by the network file cache
+     *
+     * @param conn    TreeConnection
+     * @param netFile NetworkFile
+     */
+    public final void flushGatheredWrites(TreeConnection conn, NetworkFile netFile) {
+
+        //	Check if the share has a write gather cache
+        ShareDetails details = m_shareDetails.findDetails(conn.getSharedDevice().getName());
+        if (details == null || details.hasWriteCache() == false)
+            return;
+
+        try {
+            details.getWriteCache().flushFile(netFile.getFileId());
+        }
+        catch (IOException ex) {
+        }
+    }
+
+    /**
+     * Discard read-ahead data that overlaps a range of a file that has been written to or truncated, for all open
+     * instances of the file
+     *
+     * @param conn    TreeConnection
+     * @param netFile NetworkFile
+     * @param offset  long
+     * @param len     long, or -1 if the file was truncated or extended at the offset
+     */
+    private final void discardReadAhead(TreeConnection conn, NetworkFile netFile, long offset, long len) {
+        if (m_readAhead != null)
+            m_readAhead.fileModified(conn, netFile, offset, len);
+        else
+            netFile.discardReadAhead();
+    }
+
+    /**
+     * Gathered write data for a file could not be written, the data has been discarded. Change the write verifier
+     * so that clients resend any uncommitted data.
+     *
+     * @param fileId int
+     * @param ex     IOException
+     */
+    public void gatheredWriteFailed(int fileId, IOException ex) {
+
+        //	Change the write verifier, clients will resend any uncommitted data
+        m_writeVerifier = Math.max(m_writeVerifier + 1, System.currentTimeMillis());
+
+        //	DEBUG
+        if (Debug.EnableError && hasDebugFlag(DBG_ERROR))
+            Debug.println("[NFS] Failed to write gathered data, fid=" + fileId + ", " + ex.getMessage());
     }
 
     /**
@@ -4400,6 +4499,115 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
             rpc.packInt(Rpc.False);
     }
 
+    /**
+     * Return the directory listing for a READDIR/READDIRPLUS request. A new listing is taken at the start of a listing,
+     * continuation requests use the listing identified by the cookie. If the listing has expired a new listing is
+     * taken if the directory has not changed since the cookie verifier was issued. A cookie with a position outside
+     * of the listing is rejected as a bad cookie.
+     *
+     * @param sess       NFSSrvSession
+     * @param conn       TreeConnection
+     * @param disk       DiskInterface
+     * @param details    ShareDetails
+     * @param shareId    int
+     * @param path       String
+     * @param dinfo      FileInfo
+     * @param cookie     long
+     * @param cookieVerf long
+     * @return DirectoryListing
+     * @exception Exception Error loading the directory listing
+     */
+    private final DirectoryListing getDirectoryListing(NFSSrvSession sess, TreeConnection conn, DiskInterface disk, ShareDetails details,
+                                                       int shareId, String path, FileInfo dinfo, long cookie, long cookieVerf)
+            throws Exception {
+
+        //	Check the listing position, a client supplied cookie may have the high bit of the position set
+        int pos = DirectoryListingCache.getPosition(cookie);
+        if (pos < 0)
+            throw new BadCookieException();
+
+        //	Check for an active listing
+        if (cookie != 0L) {
+
+            DirectoryListing listing = m_dirCache.findListing(DirectoryListingCache.getListingId(cookie));
+
+            if (listing != null && listing.isDirectory(shareId, path)) {
+
+                //	Check the cookie verifier, the listing is a snapshot so the directory may have changed since
+                if (listing.isValidVerifier(cookieVerf) == false || pos > listing.numberOfPositions())
+                    throw new BadCookieException();
+                return listing;
+            }
+
+            //	Check if the cookie verifier is valid for the current directory, check reverse byte order
+            if (cookieVerf != 0L && cookieVerf != dinfo.getModifyDateTime() &&
+                    Long.reverseBytes(cookieVerf) != dinfo.getModifyDateTime()) {
+                sess.debugPrintln("Bad cookie verifier, verf=0x" + Long.toHexString(cookieVerf) + ", modTime=0x" + Long.toHexString(dinfo.getModifyDateTime()));
+                throw new BadCookieException();
+            }
+        }
+
+        //	Load the directory entries, and file attributes, in a single pass of the search
+        List<FileInfo> entries = new ArrayList<FileInfo>();
+        SearchContext search = disk.startSearch(sess, conn, generatePath(path, "*.*"), FileAttribute.Directory + FileAttribute.Normal);
+
+        try {
+            FileInfo finfo = new FileInfo();
+
+            while (search.nextFileInfo(finfo)) {
+                entries.add(finfo);
+                finfo = new FileInfo();
+            }
+        }
+        finally {
+            search.closeSearch();
+        }
+
+        //	If the filesystem driver cannot convert file ids to relative paths we need to build a relative path for
+        //	every file and sub-directory in the search
+        if (details.hasFileIdSupport() == false) {
+
+            FileIdCache fileCache = details.getFileIdCache();
+
+            StringBuilder pathBuf = new StringBuilder(256);
+            pathBuf.append(path);
+            if (path.endsWith("\\") == false)
+                pathBuf.append("\\");
+
+            int pathLen = pathBuf.length();
+
+            for (FileInfo finfo : entries) {
+                if (fileCache.findPath(finfo.getFileId()) == null) {
+
+                    //	Create a relative path for the current file/sub-directory and add to the file id cache
+                    pathBuf.setLength(pathLen);
+                    pathBuf.append(finfo.getFileName());
+
+                    fileCache.addPath(finfo.getFileId(), pathBuf.toString());
+                }
+            }
+        }
+
+        //	Get the file information for the parent directory, for the '..' entry
+        FileInfo parentInfo = disk.getFileInformation(sess, conn, generatePath(path, ".."));
+
+        //	Add the listing to the cache
+        DirectoryListing listing = m_dirCache.addListing(shareId, path, dinfo.getModifyDateTime(), parentInfo, entries);
+
+        //	Check the position is within the new listing, the directory may have fewer entries than when the cookie
+        //	was issued
+        if (pos > listing.numberOfPositions()) {
+            m_dirCache.removeListing(listing);
+            throw new BadCookieException();
+        }
+
+        //	DEBUG
+        if (Debug.EnableInfo && hasDebugFlag(DBG_SEARCH))
+            sess.debugPrintln("Loaded directory listing " + listing + ", cookie=0x" + Long.toHexString(cookie));
+
+        return listing;
+    }
+
     /**
      * Generate a share relative path from the directory path and argument path.
      * The argument path may contain the value '..' in which case the directory
@@ -4486,7 +4694,15 @@ public class NFSServer extends RpcNetworkServer implements RpcProcessor {
                 if (m_shareDetails.findDetails(share.getName()) == null) {
 
                     // Add the new share details
-                    m_shareDetails.addDetails(new ShareDetails(share.getName(), fileIdSupport));
+                    ShareDetails details = new ShareDetails(share.getName(), fileIdSupport, getNFSConfiguration().getNFSWriteGatherSize(),
+                            getNFSConfiguration().getNFSFileIdCacheSize());
+
+                    if (details.hasWriteCache()) {
+                        details.getWriteCache().setWriteGatherListener(this);
+                        details.getWriteCache().setReadAheadCache(m_readAhead);
+                    }
+
+                    m_shareDetails.addDetails(details);
                     m_connections.addConnection(new TreeConnection(share));
 
                     // Update the new share count
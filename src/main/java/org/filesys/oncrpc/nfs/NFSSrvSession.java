@@ -118,12 +118,12 @@ public class NFSSrvSession extends SrvSession {
      *
      * @return NetworkFileCache
      */
-    public final NetworkFileCache getFileCache() {
+    public synchronized final NetworkFileCache getFileCache() {
 
-        // Check if the file cache has been created
+        // Check if the file cache has been created, file caches share the server file expiry thread
 
         if (m_fileCache == null) {
-            m_fileCache = new NetworkFileCache(getUniqueId());
+            m_fileCache = new NetworkFileCache(getUniqueId(), getNFSServer().getFileExpiry());
 
             // Copy settings to the file cache
             NFSConfigSection config = getNFSServer().getNFSConfiguration();
@@ -136,6 +136,7 @@ public class NFSSrvSession extends SrvSession {
                 m_fileCache.setCloseTimer(config.getNFSFileCacheCloseTimer());
 
             m_fileCache.setRpcAuthenticator(config.getRpcAuthenticator());
+            m_fileCache.setMaximumFiles(config.getNFSFileCacheMaximumFiles());
         }
 
         // Return the file cache
@@ -18,10 +18,10 @@
  */
 
 package org.filesys.oncrpc.nfs;
-
 import java.io.IOException;
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.filesys.debug.Debug;
 import org.filesys.oncrpc.RpcAuthenticator;
@@ -30,6 +30,8 @@ import org.filesys.server.filesys.DiskInterface;
 import org.filesys.server.filesys.FileStatus;
 import org.filesys.server.filesys.NetworkFile;
 import org.filesys.server.filesys.TreeConnection;
+import org.filesys.util.ConcurrentIntMap;
+import org.filesys.util.TimerWheel;
 
 /**
  * Network File Cache Class
@@ -37,6 +39,11 @@ import org.filesys.server.filesys.TreeConnection;
  * <p>
  * Caches the network files that are currently being accessed by the NFS server.
  *
+ * <p>
+ * Lookups do not lock the cache, file timeouts are tracked using a timer wheel that is checked by an expiry
+ * thread shared by all the file caches of the NFS server. The number of files is limited, when the limit is
+ * reached the least recently used files are closed.
+ *
  * @author gkspencer
  */
 public class NetworkFileCache {
@@ -45,39 +52,64 @@ public class NetworkFileCache {
     public static final long DefaultFileTimeout = 5000L;    // 5 seconds
     public static final long ClosedFileTimeout  = 30000L;   // 30 seconds
 
+    // Default maximum number of files in the cache
+    public static final int DefaultMaximumFiles = 4096;
+
+    // Timer wheel tick interval and number of slots
+    private static final long ExpiryTick = 500L;
+    private static final int ExpirySlots = 128;
+
+    // Cache name
+    private String m_name;
+
     // Network file cache, key is the file id
-    private Hashtable<Integer, FileEntry> m_fileCache;
+    private ConcurrentIntMap<FileEntry> m_fileCache;
+
+    // File timeouts, ordered by expiry time
+    private TimerWheel<FileEntry> m_timeouts;
 
-    // File expiry thread
-    private FileExpiry m_expiryThread;
+    // Files removed from the cache when the cache is full, waiting to be closed by the expiry thread
+    private ConcurrentLinkedQueue<FileEntry> m_closeQueue;
+
+    // Shared file expiry thread, and flag to indicate the expiry thread is owned by this cache
+    private NetworkFileExpiry m_expiry;
+    private boolean m_ownExpiry;
 
     // File timeouts
     private long m_fileIOTmo = DefaultFileTimeout;
     private long m_fileCloseTmo = ClosedFileTimeout;
 
+    // Maximum number of files
+    private int m_maxFiles = DefaultMaximumFiles;
+
     // NFS authenticator
     private RpcAuthenticator m_authenticator;
 
+    // Cache statistics
+    private AtomicLong m_hits = new AtomicLong();
+    private AtomicLong m_misses = new AtomicLong();
+    private AtomicLong m_evictions = new AtomicLong();
+
     // Debug enable flag
     private boolean m_debug = false;
 
     /**
      * File Entry Class
      */
-    protected class FileEntry {
+    protected class FileEntry extends TimerWheel.Entry {
 
         // Network file and closed flag
         private NetworkFile m_file;
-        private boolean m_closed;
+        private volatile boolean m_closed;
+
+        // File has been closed via the disk interface and removed from the cache
+        private boolean m_released;
 
         // Disk share connection
         private TreeConnection m_conn;
 
-        // File timeout
-        private long m_timeout;
-
         // Session that last accessed the file
-        private NFSSrvSession m_sess;
+        private volatile NFSSrvSession m_sess;
 
         /**
          * Class constructor
@@ -100,7 +132,7 @@ public class NetworkFileCache {
          * @return long
          */
         public final long getTimeout() {
-            return m_timeout;
+            return getExpiryTime();
         }
 
         /**
@@ -134,7 +166,7 @@ public class NetworkFileCache {
          * Update the file timeout
          */
         public final void updateTimeout() {
-            m_timeout = System.currentTimeMillis() + m_fileIOTmo;
+            setExpiryTime(System.currentTimeMillis() + m_fileIOTmo);
         }
 
         /**
@@ -143,7 +175,7 @@ public class NetworkFileCache {
          * @param tmo long
          */
         public final void updateTimeout(long tmo) {
-            m_timeout = tmo;
+            setExpiryTime(tmo);
         }
 
         /**
@@ -199,225 +231,61 @@ public class NetworkFileCache {
             if (m_file != null)
                 m_closed = true;
         }
-    }
-
-    ;
-
-    /**
-     * File Expiry Thread Class
-     */
-    protected class FileExpiry implements Runnable {
-
-        // Expiry thread
-        private Thread m_thread;
-
-        // Shutdown flag
-        private boolean m_shutdown;
 
         /**
-         * Class Constructor
+         * Return the file entry details as a string
          *
-         * @param name String
-         */
-        public FileExpiry(String name) {
-
-            // Create and start the file expiry thread
-            m_thread = new Thread(this);
-            m_thread.setDaemon(true);
-            m_thread.setName("NFSFileExpiry_" + name);
-            m_thread.start();
-        }
-
-        /**
-         * Main thread method
-         */
-        public void run() {
-
-            // Loop until shutdown
-            while (m_shutdown == false) {
-
-                // Sleep for a while
-                try {
-                    Thread.sleep(m_fileIOTmo / 2);
-                }
-                catch (InterruptedException ex) {
-                }
-
-                // Get the current system time
-                long timeNow = System.currentTimeMillis();
-
-                // Check for expired files
-                synchronized (m_fileCache) {
-
-                    // Enumerate the cache entries
-                    Enumeration<Integer> enm = m_fileCache.keys();
-
-                    while (enm.hasMoreElements()) {
-
-                        // Get the current key
-                        Integer fileId = enm.nextElement();
-
-                        // Get the file entry and check if it has expired
-                        FileEntry fentry = m_fileCache.get(fileId);
-
-                        if (fentry != null && fentry.getTimeout() < timeNow) {
-
-                            // Get the network file
-                            NetworkFile netFile = fentry.getFile();
-
-                            // Check if the file has an I/O request pending, if so then reset the file expiry time
-                            // for the file
-                            if (netFile.hasIOPending()) {
-
-                                // Update the expiry time for the file entry
-                                fentry.updateTimeout();
-
-                                // DEBUG
-                                if (Debug.EnableInfo && hasDebug())
-                                    Debug.println("NFSFileExpiry: I/O pending file=" + fentry.getFile().getFullName() + ", fid=" + fileId);
-                            } else {
-
-                                // Make sure there is no active transaction
-                                if (fentry.getSession().hasTransaction())
-                                    fentry.getSession().endTransaction();
-
-                                // Check if the network file is closed, if not  then close the file to release the file
-                                // handle but keep the file entry in the file cache for a while as the file may be re-opened
-                                if (fentry.isClosed() == false && netFile != null) {
-
-                                    // We need to do the close in the context of the user that opened the file
-                                    try {
-
-                                        // Set the the current user context
-                                        m_authenticator.setCurrentUser(fentry.getSession(), fentry.getSession().getNFSClientInformation());
-
-                                        // Check if the filesystem is transactional, in this case only mark the file as closed
-                                        if (netFile.allowsOpenCloseViaNetworkFile() == false) {
-
-                                            // Mark the file as closed, wait for second stage expiry to actually close the file
-                                            fentry.markAsClosed();
-
-                                            // DEBUG
-                                            if (Debug.EnableInfo && hasDebug())
-                                                Debug.println("NFSFileExpiry: Marked as closed file=" + fentry.getFile().getFullName() + ", fid=" + fileId + " (cached)");
-                                        } else {
-
-                                            // Close the network file
-                                            fentry.closeFile();
-
-                                            // Update the file entry timeout to keep the file in the cache for a while
-                                            fentry.updateTimeout(System.currentTimeMillis() + m_fileCloseTmo);
-
-                                            // DEBUG
-                                            if (Debug.EnableInfo && hasDebug())
-                                                Debug.println("NFSFileExpiry: Closed file=" + fentry.getFile().getFullName() + ", fid=" + fileId + " (cached)");
-                                        }
-
-                                        // Clear the user context, flush any active transaction
-                                        if (fentry.getSession().hasTransaction())
-                                            fentry.getSession().endTransaction();
-
-                                        m_authenticator.setCurrentUser(fentry.getSession(), null);
-                                    }
-                                    catch (Exception ex) {
-
-                                        // DEBUG
-                                        if (Debug.EnableInfo && hasDebug()) {
-                                            Debug.println("Error closing file, fentry=" + fentry + ", ex=" + ex.getMessage());
-                                            Debug.println(ex);
-                                        }
-                                    }
-                                } else {
-
-                                    // File entry has expired, remove it from the cache
-                                    m_fileCache.remove(fileId);
-
-                                    // Close the file via the disk interface
-                                    try {
-
-                                        // Set the the current user context
-                                        m_authenticator.setCurrentUser(fentry.getSession(), fentry.getSession().getNFSClientInformation());
-
-                                        // Get the disk interface
-                                        DiskInterface disk = (DiskInterface) fentry.getConnection().getInterface();
-
-                                        // Close the file
-                                        if (disk.fileExists(fentry.getSession(), fentry.getConnection(), netFile.getFullName()) != FileStatus.NotExist) {
-
-                                            // Check if the file has already been closed
-                                            if (netFile.isClosed() == false) {
-
-                                                // Close the file
-                                                disk.closeFile(fentry.getSession(), fentry.getConnection(), netFile);
-
-                                                // DEBUG
-                                                if (Debug.EnableInfo && hasDebug())
-                                                    Debug.println("NFSFileExpiry: Closed file=" + fentry.getFile().getFullName() + ", fid=" + fileId + " (removed)");
-                                            } else if (Debug.EnableInfo && hasDebug())
-                                                Debug.println("NFSFileExpiry: File already closed, file=" + fentry.getFile().getFullName() + ", fid=" + fileId);
-                                        } else if (Debug.EnableInfo && hasDebug())
-                                            Debug.println("NFSFileExpiry: File deleted before close, " + netFile.getFullName());
-
-                                        // Clear the user context, flush any active transaction
-                                        if (fentry.getSession().hasTransaction())
-                                            fentry.getSession().endTransaction();
-
-                                        m_authenticator.setCurrentUser(fentry.getSession(), null);
-                                    }
-                                    catch (Exception ex) {
-
-                                        // DEBUG
-                                        if (Debug.EnableInfo && hasDebug()) {
-                                            Debug.println("Error closing file, fentry=" + fentry + ", ex=" + ex.getMessage());
-                                            Debug.println(ex);
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
-
-        /**
-         * Request the file expiry thread to shutdown
+         * @return String
          */
-        public final void requestShutdown() {
-
-            // Set the shutdown flag
-            m_shutdown = true;
-
-            // Wakeup the thread
-            try {
-                m_thread.interrupt();
-            }
-            catch (Exception ex) {
-            }
-
-            // Wait for the expiry thread to complete
-            try {
-                m_thread.join(m_fileIOTmo);
-            }
-            catch (Exception ex) {
-            }
+        public String toString() {
+            StringBuilder str = new StringBuilder();
+
+            str.append("[");
+            str.append(m_file != null ? m_file.getFullName() : "<null>");
+            str.append(",tmo=");
+            str.append(getTimeout());
+            if (isClosed())
+                str.append(",Closed");
+            str.append("]");
+
+            return str.toString();
         }
     }
 
-    ;
-
     /**
      * Class constructor
      *
+     * <p>The file cache uses its own expiry thread.
+     *
      * @param name String
      */
     public NetworkFileCache(String name) {
+        this(name, null);
+    }
 
-        // Create the file cache
-        m_fileCache = new Hashtable<Integer, FileEntry>();
+    /**
+     * Class constructor
+     *
+     * @param name   String
+     * @param expiry NetworkFileExpiry
+     */
+    public NetworkFileCache(String name, NetworkFileExpiry expiry) {
 
-        // Start the file expiry thread
-        m_expiryThread = new FileExpiry(name);
+        m_name = name;
+
+        // Create the file cache and timeout wheel
+        m_fileCache = new ConcurrentIntMap<FileEntry>();
+        m_timeouts = new TimerWheel<FileEntry>(ExpiryTick, ExpirySlots);
+        m_closeQueue = new ConcurrentLinkedQueue<FileEntry>();
+
+        // Register with the shared file expiry thread, or start a file expiry thread for this cache
+        if (expiry == null) {
+            expiry = new NetworkFileExpiry(name, ExpiryTick);
+            m_ownExpiry = true;
+        }
+
+        m_expiry = expiry;
+        m_expiry.addCache(this);
     }
 
     /**
@@ -436,10 +304,34 @@ public class NetworkFileCache {
      * @param conn TreeConnection
      * @param sess NFSSrvSession
      */
-    public synchronized final void addFile(NetworkFile file,
-                                           TreeConnection conn, NFSSrvSession sess) {
-        synchronized (m_fileCache) {
-            m_fileCache.put(new Integer(file.getFileId()), new FileEntry(file, conn, sess));
+    public final void addFile(NetworkFile file, TreeConnection conn, NFSSrvSession sess) {
+
+        // Add the file entry, replacing any existing entry for the file id
+        FileEntry fentry = new FileEntry(file, conn, sess);
+        FileEntry oldEntry = m_fileCache.put(file.getFileId(), fentry);
+
+        if (oldEntry != null)
+            oldEntry.cancel();
+
+        m_timeouts.schedule(fentry);
+
+        // Check if the cache is full, queue the least recently used files to be closed by the expiry thread
+        if (oldEntry == null && m_fileCache.size() > m_maxFiles) {
+
+            List<FileEntry> oldest = m_timeouts.removeOldest(m_fileCache.size() - m_maxFiles);
+
+            for (FileEntry evictEntry : oldest) {
+                if (evictEntry != fentry && m_fileCache.remove(evictEntry.getFile().getFileId(), evictEntry)) {
+                    m_closeQueue.add(evictEntry);
+                    m_evictions.incrementAndGet();
+
+                    // DEBUG
+                    if (Debug.EnableInfo && hasDebug())
+                        Debug.println("NFSFileExpiry: Cache full, evict file=" + evictEntry.getFile().getFullName());
+                }
+                else if (evictEntry == fentry)
+                    m_timeouts.schedule(fentry);
+            }
         }
     }
 
@@ -448,14 +340,10 @@ public class NetworkFileCache {
      *
      * @param id int
      */
-    public synchronized final void removeFile(int id) {
-
-        // Create the search key
-        Integer fileId = new Integer(id);
-
-        synchronized (m_fileCache) {
-            m_fileCache.remove(fileId);
-        }
+    public final void removeFile(int id) {
+        FileEntry fentry = m_fileCache.remove(id);
+        if (fentry != null)
+            fentry.cancel();
     }
 
     /**
@@ -465,32 +353,46 @@ public class NetworkFileCache {
      * @param sess SrvSession
      * @return NetworkFile
      */
-    public synchronized final NetworkFile findFile(int id, SrvSession sess) {
+    public final NetworkFile findFile(int id, SrvSession sess) {
+        return findFile(id, sess, true);
+    }
 
-        // Create the search key
-        Integer fileId = new Integer(id);
-        FileEntry fentry = null;
+    /**
+     * Find a file via the file id, optionally counting a failed lookup as a cache miss
+     *
+     * @param id        int
+     * @param sess      SrvSession
+     * @param countMiss boolean
+     * @return NetworkFile
+     */
+    protected final NetworkFile findFile(int id, SrvSession sess, boolean countMiss) {
 
-        synchronized (m_fileCache) {
-            fentry = m_fileCache.get(fileId);
-        }
+        // Find the file entry
+        FileEntry fentry = m_fileCache.get(id);
 
         // Return the file, or null if not found
         if (fentry != null) {
 
+            m_hits.incrementAndGet();
+
             // Update the file timeout
             fentry.updateTimeout();
 
-            // Check if the file is open
-            if (fentry.isClosed())
-                fentry.openFile();
+            // Check if the file is open, the file may be closed by the expiry thread which also locks the file
+            if (fentry.isClosed()) {
+                synchronized (fentry.getFile()) {
+                    if (fentry.isClosed())
+                        fentry.openFile();
+                }
+            }
 
             // Return the file
             return fentry.getFile();
         }
 
         // Invalid file id
-
+        if (countMiss)
+            m_misses.incrementAndGet();
         return null;
     }
 
@@ -503,27 +405,228 @@ public class NetworkFileCache {
         return m_fileCache.size();
     }
 
+    /**
+     * Return the count of lookups that found an open file
+     *
+     * @return long
+     */
+    public final long getHitCount() {
+        return m_hits.get();
+    }
+
+    /**
+     * Return the count of lookups that did not find a file
+     *
+     * @return long
+     */
+    public final long getMissCount() {
+        return m_misses.get();
+    }
+
+    /**
+     * Return the count of files closed because the cache was full
+     *
+     * @return long
+     */
+    public final long getEvictionCount() {
+        return m_evictions.get();
+    }
+
+    /**
+     * Return the maximum number of files
+     *
+     * @return int
+     */
+    public final int getMaximumFiles() {
+        return m_maxFiles;
+    }
+
+    /**
+     * Check for files that have had no I/O activity, called by the file expiry thread
+     *
+     * @param timeNow long
+     */
+    protected final void expireFiles(long timeNow) {
+
+        // Close files that were removed when the cache was full
+        FileEntry fentry = m_closeQueue.poll();
+
+        while (fentry != null) {
+            expireFile(fentry, timeNow, true);
+            fentry = m_closeQueue.poll();
+        }
+
+        // Check for expired files
+        if (m_timeouts.isDue(timeNow) == false)
+            return;
+
+        List<FileEntry> expired = m_timeouts.advance(timeNow);
+
+        if (expired != null) {
+            for (FileEntry expEntry : expired)
+                expireFile(expEntry, timeNow, false);
+        }
+    }
+
+    /**
+     * Expire a file entry. The first stage closes the network file but keeps the entry in the cache as the file
+     * may be re-opened, the second stage removes the entry and closes the file via the disk interface.
+     *
+     * @param fentry  FileEntry
+     * @param timeNow long
+     * @param remove  boolean
+     */
+    private void expireFile(FileEntry fentry, long timeNow, boolean remove) {
+
+        // Get the network file
+        NetworkFile netFile = fentry.getFile();
+        int fileId = netFile.getFileId();
+
+        if (remove == false) {
+
+            // Check if the file has an I/O request pending, if so then reset the file expiry time for the file
+            if (netFile.hasIOPending()) {
+
+                // Update the expiry time for the file entry
+                fentry.updateTimeout();
+                m_timeouts.schedule(fentry);
+
+                // DEBUG
+                if (Debug.EnableInfo && hasDebug())
+                    Debug.println("NFSFileExpiry: I/O pending file=" + fentry.getFile().getFullName() + ", fid=" + fileId);
+                return;
+            }
+
+            // Check if the file has been accessed since the timeout was checked
+            if (fentry.getTimeout() > timeNow) {
+                m_timeouts.schedule(fentry);
+                return;
+            }
+        }
+
+        // Make sure there is no active transaction
+        NFSSrvSession sess = fentry.getSession();
+
+        if (sess.hasTransaction())
+            sess.endTransaction();
+
+        // We need to do the close in the context of the user that opened the file
+        try {
+
+            // Set the the current user context
+            m_authenticator.setCurrentUser(sess, sess.getNFSClientInformation());
+
+            // Write out any gathered write data for the file before it is closed, this must be done before the
+            // file is locked as the write gather cache locks the file when writing the data
+            sess.getNFSServer().flushGatheredWrites(fentry.getConnection(), netFile);
+
+            synchronized (netFile) {
+
+                if (fentry.m_released) {
+
+                    // File has already been closed
+                }
+                else if (remove == false && (fentry.getTimeout() > timeNow || fentry.isCancelled())) {
+
+                    // File has been accessed whilst the gathered data was written, or has been removed from the cache
+                    if (fentry.isCancelled() == false)
+                        m_timeouts.schedule(fentry);
+                }
+                else if (remove == false && fentry.isClosed() == false) {
+
+                    // Check if the filesystem is transactional, in this case only mark the file as closed
+                    if (netFile.allowsOpenCloseViaNetworkFile() == false) {
+
+                        // Mark the file as closed, wait for second stage expiry to actually close the file
+                        fentry.markAsClosed();
+
+                        // DEBUG
+                        if (Debug.EnableInfo && hasDebug())
+                            Debug.println("NFSFileExpiry: Marked as closed file=" + fentry.getFile().getFullName() + ", fid=" + fileId + " (cached)");
+                    } else {
+
+                        // Close the network file
+                        fentry.closeFile();
+
+                        // Update the file entry timeout to keep the file in the cache for a while
+                        fentry.updateTimeout(System.currentTimeMillis() + m_fileCloseTmo);
+
+                        // DEBUG
+                        if (Debug.EnableInfo && hasDebug())
+                            Debug.println("NFSFileExpiry: Closed file=" + fentry.getFile().getFullName() + ", fid=" + fileId + " (cached)");
+                    }
+
+                    // Requeue the entry for the second stage expiry
+                    m_timeouts.schedule(fentry);
+                } else {
+
+                    // File entry has expired, remove it from the cache
+                    fentry.m_released = true;
+                    m_fileCache.remove(fileId, fentry);
+
+                    // Get the disk interface
+                    DiskInterface disk = (DiskInterface) fentry.getConnection().getInterface();
+
+                    // Close the file
+                    if (disk.fileExists(sess, fentry.getConnection(), netFile.getFullName()) != FileStatus.NotExist) {
+
+                        // Check if the file has already been closed
+                        if (netFile.isClosed() == false) {
+
+                            // Close the file
+                            disk.closeFile(sess, fentry.getConnection(), netFile);
+
+                            // DEBUG
+                            if (Debug.EnableInfo && hasDebug())
+                                Debug.println("NFSFileExpiry: Closed file=" + fentry.getFile().getFullName() + ", fid=" + fileId + " (removed)");
+                        } else if (Debug.EnableInfo && hasDebug())
+                            Debug.println("NFSFileExpiry: File already closed, file=" + fentry.getFile().getFullName() + ", fid=" + fileId);
+                    } else if (Debug.EnableInfo && hasDebug())
+                        Debug.println("NFSFileExpiry: File deleted before close, " + netFile.getFullName());
+                }
+            }
+
+            // Clear the user context, flush any active transaction
+            if (sess.hasTransaction())
+                sess.endTransaction();
+
+            m_authenticator.setCurrentUser(sess, null);
+        }
+        catch (Exception ex) {
+
+            // DEBUG
+            if (Debug.EnableInfo && hasDebug()) {
+                Debug.println("Error closing file, fentry=" + fentry + ", ex=" + ex.getMessage());
+                Debug.println(ex);
+            }
+        }
+    }
+
     /**
      * Close the expiry cache, close and remove all files from the cache and
      * stop the expiry thread.
      */
     public final void closeAllFiles() {
 
-        // Enumerate the cache entries
-        Enumeration<Integer> keys = m_fileCache.keys();
+        // Stop checking this cache for expired files
+        m_expiry.removeCache(this);
 
-        while (keys.hasMoreElements()) {
+        if (m_ownExpiry)
+            m_expiry.requestShutdown();
 
-            // Get the current key and lookup the matching value
-            Integer key = keys.nextElement();
-            FileEntry entry = m_fileCache.get(key);
+        // Close the files that were queued for closing, and the files in the cache
+        long timeNow = System.currentTimeMillis();
+        FileEntry fentry = m_closeQueue.poll();
 
-            // Expire the file entry
-            entry.updateTimeout(0L);
+        while (fentry != null) {
+            expireFile(fentry, timeNow, true);
+            fentry = m_closeQueue.poll();
         }
 
-        // Shutdown the expiry thread, this should close the files
-        m_expiryThread.requestShutdown();
+        m_timeouts.removeAll();
+
+        for (FileEntry entry : m_fileCache.values())
+            expireFile(entry, timeNow, true);
     }
 
     /**
@@ -553,6 +656,15 @@ public class NetworkFileCache {
         m_fileCloseTmo = closeTimer;
     }
 
+    /**
+     * Set the maximum number of files in the cache
+     *
+     * @param maxFiles int
+     */
+    public final void setMaximumFiles(int maxFiles) {
+        m_maxFiles = maxFiles;
+    }
+
     /**
      * Set the RPC authenticator
      *
@@ -568,19 +680,35 @@ public class NetworkFileCache {
     public final void dumpCache() {
 
         // Dump the count of entries in the cache
-        Debug.println("NetworkFileCache entries=" + numberOfEntries());
+        Debug.println("NetworkFileCache entries=" + numberOfEntries() + ", hits=" + getHitCount() + ", misses=" + getMissCount() +
+                ", evictions=" + getEvictionCount());
 
         // Enumerate the cache entries
-        Enumeration<Integer> keys = m_fileCache.keys();
-
-        while (keys.hasMoreElements()) {
-
-            // Get the current key and lookup the matching value
-            Integer key = keys.nextElement();
-            FileEntry entry = m_fileCache.get(key);
+        for (FileEntry entry : m_fileCache.values()) {
 
             // Dump the entry details
-            Debug.println("fid=" + key + ": " + entry);
+            Debug.println("fid=" + entry.getFile().getFileId() + ": " + entry);
         }
     }
+
+    /**
+     * Return the file cache details as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[NetworkFileCache ");
+        str.append(m_name);
+        str.append(",files=");
+        str.append(numberOfEntries());
+        str.append(",hits=");
+        str.append(getHitCount());
+        str.append(",misses=");
+        str.append(getMissCount());
+        str.append("]");
+
+        return str.toString();
+    }
 }
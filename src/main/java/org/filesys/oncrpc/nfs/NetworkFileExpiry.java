@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.oncrpc.nfs;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.filesys.debug.Debug;
+
+/**
+ * Network File Expiry Class
+ *
+ * <p>Expiry thread that is shared by the per session network file caches of the NFS server, each registered cache
+ * is checked once per tick and closes the files that have had no I/O activity.
+ *
+ * @author gkspencer
+ */
+public class NetworkFileExpiry implements Runnable {
+
+    // Default tick interval
+    public static final long DefaultTickInterval = 1000L;   // 1 second
+
+    // Registered file caches
+    private CopyOnWriteArrayList<NetworkFileCache> m_caches;
+
+    // Tick interval
+    private long m_tick;
+
+    // Expiry thread
+    private Thread m_thread;
+
+    // Shutdown flag
+    private volatile boolean m_shutdown;
+
+    /**
+     * Class constructor
+     *
+     * @param name String
+     * @param tick long
+     */
+    public NetworkFileExpiry(String name, long tick) {
+
+        m_caches = new CopyOnWriteArrayList<NetworkFileCache>();
+        m_tick = tick > 0 ? tick : DefaultTickInterval;
+
+        // Create and start the file expiry thread
+        m_thread = new Thread(this);
+        m_thread.setDaemon(true);
+        m_thread.setName("NFSFileExpiry_" + name);
+        m_thread.start();
+    }
+
+    /**
+     * Return the tick interval, in milliseconds
+     *
+     * @return long
+     */
+    public final long getTickInterval() {
+        return m_tick;
+    }
+
+    /**
+     * Return the count of registered file caches
+     *
+     * @return int
+     */
+    public final int numberOfCaches() {
+        return m_caches.size();
+    }
+
+    /**
+     * Register a file cache
+     *
+     * @param cache NetworkFileCache
+     */
+    public final void addCache(NetworkFileCache cache) {
+        m_caches.addIfAbsent(cache);
+    }
+
+    /**
+     * Unregister a file cache
+     *
+     * @param cache NetworkFileCache
+     */
+    public final void removeCache(NetworkFileCache cache) {
+        m_caches.remove(cache);
+    }
+
+    /**
+     * Main thread method
+     */
+    public void run() {
+
+        // Loop until shutdown
+        while (m_shutdown == false) {
+
+            // Sleep for a while
+            try {
+                Thread.sleep(m_tick);
+            }
+            catch (InterruptedException ex) {
+            }
+
+            if (m_shutdown)
+                break;
+
+            // Check the registered file caches for expired files
+            long timeNow = System.currentTimeMillis();
+
+            for (NetworkFileCache cache : m_caches) {
+                try {
+                    cache.expireFiles(timeNow);
+                }
+                catch (Exception ex) {
+                    Debug.println("NFSFileExpiry: Error checking cache " + cache + ", ex=" + ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Request the file expiry thread to shutdown
+     */
+    public final void requestShutdown() {
+
+        // Set the shutdown flag
+        m_shutdown = true;
+
+        // Wakeup the thread
+        try {
+            m_thread.interrupt();
+        }
+        catch (Exception ex) {
+        }
+
+        // Wait for the expiry thread to complete
+        try {
+            m_thread.join(m_tick * 2);
+        }
+        catch (Exception ex) {
+        }
+    }
+}
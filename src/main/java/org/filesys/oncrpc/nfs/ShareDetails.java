@@ -39,6 +39,9 @@ public class ShareDetails {
     //	via the FileIdInterface
     private boolean m_fileIdLookup;
 
+    //	Cache for UNSTABLE write data, or null if write gathering is disabled
+    private WriteGatherCache m_writeCache;
+
     /**
      * Class constructor
      *
@@ -57,6 +60,37 @@ public class ShareDetails {
         m_idCache = new FileIdCache();
     }
 
+    /**
+     * Class constructor
+     *
+     * @param name           String
+     * @param fileIdSupport  boolean
+     * @param writeCacheSize long
+     */
+    public ShareDetails(String name, boolean fileIdSupport, long writeCacheSize) {
+        this(name, fileIdSupport);
+
+        //	Create the write gather cache, if enabled
+        if (writeCacheSize > 0)
+            m_writeCache = new WriteGatherCache(writeCacheSize);
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param name           String
+     * @param fileIdSupport  boolean
+     * @param writeCacheSize long
+     * @param idCacheSize    int
+     */
+    public ShareDetails(String name, boolean fileIdSupport, long writeCacheSize, int idCacheSize) {
+        this(name, fileIdSupport, writeCacheSize);
+
+        //	Create the file id cache using the specified size limit, idle paths are only removed if the
+        //	filesystem can rebuild the path using the file id
+        m_idCache = new FileIdCache(idCacheSize, fileIdSupport ? FileIdCache.DefaultIdleTimeout : 0L);
+    }
+
     /**
      * Return the share name
      *
@@ -75,6 +109,24 @@ public class ShareDetails {
         return m_idCache;
     }
 
+    /**
+     * Determine if UNSTABLE writes are gathered for this share
+     *
+     * @return boolean
+     */
+    public final boolean hasWriteCache() {
+        return m_writeCache != null ? true : false;
+    }
+
+    /**
+     * Return the write gather cache
+     *
+     * @return WriteGatherCache
+     */
+    public final WriteGatherCache getWriteCache() {
+        return m_writeCache;
+    }
+
     /**
      * Determine if the filesystem driver for this share has file id support
      *
@@ -0,0 +1,527 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.oncrpc.nfs;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.filesys.server.filesys.DiskInterface;
+import org.filesys.server.filesys.NetworkFile;
+import org.filesys.server.filesys.TreeConnection;
+import org.filesys.server.filesys.readahead.ReadAheadCache;
+
+/**
+ * Write Gather Cache Class
+ *
+ * <p>Holds the data from NFS version 3 UNSTABLE write requests in memory for a share until the client sends a COMMIT,
+ * the file is closed by the network file cache, or the cache size limit is reached. Adjacent writes to a file are
+ * coalesced into larger extents so that sequential writes reach the filesystem driver as large writes.
+ *
+ * <p>Extents for a file are written out in the order they were received, so overlapping writes are applied in order.
+ *
+ * <p>All pending data is written out via the same path, whether for a COMMIT, a close, or to make space in the cache,
+ * and the write gather listener is notified if data cannot be written. Pending data for a file that is deleted is
+ * discarded, as file ids may be reused by a new file with the same path.
+ *
+ * @author gkspencer
+ */
+public class WriteGatherCache {
+
+    // Default cache size per share, in bytes
+    public static final long DefaultCacheSize = 32L * 1024L * 1024L;
+
+    // Initial and maximum extent buffer size
+    private static final int InitialExtentSize = 64 * 1024;
+    private static final int MaximumExtentSize = 1024 * 1024;
+
+    // Maximum bytes of write data held by this cache, and current bytes held
+    private long m_maxSize;
+    private long m_curSize;
+
+    // Pending writes, key is the file id
+    private HashMap<Integer, PendingWrites> m_files = new HashMap<Integer, PendingWrites>();
+
+    // Listener notified when pending data cannot be written
+    private WriteGatherListener m_listener;
+
+    // Read-ahead cache, overlapping read-ahead data is discarded when pending data is written
+    private ReadAheadCache m_readAhead;
+
+    /**
+     * Write Extent Class
+     */
+    private static class WriteExtent {
+
+        // File offset, data buffer and used length
+        private long mi_offset;
+        private byte[] mi_data;
+        private int mi_len;
+
+        /**
+         * Class constructor
+         *
+         * @param offset long
+         * @param buf    byte[]
+         * @param pos    int
+         * @param len    int
+         */
+        public WriteExtent(long offset, byte[] buf, int pos, int len) {
+            mi_offset = offset;
+            mi_data = new byte[Math.max(len, Math.min(InitialExtentSize, MaximumExtentSize))];
+            System.arraycopy(buf, pos, mi_data, 0, len);
+            mi_len = len;
+        }
+
+        /**
+         * Return the end of extent file offset
+         *
+         * @return long
+         */
+        public final long getEndOffset() {
+            return mi_offset + mi_len;
+        }
+
+        /**
+         * Check if data at the specified offset can be appended to this extent
+         *
+         * @param offset long
+         * @param len    int
+         * @return boolean
+         */
+        public final boolean canAppend(long offset, int len) {
+            return offset == getEndOffset() && mi_len + len <= MaximumExtentSize;
+        }
+
+        /**
+         * Append data to the extent
+         *
+         * @param buf byte[]
+         * @param pos int
+         * @param len int
+         */
+        public final void append(byte[] buf, int pos, int len) {
+
+            // Grow the extent buffer, if required
+            if (mi_len + len > mi_data.length)
+                mi_data = Arrays.copyOf(mi_data, Math.min(Math.max(mi_data.length * 2, mi_len + len), MaximumExtentSize));
+
+            System.arraycopy(buf, pos, mi_data, mi_len, len);
+            mi_len += len;
+        }
+    }
+
+    /**
+     * Pending Writes Class
+     *
+     * <p>Pending write data for a single file, and the session/network file used to write the data out.
+     */
+    private static class PendingWrites {
+
+        // Session, tree connection and network file used to write the data
+        private NFSSrvSession mi_sess;
+        private TreeConnection mi_conn;
+        private NetworkFile mi_netFile;
+
+        // List of write extents, in the order the writes were received
+        private List<WriteExtent> mi_extents = new ArrayList<WriteExtent>();
+
+        // Highest file offset written
+        private long mi_endOffset;
+
+        // Flag to indicate the pending writes have been removed from the cache
+        private boolean mi_removed;
+
+        /**
+         * Class constructor
+         *
+         * @param sess    NFSSrvSession
+         * @param conn    TreeConnection
+         * @param netFile NetworkFile
+         */
+        public PendingWrites(NFSSrvSession sess, TreeConnection conn, NetworkFile netFile) {
+            mi_sess = sess;
+            mi_conn = conn;
+            mi_netFile = netFile;
+        }
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param maxSize long
+     */
+    public WriteGatherCache(long maxSize) {
+        m_maxSize = maxSize;
+    }
+
+    /**
+     * Return the maximum cache size, in bytes
+     *
+     * @return long
+     */
+    public final long getMaximumSize() {
+        return m_maxSize;
+    }
+
+    /**
+     * Set the listener that is notified when pending data cannot be written
+     *
+     * @param listener WriteGatherListener
+     */
+    public final void setWriteGatherListener(WriteGatherListener listener) {
+        m_listener = listener;
+    }
+
+    /**
+     * Set the read-ahead cache that holds read-ahead data for files on the share
+     *
+     * @param readAhead ReadAheadCache
+     */
+    public final void setReadAheadCache(ReadAheadCache readAhead) {
+        m_readAhead = readAhead;
+    }
+
+    /**
+     * Return the number of bytes of write data currently held in the cache
+     *
+     * @return long
+     */
+    public final synchronized long getPendingSize() {
+        return m_curSize;
+    }
+
+    /**
+     * Return the number of files with pending write data
+     *
+     * @return int
+     */
+    public final synchronized int numberOfFiles() {
+        return m_files.size();
+    }
+
+    /**
+     * Check if the specified file has pending write data
+     *
+     * @param fileId int
+     * @return boolean
+     */
+    public final synchronized boolean hasPendingWrites(int fileId) {
+        return m_files.containsKey(fileId);
+    }
+
+    /**
+     * Return the file size including any pending write data, or -1 if the file has no pending writes
+     *
+     * @param fileId int
+     * @return long
+     */
+    public final long getPendingFileSize(int fileId) {
+
+        // Get the pending writes for the file
+        PendingWrites pending = null;
+
+        synchronized (this) {
+            pending = m_files.get(fileId);
+        }
+
+        if (pending == null)
+            return -1L;
+
+        synchronized (pending) {
+            return pending.mi_removed ? -1L : pending.mi_endOffset;
+        }
+    }
+
+    /**
+     * Add write data to the cache. If the cache does not have space for the data the pending writes for the file
+     * are written out, if there is still not enough space false is returned and the caller must write the data
+     * directly.
+     *
+     * @param sess    NFSSrvSession
+     * @param conn    TreeConnection
+     * @param netFile NetworkFile
+     * @param buf     byte[]
+     * @param pos     int
+     * @param len     int
+     * @param offset  long
+     * @return boolean
+     * @exception IOException Error writing the pending data for the file
+     */
+    public final boolean gatherWrite(NFSSrvSession sess, TreeConnection conn, NetworkFile netFile, byte[] buf, int pos,
+                                     int len, long offset)
+            throws IOException {
+
+        // Check if the write is too large to cache
+        if (len > m_maxSize)
+            return false;
+
+        while (true) {
+
+            // Get, or create, the pending writes for the file
+            PendingWrites pending = null;
+
+            synchronized (this) {
+                pending = m_files.get(netFile.getFileId());
+
+                if (pending == null) {
+                    pending = new PendingWrites(sess, conn, netFile);
+                    m_files.put(netFile.getFileId(), pending);
+                }
+            }
+
+            synchronized (pending) {
+
+                // Check if the pending writes were written out by another thread, retry
+                if (pending.mi_removed)
+                    continue;
+
+                // Reserve space in the cache, write out the pending data for this file if the cache is full
+                if (reserveSpace(len) == false) {
+
+                    // Write out the pending data for the file, if there was no data for the file the cache is
+                    // full of data for other files
+                    boolean hasData = pending.mi_extents.size() > 0;
+                    writePending(pending);
+
+                    if (hasData == false)
+                        return false;
+
+                    continue;
+                }
+
+                // Append to the last extent, if the write follows on, else add a new extent
+                int extCnt = pending.mi_extents.size();
+
+                if (extCnt > 0 && pending.mi_extents.get(extCnt - 1).canAppend(offset, len))
+                    pending.mi_extents.get(extCnt - 1).append(buf, pos, len);
+                else
+                    pending.mi_extents.add(new WriteExtent(offset, buf, pos, len));
+
+                // Update the highest file offset written
+                if (offset + len > pending.mi_endOffset)
+                    pending.mi_endOffset = offset + len;
+
+                // Use the latest session/file to write out the data
+                pending.mi_sess = sess;
+                pending.mi_conn = conn;
+                pending.mi_netFile = netFile;
+
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Write out the pending write data for a file
+     *
+     * @param fileId int
+     * @return boolean true if there was pending data for the file
+     * @exception IOException Error writing the pending data
+     */
+    public final boolean flushFile(int fileId)
+            throws IOException {
+
+        // Get the pending writes for the file
+        PendingWrites pending = null;
+
+        synchronized (this) {
+            pending = m_files.get(fileId);
+        }
+
+        if (pending == null)
+            return false;
+
+        // Write out the pending data
+        synchronized (pending) {
+            if (pending.mi_removed)
+                return false;
+
+            writePending(pending);
+        }
+
+        return true;
+    }
+
+    /**
+     * Discard the pending write data for a file that has been deleted, the data is not written out
+     *
+     * @param fileId int
+     * @return boolean true if there was pending data for the file
+     */
+    public final boolean discardFile(int fileId) {
+
+        // Remove the pending writes for the file
+        PendingWrites pending = null;
+
+        synchronized (this) {
+            pending = m_files.remove(fileId);
+        }
+
+        if (pending == null)
+            return false;
+
+        // Release the cache space held by the pending data
+        synchronized (pending) {
+            pending.mi_removed = true;
+
+            long total = 0L;
+            for (WriteExtent extent : pending.mi_extents)
+                total += extent.mi_len;
+
+            releaseSpace(total);
+            pending.mi_extents.clear();
+        }
+
+        return true;
+    }
+
+    /**
+     * Write out the pending write data for all files
+     *
+     * @return int Number of files that failed to write out
+     */
+    public final int flushAll() {
+
+        // Get a list of the files with pending writes
+        List<Integer> fileIds = null;
+
+        synchronized (this) {
+            fileIds = new ArrayList<Integer>(m_files.keySet());
+        }
+
+        // Write out the pending data for each file
+        int errCnt = 0;
+
+        for (Integer fileId : fileIds) {
+            try {
+                flushFile(fileId);
+            }
+            catch (IOException ex) {
+                errCnt++;
+            }
+        }
+
+        return errCnt;
+    }
+
+    /**
+     * Reserve space in the cache
+     *
+     * @param len int
+     * @return boolean
+     */
+    private synchronized boolean reserveSpace(int len) {
+        if (m_curSize + len > m_maxSize)
+            return false;
+
+        m_curSize += len;
+        return true;
+    }
+
+    /**
+     * Release space in the cache
+     *
+     * @param len long
+     */
+    private synchronized void releaseSpace(long len) {
+        m_curSize -= len;
+    }
+
+    /**
+     * Write out the pending data for a file, and remove the pending writes from the cache. The caller must hold
+     * the pending writes lock.
+     *
+     * <p>If a write fails the remaining data for the file is discarded, and the write gather listener is notified.
+     *
+     * @param pending PendingWrites
+     * @exception IOException Error writing the pending data
+     */
+    private void writePending(PendingWrites pending)
+            throws IOException {
+
+        // Remove the pending writes from the cache, new writes for the file will create a new entry
+        synchronized (this) {
+            if (m_files.get(pending.mi_netFile.getFileId()) == pending)
+                m_files.remove(pending.mi_netFile.getFileId());
+            pending.mi_removed = true;
+        }
+
+        // Write out the extents, in order
+        IOException writeErr = null;
+        long released = 0L;
+
+        try {
+            DiskInterface disk = (DiskInterface) pending.mi_conn.getSharedDevice().getInterface();
+            NetworkFile netFile = pending.mi_netFile;
+
+            for (WriteExtent extent : pending.mi_extents) {
+
+                if (writeErr == null) {
+                    try {
+                        synchronized (netFile) {
+
+                            // Make sure the network file is open
+                            if (netFile.isClosed())
+                                netFile.openFile(false);
+
+                            // Write the extent to the file
+                            disk.writeFile(pending.mi_sess, pending.mi_conn, netFile, extent.mi_data, 0, extent.mi_len, extent.mi_offset);
+
+                            if (m_readAhead != null)
+                                m_readAhead.fileModified(pending.mi_conn, netFile, extent.mi_offset, extent.mi_len);
+                            else
+                                netFile.discardReadAhead();
+                        }
+                    }
+                    catch (IOException ex) {
+                        writeErr = ex;
+                    }
+                }
+
+                // Release the cache space
+                releaseSpace(extent.mi_len);
+                released += extent.mi_len;
+            }
+        }
+        catch (Exception ex) {
+            writeErr = new IOException("Failed to write pending data", ex);
+        }
+        finally {
+
+            // Release the space for any extents that were not processed
+            long total = 0L;
+            for (WriteExtent extent : pending.mi_extents)
+                total += extent.mi_len;
+
+            if (total > released)
+                releaseSpace(total - released);
+
+            pending.mi_extents.clear();
+        }
+
+        // Notify the listener, and rethrow the write error
+        if (writeErr != null) {
+            if (m_listener != null)
+                m_listener.gatheredWriteFailed(pending.mi_netFile.getFileId(), writeErr);
+            throw writeErr;
+        }
+    }
+}
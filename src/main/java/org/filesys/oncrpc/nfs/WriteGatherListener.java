@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.oncrpc.nfs;
+
+import java.io.IOException;
+
+/**
+ * Write Gather Listener Interface
+ *
+ * <p>Notified when gathered write data cannot be written to the file, the data has been discarded from the write
+ * gather cache so clients must be told to resend any uncommitted data.
+ *
+ * @author gkspencer
+ */
+public interface WriteGatherListener {
+
+    /**
+     * Gathered write data for a file could not be written
+     *
+     * @param fileId int
+     * @param ex     IOException
+     */
+    public void gatheredWriteFailed(int fileId, IOException ex);
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.oncrpc.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.filesys.debug.Debug;
+import org.filesys.oncrpc.RpcPacket;
+import org.filesys.oncrpc.RpcPacketPool;
+import org.filesys.oncrpc.RpcProcessor;
+import org.filesys.oncrpc.RpcRequestThreadPool;
+import org.filesys.server.NetworkServer;
+import org.filesys.server.SessionHandlerBase;
+
+/**
+ * NIO ONC/RPC Session Handler Class
+ *
+ * <p>Accepts incoming ONC/RPC over TCP connections and hands each connection to a selector based request
+ * handler, each request handler services a group of sessions using a single thread. Requests are processed
+ * by the RPC request thread pool.
+ *
+ * <p>This avoids the thread per connection model of the {@link org.filesys.oncrpc.TcpRpcSessionHandler} so that
+ * a server can support a large number of client connections.
+ *
+ * @author gkspencer
+ */
+public class NIORpcSessionHandler extends SessionHandlerBase implements Runnable {
+
+    // Constants
+    //
+    // Default packet pool size and small packet size
+    public static final int DefaultPacketPoolSize   = 50;
+    public static final int DefaultSmallPacketSize  = 512;
+
+    // Default number of sessions per request handler
+    public static final int DefaultSessionsPerHandler = 250;
+
+    // RPC server implementation used to process the requests
+    private RpcProcessor m_rpcProcessor;
+
+    // Maximum request size allowed
+    private int m_maxRpcSize;
+
+    // Server socket channel for receiving incoming connections
+    private ServerSocketChannel m_srvSockChannel;
+
+    // RPC packet pool
+    private RpcPacketPool m_packetPool;
+
+    // Request handler thread pool, and flag to indicate the thread pool was created by this handler
+    private RpcRequestThreadPool m_threadPool;
+    private boolean m_ownThreadPool;
+
+    // List of active request handlers
+    private List<RpcChannelRequestHandler> m_handlers = new ArrayList<RpcChannelRequestHandler>();
+
+    // Maximum sessions per request handler
+    private int m_sessPerHandler = DefaultSessionsPerHandler;
+
+    /**
+     * Class constructor
+     *
+     * @param name      String
+     * @param protocol  String
+     * @param rpcServer RpcProcessor
+     * @param server    NetworkServer
+     * @param addr      InetAddress
+     * @param port      int
+     * @param maxSize   int
+     */
+    public NIORpcSessionHandler(String name, String protocol, RpcProcessor rpcServer, NetworkServer server,
+                                InetAddress addr, int port, int maxSize) {
+        super(name, protocol, server, addr, port);
+
+        // Set the RPC server implementation that will be used to process the requests
+        m_rpcProcessor = rpcServer;
+
+        // Set the maximum RPC request size allowed
+        m_maxRpcSize = maxSize;
+    }
+
+    /**
+     * Return the maximum RPC size allowed
+     *
+     * @return int
+     */
+    public final int getMaximumRpcSize() {
+        return m_maxRpcSize;
+    }
+
+    /**
+     * Return the RPC server used to process the requests
+     *
+     * @return RpcProcessor
+     */
+    protected final RpcProcessor getRpcProcessor() {
+        return m_rpcProcessor;
+    }
+
+    /**
+     * Return the packet pool
+     *
+     * @return RpcPacketPool
+     */
+    protected final RpcPacketPool getPacketPool() {
+        return m_packetPool;
+    }
+
+    /**
+     * Return the number of active request handlers
+     *
+     * @return int
+     */
+    public final int getRequestHandlerCount() {
+        synchronized (m_handlers) {
+            return m_handlers.size();
+        }
+    }
+
+    /**
+     * Set the maximum number of sessions per request handler
+     *
+     * @param sessPerHandler int
+     */
+    public final void setSessionsPerHandler(int sessPerHandler) {
+        if (sessPerHandler > 0)
+            m_sessPerHandler = sessPerHandler;
+    }
+
+    /**
+     * Set the packet pool
+     *
+     * @param pktPool RpcPacketPool
+     */
+    public final void setPacketPool(RpcPacketPool pktPool) {
+
+        // Set the packet pool, if not already initialized
+        if (m_packetPool == null)
+            m_packetPool = pktPool;
+    }
+
+    /**
+     * Set the thread pool size
+     *
+     * @param numThreads int
+     */
+    public final void setThreadPool(int numThreads) {
+
+        // Create the thread pool, if not already initialized
+        if (m_threadPool == null) {
+            m_threadPool = new RpcRequestThreadPool(getHandlerName(), numThreads, getRpcProcessor());
+            m_ownThreadPool = true;
+        }
+    }
+
+    /**
+     * Set the thread pool
+     *
+     * @param threadPool RpcRequestThreadPool
+     */
+    public final void setThreadPool(RpcRequestThreadPool threadPool) {
+
+        // Set the thread pool, if not already initialized
+        if (m_threadPool == null)
+            m_threadPool = threadPool;
+    }
+
+    /**
+     * Initialize the session handler
+     *
+     * @param server NetworkServer
+     * @exception IOException Socket error
+     */
+    public void initializeSessionHandler(NetworkServer server)
+            throws IOException {
+
+        // If the packet pool has not been created, create a default packet pool
+        if (m_packetPool == null)
+            m_packetPool = new RpcPacketPool(DefaultSmallPacketSize, DefaultPacketPoolSize, getMaximumRpcSize(), DefaultPacketPoolSize);
+
+        // Create the RPC request handling thread pool, if not already created
+        if (m_threadPool == null) {
+            m_threadPool = new RpcRequestThreadPool(getHandlerName(), getRpcProcessor());
+            m_ownThreadPool = true;
+        }
+
+        // Create the server socket channel
+        m_srvSockChannel = ServerSocketChannel.open();
+
+        // Open the server socket
+        InetSocketAddress sockAddr = null;
+
+        if (hasBindAddress())
+            sockAddr = new InetSocketAddress(getBindAddress(), getPort());
+        else
+            sockAddr = new InetSocketAddress(getPort());
+
+        // Bind the socket
+        m_srvSockChannel.socket().bind(sockAddr, getListenBacklog());
+
+        // Set the allocated port
+        if (getPort() == 0)
+            setPort(m_srvSockChannel.socket().getLocalPort());
+
+        // DEBUG
+        if (Debug.EnableInfo && hasDebug()) {
+            Debug.print("[" + getProtocolName() + "] Binding " + getHandlerName() + " NIO session handler to address : ");
+            if (hasBindAddress())
+                Debug.println(getBindAddress().getHostAddress());
+            else
+                Debug.println("ALL");
+        }
+    }
+
+    /**
+     * Wait for incoming connection requests
+     */
+    public void run() {
+
+        try {
+
+            // Clear the shutdown flag
+            clearShutdown();
+
+            // Wait for incoming connection requests
+            while (hasShutdown() == false) {
+
+                // Debug
+                if (Debug.EnableInfo && hasDebug())
+                    Debug.println("[" + getProtocolName() + "] Waiting for session request ...");
+
+                // Wait for a connection
+                SocketChannel sessChannel = m_srvSockChannel.accept();
+
+                // Debug
+                if (Debug.EnableInfo && hasDebug())
+                    Debug.println("[" + getProtocolName() + "] Session request received from "
+                            + sessChannel.socket().getInetAddress().getHostAddress());
+
+                try {
+
+                    // Process the new connection request
+                    acceptConnection(sessChannel);
+                }
+                catch (Exception ex) {
+
+                    // Debug
+                    if (Debug.EnableInfo && hasDebug())
+                        Debug.println("[" + getProtocolName() + "] Failed to create session, " + ex.toString());
+
+                    // Close the socket
+                    try {
+                        sessChannel.close();
+                    }
+                    catch (IOException ex2) {
+                    }
+                }
+            }
+        }
+        catch (Exception ex) {
+
+            // Do not report an error if the server has shutdown, closing the server socket
+            // causes an exception to be thrown.
+            if (hasShutdown() == false) {
+                Debug.println("[" + getProtocolName() + "] Server error : " + ex.toString());
+                Debug.println(ex);
+            }
+        }
+
+        // Debug
+        if (Debug.EnableInfo && hasDebug())
+            Debug.println("[" + getProtocolName() + "] " + getHandlerName() + " NIO session handler closed");
+    }
+
+    /**
+     * Accept an incoming session request, pass the session to a request handler
+     *
+     * @param sessChannel SocketChannel
+     * @exception IOException Socket error
+     */
+    protected void acceptConnection(SocketChannel sessChannel)
+            throws IOException {
+
+        // Set the socket for no delay
+        sessChannel.socket().setTcpNoDelay(true);
+        sessChannel.configureBlocking(false);
+
+        synchronized (m_handlers) {
+
+            // Find a request handler with a free session slot
+            RpcChannelRequestHandler reqHandler = null;
+
+            for (RpcChannelRequestHandler curHandler : m_handlers) {
+                if (curHandler.hasFreeSessionSlot()) {
+                    reqHandler = curHandler;
+                    break;
+                }
+            }
+
+            // Create a new request handler if all the current handlers are full
+            if (reqHandler == null) {
+                reqHandler = new RpcChannelRequestHandler(this, m_sessPerHandler);
+                m_handlers.add(reqHandler);
+
+                // DEBUG
+                if (Debug.EnableInfo && hasDebug())
+                    Debug.println("[" + getProtocolName() + "] Added new request handler, " + reqHandler.getName() + ", handlers=" + m_handlers.size());
+            }
+
+            // Create the session and queue it to the request handler
+            RpcChannelSession sess = new RpcChannelSession(this, reqHandler, getNextSessionId(), sessChannel);
+            reqHandler.queueSessionToHandler(sess);
+
+            // DEBUG
+            if (Debug.EnableInfo && hasDebug())
+                Debug.println("[" + getProtocolName() + "] Created new session " + sess + ", handler=" + reqHandler.getName());
+        }
+    }
+
+    /**
+     * Queue an RPC request to the thread pool for processing
+     *
+     * @param rpc RpcPacket
+     */
+    protected final void queueRpcRequest(RpcPacket rpc) {
+        m_threadPool.queueRpcRequest(rpc);
+    }
+
+    /**
+     * Request handler has no active sessions, close the request handler if it is not the only handler
+     *
+     * @param reqHandler RpcChannelRequestHandler
+     */
+    protected final void requestHandlerEmpty(RpcChannelRequestHandler reqHandler) {
+
+        synchronized (m_handlers) {
+
+            // Keep at least one request handler, and check the handler has not been given a new session
+            if (m_handlers.size() > 1 && reqHandler.isEmpty()) {
+
+                // Remove and close the request handler
+                m_handlers.remove(reqHandler);
+                reqHandler.closeHandler();
+
+                // DEBUG
+                if (Debug.EnableInfo && hasDebug())
+                    Debug.println("[" + getProtocolName() + "] Removed empty request handler, " + reqHandler.getName() + ", handlers=" + m_handlers.size());
+            }
+        }
+    }
+
+    /**
+     * Close the session handler, close all active sessions
+     *
+     * @param server NetworkServer
+     */
+    public void closeSessionHandler(NetworkServer server) {
+
+        // Request the main listener thread shutdown
+        setShutdown(true);
+
+        try {
+
+            // Close the server socket to release any pending accept
+            if (m_srvSockChannel != null)
+                m_srvSockChannel.close();
+        }
+        catch (Exception ex) {
+        }
+
+        // Close the request handlers, this closes the sessions
+        synchronized (m_handlers) {
+            for (RpcChannelRequestHandler reqHandler : m_handlers)
+                reqHandler.closeHandler();
+            m_handlers.clear();
+        }
+
+        // Shutdown the thread pool, if created by this handler
+        if (m_ownThreadPool == true && m_threadPool != null)
+            m_threadPool.shutdownThreadPool();
+    }
+}
@@ -0,0 +1,515 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.oncrpc.nio;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.filesys.debug.Debug;
+
+/**
+ * RPC Channel Request Handler Class
+ *
+ * <p>Handles the receiving of ONC/RPC requests for a number of TCP sessions using a single selector thread. Requests
+ * are reassembled from the record marking fragments by the session and queued to the RPC thread pool, responses that
+ * cannot be written to the socket immediately are written by this thread when the channel becomes writeable.
+ *
+ * <p>If the RPC packet pool is exhausted socket read events are disabled for the session until a packet can be
+ * allocated, this stops the server reading further requests from the socket rather than growing the pool.
+ *
+ * @author gkspencer
+ */
+public class RpcChannelRequestHandler implements Runnable {
+
+    // Request handler index, used to generate the thread name
+    private static int _handlerId;
+
+    // Interval to wait before retrying sessions waiting for a packet from the pool, in milliseconds
+    private static final long PacketWaitRetryInterval = 10L;
+
+    // Session handler that owns this request handler
+    private NIORpcSessionHandler m_sessHandler;
+
+    // Selector used to monitor a group of socket channels for incoming requests
+    private Selector m_selector;
+
+    // Maximum number of sessions for this request handler
+    private int m_maxSessions;
+
+    // Count of the number of selector channels, maintained by the main thread
+    private AtomicInteger m_sessionCount = new AtomicInteger();
+
+    // Sessions that are pending setup with the selector
+    private List<RpcChannelSession> m_newSessions = new ArrayList<RpcChannelSession>();
+
+    // Sessions that have queued response data and need write events enabling
+    private List<RpcChannelSession> m_writeSessions = new ArrayList<RpcChannelSession>();
+
+    // Sessions waiting for a packet to be released to the packet pool, only accessed by the main thread
+    private List<RpcChannelSession> m_waitSessions = new ArrayList<RpcChannelSession>();
+
+    // Thread that the request handler runs in
+    private Thread m_thread;
+
+    // Shutdown request flag
+    private volatile boolean m_shutdown;
+
+    /**
+     * Class constructor
+     *
+     * @param sessHandler NIORpcSessionHandler
+     * @param maxSess     int
+     * @exception IOException Failed to open the selector
+     */
+    public RpcChannelRequestHandler(NIORpcSessionHandler sessHandler, int maxSess)
+            throws IOException {
+
+        m_sessHandler = sessHandler;
+        m_maxSessions = maxSess;
+
+        // Create the selector
+        m_selector = Selector.open();
+
+        // Start the request handler in a seperate thread
+        m_thread = new Thread(this);
+        m_thread.setName(sessHandler.getProtocolName() + "RpcRequestHandler_" + ++_handlerId);
+        m_thread.setDaemon(true);
+
+        m_thread.start();
+    }
+
+    /**
+     * Return the request handler name
+     *
+     * @return String
+     */
+    public final String getName() {
+        return m_thread.getName();
+    }
+
+    /**
+     * Return the current session count
+     *
+     * @return int
+     */
+    public final int getCurrentSessionCount() {
+        return m_sessionCount.get();
+    }
+
+    /**
+     * Check if this request handler has free session slots available
+     *
+     * @return boolean
+     */
+    public final boolean hasFreeSessionSlot() {
+        synchronized (m_newSessions) {
+            return (getCurrentSessionCount() + m_newSessions.size()) < m_maxSessions ? true : false;
+        }
+    }
+
+    /**
+     * Check if the request handler has no active or pending sessions
+     *
+     * @return boolean
+     */
+    public final boolean isEmpty() {
+        synchronized (m_newSessions) {
+            return getCurrentSessionCount() == 0 && m_newSessions.size() == 0;
+        }
+    }
+
+    /**
+     * Queue a new session to the request handler, wakeup the request handler thread to register it with the
+     * selector.
+     *
+     * @param sess RpcChannelSession
+     */
+    public final void queueSessionToHandler(RpcChannelSession sess) {
+
+        // Add the new session to the pending list
+        synchronized (m_newSessions) {
+            m_newSessions.add(sess);
+        }
+
+        // Wakeup the main thread to process the new session list
+        m_selector.wakeup();
+    }
+
+    /**
+     * Request that write events are enabled for a session that has queued response data
+     *
+     * @param sess RpcChannelSession
+     */
+    protected final void requestWriteEvent(RpcChannelSession sess) {
+
+        // Add the session to the pending write list, the interest set is only changed by the main thread
+        synchronized (m_writeSessions) {
+            m_writeSessions.add(sess);
+        }
+
+        // Wakeup the main thread
+        m_selector.wakeup();
+    }
+
+    /**
+     * Run the main processing in a seperate thread
+     */
+    public void run() {
+
+        // Loop until shutdown
+        while (m_shutdown == false) {
+
+            try {
+
+                // Wait for socket events, if there are sessions waiting for a packet only wait for a short time
+                int evtCnt = 0;
+
+                try {
+                    if (m_waitSessions.size() > 0)
+                        evtCnt = m_selector.select(PacketWaitRetryInterval);
+                    else
+                        evtCnt = m_selector.select();
+                }
+                catch (CancelledKeyException ex) {
+
+                    // DEBUG
+                    if (Debug.EnableError && m_sessHandler.hasDebug() && m_shutdown == false) {
+                        Debug.println("[" + m_sessHandler.getProtocolName() + "] Request handler error waiting for events");
+                        Debug.println(ex);
+                    }
+                }
+
+                // Check if the shutdown flag has been set
+                if (m_shutdown == true)
+                    continue;
+
+                // Register new sessions and enable write events for sessions with queued data
+                addNewSessions();
+                enableWriteEvents();
+
+                // Retry sessions that are waiting for a packet
+                int closeCnt = 0;
+
+                if (m_waitSessions.size() > 0)
+                    closeCnt += retryWaitingSessions();
+
+                // Process the socket events
+                if (evtCnt > 0)
+                    closeCnt += processSocketEvents();
+
+                // Flush any cancelled keys so that the session count is accurate
+                if (closeCnt > 0)
+                    m_selector.selectNow();
+
+                m_sessionCount.set(m_selector.keys().size());
+
+                // Check if this request handler has no active sessions
+                if (closeCnt > 0 && isEmpty())
+                    m_sessHandler.requestHandlerEmpty(this);
+            }
+            catch (Throwable ex) {
+                Debug.println(Thread.currentThread().getName() + ": Exception in run() method");
+                Debug.println(ex);
+            }
+        }
+
+        // Close all sessions
+        Iterator<SelectionKey> selKeys = m_selector.keys().iterator();
+
+        while (selKeys.hasNext()) {
+            SelectionKey curKey = selKeys.next();
+            ((RpcChannelSession) curKey.attachment()).closeSession();
+        }
+
+        synchronized (m_newSessions) {
+            for (RpcChannelSession sess : m_newSessions)
+                sess.closeSession();
+            m_newSessions.clear();
+        }
+
+        // Close the selector
+        try {
+            m_selector.close();
+        }
+        catch (IOException ex) {
+        }
+
+        // DEBUG
+        if (Debug.EnableInfo && m_sessHandler.hasDebug())
+            Debug.println("[" + m_sessHandler.getProtocolName() + "] Closed RPC request handler, " + getName());
+    }
+
+    /**
+     * Process socket events
+     *
+     * @return int Number of sessions closed
+     */
+    private int processSocketEvents() {
+
+        // Iterate the selected keys
+        Iterator<SelectionKey> keysIter = m_selector.selectedKeys().iterator();
+        int closeCnt = 0;
+
+        while (keysIter.hasNext()) {
+
+            // Get the current selection key and associated session
+            SelectionKey selKey = keysIter.next();
+            keysIter.remove();
+
+            RpcChannelSession sess = (RpcChannelSession) selKey.attachment();
+
+            try {
+
+                // Write queued response data, disable write events once the queue is empty
+                if (selKey.isValid() && selKey.isWritable()) {
+                    if (sess.writeQueuedData() == true)
+                        selKey.interestOps(selKey.interestOps() & ~SelectionKey.OP_WRITE);
+                }
+
+                // Read request data
+                if (selKey.isValid() && selKey.isReadable()) {
+                    if (readSession(sess, selKey) == false)
+                        closeCnt++;
+                }
+                else if (selKey.isValid() == false) {
+
+                    // Close the session
+                    closeSession(sess, selKey);
+                    closeCnt++;
+                }
+            }
+            catch (CancelledKeyException ex) {
+
+                // Close the session
+                closeSession(sess, selKey);
+                closeCnt++;
+            }
+            catch (IOException ex) {
+
+                // DEBUG
+                if (Debug.EnableError && m_sessHandler.hasDebug())
+                    Debug.println("[" + m_sessHandler.getProtocolName() + "] Socket error, " + ex.getMessage() + ", sess=" + sess);
+
+                // Close the session
+                closeSession(sess, selKey);
+                closeCnt++;
+            }
+        }
+
+        // Return the count of closed sessions
+        return closeCnt;
+    }
+
+    /**
+     * Read request data for a session
+     *
+     * @param sess   RpcChannelSession
+     * @param selKey SelectionKey
+     * @return boolean false if the session has been closed
+     */
+    private boolean readSession(RpcChannelSession sess, SelectionKey selKey) {
+
+        try {
+
+            // Read and queue any complete requests
+            int sts = sess.readRequests();
+
+            if (sts == RpcChannelSession.ReadNoPacket) {
+
+                // Switch off read events for this channel until a packet is available
+                selKey.interestOps(selKey.interestOps() & ~SelectionKey.OP_READ);
+                m_waitSessions.add(sess);
+            }
+            else if (sts == RpcChannelSession.ReadClosed) {
+
+                // DEBUG
+                if (Debug.EnableInfo && m_sessHandler.hasDebug())
+                    Debug.println("[" + m_sessHandler.getProtocolName() + "] Client closed session " + sess);
+
+                // Client has closed the socket
+                closeSession(sess, selKey);
+                return false;
+            }
+        }
+        catch (IOException ex) {
+
+            // DEBUG
+            if (Debug.EnableError && m_sessHandler.hasDebug())
+                Debug.println("[" + m_sessHandler.getProtocolName() + "] Receive error, " + ex.getMessage() + ", sess=" + sess);
+
+            // Close the session
+            closeSession(sess, selKey);
+            return false;
+        }
+
+        // Session still active
+        return true;
+    }
+
+    /**
+     * Retry the sessions that are waiting for a packet to be released to the packet pool
+     *
+     * @return int Number of sessions closed
+     */
+    private int retryWaitingSessions() {
+
+        int closeCnt = 0;
+        int waitCnt = m_waitSessions.size();
+
+        while (waitCnt-- > 0) {
+
+            // Get the session and associated selection key
+            RpcChannelSession sess = m_waitSessions.remove(0);
+            SelectionKey selKey = sess.getSocketChannel().keyFor(m_selector);
+
+            if (sess.isClosed() || selKey == null || selKey.isValid() == false)
+                continue;
+
+            // Retry the read, the session is added back to the end of the wait list if the pool is still exhausted
+            if (readSession(sess, selKey) == false)
+                closeCnt++;
+            else if (m_waitSessions.contains(sess))
+                break;
+            else {
+
+                // Re-enable read events for the session
+                selKey.interestOps(selKey.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        // Return the count of closed sessions
+        return closeCnt;
+    }
+
+    /**
+     * Register new sessions with the selector
+     */
+    private void addNewSessions() {
+
+        // Get the pending session list
+        List<RpcChannelSession> newSessions = null;
+
+        synchronized (m_newSessions) {
+            if (m_newSessions.size() == 0)
+                return;
+
+            newSessions = new ArrayList<RpcChannelSession>(m_newSessions);
+            m_newSessions.clear();
+
+            // Update the session count whilst the pending list is locked
+            m_sessionCount.addAndGet(newSessions.size());
+        }
+
+        // Register the new sessions with the selector
+        for (RpcChannelSession sess : newSessions) {
+
+            try {
+
+                // Register the session channel with the selector
+                sess.getSocketChannel().configureBlocking(false);
+                sess.getSocketChannel().register(m_selector, SelectionKey.OP_READ, sess);
+
+                // DEBUG
+                if (Debug.EnableInfo && m_sessHandler.hasDebug())
+                    Debug.println("[" + m_sessHandler.getProtocolName() + "] Register session with request handler, handler=" + getName() + ", sess=" + sess);
+            }
+            catch (ClosedChannelException ex) {
+
+                // DEBUG
+                if (Debug.EnableError && m_sessHandler.hasDebug())
+                    Debug.println("[" + m_sessHandler.getProtocolName() + "] Failed to register session channel, closed channel");
+
+                sess.closeSession();
+            }
+            catch (IOException ex) {
+
+                // DEBUG
+                if (Debug.EnableError && m_sessHandler.hasDebug())
+                    Debug.println("[" + m_sessHandler.getProtocolName() + "] Failed to set channel blocking mode, " + ex.getMessage());
+
+                sess.closeSession();
+            }
+        }
+    }
+
+    /**
+     * Enable write events for sessions that have queued response data
+     */
+    private void enableWriteEvents() {
+
+        // Get the pending write list
+        List<RpcChannelSession> writeSessions = null;
+
+        synchronized (m_writeSessions) {
+            if (m_writeSessions.size() == 0)
+                return;
+
+            writeSessions = new ArrayList<RpcChannelSession>(m_writeSessions);
+            m_writeSessions.clear();
+        }
+
+        // Enable write events for the sessions
+        for (RpcChannelSession sess : writeSessions) {
+
+            SelectionKey selKey = sess.getSocketChannel().keyFor(m_selector);
+
+            try {
+                if (selKey != null && selKey.isValid() && sess.hasQueuedData())
+                    selKey.interestOps(selKey.interestOps() | SelectionKey.OP_WRITE);
+            }
+            catch (CancelledKeyException ex) {
+            }
+        }
+    }
+
+    /**
+     * Close a session
+     *
+     * @param sess   RpcChannelSession
+     * @param selKey SelectionKey
+     */
+    private void closeSession(RpcChannelSession sess, SelectionKey selKey) {
+
+        // Cancel the selection key and close the session
+        selKey.cancel();
+        sess.closeSession();
+
+        m_waitSessions.remove(sess);
+
+        // DEBUG
+        if (Debug.EnableInfo && m_sessHandler.hasDebug())
+            Debug.println("[" + m_sessHandler.getProtocolName() + "] Closed session " + sess);
+    }
+
+    /**
+     * Close the request handler
+     */
+    public final void closeHandler() {
+
+        // Request the main thread to shutdown
+        m_shutdown = true;
+        m_selector.wakeup();
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.oncrpc.nio;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+
+import org.filesys.debug.Debug;
+import org.filesys.oncrpc.Rpc;
+import org.filesys.oncrpc.RpcPacket;
+import org.filesys.oncrpc.RpcPacketHandler;
+import org.filesys.util.DataPacker;
+
+/**
+ * RPC Channel Session Class
+ *
+ * <p>Holds the per connection state for an ONC/RPC over TCP session that is handled by an NIO request handler.
+ * The record marking fragments are read without blocking and reassembled into a pooled RPC packet, a complete
+ * request is then queued to the RPC thread pool.
+ *
+ * <p>Responses are written directly to the socket channel by the worker thread, if the socket send buffer is
+ * full the remaining data is queued and written by the request handler when the channel becomes writeable.
+ *
+ * @author gkspencer
+ */
+public class RpcChannelSession implements RpcPacketHandler {
+
+    // Read status codes
+    public static final int ReadMore     = 0;
+    public static final int ReadClosed   = 1;
+    public static final int ReadNoPacket = 2;
+
+    // Unset fragment length, waiting for a fragment header
+    private static final int NoFragment = -1;
+
+    // Session handler and request handler that owns this session
+    private NIORpcSessionHandler m_sessHandler;
+    private RpcChannelRequestHandler m_reqHandler;
+
+    // Session id
+    private int m_sessId;
+
+    // Socket channel for this session
+    private SocketChannel m_channel;
+
+    // Client address and port
+    private InetAddress m_clientAddr;
+    private int m_clientPort;
+
+    // Fragment header receive buffer
+    private ByteBuffer m_fragHdr = ByteBuffer.allocate(4);
+
+    // Current receive packet, receive buffer, remaining fragment length and last fragment flag
+    private RpcPacket m_rxPkt;
+    private ByteBuffer m_rxBuf;
+    private int m_fragLen = NoFragment;
+    private boolean m_lastFrag;
+
+    // Queue of response data waiting to be written to the socket
+    private LinkedList<ByteBuffer> m_txQueue = new LinkedList<ByteBuffer>();
+
+    // Session closed flag
+    private volatile boolean m_closed;
+
+    /**
+     * Class constructor
+     *
+     * @param sessHandler NIORpcSessionHandler
+     * @param reqHandler  RpcChannelRequestHandler
+     * @param sessId      int
+     * @param channel     SocketChannel
+     */
+    public RpcChannelSession(NIORpcSessionHandler sessHandler, RpcChannelRequestHandler reqHandler, int sessId,
+                             SocketChannel channel) {
+        m_sessHandler = sessHandler;
+        m_reqHandler = reqHandler;
+        m_sessId = sessId;
+        m_channel = channel;
+
+        m_clientAddr = channel.socket().getInetAddress();
+        m_clientPort = channel.socket().getPort();
+    }
+
+    /**
+     * Return the session id
+     *
+     * @return int
+     */
+    public final int getSessionId() {
+        return m_sessId;
+    }
+
+    /**
+     * Return the socket channel
+     *
+     * @return SocketChannel
+     */
+    public final SocketChannel getSocketChannel() {
+        return m_channel;
+    }
+
+    /**
+     * Return the client address
+     *
+     * @return InetAddress
+     */
+    public final InetAddress getClientAddress() {
+        return m_clientAddr;
+    }
+
+    /**
+     * Check if the session has been closed
+     *
+     * @return boolean
+     */
+    public final boolean isClosed() {
+        return m_closed;
+    }
+
+    /**
+     * Read any available request data from the socket channel, complete requests are queued for processing
+     *
+     * <p>Called by the request handler thread only, the method does not block.
+     *
+     * @return int
+     * @exception IOException Socket error or invalid fragment
+     */
+    protected final int readRequests()
+            throws IOException {
+
+        // Read until the socket has no more data available
+        while (m_closed == false) {
+
+            // Check if a fragment header is required
+            if (m_fragLen == NoFragment) {
+
+                // Read the fragment header
+                if (m_channel.read(m_fragHdr) == -1)
+                    return ReadClosed;
+
+                if (m_fragHdr.hasRemaining())
+                    return ReadMore;
+
+                // Get the fragment length and last fragment flag
+                int fragLen = DataPacker.getInt(m_fragHdr.array(), 0);
+                m_fragHdr.clear();
+
+                m_lastFrag = (fragLen & Rpc.LastFragment) != 0;
+                m_fragLen = fragLen & Rpc.LengthMask;
+            }
+
+            // Allocate a packet for the request, if this is the first fragment
+            if (m_rxPkt == null) {
+
+                // Do not wait for a packet, the request handler retries the read when the pool has free packets
+                m_rxPkt = m_sessHandler.getPacketPool().allocatePacket(m_sessHandler.getMaximumRpcSize(), false);
+                if (m_rxPkt == null)
+                    return ReadNoPacket;
+
+                m_rxBuf = ByteBuffer.wrap(m_rxPkt.getBuffer());
+                m_rxBuf.position(RpcPacket.FragHeaderLen);
+            }
+
+            // Check if the buffer is large enough to receive the fragment
+            if (m_fragLen > m_rxBuf.capacity() - m_rxBuf.position())
+                throw new IOException("Receive RPC buffer overflow, fragment len = " + m_fragLen);
+
+            // Read the fragment data, this may take several reads
+            if (m_fragLen > 0) {
+
+                m_rxBuf.limit(m_rxBuf.position() + m_fragLen);
+                int rxLen = m_channel.read(m_rxBuf);
+
+                if (rxLen == -1)
+                    return ReadClosed;
+
+                m_fragLen -= rxLen;
+                if (m_fragLen > 0)
+                    return ReadMore;
+            }
+
+            // Fragment received, wait for the next fragment header
+            m_fragLen = NoFragment;
+
+            if (m_lastFrag == true) {
+
+                // Set the received length and client details
+                RpcPacket rpc = m_rxPkt;
+                rpc.setBuffer(RpcPacket.FragHeaderLen, m_rxBuf.position() - RpcPacket.FragHeaderLen);
+                rpc.setClientDetails(m_clientAddr, m_clientPort, Rpc.TCP);
+
+                m_rxPkt = null;
+                m_rxBuf = null;
+
+                // Process the request
+                processRpc(rpc);
+            }
+        }
+
+        // Session has been closed
+        return ReadClosed;
+    }
+
+    /**
+     * Validate the RPC header and queue the request to the thread pool
+     *
+     * @param rpc RpcPacket
+     * @exception IOException Socket error
+     */
+    private final void processRpc(RpcPacket rpc)
+            throws IOException {
+
+        // Validate the RPC header
+        if (rpc.getRpcVersion() != Rpc.RpcVersion) {
+
+            // Build/send an error response, then release the packet
+            try {
+                rpc.buildRpcMismatchResponse();
+                sendRpcResponse(rpc);
+            }
+            finally {
+                if (rpc.isAllocatedFromPool())
+                    rpc.getOwnerPacketPool().releasePacket(rpc);
+            }
+        }
+        else {
+
+            // Link the RPC request to this session and queue it to the thread pool for processing
+            rpc.setPacketHandler(this);
+            m_sessHandler.queueRpcRequest(rpc);
+        }
+    }
+
+    /**
+     * Send an RPC response using the socket channel
+     *
+     * <p>The response is written without blocking, any data that cannot be written is copied to the transmit
+     * queue as the response packet is returned to the pool once this method returns.
+     *
+     * @param rpc RpcPacket
+     * @exception IOException Socket error
+     */
+    public void sendRpcResponse(RpcPacket rpc)
+            throws IOException {
+
+        // Ignore the response if the session has been closed
+        if (m_closed == true)
+            return;
+
+        // Write the RPC response, this includes the fragment header
+        ByteBuffer buf = ByteBuffer.wrap(rpc.getBuffer(), 0, rpc.getTxLength());
+
+        synchronized (m_txQueue) {
+
+            // Write directly to the socket if there is no queued data
+            if (m_txQueue.isEmpty()) {
+
+                int txLen = 1;
+
+                while (buf.hasRemaining() && txLen > 0)
+                    txLen = m_channel.write(buf);
+
+                if (buf.hasRemaining() == false)
+                    return;
+            }
+
+            // Queue the remaining data
+            ByteBuffer txBuf = ByteBuffer.allocate(buf.remaining());
+            txBuf.put(buf);
+            txBuf.flip();
+
+            m_txQueue.add(txBuf);
+
+            // DEBUG
+            if (Debug.EnableInfo && m_sessHandler.hasDebug())
+                Debug.println("[" + m_sessHandler.getProtocolName() + "] Queued response data, len=" + txBuf.remaining() + ", queue=" + m_txQueue.size() + ", sess=" + m_sessId);
+
+            // Request a write event when the socket send buffer has space
+            if (m_txQueue.size() == 1)
+                m_reqHandler.requestWriteEvent(this);
+        }
+    }
+
+    /**
+     * Write queued response data to the socket channel
+     *
+     * <p>Called by the request handler thread when the channel is writeable.
+     *
+     * @return boolean true if the transmit queue is empty
+     * @exception IOException Socket error
+     */
+    protected final boolean writeQueuedData()
+            throws IOException {
+
+        synchronized (m_txQueue) {
+
+            // Write as much of the queued data as possible
+            while (m_txQueue.isEmpty() == false) {
+
+                ByteBuffer txBuf = m_txQueue.getFirst();
+                m_channel.write(txBuf);
+
+                if (txBuf.hasRemaining())
+                    return false;
+
+                m_txQueue.removeFirst();
+            }
+        }
+
+        // Transmit queue is empty
+        return true;
+    }
+
+    /**
+     * Check if there is queued response data
+     *
+     * @return boolean
+     */
+    protected final boolean hasQueuedData() {
+        synchronized (m_txQueue) {
+            return m_txQueue.isEmpty() == false;
+        }
+    }
+
+    /**
+     * Close the session
+     */
+    protected final void closeSession() {
+
+        // Check if the session is already closed
+        if (m_closed == true)
+            return;
+
+        m_closed = true;
+
+        // Close the socket channel
+        try {
+            m_channel.close();
+        }
+        catch (IOException ex) {
+        }
+
+        // Release the partially received packet and any queued response data
+        if (m_rxPkt != null) {
+            if (m_rxPkt.isAllocatedFromPool())
+                m_rxPkt.getOwnerPacketPool().releasePacket(m_rxPkt);
+            m_rxPkt = null;
+            m_rxBuf = null;
+        }
+
+        synchronized (m_txQueue) {
+            m_txQueue.clear();
+        }
+    }
+
+    /**
+     * Return the session details as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[RPC sess=");
+        str.append(m_sessId);
+        str.append(",");
+        str.append(m_clientAddr != null ? m_clientAddr.getHostAddress() : "");
+        str.append(":");
+        str.append(m_clientPort);
+        str.append(",txQueue=");
+        str.append(m_txQueue.size());
+        if (m_closed)
+            str.append(",Closed");
+        str.append("]");
+
+        return str.toString();
+    }
+}
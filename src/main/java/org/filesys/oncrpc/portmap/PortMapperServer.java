@@ -28,11 +28,14 @@ import org.filesys.oncrpc.PortMapping;
 import org.filesys.oncrpc.Rpc;
 import org.filesys.oncrpc.RpcPacket;
 import org.filesys.oncrpc.RpcProcessor;
+import org.filesys.oncrpc.RpcRequestThreadPool;
 import org.filesys.oncrpc.TcpRpcSessionHandler;
 import org.filesys.oncrpc.UdpRpcDatagramHandler;
 import org.filesys.oncrpc.nfs.NFSConfigSection;
+import org.filesys.oncrpc.nio.NIORpcSessionHandler;
 import org.filesys.server.NetworkServer;
 import org.filesys.server.ServerListener;
+import org.filesys.server.SessionHandlerBase;
 import org.filesys.server.Version;
 import org.filesys.server.config.ServerConfiguration;
 
@@ -61,7 +64,7 @@ public class PortMapperServer extends NetworkServer implements RpcProcessor {
     private UdpRpcDatagramHandler m_udpHandler;
 
     //	Incoming session handler for TCP requests
-    private TcpRpcSessionHandler m_tcpHandler;
+    private SessionHandlerBase m_tcpHandler;
 
     //	Portmapper port
     private int m_port;
@@ -137,11 +140,21 @@ public class PortMapperServer extends NetworkServer implements RpcProcessor {
             udpThread.start();
 
             //	Create the TCP RPC handler to accept incoming requests
-            m_tcpHandler = new TcpRpcSessionHandler("PortMap", "Port", this, this, null, getPort(), MaxRequestSize);
+            if (getNFSConfiguration().hasDisableNIOCode() == false) {
+
+                //	Use the NIO based handler, requests are processed by a small thread pool
+                NIORpcSessionHandler nioHandler = new NIORpcSessionHandler("PortMap", "Port", this, this, null, getPort(), MaxRequestSize);
+                nioHandler.setThreadPool(RpcRequestThreadPool.MinimumWorkerThreads);
+
+                m_tcpHandler = nioHandler;
+            }
+            else
+                m_tcpHandler = new TcpRpcSessionHandler("PortMap", "Port", this, this, null, getPort(), MaxRequestSize);
+
             m_tcpHandler.initializeSessionHandler(this);
 
             //	Start the UDP request listener is a seperate thread
-            Thread tcpThread = new Thread(m_tcpHandler);
+            Thread tcpThread = new Thread((Runnable) m_tcpHandler);
             tcpThread.setName("PortMap_TCP");
             tcpThread.start();
 
@@ -108,6 +108,10 @@ public class ConfigId {
 	public static final int FTPKeyProvider		= GroupFTP + 20;
 	public static final int FTPTrustProvider	= GroupFTP + 21;
     public static final int FTPSrvSessionTimeout= GroupFTP + 22;
+	public static final int FTPModeZEnable		= GroupFTP + 23;
+	public static final int FTPModeZLevel		= GroupFTP + 24;
+	public static final int FTPTLSSessionCacheSize	= GroupFTP + 25;
+	public static final int FTPTLSSessionTimeout	= GroupFTP + 26;
 
 	// NFS server variables
 	public static final int NFSPortMapEnable 	= GroupNFS + 1;
@@ -124,6 +128,10 @@ public class ConfigId {
 	public static final int NFSFileCacheCloseTimer = GroupNFS + 12;
 	public static final int NFSFileCacheDebug 	= GroupNFS + 13;
 	public static final int NFSRPCRegistrationPort = GroupNFS + 14;
+	public static final int NFSDisableNIO		= GroupNFS + 15;
+	public static final int NFSWriteGatherSize = GroupNFS + 16;
+	public static final int NFSFileCacheMaxFiles = GroupNFS + 17;
+	public static final int NFSFileIdCacheSize = GroupNFS + 18;
 
 	// NetBIOS server variables
 	public static final int NetBIOSNamePort 	= GroupNetBIOS + 1;
@@ -19,7 +19,11 @@
 
 package org.filesys.server.config;
 
+import org.filesys.server.filesys.readahead.ReadAheadCache;
 import org.filesys.server.memory.ByteBufferPool;
+import org.filesys.server.memory.DirectBufferPool;
+import org.filesys.server.stats.ServerStatistics;
+import org.filesys.server.thread.RingThreadRequestQueue;
 import org.filesys.server.thread.ThreadRequestPool;
 import org.filesys.util.MemorySize;
 
@@ -36,12 +40,24 @@ public class CoreServerConfigSection extends ConfigSection {
     // Thread pool
     private ThreadRequestPool m_threadPool;
 
+    // Run requests using virtual threads, if supported by the JVM
+    private boolean m_virtualThreads;
+
     // Memory pool
     private ByteBufferPool m_memoryPool;
 
+    // Direct (off-heap) buffer pool for socket channel I/O, optional
+    private DirectBufferPool m_directPool;
+
     // Maximum oversized packet size allowed, if cannot be allocated from the pool
     private int m_maxOverSize = (int) (128 * MemorySize.KILOBYTE);
 
+    // Request and pool statistics, optional
+    private ServerStatistics m_statistics;
+
+    // Read-ahead cache for sequential file reads, optional
+    private ReadAheadCache m_readAhead;
+
     /**
      * Class constructor
      *
@@ -60,6 +76,15 @@ public class CoreServerConfigSection extends ConfigSection {
         return m_threadPool;
     }
 
+    /**
+     * Check if requests should be run using virtual threads
+     *
+     * @return boolean
+     */
+    public final boolean useVirtualThreads() {
+        return m_virtualThreads;
+    }
+
     /**
      * Return the global memory pool
      *
@@ -69,6 +94,24 @@ public class CoreServerConfigSection extends ConfigSection {
         return m_memoryPool;
     }
 
+    /**
+     * Check if the direct buffer pool has been configured
+     *
+     * @return boolean
+     */
+    public final boolean hasDirectBufferPool() {
+        return m_directPool != null;
+    }
+
+    /**
+     * Return the direct buffer pool, or null if not configured
+     *
+     * @return DirectBufferPool
+     */
+    public final DirectBufferPool getDirectBufferPool() {
+        return m_directPool;
+    }
+
     /**
      * Get the maximum oversized packet size allowed
      *
@@ -78,6 +121,42 @@ public class CoreServerConfigSection extends ConfigSection {
         return m_maxOverSize;
     }
 
+    /**
+     * Check if request and pool statistics are enabled
+     *
+     * @return boolean
+     */
+    public final boolean hasStatistics() {
+        return m_statistics != null;
+    }
+
+    /**
+     * Return the request and pool statistics
+     *
+     * @return ServerStatistics
+     */
+    public final ServerStatistics getStatistics() {
+        return m_statistics;
+    }
+
+    /**
+     * Check if the read-ahead cache is enabled
+     *
+     * @return boolean
+     */
+    public final boolean hasReadAheadCache() {
+        return m_readAhead != null;
+    }
+
+    /**
+     * Return the read-ahead cache
+     *
+     * @return ReadAheadCache
+     */
+    public final ReadAheadCache getReadAheadCache() {
+        return m_readAhead;
+    }
+
     /**
      * Set the thread pool initial and maximum size
      *
@@ -87,6 +166,35 @@ public class CoreServerConfigSection extends ConfigSection {
      */
     public final void setThreadPool(int initSize, int maxSize)
             throws InvalidConfigurationException {
+        setThreadPool(initSize, maxSize, false);
+    }
+
+    /**
+     * Set the thread pool initial and maximum size, and enable/disable running requests using virtual threads.
+     * If virtual threads are not supported by the JVM the worker thread pool is used.
+     *
+     * @param initSize       int
+     * @param maxSize        int
+     * @param virtualThreads boolean
+     * @exception InvalidConfigurationException Error setting the thread pool sizes
+     */
+    public final void setThreadPool(int initSize, int maxSize, boolean virtualThreads)
+            throws InvalidConfigurationException {
+        setThreadPool(initSize, maxSize, virtualThreads, 0);
+    }
+
+    /**
+     * Set the thread pool initial and maximum size, enable/disable running requests using virtual threads, and set
+     * the bounded request queue size. A queue size of zero uses an unbounded request queue.
+     *
+     * @param initSize       int
+     * @param maxSize        int
+     * @param virtualThreads boolean
+     * @param queueSize      int
+     * @exception InvalidConfigurationException Error setting the thread pool sizes
+     */
+    public final void setThreadPool(int initSize, int maxSize, boolean virtualThreads, int queueSize)
+            throws InvalidConfigurationException {
 
         // Range check the initial and maximum thread counts
         if (initSize <= 0 || maxSize <= 0)
@@ -95,12 +203,20 @@ public class CoreServerConfigSection extends ConfigSection {
         if (initSize > maxSize)
             throw new InvalidConfigurationException("Invalid initial thread count, higher than maximum count, " + initSize + "/" + maxSize);
 
+        // Range check the request queue size
+        if (queueSize != 0 && queueSize < RingThreadRequestQueue.MinimumQueueSize)
+            throw new InvalidConfigurationException("Invalid request queue size, " + queueSize);
+
         // Check if the thread pool has already been configured
         if (m_threadPool != null)
             throw new InvalidConfigurationException("Thread pool already configured");
 
         // Create the thread pool
-        m_threadPool = new ThreadRequestPool("FileSrvWorker", initSize);
+        m_virtualThreads = virtualThreads;
+        m_threadPool = new ThreadRequestPool("FileSrvWorker", initSize, virtualThreads, queueSize);
+
+        if (hasStatistics())
+            m_statistics.registerMBean("ThreadPool", "FileSrvWorker", m_threadPool.getStatistics());
     }
 
     /**
@@ -113,6 +229,20 @@ public class CoreServerConfigSection extends ConfigSection {
      */
     public final void setMemoryPool(int[] pktSizes, int[] initAlloc, int[] maxAlloc)
             throws InvalidConfigurationException {
+        setMemoryPool(pktSizes, initAlloc, maxAlloc, ByteBufferPool.PoolType.Standard);
+    }
+
+    /**
+     * Set the memory pool packet sizes/allocations and pool type
+     *
+     * @param pktSizes  Buffer sizes int[]
+     * @param initAlloc Initial allocations for each size int[]
+     * @param maxAlloc  Maximim allocations for each size int[]
+     * @param poolType  ByteBufferPool.PoolType
+     * @exception InvalidConfigurationException Error setting the memory pool sizes
+     */
+    public final void setMemoryPool(int[] pktSizes, int[] initAlloc, int[] maxAlloc, ByteBufferPool.PoolType poolType)
+            throws InvalidConfigurationException {
 
         // Make sure the buffer size and allocation lists are the same length
         if ((pktSizes.length != initAlloc.length) || (pktSizes.length != maxAlloc.length))
@@ -130,7 +260,32 @@ public class CoreServerConfigSection extends ConfigSection {
             throw new InvalidConfigurationException("Memory pool already configured");
 
         // Create the memory pool
-        m_memoryPool = new ByteBufferPool(pktSizes, initAlloc, maxAlloc);
+        m_memoryPool = new ByteBufferPool(pktSizes, initAlloc, maxAlloc, poolType);
+
+        if (hasStatistics())
+            m_statistics.registerMBean("MemoryPool", "ByteBufferPool", m_memoryPool);
+    }
+
+    /**
+     * Set the direct buffer pool buffer size and maximum allocation
+     *
+     * @param bufSize    int
+     * @param maxBuffers int
+     * @exception InvalidConfigurationException Error setting the direct buffer pool
+     */
+    public final void setDirectBufferPool(int bufSize, int maxBuffers)
+            throws InvalidConfigurationException {
+
+        // Range check the buffer size and count
+        if (bufSize <= 0 || maxBuffers <= 0)
+            throw new InvalidConfigurationException("Invalid direct buffer size or count, " + bufSize + "/" + maxBuffers);
+
+        // Check if the direct buffer pool has already been configured
+        if (m_directPool != null)
+            throw new InvalidConfigurationException("Direct buffer pool already configured");
+
+        // Create the direct buffer pool
+        m_directPool = new DirectBufferPool(bufSize, maxBuffers);
     }
 
     /**
@@ -144,4 +299,86 @@ public class CoreServerConfigSection extends ConfigSection {
         if ( maxSize > m_maxOverSize)
             m_maxOverSize = maxSize;
     }
+
+    /**
+     * Enable the read-ahead cache, the thread pool and memory pool must have been configured
+     *
+     * @param maxMemory long
+     * @param blockSize int
+     * @param depth     int
+     * @param maxAge    long
+     * @exception InvalidConfigurationException Error setting the read-ahead cache
+     */
+    public final void setReadAheadCache(long maxMemory, int blockSize, int depth, long maxAge)
+            throws InvalidConfigurationException {
+
+        // Range check the read-ahead settings
+        if (maxMemory <= 0 || blockSize <= 0)
+            throw new InvalidConfigurationException("Invalid read-ahead memory or block size, " + maxMemory + "/" + blockSize);
+
+        if (depth <= 0 || depth > ReadAheadCache.MaximumReadAheadDepth)
+            throw new InvalidConfigurationException("Invalid read-ahead depth, " + depth);
+
+        if (maxAge <= 0)
+            throw new InvalidConfigurationException("Invalid read-ahead maximum age, " + maxAge);
+
+        // The read-ahead cache uses the thread pool and memory pool
+        if (m_threadPool == null || m_memoryPool == null)
+            throw new InvalidConfigurationException("Read-ahead requires the thread pool and memory pool");
+
+        // Check if the read-ahead cache has already been configured
+        if (m_readAhead != null)
+            throw new InvalidConfigurationException("Read-ahead cache already configured");
+
+        // Create the read-ahead cache
+        m_readAhead = new ReadAheadCache(m_memoryPool, m_threadPool, maxMemory, blockSize, depth, maxAge);
+
+        if (hasStatistics())
+            m_statistics.registerMBean("ReadAhead", "ReadAheadCache", m_readAhead);
+    }
+
+    /**
+     * Enable request and pool statistics
+     *
+     * @param domain String
+     * @param jmx    boolean
+     * @exception InvalidConfigurationException Statistics already enabled
+     */
+    public final void setStatistics(String domain, boolean jmx)
+            throws InvalidConfigurationException {
+
+        // Check if statistics have already been enabled
+        if (m_statistics != null)
+            throw new InvalidConfigurationException("Statistics already configured");
+
+        m_statistics = new ServerStatistics(domain, jmx);
+
+        // Register any pools that have already been configured
+        if (m_threadPool != null)
+            m_statistics.registerMBean("ThreadPool", "FileSrvWorker", m_threadPool.getStatistics());
+
+        if (m_memoryPool != null)
+            m_statistics.registerMBean("MemoryPool", "ByteBufferPool", m_memoryPool);
+
+        if (m_readAhead != null)
+            m_statistics.registerMBean("ReadAhead", "ReadAheadCache", m_readAhead);
+    }
+
+    /**
+     * Close the configuration section, perform any cleanup
+     */
+    public void closeConfig() {
+
+        // Release the read-ahead cache buffers
+        if (m_readAhead != null) {
+            m_readAhead.closeCache();
+            m_readAhead = null;
+        }
+
+        // Unregister the statistics MBeans
+        if (m_statistics != null) {
+            m_statistics.close();
+            m_statistics = null;
+        }
+    }
 }
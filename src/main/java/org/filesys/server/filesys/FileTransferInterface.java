@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.filesys.server.filesys;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * File Transfer Interface
+ *
+ * <p>Optional interface that a NetworkFile implementation can implement to allow file data to be sent directly to a
+ * network channel, without being copied into the response packet. The protocol layer will only use the interface if
+ * the file also has the direct transfer flag set, see NetworkFile.allowsDirectTransfer().
+ *
+ * @author gkspencer
+ */
+public interface FileTransferInterface {
+
+    /**
+     * Return the current size of the file data available for transfer
+     *
+     * @return long
+     * @exception IOException I/O error
+     */
+    public long getTransferFileSize()
+            throws IOException;
+
+    /**
+     * Transfer file data directly to a channel
+     *
+     * @param fileOff long
+     * @param len     long
+     * @param channel WritableByteChannel
+     * @return Number of bytes transferred, may be less than requested, or -1 if the file offset is at/beyond the end of file
+     * @exception IOException I/O error
+     */
+    public long transferFile(long fileOff, long len, WritableByteChannel channel)
+            throws IOException;
+}
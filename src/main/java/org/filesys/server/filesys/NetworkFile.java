@@ -26,6 +26,7 @@ import java.util.Set;
 
 import org.filesys.locking.FileLock;
 import org.filesys.locking.FileLockList;
+import org.filesys.server.filesys.readahead.ReadAheadFile;
 import org.filesys.server.locking.OpLockDetails;
 
 /**
@@ -74,8 +75,12 @@ public abstract class NetworkFile {
         CLOSED,
         FORCE_CLOSE,
         PREVIOUS_VERSION,
-        POST_CLOSE_FILE     // close the file using the same worker thread that processes the client close request but after the
+        POST_CLOSE_FILE,    // close the file using the same worker thread that processes the client close request but after the
                             // protocol layer has responded to the client
+        DIRECT_TRANSFER,    // file data can be sent directly to the network channel via the FileTransferInterface, the driver does
+                            // no additional processing of the file data on reads
+        DEFERRED_READ       // the current read can be deferred, a read that has to wait for file data to be loaded may throw a
+                            // FileDataPendingException rather than block the request thread
     };
 
     // File identifier and parent directory identifier
@@ -141,6 +146,9 @@ public abstract class NetworkFile {
     // Map of handle based directory searches
     private SearchMap m_searchMap;
 
+    // Read-ahead state, if the file has been read via the read-ahead cache
+    private volatile ReadAheadFile m_readAhead;
+
     /**
      * Create a network file object with the specified file identifier.
      *
@@ -495,6 +503,20 @@ public abstract class NetworkFile {
      */
     public final boolean requiresPostCloseProcessing() { return m_flags.contains( Flags.POST_CLOSE_FILE); }
 
+    /**
+     * Check if the file data can be transferred directly to the network channel
+     *
+     * @return boolean
+     */
+    public final boolean allowsDirectTransfer() { return m_flags.contains( Flags.DIRECT_TRANSFER); }
+
+    /**
+     * Check if the current read can be deferred whilst waiting for file data to be loaded
+     *
+     * @return boolean
+     */
+    public final boolean allowsDeferredRead() { return m_flags.contains( Flags.DEFERRED_READ); }
+
     /**
      * Determine if the file modification date/time is valid
      *
@@ -725,6 +747,20 @@ public abstract class NetworkFile {
      */
     public final void setPreviousVersion(boolean prevVer) { setStatusFlag(Flags.PREVIOUS_VERSION, prevVer); }
 
+    /**
+     * Set or clear the direct transfer flag
+     *
+     * @param directXfer boolean
+     */
+    public final void setAllowDirectTransfer(boolean directXfer) { setStatusFlag(Flags.DIRECT_TRANSFER, directXfer); }
+
+    /**
+     * Set or clear the deferred read flag
+     *
+     * @param deferRead boolean
+     */
+    public final void setAllowDeferredRead(boolean deferRead) { setStatusFlag(Flags.DEFERRED_READ, deferRead); }
+
     /**
      * Set/clear a file status flag
      *
@@ -843,6 +879,34 @@ public abstract class NetworkFile {
         m_oplock = oplock;
     }
 
+    /**
+     * Return the read-ahead state for the file, or null if the file has not been read via the read-ahead cache
+     *
+     * @return ReadAheadFile
+     */
+    public final ReadAheadFile getReadAheadFile() {
+        return m_readAhead;
+    }
+
+    /**
+     * Set the read-ahead state for the file
+     *
+     * @param raFile ReadAheadFile
+     */
+    public final void setReadAheadFile(ReadAheadFile raFile) {
+        m_readAhead = raFile;
+    }
+
+    /**
+     * Discard any read-ahead data held by this network file. Use ReadAheadCache.fileModified() to also discard read-ahead
+     * data held by other open instances of the file when the file data is written to or truncated.
+     */
+    public final void discardReadAhead() {
+        ReadAheadFile raFile = m_readAhead;
+        if (raFile != null)
+            raFile.discardBlocks();
+    }
+
     /**
      * Set the unique file identifier
      *
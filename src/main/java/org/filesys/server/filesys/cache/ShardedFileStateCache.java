@@ -0,0 +1,763 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.filesys.debug.Debug;
+import org.filesys.server.config.InvalidConfigurationException;
+import org.filesys.server.config.ServerConfiguration;
+import org.filesys.server.filesys.FileName;
+import org.filesys.server.filesys.FileStatus;
+import org.filesys.server.locking.OpLockDetails;
+import org.springframework.extensions.config.ConfigElement;
+
+/**
+ * Sharded File State Cache Class
+ *
+ * <p>
+ * Standalone file state cache that splits the file states across a number of shards, each with its own lock, so
+ * that lookups for different paths do not contend on a single cache lock.
+ *
+ * <p>
+ * The cache can be bounded to a maximum number of file states. When a shard is over its share of the maximum the
+ * least recently used file states are sampled and the state with the lowest access frequency is evicted, access
+ * frequencies are tracked using a small count-min sketch per shard that is aged periodically. File states that have
+ * open files, byte range locks, an oplock, a data update in progress or are permanent are never evicted.
+ *
+ * @author gkspencer
+ */
+public class ShardedFileStateCache extends FileStateCache {
+
+    // Default and maximum number of shards
+    private static final int DefaultShards = 16;
+    private static final int MaximumShards = 256;
+
+    // Initial allocation size for the state cache
+    private static final int InitialCacheSize = 500;
+    private static final int MinimumCacheSize = 100;
+
+    // Default maximum number of file states, zero indicates an unbounded cache
+    private static final int DefaultMaximumEntries = 0;
+
+    // Number of evictable file states to sample when choosing a state to evict, and maximum number of states to
+    // check when looking for evictable states
+    private static final int EvictionSampleSize = 8;
+    private static final int EvictionScanLimit = 64;
+
+    // Frequency sketch hash seeds, and maximum counter value
+    private static final int[] SketchSeeds = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F};
+    private static final int SketchMaxCount = 15;
+
+    // Cache shards, and shard index mask
+    private Shard[] m_shards;
+    private int m_shardMask;
+
+    // Maximum number of file states, and maximum per shard
+    private int m_maxEntries;
+    private int m_maxPerShard;
+
+    // Count of file states evicted to keep the cache within the maximum size
+    private AtomicLong m_evictions = new AtomicLong();
+
+    /**
+     * Shard Inner Class
+     *
+     * <p>Part of the file state cache, in access order, with the access frequency sketch for the shard
+     */
+    protected class Shard {
+
+        // File states, keyed by normalized path, in least recently used order
+        private LinkedHashMap<String, FileState> mi_states;
+
+        // Access frequency sketch counters, one row per hash seed
+        private byte[][] mi_sketch;
+        private int mi_sketchShift;
+
+        // Number of accesses recorded since the sketch was last aged, and limit before the sketch is aged
+        private int mi_samples;
+        private int mi_sampleLimit;
+
+        /**
+         * Class constructor
+         *
+         * @param initSize int
+         * @param maxSize  int
+         */
+        public Shard(int initSize, int maxSize) {
+
+            // Allocate the state map, in access order
+            mi_states = new LinkedHashMap<String, FileState>(initSize, 0.75f, true);
+
+            // Size the frequency sketch, only used by a bounded cache
+            if (maxSize > 0) {
+                int width = Integer.highestOneBit(Math.max(maxSize, 64) * 2);
+                mi_sketch = new byte[SketchSeeds.length][width];
+                mi_sketchShift = 32 - Integer.numberOfTrailingZeros(width);
+                mi_sampleLimit = width * 10;
+            }
+        }
+
+        /**
+         * Return the shard state map
+         *
+         * @return LinkedHashMap&lt;String, FileState&gt;
+         */
+        public final LinkedHashMap<String, FileState> getStates() {
+            return mi_states;
+        }
+
+        /**
+         * Record an access to the specified path
+         *
+         * @param hash int
+         */
+        public final void recordAccess(int hash) {
+
+            // Check if the frequency sketch is enabled
+            if (mi_sketch == null)
+                return;
+
+            // Increment the counter in each row, up to the maximum count
+            for (int i = 0; i < mi_sketch.length; i++) {
+                int idx = (hash * SketchSeeds[i]) >>> mi_sketchShift;
+                if (mi_sketch[i][idx] < SketchMaxCount)
+                    mi_sketch[i][idx]++;
+            }
+
+            // Age the sketch periodically so that old accesses count for less
+            if (++mi_samples >= mi_sampleLimit) {
+                for (int i = 0; i < mi_sketch.length; i++) {
+                    byte[] row = mi_sketch[i];
+                    for (int j = 0; j < row.length; j++)
+                        row[j] = (byte) (row[j] >> 1);
+                }
+
+                mi_samples = mi_samples / 2;
+            }
+        }
+
+        /**
+         * Return the estimated access frequency for the specified path
+         *
+         * @param hash int
+         * @return int
+         */
+        public final int getFrequency(int hash) {
+
+            // Check if the frequency sketch is enabled
+            if (mi_sketch == null)
+                return 0;
+
+            // Return the minimum counter value from the sketch rows
+            int freq = SketchMaxCount;
+
+            for (int i = 0; i < mi_sketch.length; i++) {
+                int idx = (hash * SketchSeeds[i]) >>> mi_sketchShift;
+                if (mi_sketch[i][idx] < freq)
+                    freq = mi_sketch[i][idx];
+            }
+
+            return freq;
+        }
+    }
+
+    /**
+     * Class constructor
+     */
+    public ShardedFileStateCache() {
+    }
+
+    /**
+     * Initialize the file state cache
+     *
+     * @param config    ConfigElement
+     * @param srvConfig ServerConfiguration
+     * @throws InvalidConfigurationException Failed to initialize the file state cache
+     */
+    public void initializeCache(ConfigElement config, ServerConfiguration srvConfig)
+            throws InvalidConfigurationException {
+
+        // Call the base class
+        super.initializeCache(config, srvConfig);
+
+        // Check if the initial cache size has been specified
+        int initSize = InitialCacheSize;
+
+        ConfigElement elem = config.getChild("initialSize");
+        if (elem != null && elem.getValue() != null) {
+
+            // Validate the initial size value
+            try {
+
+                // Convert the initial cache size value
+                initSize = Integer.parseInt(elem.getValue());
+
+                // Range check the initial cache size value
+                if (initSize < MinimumCacheSize)
+                    throw new InvalidConfigurationException("Initial cache size value too low, " + initSize);
+            }
+            catch (NumberFormatException ex) {
+                throw new InvalidConfigurationException("Invalid initial cache size value, " + elem.getValue());
+            }
+        }
+
+        // Check if the maximum number of file states has been specified
+        int maxEntries = DefaultMaximumEntries;
+
+        elem = config.getChild("maxEntries");
+        if (elem != null && elem.getValue() != null) {
+
+            // Validate the maximum entries value
+            try {
+
+                // Convert the maximum entries value
+                maxEntries = Integer.parseInt(elem.getValue());
+
+                // Range check the maximum entries value
+                if (maxEntries < MinimumCacheSize)
+                    throw new InvalidConfigurationException("Maximum cache entries value too low, " + maxEntries);
+            }
+            catch (NumberFormatException ex) {
+                throw new InvalidConfigurationException("Invalid maximum cache entries value, " + elem.getValue());
+            }
+        }
+
+        // Check if the number of shards has been specified
+        int shardCnt = DefaultShards;
+
+        elem = config.getChild("shards");
+        if (elem != null && elem.getValue() != null) {
+
+            // Validate the shard count
+            try {
+
+                // Convert the shard count value
+                shardCnt = Integer.parseInt(elem.getValue());
+
+                // Range check the shard count
+                if (shardCnt < 1 || shardCnt > MaximumShards)
+                    throw new InvalidConfigurationException("Invalid cache shard count, " + shardCnt);
+            }
+            catch (NumberFormatException ex) {
+                throw new InvalidConfigurationException("Invalid cache shard count, " + elem.getValue());
+            }
+        }
+
+        // Allocate the state cache
+        setupShards(initSize, maxEntries, shardCnt);
+    }
+
+    /**
+     * Allocate the cache shards
+     *
+     * @param initSize   int
+     * @param maxEntries int
+     * @param shardCnt   int
+     */
+    protected final void setupShards(int initSize, int maxEntries, int shardCnt) {
+
+        // Round the shard count up to a power of two
+        int numShards = Integer.highestOneBit(shardCnt);
+        if (numShards < shardCnt)
+            numShards <<= 1;
+
+        // Set the maximum file state counts
+        m_maxEntries = maxEntries;
+        m_maxPerShard = maxEntries > 0 ? Math.max(1, (maxEntries + numShards - 1) / numShards) : 0;
+
+        // Allocate the shards
+        m_shards = new Shard[numShards];
+        m_shardMask = numShards - 1;
+
+        int shardInitSize = Math.max(16, initSize / numShards);
+
+        for (int i = 0; i < numShards; i++)
+            m_shards[i] = new Shard(shardInitSize, m_maxPerShard);
+    }
+
+    /**
+     * Return the maximum number of file states, or zero if the cache is unbounded
+     *
+     * @return int
+     */
+    public final int getMaximumEntries() {
+        return m_maxEntries;
+    }
+
+    /**
+     * Return the number of cache shards
+     *
+     * @return int
+     */
+    public final int getNumberOfShards() {
+        return m_shards != null ? m_shards.length : 0;
+    }
+
+    /**
+     * Return the count of file states evicted to keep the cache within the maximum size
+     *
+     * @return long
+     */
+    public final long getEvictionCount() {
+        return m_evictions.get();
+    }
+
+    /**
+     * Return the number of states in the cache
+     *
+     * @return int
+     */
+    public final int numberOfStates() {
+
+        // Add up the shard sizes
+        int stateCnt = 0;
+
+        for (Shard shard : m_shards) {
+            synchronized (shard) {
+                stateCnt += shard.getStates().size();
+            }
+        }
+
+        return stateCnt;
+    }
+
+    /**
+     * Find the file state for the specified path
+     *
+     * @param path String
+     * @return FileState
+     */
+    public final FileState findFileState(String path) {
+        return findFileState(path, false, null);
+    }
+
+    /**
+     * Find the file state for the specified path, and optionally create a new file state if not
+     * found
+     *
+     * @param path   String
+     * @param create boolean
+     * @return FileState
+     */
+    public final FileState findFileState(String path, boolean create) {
+        return findFileState(path, create, null);
+    }
+
+    /**
+     * Find the file state for the specified path, and optionally create a new file state if not
+     * found with the specified initial status
+     *
+     * @param path   String
+     * @param create boolean
+     * @param status FileStatus
+     * @return FileState
+     */
+    public final FileState findFileState(String path, boolean create, FileStatus status) {
+
+        // Get the shard for the path
+        String normPath = FileState.normalizePath(path, isCaseSensitive());
+        int hash = hashPath(normPath);
+        Shard shard = m_shards[hash & m_shardMask];
+
+        FileState state = null;
+
+        synchronized (shard) {
+
+            // Find the required file state, if it exists
+            shard.recordAccess(hash);
+            state = shard.getStates().get(normPath);
+
+            // Check if we should create a new file state
+            if (state == null && create == true) {
+
+                // Create a new file state
+                state = new LocalFileState(path, isCaseSensitive());
+
+                // Set the file state timeout and add to the cache
+                state.setExpiryTime(System.currentTimeMillis() + getFileStateExpireInterval());
+                if (status != null)
+                    state.setFileStatus(status);
+
+                shard.getStates().put(state.getPath(), state);
+
+                // Check if the shard is over the maximum size
+                if (m_maxPerShard > 0 && shard.getStates().size() > m_maxPerShard)
+                    evictFileStates(shard, state);
+            }
+        }
+
+        // Return the file state
+        return state;
+    }
+
+    /**
+     * Remove the file state for the specified path
+     *
+     * @param path String
+     * @return FileState
+     */
+    public final FileState removeFileState(String path) {
+
+        // Get the shard for the path
+        String normPath = FileState.normalizePath(path, isCaseSensitive());
+        Shard shard = getShard(normPath);
+
+        FileState state = null;
+
+        synchronized (shard) {
+
+            // Remove the file state from the cache
+            state = shard.getStates().remove(normPath);
+        }
+
+        // Check if there is a state listener
+        if (hasStateListener() && state != null)
+            getStateListener().fileStateClosed(state);
+
+        // Return the removed file state
+        return state;
+    }
+
+    /**
+     * Rename a file state, remove the existing entry, update the path and add the state back into
+     * the cache using the new path.
+     *
+     * @param newPath String
+     * @param state   FileState
+     * @param isDir   boolean
+     */
+    public final void renameFileState(String newPath, FileState state, boolean isDir) {
+
+        // Remove the existing file state from the cache, using the original name
+        String oldPath = state.getPath();
+        Shard shard = getShard(oldPath);
+
+        synchronized (shard) {
+            shard.getStates().remove(oldPath);
+        }
+
+        // Update the file state path and add it back to the cache using the new name
+        state.setPath(newPath, isCaseSensitive());
+        state.setFileStatus(isDir ? FileStatus.DirectoryExists : FileStatus.FileExists);
+
+        shard = getShard(state.getPath());
+
+        synchronized (shard) {
+            shard.getStates().put(state.getPath(), state);
+        }
+
+        // If the path is to a folder we must change the file status of all file states that are
+        // using the old path
+        if (isDir == true) {
+
+            // Get the old path and normalize
+            if (oldPath.endsWith(FileName.DOS_SEPERATOR_STR) == false)
+                oldPath = oldPath + FileName.DOS_SEPERATOR_STR;
+            oldPath = oldPath.toUpperCase();
+
+            // Enumerate the file states in each shard
+            for (Shard curShard : m_shards) {
+
+                synchronized (curShard) {
+
+                    for (Map.Entry<String, FileState> entry : curShard.getStates().entrySet()) {
+
+                        // Check if the path is below the renamed path
+                        String statePath = entry.getKey();
+
+                        if (statePath.length() > oldPath.length() && statePath.startsWith(oldPath)) {
+
+                            // Mark the file state as not existing
+                            FileState renState = entry.getValue();
+
+                            renState.setFileStatus(FileStatus.NotExist);
+                            renState.setFileId(FileState.UnknownFileId);
+
+                            // DEBUG
+                            if (Debug.EnableInfo && hasDebug())
+                                Debug.println("++ Rename update " + statePath);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all file states from the cache
+     */
+    public final void removeAllFileStates() {
+
+        // Check if the cache has been initialized
+        if (m_shards == null)
+            return;
+
+        for (Shard shard : m_shards) {
+
+            synchronized (shard) {
+
+                // Enumerate the file states in the shard
+                for (FileState state : shard.getStates().values()) {
+
+                    // Check if there is a state listener
+                    if (hasStateListener())
+                        getStateListener().fileStateClosed(state);
+
+                    // DEBUG
+                    if (Debug.EnableInfo && hasDebug())
+                        Debug.println("++ Closed: " + state.getPath());
+                }
+
+                // Remove all the file states
+                shard.getStates().clear();
+            }
+        }
+    }
+
+    /**
+     * Remove expired file states from the cache
+     *
+     * @return int
+     */
+    public final int removeExpiredFileStates() {
+
+        // Check if the cache has been initialized
+        if (m_shards == null)
+            return 0;
+
+        long curTime = System.currentTimeMillis();
+
+        int expiredCnt = 0;
+        int openCnt = 0;
+
+        for (Shard shard : m_shards) {
+
+            synchronized (shard) {
+
+                // Enumerate the shard file states and remove expired file state objects
+                Iterator<FileState> enm = shard.getStates().values().iterator();
+
+                while (enm.hasNext()) {
+
+                    // Get the file state
+                    FileState state = enm.next();
+
+                    if (state != null && state.isPermanentState() == false) {
+
+                        // Check if the file state has expired and there are no open references to the
+                        // file
+                        if (state.hasExpired(curTime) && state.getOpenCount() == 0) {
+
+                            // Check if there is a state listener to veto the file state expiration
+                            if (hasStateListener() == false || getStateListener().fileStateExpired(state) == true) {
+
+                                // Remove the expired file state
+                                enm.remove();
+
+                                // DEBUG
+                                if (hasDebugExpiredStates())
+                                    Debug.println("++ Expired file state: " + state);
+
+                                // Update the expired count
+                                expiredCnt++;
+                            }
+                        } else if (state.getOpenCount() > 0)
+                            openCnt++;
+                    }
+                }
+            }
+        }
+
+        // DEBUG
+        if (hasDebugExpiredStates() && openCnt > 0) {
+            Debug.println("++ Open files " + openCnt);
+            dumpCache(false);
+        }
+
+        // Return the count of expired file states that were removed
+        return expiredCnt;
+    }
+
+    /**
+     * Dump the state cache entries to the specified stream
+     *
+     * @param dumpAttribs boolean
+     */
+    public final void dumpCache(boolean dumpAttribs) {
+
+        // Dump the file state cache entries
+        Debug.println("++ FileStateCache Entries: shards=" + m_shards.length + ", max=" + m_maxEntries + ", evicted=" + getEvictionCount());
+
+        long curTime = System.currentTimeMillis();
+
+        for (Shard shard : m_shards) {
+
+            synchronized (shard) {
+
+                for (Map.Entry<String, FileState> entry : shard.getStates().entrySet()) {
+
+                    FileState state = entry.getValue();
+                    Debug.println("++  " + entry.getKey() + "(" + state.getSecondsToExpire(curTime) + ") : " + state.toString());
+
+                    // Check if the state attributes should be output
+                    if (dumpAttribs == true)
+                        state.DumpAttributes();
+                }
+            }
+        }
+    }
+
+    /**
+     * Request an oplock break
+     *
+     * @param path   String
+     * @param oplock OpLockDetails
+     * @throws IOException I/O error
+     */
+    public void requestOplockBreak(String path, OpLockDetails oplock)
+            throws IOException {
+
+        // Only used for remote oplocks
+    }
+
+    /**
+     * Check if a file state can be evicted from the cache
+     *
+     * @param state FileState
+     * @return boolean
+     */
+    protected boolean isEvictable(FileState state) {
+
+        // Do not evict states that are in use
+        if (state.isPermanentState() || state.getOpenCount() > 0 || state.hasActiveLocks() || state.hasOpLock())
+            return false;
+
+        if (state.hasDataUpdateInProgress() || state.hasActiveRetentionPeriod())
+            return false;
+
+        return true;
+    }
+
+    /**
+     * Evict a file state from a shard that is over the maximum size. Samples the least recently used evictable
+     * file states and evicts the state with the lowest access frequency. Must be called with the shard locked.
+     *
+     * @param shard    Shard
+     * @param newState FileState that has just been added, not evicted
+     */
+    private void evictFileStates(Shard shard, FileState newState) {
+
+        // Collect the least recently used evictable file states
+        List<FileState> candidates = new ArrayList<FileState>(EvictionSampleSize);
+        List<String> inUse = null;
+
+        Iterator<FileState> iter = shard.getStates().values().iterator();
+        int scanCnt = 0;
+
+        while (iter.hasNext() && candidates.size() < EvictionSampleSize && scanCnt++ < EvictionScanLimit) {
+
+            FileState state = iter.next();
+
+            if (state == newState)
+                continue;
+
+            if (isEvictable(state))
+                candidates.add(state);
+            else {
+
+                // Remember in use states so they can be moved out of the way of the next scan
+                if (inUse == null)
+                    inUse = new ArrayList<String>();
+                inUse.add(state.getPath());
+            }
+        }
+
+        // Move in use file states to the most recently used end of the shard
+        if (inUse != null) {
+            for (String path : inUse)
+                shard.getStates().get(path);
+        }
+
+        // Evict the candidate with the lowest access frequency, the listener may veto the eviction
+        while (candidates.size() > 0) {
+
+            FileState victim = candidates.get(0);
+            int victimFreq = shard.getFrequency(hashPath(victim.getPath()));
+
+            for (int i = 1; i < candidates.size(); i++) {
+                FileState state = candidates.get(i);
+                int freq = shard.getFrequency(hashPath(state.getPath()));
+
+                if (freq < victimFreq) {
+                    victim = state;
+                    victimFreq = freq;
+                }
+            }
+
+            candidates.remove(victim);
+
+            if (hasStateListener() == false || getStateListener().fileStateExpired(victim) == true) {
+
+                // Remove the file state
+                shard.getStates().remove(victim.getPath());
+                m_evictions.incrementAndGet();
+
+                // DEBUG
+                if (hasDebugExpiredStates())
+                    Debug.println("++ Evicted file state: " + victim + ", freq=" + victimFreq);
+
+                return;
+            }
+        }
+
+        // DEBUG
+        if (hasDebugExpiredStates())
+            Debug.println("++ No evictable file state, shard size=" + shard.getStates().size());
+    }
+
+    /**
+     * Return the shard for a normalized path
+     *
+     * @param normPath String
+     * @return Shard
+     */
+    private Shard getShard(String normPath) {
+        return m_shards[hashPath(normPath) & m_shardMask];
+    }
+
+    /**
+     * Hash a normalized path, spreading the hash bits
+     *
+     * @param normPath String
+     * @return int
+     */
+    private static int hashPath(String normPath) {
+        int hash = normPath.hashCode();
+        hash ^= (hash >>> 16);
+        hash *= 0x85EBCA6B;
+        hash ^= (hash >>> 13);
+        return hash;
+    }
+}
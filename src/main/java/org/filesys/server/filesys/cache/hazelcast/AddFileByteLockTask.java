@@ -19,8 +19,10 @@
 
 package org.filesys.server.filesys.cache.hazelcast;
 
+import java.util.List;
+
 import org.filesys.debug.Debug;
-import org.filesys.locking.FileLockList;
+import org.filesys.locking.FileLock;
 import org.filesys.locking.LockConflictException;
 import org.filesys.server.filesys.cache.cluster.ClusterFileLock;
 import org.filesys.server.filesys.cache.cluster.ClusterFileState;
@@ -86,20 +88,16 @@ public class AddFileByteLockTask extends RemoteStateTask<ClusterFileState> {
             fState.addLock(m_lock);
         } else {
 
-            // Check for lock conflicts
-            FileLockList lockList = fState.getLockList();
-            int idx = 0;
-            boolean lockConflict = false;
-
-            while (idx < lockList.numberOfLocks() && lockConflict == false) {
+            // Check for lock conflicts with the locks that overlap the new lock
+            List<FileLock> overlaps = fState.getLockList().findOverlappingLocks(m_lock);
 
-                // Get the current file lock
-                ClusterFileLock curLock = (ClusterFileLock) lockList.getLockAt(idx++);
+            if (overlaps != null) {
 
-                // Check if the lock overlaps with the new lock
-                if (curLock.hasOverlap(m_lock)) {
+                for (FileLock overlap : overlaps) {
 
                     // Check the if the lock owner is the same
+                    ClusterFileLock curLock = (ClusterFileLock) overlap;
+
                     if (curLock.getProcessId() != m_lock.getProcessId() ||
                             curLock.getOwnerNode().equalsIgnoreCase(m_lock.getOwnerNode()) == false) {
 
@@ -28,10 +28,12 @@ import org.filesys.server.filesys.FileInfo;
 import org.filesys.server.filesys.FileOfflineException;
 import org.filesys.server.filesys.cache.FileState;
 import org.filesys.server.filesys.cache.FileStateProxy;
+import org.filesys.server.filesys.loader.FileDataPendingException;
 import org.filesys.server.filesys.loader.FileLoader;
 import org.filesys.server.filesys.loader.FileRequest;
 import org.filesys.server.filesys.loader.FileSegment;
 import org.filesys.server.filesys.loader.FileSegmentInfo;
+import org.filesys.server.filesys.loader.SparseFileLoader;
 import org.filesys.server.filesys.loader.SingleFileRequest;
 
 /**
@@ -210,8 +212,17 @@ public class CachedNetworkFile extends DBNetworkFile {
             synchronized (getFileState()) {
 
                 // Queue a file data load request
-                if (m_cacheFile.isQueued() == false)
+                if (m_cacheFile.isQueued() == false) {
+
+                    // Load the file data sparsely if the loader supports it, starting with the data for this read
+                    if (isSequentialOnly() == false && getLoader() instanceof SparseFileLoader &&
+                            ((SparseFileLoader) getLoader()).supportsSparseLoad()) {
+                        m_cacheFile.getInfo().enableSparseLoad(getFileSize());
+                        m_cacheFile.requestRange(fileOff, len);
+                    }
+
                     getLoader().queueFileRequest(createFileRequest(FileRequest.LOAD));
+                }
             }
         }
 
@@ -251,13 +262,25 @@ public class CachedNetworkFile extends DBNetworkFile {
         long waitTime = 0L;
         boolean readDone = false;
         boolean dataAvailable = false;
+        boolean rangeRequested = false;
 
         while (readDone == false && waitTime < DataLoadWaitTime && (m_cacheFile.isDataLoading() || m_cacheFile.isDataAvailable())) {
 
             // Check if there is enough data available to satisfy the read request
             dataAvailable = m_cacheFile.isDataAvailable();
 
-            if (dataAvailable == false) {
+            if (dataAvailable == false && m_cacheFile.isSparseLoad()) {
+
+                // File data is being loaded in blocks, check if the blocks for this read have been loaded, else
+                // request the blocks so they are loaded ahead of the remaining file data
+                if (m_cacheFile.isRangeLoaded(fileOff, len)) {
+                    rdlen = m_cacheFile.readBytes(buf, len, pos, fileOff);
+                    dataAvailable = true;
+                } else if (rangeRequested == false) {
+                    m_cacheFile.requestRange(fileOff, len);
+                    rangeRequested = true;
+                }
+            } else if (dataAvailable == false) {
 
                 // File loader thread is still loading the file data, check the file length to see if
                 // there is enough data to satisfy the read request. Check that there is more data available
@@ -282,6 +305,11 @@ public class CachedNetworkFile extends DBNetworkFile {
 
                 // No more data available
                 readDone = true;
+            } else if (allowsDeferredRead()) {
+
+                // Defer the read request until the required file data has been loaded, rather than blocking
+                // the request thread
+                throw new FileDataPendingException(m_cacheFile.getInfo(), fileOff, len);
             } else {
 
                 // Wait for some data to be loaded
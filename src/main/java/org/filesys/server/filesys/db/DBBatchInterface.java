@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.db;
+
+import java.util.List;
+
+/**
+ * Database Batch Interface
+ *
+ * <p>Optional interface implemented by a database interface that can apply a number of file record updates
+ * and deletes in a single batch, rather than a database request per file.
+ *
+ * @author gkspencer
+ */
+public interface DBBatchInterface {
+
+    /**
+     * Set the file information for a batch of file records, returns the updates that could not be written
+     *
+     * @param updates List&lt;DBFileUpdate&gt;
+     * @return List&lt;DBFileUpdate&gt;
+     */
+    public List<DBFileUpdate> setFileInformationBatch(List<DBFileUpdate> updates);
+
+    /**
+     * Delete a batch of file records, returns the indexes of the records that could not be deleted
+     *
+     * @param dirIds   int[]
+     * @param fids     int[]
+     * @param markOnly boolean
+     * @return List&lt;Integer&gt;
+     */
+    public List<Integer> deleteFileRecordBatch(int[] dirIds, int[] fids, boolean markOnly);
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.db;
+
+import java.io.IOException;
+
+import org.filesys.server.filesys.loader.FileSegment;
+
+/**
+ * Database Data Range Interface
+ *
+ * <p>Optional interface implemented by a database data interface that can load a byte range of the file data,
+ * allowing the file data to be loaded sparsely.
+ *
+ * @author gkspencer
+ */
+public interface DBDataRangeInterface {
+
+    /**
+     * Load a byte range of the file data from the database into the temporary/local file, the data should be
+     * written using FileSegment.writeLoadedBytes()
+     *
+     * @param fileId   int
+     * @param streamId int
+     * @param fileSeg  FileSegment
+     * @param fileOff  long
+     * @param len      long
+     * @exception DBException Database error
+     * @exception IOException I/O error
+     */
+    public void loadFileDataRange(int fileId, int streamId, FileSegment fileSeg, long fileOff, long len)
+            throws DBException, IOException;
+}
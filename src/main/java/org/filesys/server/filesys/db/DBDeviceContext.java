@@ -36,11 +36,13 @@ import org.filesys.server.filesys.cache.FileStateLockManager;
 import org.filesys.server.filesys.loader.DeleteFileRequest;
 import org.filesys.server.filesys.loader.FileLoader;
 import org.filesys.server.filesys.loader.FileRequestQueue;
+import org.filesys.server.filesys.loader.TempFileCache;
 import org.filesys.server.filesys.quota.QuotaManagerException;
 import org.filesys.server.locking.LockManager;
 import org.filesys.server.locking.OpLockManager;
 import org.filesys.server.thread.ThreadRequestPool;
 import org.filesys.util.MemorySize;
+import org.filesys.util.db.DBConnectionPool;
 import org.springframework.extensions.config.ConfigElement;
 
 /**
@@ -101,6 +103,9 @@ public class DBDeviceContext extends DiskDeviceContext implements FileStateCache
     // Oplocks enable/disable
     private boolean m_oplocksEnabled = true;
 
+    // Write-behind queue for file size and date/time updates, optional
+    private DBUpdateCoalescer m_updateCoalescer;
+
     /**
      * Class constructor
      *
@@ -287,6 +292,13 @@ public class DBDeviceContext extends DiskDeviceContext implements FileStateCache
         if (hasRetentionPeriod() && getDBInterface().supportsFeature(DBInterface.FeatureRetention) == false)
             throw new DeviceContextException("Database interface does not support retention");
 
+        // Check if file size and date/time updates should be queued and written in batches
+        ConfigElement writeBehind = args.getChild("WriteBehind");
+        if (writeBehind != null) {
+            m_updateCoalescer = DBUpdateCoalescer.createCoalescer(getDBInterface(), writeBehind);
+            m_updateCoalescer.setDebug(hasDebug());
+        }
+
         // Create the file loader instance and get the database features required by the loader
         int dbFeatures = 0;
 
@@ -573,6 +585,24 @@ public class DBDeviceContext extends DiskDeviceContext implements FileStateCache
         return m_maxFileSize;
     }
 
+    /**
+     * Check if file record updates are queued and written in batches
+     *
+     * @return boolean
+     */
+    public final boolean hasUpdateCoalescer() {
+        return m_updateCoalescer != null;
+    }
+
+    /**
+     * Return the write-behind queue for file record updates
+     *
+     * @return DBUpdateCoalescer
+     */
+    public final DBUpdateCoalescer getUpdateCoalescer() {
+        return m_updateCoalescer;
+    }
+
     /**
      * Check if there are files to be deleted in the offline delete list
      *
@@ -701,6 +731,10 @@ public class DBDeviceContext extends DiskDeviceContext implements FileStateCache
         if (getFileLoader() != null)
             getFileLoader().shutdownLoader(false);
 
+        // Write any queued file record updates
+        if (hasUpdateCoalescer())
+            getUpdateCoalescer().shutdownCoalescer();
+
         // Close the database interface
         if (getDBInterface() != null)
             getDBInterface().shutdownDatabase(this);
@@ -726,6 +760,10 @@ public class DBDeviceContext extends DiskDeviceContext implements FileStateCache
         // Start the file loader
         getFileLoader().startLoader(this);
 
+        // Start the file record update write-behind thread
+        if (hasUpdateCoalescer())
+            getUpdateCoalescer().startCoalescer(disk.getName());
+
         // Start the quota manager, if configured
         if (hasQuotaManager()) {
 
@@ -739,6 +777,31 @@ public class DBDeviceContext extends DiskDeviceContext implements FileStateCache
             }
         }
 
+        // Publish the database connection pool statistics, if enabled
+        ServerConfiguration srvConfig = disk.getConfiguration();
+        if (srvConfig != null && getDBInterface() instanceof JdbcDBInterface) {
+            CoreServerConfigSection coreConfig = (CoreServerConfigSection) srvConfig.getConfigSection(CoreServerConfigSection.SectionName);
+            DBConnectionPool connPool = ((JdbcDBInterface) getDBInterface()).getConnectionPool();
+
+            if (coreConfig != null && coreConfig.hasStatistics() && connPool != null)
+                coreConfig.getStatistics().registerMBean("DBConnectionPool", disk.getName(), connPool);
+        }
+
+        // Publish the temporary file cache statistics, if enabled
+        TempFileCache tempCache = null;
+
+        if (getFileLoader() instanceof DBFileLoader)
+            tempCache = ((DBFileLoader) getFileLoader()).getTempFileCache();
+        else if (getFileLoader() instanceof ObjectIdFileLoader)
+            tempCache = ((ObjectIdFileLoader) getFileLoader()).getTempFileCache();
+
+        if (srvConfig != null && tempCache != null) {
+            CoreServerConfigSection coreConfig = (CoreServerConfigSection) srvConfig.getConfigSection(CoreServerConfigSection.SectionName);
+
+            if (coreConfig != null && coreConfig.hasStatistics())
+                coreConfig.getStatistics().registerMBean("TempFileCache", disk.getName(), tempCache);
+        }
+
         // Create the file state based lock manager
         setFileStateLockManager(new FileStateLockManager(getStateCache()));
 
@@ -271,8 +271,8 @@ public class DBDiskDriver implements DiskInterface, DiskSizeInterface, DiskVolum
 
                 finfo.setFileInformationFlags(FileInfo.SetFileSize + FileInfo.SetModifyDate);
 
-                //  Call the database interface
-                dbCtx.getDBInterface().setFileInformation(file.getDirectoryId(), file.getFileId(), finfo);
+                //  Call the database interface, or queue the update
+                setFileRecordInformation(dbCtx, file.getDirectoryId(), file.getFileId(), finfo);
             }
             catch (DBException ex) {
             }
@@ -592,7 +592,15 @@ public class DBDiskDriver implements DiskInterface, DiskSizeInterface, DiskVolum
                 namedLoader.deleteDirectory(dir, dinfo.getFileId());
             }
 
-            //  Delete the directory file record, or mark as deleted if the trashcan is enabled
+            //  Delete the directory file record, or mark as deleted if the trashcan is enabled. Discard any queued
+            //  update, or write it if the record is kept in the trashcan.
+            if (dbCtx.hasUpdateCoalescer()) {
+                if (dbCtx.isTrashCanEnabled())
+                    dbCtx.getUpdateCoalescer().flushFile(dinfo.getFileId());
+                else
+                    dbCtx.getUpdateCoalescer().removeFile(dinfo.getFileId());
+            }
+
             dbCtx.getDBInterface().deleteFileRecord(dinfo.getDirectoryId(), dinfo.getFileId(), dbCtx.isTrashCanEnabled());
 
             //  Indicate that the path does not exist
@@ -704,7 +712,14 @@ public class DBDiskDriver implements DiskInterface, DiskSizeInterface, DiskVolum
                     Debug.println("DBDiskDriver deleted " + delCnt + " streams for name=" + name);
             }
 
-            //  Delete the file record
+            //  Delete the file record, discard any queued update, or write it if the record is kept in the trashcan
+            if (dbCtx.hasUpdateCoalescer()) {
+                if (dbCtx.isTrashCanEnabled())
+                    dbCtx.getUpdateCoalescer().flushFile(fstate.getFileId());
+                else
+                    dbCtx.getUpdateCoalescer().removeFile(fstate.getFileId());
+            }
+
             dbCtx.getDBInterface().deleteFileRecord(dbInfo.getDirectoryId(), fstate.getFileId(), dbCtx.isTrashCanEnabled());
 
             //  Indicate that the path does not exist
@@ -1222,6 +1237,10 @@ public class DBDiskDriver implements DiskInterface, DiskSizeInterface, DiskVolum
             String[] newPaths = FileName.splitPath(newName);
             String newFname = newPaths[1];
 
+            //  Write any queued update for the file/folder before the record is renamed
+            if (dbCtx.hasUpdateCoalescer())
+                dbCtx.getUpdateCoalescer().flushFile(fid);
+
             //  Rename the file/folder, this may also link the file/folder to a new parent directory
             dbCtx.getDBInterface().renameFileRecord(dirId, fid, newFname, newDirId);
 
@@ -1354,7 +1373,7 @@ public class DBDiskDriver implements DiskInterface, DiskSizeInterface, DiskVolum
 
             //  Update the file information
             if (dbFlags != 0)
-                dbCtx.getDBInterface().setFileInformation(dbInfo.getDirectoryId(), dbInfo.getFileId(), info);
+                setFileRecordInformation(dbCtx, dbInfo.getDirectoryId(), dbInfo.getFileId(), info);
 
             //  Use the original information flags when updating the cached file information details
             info.setFileInformationFlags(origFlags);
@@ -1465,7 +1484,11 @@ public class DBDiskDriver implements DiskInterface, DiskSizeInterface, DiskVolum
                 dbSearch.setMarkAsOffline(dbCtx.hasOfflineFiles());
                 dbSearch.setOfflineFileSize(dbCtx.getOfflineFileSize());
 
-                search = dbSearch;
+                // Apply any queued file record updates to the search results
+                if (dbCtx.hasUpdateCoalescer())
+                    search = new PendingUpdateSearchContext(dbSearch, dbCtx.getUpdateCoalescer());
+                else
+                    search = dbSearch;
             }
         }
         catch (DBException ex) {
@@ -1578,7 +1601,7 @@ public class DBDiskDriver implements DiskInterface, DiskSizeInterface, DiskVolum
                 finfo.setFileInformationFlags(FileInfo.SetChangeDate);
 
                 //  Set the file change date/time
-                dbCtx.getDBInterface().setFileInformation(jfile.getDirectoryId(), jfile.getFileId(), finfo);
+                setFileRecordInformation(dbCtx, jfile.getDirectoryId(), jfile.getFileId(), finfo);
 
                 //  Update the cached file information
                 dbInfo.setChangeDateTime(finfo.getChangeDateTime());
@@ -2062,6 +2085,9 @@ public class DBDiskDriver implements DiskInterface, DiskSizeInterface, DiskVolum
 
                             //  Get the file information
                             DBFileInfo finfo = ctx.getDBInterface().getFileInformation(parentId, dirId, DBInterface.FileAll);
+                            if (ctx.hasUpdateCoalescer())
+                                ctx.getUpdateCoalescer().applyPendingUpdate(dirId, finfo);
+
                             fstate.addAttribute(FileState.FileInformation, finfo);
                             fstate.setFileStatus(finfo.isDirectory() ? FileStatus.DirectoryExists : FileStatus.FileExists);
                             fstate.setFileId(dirId);
@@ -2117,8 +2143,11 @@ public class DBDiskDriver implements DiskInterface, DiskSizeInterface, DiskVolum
 
         try {
 
-            //  Get the file information
+            //  Get the file information, apply any queued update
             finfo = dbCtx.getDBInterface().getFileInformation(dirId, fid, DBInterface.FileAll);
+
+            if (finfo != null && dbCtx.hasUpdateCoalescer())
+                dbCtx.getUpdateCoalescer().applyPendingUpdate(fid, finfo);
         }
         catch (DBException ex) {
             Debug.println(ex);
@@ -2139,6 +2168,25 @@ public class DBDiskDriver implements DiskInterface, DiskSizeInterface, DiskVolum
         return finfo;
     }
 
+    /**
+     * Set the file information for a file record, size and date/time updates are queued if the write-behind
+     * queue is enabled
+     *
+     * @param dbCtx DBDeviceContext
+     * @param dirId int
+     * @param fid   int
+     * @param finfo FileInfo
+     * @exception DBException Database error
+     */
+    protected final void setFileRecordInformation(DBDeviceContext dbCtx, int dirId, int fid, FileInfo finfo)
+            throws DBException {
+
+        if (dbCtx.hasUpdateCoalescer())
+            dbCtx.getUpdateCoalescer().setFileInformation(dirId, fid, finfo);
+        else
+            dbCtx.getDBInterface().setFileInformation(dirId, fid, finfo);
+    }
+
     /**
      * Get the details for a file stream
      *
@@ -25,6 +25,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.util.List;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -54,6 +55,8 @@ import org.filesys.server.filesys.loader.FileSegment;
 import org.filesys.server.filesys.loader.FileSegmentInfo;
 import org.filesys.server.filesys.loader.MultipleFileRequest;
 import org.filesys.server.filesys.loader.SingleFileRequest;
+import org.filesys.server.filesys.loader.SparseFileLoader;
+import org.filesys.server.filesys.loader.TempFileCache;
 import org.filesys.util.MemorySize;
 import org.springframework.extensions.config.ConfigElement;
 
@@ -74,7 +77,7 @@ import org.springframework.extensions.config.ConfigElement;
  *
  * @author gkspencer
  */
-public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileStateListener {
+public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileStateListener, SparseFileLoader {
 
     // Status codes returned from the load/save worker thread processing
     public final static int StsSuccess  = 0;
@@ -91,6 +94,7 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
 
     // Attributes attached to the file state
     public static final String DBFileSegmentInfo = "DBFileSegmentInfo";
+    public static final String DBBundleIndex     = "DBBundleIndex";
 
     // Default/minimum/maximum number of worker threads to use
     public static final int DefaultWorkerThreads = 4;
@@ -181,6 +185,9 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
     // Jar file compression level, 0 = no compression, 9 = highest compression
     private int m_jarCompressLevel;
 
+    // Bundle small files using the Jar format rather than the small file bundle format
+    private boolean m_jarFormat;
+
     // Temporary file area
     private String m_tempDirName;
     private File m_tempDir;
@@ -198,6 +205,9 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
     private int m_tempCount;
     private int m_tempMax;
 
+    // Size bounded temporary file cache, optional
+    private TempFileCache m_tempCache;
+
     // Current transaction id, cumulative file size, file count and time last file was added to the
     // current transaction.
     // Transaction lock used to synchronize access to the values.
@@ -389,6 +399,15 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
         return m_curTempDir;
     }
 
+    /**
+     * Check if small files are bundled using the Jar format, rather than the small file bundle format
+     *
+     * @return boolean
+     */
+    public final boolean hasJarFormat() {
+        return m_jarFormat;
+    }
+
     /**
      * Check if Jars files should be kept in the temporary area
      *
@@ -523,6 +542,15 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
         return m_tempFilePrefix;
     }
 
+    /**
+     * Return the temporary file cache, or null if not configured
+     *
+     * @return TempFileCache
+     */
+    public final TempFileCache getTempFileCache() {
+        return m_tempCache;
+    }
+
     /**
      * Set the worker thread name prefix
      *
@@ -712,6 +740,8 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
                     try {
 
                         // Delete the temporary file
+                        if (m_tempCache != null)
+                            m_tempCache.removeFile(fileSegInfo);
                         fileSegInfo.deleteTemporaryFile();
                     }
                     catch (Exception ex) {
@@ -808,8 +838,12 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
                 fileSeg.signalDataAvailable();
             } else {
 
-                // Load the file data from the main file record(s)
-                getDBDataInterface().loadFileData(loadReq.getFileId(), loadReq.getStreamId(), fileSeg);
+                // Load the file data from the main file record(s), in the order requested by readers if the file
+                // is being loaded sparsely
+                if (fileSeg.isSparseLoad() && getDBDataInterface() instanceof DBDataRangeInterface)
+                    loadSparseFileData(loadReq.getFileId(), loadReq.getStreamId(), fileSeg);
+                else
+                    getDBDataInterface().loadFileData(loadReq.getFileId(), loadReq.getStreamId(), fileSeg);
 
                 // Set the load status
                 loadSts = StsSuccess;
@@ -852,12 +886,55 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
 
             // Run the file load processors
             runFileLoadedProcessors(getContext(), loadReq.getFileState(), fileSeg);
+
+            // Add the loaded file to the temporary file cache
+            if (m_tempCache != null)
+                m_tempCache.addFile(loadReq.getFileId(), loadReq.getStreamId(), fileSeg.getInfo(), loadReq.getFileState());
         }
 
         // Return the load file status
         return loadSts;
     }
 
+    /**
+     * Check if the file loader supports sparse loading of file data, requires the database data interface to
+     * support loading byte ranges of file data
+     *
+     * @return boolean
+     */
+    public boolean supportsSparseLoad() {
+        return getDBDataInterface() instanceof DBDataRangeInterface;
+    }
+
+    /**
+     * Load the file data in blocks, requested blocks are loaded first then the remaining file data
+     *
+     * @param fileId   int
+     * @param streamId int
+     * @param fileSeg  FileSegment
+     * @exception DBException Database error
+     * @exception IOException I/O error
+     */
+    protected final void loadSparseFileData(int fileId, int streamId, FileSegment fileSeg)
+            throws DBException, IOException {
+
+        // Load the file data ranges until all blocks have been loaded
+        DBDataRangeInterface rangeInterface = (DBDataRangeInterface) getDBDataInterface();
+        FileSegmentInfo segInfo = fileSeg.getInfo();
+        long[] range = null;
+
+        while ((range = segInfo.getNextLoadRange(FileSegmentInfo.LoadRangeBlocks)) != null) {
+
+            // Load the file data range, and wakeup any readers waiting for the data
+            rangeInterface.loadFileDataRange(fileId, streamId, fileSeg, range[0], range[1]);
+            segInfo.setRangeLoaded(range[0], range[1]);
+
+            // DEBUG
+            if (Debug.EnableDbg && hasDebug())
+                Debug.println("## DBFileLoader loaded range fid=" + fileId + ", stream=" + streamId + ", off=" + range[0] + ", len=" + range[1]);
+        }
+    }
+
     /**
      * Load the requested file from a Jar file. The Jar file must first be loaded
      * from the database, then the file data is unpacked to the temporary file. The Jar file is
@@ -870,10 +947,27 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
      */
     protected final int loadFileFromJar(SingleFileRequest loadReq, File tempFile, DBDataDetails dataDetails) {
 
+        // If the database interface can load ranges of the Jar data, and the Jar is a small file bundle, then only
+        // load the data for the required file
+        String jarStateName = JarStatePrefix + dataDetails.getJarId();
+
+        if (getDBDataInterface() instanceof DBJarRangeInterface) {
+            try {
+                if (loadFileFromBundle(loadReq, tempFile, dataDetails, jarStateName) == true)
+                    return StsSuccess;
+            }
+            catch (Exception ex) {
+                if (Debug.EnableError) {
+                    Debug.println("Error in worker thread=" + loadReq.getThreadId());
+                    Debug.println(ex);
+                }
+                return StsError;
+            }
+        }
+
         // Check if the Jar file has already been loaded, if so there will be a file state
         int loadSts = StsError;
 
-        String jarStateName = JarStatePrefix + dataDetails.getJarId();
         FileState jarState = getStateCache().findFileState(jarStateName);
         FileSegmentInfo segInfo = null;
         FileSegment jarSeg = null;
@@ -1056,6 +1150,19 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
         // If the Jar file has been loaded, or is available, then extract the required file
         if (loadSts == StsSuccess) {
 
+            // Check if the file is a small file bundle, rather than a Jar
+            try {
+                if (SmallFileBundle.isBundleFile(jarSeg.getTemporaryFile()))
+                    return loadFileFromLocalBundle(loadReq, tempFile, jarSeg.getTemporaryFile());
+            }
+            catch (IOException ex) {
+                if (Debug.EnableError) {
+                    Debug.println("Error in worker thread=" + loadReq.getThreadId());
+                    Debug.println(ex);
+                }
+                return StsError;
+            }
+
             // Open the Jar file and copy the required file data to the temporary file
             JarFile jar = null;
             FileOutputStream outFile = null;
@@ -1166,6 +1273,178 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
         return loadSts;
     }
 
+    /**
+     * Load the data for a file from a small file bundle, using ranged reads of the bundle data from the database
+     * to load the bundle index and the file data. Returns false if the Jar data is not a small file bundle.
+     *
+     * @param loadReq      SingleFileRequest
+     * @param tempFile     File
+     * @param dataDetails  DBDataDetails
+     * @param jarStateName String
+     * @return boolean
+     * @throws Exception Error loading the file data
+     */
+    private boolean loadFileFromBundle(SingleFileRequest loadReq, File tempFile, DBDataDetails dataDetails, String jarStateName)
+            throws Exception {
+
+        // Get, or create, the file state for the Jar, the bundle index is cached on the file state
+        DBJarRangeInterface rangeInterface = (DBJarRangeInterface) getDBDataInterface();
+        int jarId = dataDetails.getJarId();
+
+        FileState jarState = getStateCache().findFileState(jarStateName, true);
+        Object bundleIdx = null;
+
+        synchronized (jarState) {
+
+            // Bump the Jar file state expiry, might get more hits
+            jarState.setExpiryTime(System.currentTimeMillis() + JarStateTimeout);
+
+            // Check if the bundle index has been loaded
+            bundleIdx = jarState.findAttribute(DBBundleIndex);
+
+            if (bundleIdx == null) {
+
+                // Load the bundle trailer
+                long jarLen = rangeInterface.getJarDataLength(jarId);
+                byte[] trailer = new byte[SmallFileBundle.TrailerLength];
+
+                if (jarLen >= SmallFileBundle.HeaderLength + SmallFileBundle.TrailerLength)
+                    rangeInterface.loadJarDataRange(jarId, jarLen - SmallFileBundle.TrailerLength, trailer, 0, trailer.length);
+
+                if (SmallFileBundle.isBundleTrailer(trailer, 0)) {
+
+                    // Load the bundle index
+                    long indexOff = SmallFileBundle.getIndexOffset(trailer, 0);
+                    int indexLen = SmallFileBundle.getIndexLength(trailer, 0);
+
+                    if (indexOff < SmallFileBundle.HeaderLength || indexOff + indexLen != jarLen - SmallFileBundle.TrailerLength)
+                        throw new IOException("Invalid small file bundle index offset, jarId=" + jarId);
+
+                    byte[] index = new byte[indexLen];
+                    rangeInterface.loadJarDataRange(jarId, indexOff, index, 0, indexLen);
+
+                    bundleIdx = SmallFileBundle.parseIndex(index, 0, indexLen, indexOff);
+                } else {
+
+                    // Jar format, the whole Jar must be loaded
+                    bundleIdx = Boolean.FALSE;
+                }
+
+                jarState.addAttribute(DBBundleIndex, bundleIdx);
+
+                // DEBUG
+                if (Debug.EnableInfo && hasDebug())
+                    Debug.println("## DBFileLoader Loaded bundle index, jarId=" + jarId + ", bundle=" + (bundleIdx instanceof SmallFileBundle));
+            }
+        }
+
+        // Check if the Jar is a small file bundle
+        if (bundleIdx instanceof SmallFileBundle == false)
+            return false;
+
+        // Find the file in the bundle
+        SmallFileBundle bundle = (SmallFileBundle) bundleIdx;
+        SmallFileBundle.Entry entry = bundle.findEntry(loadReq.getFileId(), loadReq.getStreamId());
+
+        if (entry == null)
+            throw new IOException("Failed to find file in bundle, fid=" + loadReq.getFileId() + ", stid=" + loadReq.getStreamId() +
+                    ", jarId=" + jarId);
+
+        // Load the file data from the bundle, and write to the temporary file
+        long startTime = System.currentTimeMillis();
+
+        byte[] stored = new byte[entry.getStoredLength()];
+        rangeInterface.loadJarDataRange(jarId, entry.getOffset(), stored, 0, stored.length);
+
+        FileOutputStream outFile = new FileOutputStream(tempFile);
+
+        try {
+            SmallFileBundle.extractEntry(entry, stored, outFile);
+        }
+        finally {
+            outFile.close();
+        }
+
+        // DEBUG
+        if (Debug.EnableInfo && hasDebug())
+            Debug.println("Loaded file " + entry + " from bundle jarId=" + jarId + ", in " + (System.currentTimeMillis() - startTime) + "ms");
+
+        return true;
+    }
+
+    /**
+     * Load the data for a file from a small file bundle that has been loaded to the temporary area
+     *
+     * @param loadReq    SingleFileRequest
+     * @param tempFile   File
+     * @param bundlePath String
+     * @return int
+     */
+    private int loadFileFromLocalBundle(SingleFileRequest loadReq, File tempFile, String bundlePath) {
+
+        RandomAccessFile bundleFile = null;
+        FileOutputStream outFile = null;
+        int loadSts = StsError;
+
+        try {
+
+            // Read the bundle index, and find the required file
+            bundleFile = new RandomAccessFile(bundlePath, "r");
+            SmallFileBundle bundle = SmallFileBundle.readIndex(bundleFile);
+            SmallFileBundle.Entry entry = bundle != null ? bundle.findEntry(loadReq.getFileId(), loadReq.getStreamId()) : null;
+
+            if (entry != null) {
+
+                // Copy the file data to the temporary file
+                outFile = new FileOutputStream(tempFile);
+                SmallFileBundle.extractEntry(bundleFile, entry, outFile);
+
+                outFile.close();
+                outFile = null;
+
+                loadSts = StsSuccess;
+
+                // DEBUG
+                if (Debug.EnableInfo && hasDebug())
+                    Debug.println("Loaded file " + entry + " from bundle " + bundlePath);
+            } else {
+
+                // DEBUG
+                if (Debug.EnableInfo && hasDebug())
+                    Debug.println("## DBFileLoader Failed to find file in bundle, fid=" + loadReq.getFileId() + ", bundle=" + bundlePath);
+            }
+        }
+        catch (IOException ex) {
+            if (Debug.EnableError) {
+                Debug.println("Error in worker thread=" + loadReq.getThreadId());
+                Debug.println(ex);
+            }
+        }
+        finally {
+
+            // Close the bundle and output file
+            if (bundleFile != null) {
+                try {
+                    bundleFile.close();
+                }
+                catch (IOException ex) {
+                }
+            }
+
+            if (outFile != null) {
+                try {
+                    outFile.close();
+                }
+                catch (IOException ex) {
+                    Debug.println(ex);
+                }
+            }
+        }
+
+        // Return the load file status
+        return loadSts;
+    }
+
     /**
      * Store a file
      *
@@ -1307,6 +1586,79 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
     protected final int storeMultipleFile(MultipleFileRequest saveReq)
             throws Exception {
 
+        // Pack all temporary files into a small file bundle, or a Jar file
+        File jarFile = null;
+
+        if (hasJarFormat())
+            jarFile = createJarFile(saveReq);
+        else
+            jarFile = createSmallFileBundle(saveReq);
+
+        // Write the Jar file to the database
+        int saveSts = StsRequeue;
+
+        try {
+
+            // Create a list of the files/streams contained in the Jar file
+            DBDataDetailsList fileList = new DBDataDetailsList();
+
+            for (int i = 0; i < saveReq.getNumberOfFiles(); i++) {
+
+                // Get the current cached file
+                CachedFileInfo finfo = saveReq.getFileInfo(i);
+
+                // Add details of the file/stream to the Jar file list
+                fileList.addFile(new DBDataDetails(finfo.getFileId(), finfo.getStreamId()));
+            }
+
+            // Save the bundle/Jar file data to the database
+            getDBDataInterface().saveJarData(jarFile.getAbsolutePath(), fileList);
+
+            // Indicate that the database update was successful
+            saveSts = StsSuccess;
+
+            // Delete the temporary Jar file
+            if (hasKeepJars() == false)
+                jarFile.delete();
+
+            // Update the file segment state for all files in the transaction
+            for (int i = 0; i < saveReq.getNumberOfFiles(); i++) {
+
+                // Get the current cached file
+                CachedFileInfo finfo = saveReq.getFileInfo(i);
+
+                // Clear the cached file state
+                if (finfo.hasFileState()) {
+                    FileSegmentInfo fileSegInfo = (FileSegmentInfo) finfo.getFileState().findAttribute(DBFileSegmentInfo);
+                    if (fileSegInfo != null) {
+                        fileSegInfo.setQueued(false);
+                        fileSegInfo.setUpdated(false);
+                        fileSegInfo.setStatus(FileSegmentInfo.Saved);
+                    }
+                }
+            }
+        }
+        catch (DBException ex) {
+            Debug.println(ex);
+        }
+        catch (IOException ex) {
+            Debug.println(ex);
+        }
+
+        // Return the data save status
+        return saveSts;
+    }
+
+    /**
+     * Create a Jar file containing the temporary files of a multiple file request
+     *
+     * @param saveReq MultipleFileRequest
+     * @return File
+     * @throws Exception Error creating the Jar file
+     */
+    protected final File createJarFile(MultipleFileRequest saveReq)
+            throws Exception {
+
         // Create the Jar file and pack all temporary files
         File jarFile = null;
         JarOutputStream outJar = null;
@@ -1399,59 +1751,73 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
             }
         }
 
-        // Write the Jar file to the database
-        int saveSts = StsRequeue;
+        // Return the Jar file
+        return jarFile;
+    }
 
-        try {
+    /**
+     * Create a small file bundle containing the temporary files of a multiple file request
+     *
+     * @param saveReq MultipleFileRequest
+     * @return File
+     * @throws Exception Error creating the bundle file
+     */
+    protected final File createSmallFileBundle(MultipleFileRequest saveReq)
+            throws Exception {
 
-            // Create a list of the files/streams contained in the Jar file
-            DBDataDetailsList fileList = new DBDataDetailsList();
+        // Create the bundle file in the temporary cache area
+        File bundleFile = File.createTempFile("JAR_", ".jfb", getCurrentTempDirectory());
+        SmallFileBundleWriter bundle = new SmallFileBundleWriter(bundleFile, getJarCompressionLevel());
+
+        try {
 
+            // Write each temporary file to the bundle
             for (int i = 0; i < saveReq.getNumberOfFiles(); i++) {
 
-                // Get the current cached file
+                // Get the current temporary file
                 CachedFileInfo finfo = saveReq.getFileInfo(i);
+                FileState fstate = finfo.getFileState();
 
-                // Add details of the file/stream to the Jar file list
-                fileList.addFile(new DBDataDetails(finfo.getFileId(), finfo.getStreamId()));
-            }
-
-            // Save the Jar file data to the database
-            getDBDataInterface().saveJarData(jarFile.getAbsolutePath(), fileList);
-
-            // Indicate that the database update was successful
-            saveSts = StsSuccess;
+                // DEBUG
+                if (Debug.EnableInfo && hasDebug())
+                    Debug.println("DBFileLoader createSmallFileBundle() info=" + finfo + ", fstate=" + fstate);
 
-            // Delete the temporary Jar file
-            if (hasKeepJars() == false)
-                jarFile.delete();
+                if (fstate != null && fstate.fileExists() == true) {
 
-            // Update the file segment state for all files in the transaction
-            for (int i = 0; i < saveReq.getNumberOfFiles(); i++) {
+                    try {
 
-                // Get the current cached file
-                CachedFileInfo finfo = saveReq.getFileInfo(i);
+                        // Add the temporary file data to the bundle
+                        bundle.addFile(finfo.getFileId(), finfo.getStreamId(), new File(finfo.getTemporaryPath()));
+                    }
+                    catch (IOException ex) {
 
-                // Clear the cached file state
-                if (finfo.hasFileState()) {
-                    FileSegmentInfo fileSegInfo = (FileSegmentInfo) finfo.getFileState().findAttribute(DBFileSegmentInfo);
-                    if (fileSegInfo != null) {
-                        fileSegInfo.setQueued(false);
-                        fileSegInfo.setUpdated(false);
-                        fileSegInfo.setStatus(FileSegmentInfo.Saved);
+                        // DEBUG
+                        if (Debug.EnableError && hasDebug()) {
+                            Debug.println("Failed to store " + finfo.getTemporaryPath());
+                            Debug.println(ex);
+                        }
                     }
+                } else if (Debug.EnableInfo && hasDebug()) {
+
+                    // DEBUG
+                    Debug.println("## DBFileLoader createSmallFileBundle() ignored file " + finfo.getTemporaryPath()
+                            + ", exists=false");
                 }
             }
+
+            // Write the bundle index
+            bundle.close();
+            bundle = null;
         }
-        catch (DBException ex) {
-            Debug.println(ex);
-        }
-        catch (IOException ex) {
-            Debug.println(ex);
+        finally {
+
+            // Close the bundle file if an error occurred
+            if (bundle != null)
+                bundle.abort();
         }
 
-        // Return the data save status
-        return saveSts;
+        // Return the bundle file
+        return bundleFile;
     }
 
     /**
@@ -1556,6 +1922,13 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
         } else
             m_tempMax = MaximumFilesPerSubDir;
 
+        // Check if the size bounded temporary file cache is enabled
+        ConfigElement tempCache = params.getChild("TempFileCache");
+        if (tempCache != null) {
+            m_tempCache = TempFileCache.createCache(tempCache, DBFileSegmentInfo);
+            m_tempCache.setDebug(hasDebug());
+        }
+
         // Check if transaction support should be enabled. If enabled small files are bundled
         // together into a single
         // file request for special processing by the file loader storeFile() method.
@@ -1715,6 +2088,18 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
             }
         }
 
+        // Check if the small file bundle format has been specified, new bundles use the small file bundle format
+        // by default, existing Jar bundles can always be read
+        nv = params.getChild("SmallFileFormat");
+        if (nv != null && nv.getValue() != null) {
+            if (nv.getValue().equalsIgnoreCase("Jar"))
+                m_jarFormat = true;
+            else if (nv.getValue().equalsIgnoreCase("Bundle"))
+                m_jarFormat = false;
+            else
+                throw new FileLoaderException("Invalid SmallFileFormat, " + nv.getValue() + ", valid values are Bundle or Jar");
+        }
+
         // Check if the database interface being used supports the required features
         if (ctx instanceof DBDeviceContext) {
 
@@ -1791,6 +2176,10 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
                 Debug.println(ex);
         }
 
+        // Load the temporary file cache index, files cached before the server was shutdown are used again
+        if (m_tempCache != null)
+            m_tempCache.loadIndex(m_tempDir);
+
         // Check if there are any file save requests pending in the queue database
         FileRequestQueue saveQueue = new FileRequestQueue();
 
@@ -1834,6 +2223,10 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
         if (m_backgroundLoader != null)
             m_backgroundLoader.shutdownThreads();
 
+        // Save the temporary file cache index so the cached files can be used after a restart
+        if (m_tempCache != null)
+            m_tempCache.saveIndex();
+
         // Shutdown the transaction timer thread, if active
         if (m_transTimer != null)
             m_transTimer.shutdownRequest();
@@ -2057,20 +2450,23 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
                     // be loaded again if required.
                     if (segInfo.hasStatus() != FileSegmentInfo.Initial) {
 
-                        // Delete the temporary file
-                        try {
-                            segInfo.deleteTemporaryFile();
-                        }
-                        catch (IOException ex) {
-
-                            // DEBUG
-                            if (Debug.EnableError) {
-                                Debug.println("Delete temp file error: " + ex.toString());
-                                File tempFile = new File(segInfo.getTemporaryFile());
-                                Debug.println("  TempFile file=" + tempFile.getAbsolutePath() + ", exists=" + tempFile.exists());
-                                Debug.println("  FileState state=" + state);
-                                Debug.println("  FileSegmentInfo segInfo=" + segInfo);
-                                Debug.println("  StateCache size=" + m_stateCache.numberOfStates());
+                        // Keep the temporary file in the temporary file cache if the file data is clean, else delete
+                        // the temporary file
+                        if (m_tempCache == null || m_tempCache.detachFile(segInfo, state) == false) {
+                            try {
+                                segInfo.deleteTemporaryFile();
+                            }
+                            catch (IOException ex) {
+
+                                // DEBUG
+                                if (Debug.EnableError) {
+                                    Debug.println("Delete temp file error: " + ex.toString());
+                                    File tempFile = new File(segInfo.getTemporaryFile());
+                                    Debug.println("  TempFile file=" + tempFile.getAbsolutePath() + ", exists=" + tempFile.exists());
+                                    Debug.println("  FileState state=" + state);
+                                    Debug.println("  FileSegmentInfo segInfo=" + segInfo);
+                                    Debug.println("  StateCache size=" + m_stateCache.numberOfStates());
+                                }
                             }
                         }
 
@@ -2144,7 +2540,8 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
         // Check if the file state has an associated file
         FileSegmentInfo segInfo = (FileSegmentInfo) state.findAttribute(DBFileSegmentInfo);
 
-        if (segInfo != null && segInfo.isQueued() == false && segInfo.hasStatus() != FileSegmentInfo.SaveWait) {
+        if (segInfo != null && segInfo.isQueued() == false && segInfo.hasStatus() != FileSegmentInfo.SaveWait &&
+                (m_tempCache == null || m_tempCache.isCachedFile(segInfo) == false)) {
 
             try {
 
@@ -2208,10 +2605,21 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
 
                 tempName.append(".tmp");
 
-                // Create a new file segment
-                fileSegInfo = new FileSegmentInfo();
-                fileSeg = FileSegment.createSegment(fileSegInfo, tempName.toString(), m_curTempDir,
-                        params.isReadOnlyAccess() == false);
+                // Check if the temporary file cache has valid data for the file
+                if (m_tempCache != null)
+                    fileSegInfo = m_tempCache.reuseFile(fid, stid, state, new File(m_curTempDir, tempName.toString()));
+
+                if (fileSegInfo != null) {
+
+                    // Use the cached file data
+                    fileSeg = new FileSegment(fileSegInfo, params.isReadOnlyAccess() == false);
+                } else {
+
+                    // Create a new file segment
+                    fileSegInfo = new FileSegmentInfo();
+                    fileSeg = FileSegment.createSegment(fileSegInfo, tempName.toString(), m_curTempDir,
+                            params.isReadOnlyAccess() == false);
+                }
 
                 // Add the segment to the file state cache
                 state.addAttribute(DBFileSegmentInfo, fileSegInfo);
@@ -2226,6 +2634,10 @@ public class DBFileLoader implements FileLoader, BackgroundFileLoader, FileState
                 // Create the file segment to map to the existing temporary file
                 fileSeg = new FileSegment(fileSegInfo, params.isReadOnlyAccess() == false);
 
+                // Update the temporary file cache access details
+                if (m_tempCache != null)
+                    m_tempCache.accessFile(fileSegInfo);
+
                 // Check if the temporary file exists, if not then create it
                 File tempFile = new File(fileSeg.getTemporaryFile());
                 if (tempFile.exists() == false) {
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.db;
+
+import org.filesys.server.filesys.FileInfo;
+
+/**
+ * Database File Update Class
+ *
+ * <p>Contains the details of a file information update for a file record, used by batched updates.
+ *
+ * @author gkspencer
+ */
+public class DBFileUpdate {
+
+    // Set file information flags that may be merged with a later update
+    public static final int MergeableFlags = FileInfo.SetFileSize + FileInfo.SetAllocationSize + FileInfo.SetModifyDate +
+            FileInfo.SetCreationDate + FileInfo.SetAccessDate + FileInfo.SetChangeDate;
+
+    // Directory id and file id
+    private int m_dirId;
+    private int m_fileId;
+
+    // File information to be set
+    private FileInfo m_info;
+
+    // Number of times the update could not be written
+    private int m_failCount;
+
+    /**
+     * Class constructor
+     *
+     * @param dirId int
+     * @param fid   int
+     * @param info  FileInfo
+     */
+    public DBFileUpdate(int dirId, int fid, FileInfo info) {
+        m_dirId = dirId;
+        m_fileId = fid;
+        m_info = info;
+    }
+
+    /**
+     * Return the directory id
+     *
+     * @return int
+     */
+    public final int getDirectoryId() {
+        return m_dirId;
+    }
+
+    /**
+     * Return the file id
+     *
+     * @return int
+     */
+    public final int getFileId() {
+        return m_fileId;
+    }
+
+    /**
+     * Return the file information to be set
+     *
+     * @return FileInfo
+     */
+    public final FileInfo getFileInformation() {
+        return m_info;
+    }
+
+    /**
+     * Return the number of times the update could not be written
+     *
+     * @return int
+     */
+    public final int getFailCount() {
+        return m_failCount;
+    }
+
+    /**
+     * Increment the count of times the update could not be written, returns the new count
+     *
+     * @return int
+     */
+    public final int incrementFailCount() {
+        return ++m_failCount;
+    }
+
+    /**
+     * Check if a file information update can be merged with other updates
+     *
+     * @param info FileInfo
+     * @return boolean
+     */
+    public static boolean isMergeable(FileInfo info) {
+        int flags = info.getSetFileInformationFlags();
+        return flags != 0 && (flags & ~MergeableFlags) == 0;
+    }
+
+    /**
+     * Merge a later file information update into this update, the later values replace any existing values
+     *
+     * @param info FileInfo
+     */
+    public final void mergeUpdate(FileInfo info) {
+        mergeValues(info, m_info, true);
+    }
+
+    /**
+     * Merge an earlier file information update into this update, only values that are not already set are
+     * copied
+     *
+     * @param info FileInfo
+     */
+    public final void mergeEarlierUpdate(FileInfo info) {
+        mergeValues(info, m_info, false);
+    }
+
+    /**
+     * Apply the update to file information loaded from the database
+     *
+     * @param finfo FileInfo
+     */
+    public final void applyTo(FileInfo finfo) {
+        int flags = m_info.getSetFileInformationFlags();
+
+        if ((flags & FileInfo.SetFileSize) != 0)
+            finfo.setFileSize(m_info.getSize());
+        if ((flags & FileInfo.SetAllocationSize) != 0)
+            finfo.setAllocationSize(m_info.getAllocationSize());
+        if ((flags & FileInfo.SetModifyDate) != 0)
+            finfo.setModifyDateTime(m_info.getModifyDateTime());
+        if ((flags & FileInfo.SetCreationDate) != 0)
+            finfo.setCreationDateTime(m_info.getCreationDateTime());
+        if ((flags & FileInfo.SetAccessDate) != 0)
+            finfo.setAccessDateTime(m_info.getAccessDateTime());
+        if ((flags & FileInfo.SetChangeDate) != 0)
+            finfo.setChangeDateTime(m_info.getChangeDateTime());
+    }
+
+    /**
+     * Copy the size and date/time values set in one file information update to another
+     *
+     * @param from    FileInfo
+     * @param to      FileInfo
+     * @param replace boolean
+     */
+    private static void mergeValues(FileInfo from, FileInfo to, boolean replace) {
+
+        int fromFlags = from.getSetFileInformationFlags() & MergeableFlags;
+        int toFlags = to.getSetFileInformationFlags();
+
+        // Only copy values that are not already set, unless replacing
+        if (replace == false)
+            fromFlags &= ~toFlags;
+
+        if ((fromFlags & FileInfo.SetFileSize) != 0)
+            to.setFileSize(from.getSize());
+        if ((fromFlags & FileInfo.SetAllocationSize) != 0)
+            to.setAllocationSize(from.getAllocationSize());
+        if ((fromFlags & FileInfo.SetModifyDate) != 0)
+            to.setModifyDateTime(from.getModifyDateTime());
+        if ((fromFlags & FileInfo.SetCreationDate) != 0)
+            to.setCreationDateTime(from.getCreationDateTime());
+        if ((fromFlags & FileInfo.SetAccessDate) != 0)
+            to.setAccessDateTime(from.getAccessDateTime());
+        if ((fromFlags & FileInfo.SetChangeDate) != 0)
+            to.setChangeDateTime(from.getChangeDateTime());
+
+        to.setFileInformationFlags(toFlags | fromFlags);
+    }
+
+    /**
+     * Return the file update as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[did=");
+        str.append(getDirectoryId());
+        str.append(",fid=");
+        str.append(getFileId());
+        str.append(",flags=");
+        str.append(getFileInformation().getSetFileInformationFlagsString());
+        str.append("]");
+
+        return str.toString();
+    }
+}
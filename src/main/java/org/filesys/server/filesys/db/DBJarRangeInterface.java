@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.db;
+
+import java.io.IOException;
+
+/**
+ * Database Jar Data Range Interface
+ *
+ * <p>Optional interface implemented by a database data interface that can load a byte range of the data
+ * for a Jar file, allowing a single file to be read from a small file bundle without loading the whole bundle.
+ *
+ * @author gkspencer
+ */
+public interface DBJarRangeInterface {
+
+    /**
+     * Return the length of the data stored for the specified Jar file
+     *
+     * @param jarId int
+     * @return long
+     * @exception DBException Database error
+     * @exception IOException I/O error
+     */
+    public long getJarDataLength(int jarId)
+            throws DBException, IOException;
+
+    /**
+     * Load a byte range of the data stored for the specified Jar file into the buffer
+     *
+     * @param jarId  int
+     * @param jarOff long
+     * @param buf    byte[]
+     * @param bufOff int
+     * @param len    int
+     * @exception DBException Database error
+     * @exception IOException I/O error
+     */
+    public void loadJarDataRange(int jarId, long jarOff, byte[] buf, int bufOff, int len)
+            throws DBException, IOException;
+}
@@ -0,0 +1,568 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.filesys.debug.Debug;
+import org.filesys.server.core.DeviceContextException;
+import org.filesys.server.filesys.FileInfo;
+import org.springframework.extensions.config.ConfigElement;
+
+/**
+ * Database Update Coalescer Class
+ *
+ * <p>Write-behind queue for file size and date/time updates to the file records. Updates for the same file
+ * within the flush interval are merged into a single update, and the queued updates are written using a
+ * batch if the database interface implements the {@link DBBatchInterface} interface.
+ *
+ * <p>File information loaded from the database has any queued updates applied, and other updates for a file
+ * are written after any queued update for the file, so that the queued updates are not visible to clients.
+ *
+ * <p>Updates that fail to write are requeued individually. An update that fails {@link #MaxWriteFailures} times
+ * while the database is online is discarded, so that a bad record cannot be retried forever, updates are kept
+ * while the database is offline.
+ *
+ * @author gkspencer
+ */
+public class DBUpdateCoalescer implements Runnable {
+
+    // Default, minimum and maximum flush interval
+    public static final long DefaultInterval    = 250L;     // milliseconds
+    public static final long MinimumInterval    = 10L;      // "
+    public static final long MaximumInterval    = 10000L;   // "
+
+    // Default and minimum number of pending updates before the queue is flushed
+    public static final int DefaultMaxPending   = 10000;
+    public static final int MinimumMaxPending   = 100;
+
+    // Number of times an update can fail to write, while the database is online, before it is discarded
+    public static final int MaxWriteFailures    = 10;
+
+    // Database interface
+    private DBInterface m_dbInterface;
+
+    // Flush interval and maximum pending updates
+    private long m_interval;
+    private int m_maxPending;
+
+    // Pending updates, indexed by file id
+    private LinkedHashMap<Integer, DBFileUpdate> m_pending = new LinkedHashMap<Integer, DBFileUpdate>();
+
+    // Updates being written by a flush, still applied to file information loaded from the database
+    private HashMap<Integer, DBFileUpdate> m_flushing;
+
+    // Lock used to keep updates in order, the queue is flushed with the write lock held, updates written
+    // directly hold the read lock
+    private ReentrantReadWriteLock m_flushLock = new ReentrantReadWriteLock();
+
+    // Flush thread, and shutdown flag
+    private Thread m_thread;
+    private volatile boolean m_shutdown;
+
+    // Update statistics
+    private long m_queuedCount;
+    private long m_mergedCount;
+    private long m_flushCount;
+    private long m_writeCount;
+    private long m_errorCount;
+
+    // Enable debug output
+    private boolean m_debug;
+
+    /**
+     * Class constructor
+     *
+     * @param dbInterface DBInterface
+     * @param interval    long
+     * @param maxPending  int
+     */
+    public DBUpdateCoalescer(DBInterface dbInterface, long interval, int maxPending) {
+        m_dbInterface = dbInterface;
+        m_interval = interval;
+        m_maxPending = maxPending;
+    }
+
+    /**
+     * Create an update coalescer using the configuration values
+     *
+     * @param dbInterface DBInterface
+     * @param config      ConfigElement
+     * @return DBUpdateCoalescer
+     * @exception DeviceContextException Invalid configuration
+     */
+    public static DBUpdateCoalescer createCoalescer(DBInterface dbInterface, ConfigElement config)
+        throws DeviceContextException {
+
+        // Get the flush interval
+        long interval = DefaultInterval;
+        String val = config.getAttribute("interval");
+
+        if (val != null && val.length() > 0) {
+            try {
+                interval = Long.parseLong(val);
+                if (interval < MinimumInterval || interval > MaximumInterval)
+                    throw new DeviceContextException("WriteBehind interval out of valid range (" + MinimumInterval + " - " +
+                            MaximumInterval + ")");
+            }
+            catch (NumberFormatException ex) {
+                throw new DeviceContextException("WriteBehind invalid interval, " + val);
+            }
+        }
+
+        // Get the maximum pending updates
+        int maxPending = DefaultMaxPending;
+        val = config.getAttribute("maxPending");
+
+        if (val != null && val.length() > 0) {
+            try {
+                maxPending = Integer.parseInt(val);
+                if (maxPending < MinimumMaxPending)
+                    throw new DeviceContextException("WriteBehind maxPending below minimum (" + MinimumMaxPending + ")");
+            }
+            catch (NumberFormatException ex) {
+                throw new DeviceContextException("WriteBehind invalid maxPending, " + val);
+            }
+        }
+
+        return new DBUpdateCoalescer(dbInterface, interval, maxPending);
+    }
+
+    /**
+     * Return the flush interval, in milliseconds
+     *
+     * @return long
+     */
+    public final long getInterval() {
+        return m_interval;
+    }
+
+    /**
+     * Return the maximum number of pending updates
+     *
+     * @return int
+     */
+    public final int getMaximumPending() {
+        return m_maxPending;
+    }
+
+    /**
+     * Return the number of updates queued
+     *
+     * @return long
+     */
+    public final synchronized long getQueuedCount() {
+        return m_queuedCount;
+    }
+
+    /**
+     * Return the number of updates merged with a pending update
+     *
+     * @return long
+     */
+    public final synchronized long getMergedCount() {
+        return m_mergedCount;
+    }
+
+    /**
+     * Return the number of times the pending updates have been written
+     *
+     * @return long
+     */
+    public final synchronized long getFlushCount() {
+        return m_flushCount;
+    }
+
+    /**
+     * Return the number of file records written
+     *
+     * @return long
+     */
+    public final synchronized long getWriteCount() {
+        return m_writeCount;
+    }
+
+    /**
+     * Return the number of updates that could not be written
+     *
+     * @return long
+     */
+    public final synchronized long getErrorCount() {
+        return m_errorCount;
+    }
+
+    /**
+     * Check if debug output is enabled
+     *
+     * @return boolean
+     */
+    public final boolean hasDebug() {
+        return m_debug;
+    }
+
+    /**
+     * Enable/disable debug output
+     *
+     * @param dbg boolean
+     */
+    public final void setDebug(boolean dbg) {
+        m_debug = dbg;
+    }
+
+    /**
+     * Check if there are pending updates
+     *
+     * @return boolean
+     */
+    public final boolean hasPendingUpdates() {
+        synchronized (m_pending) {
+            return m_pending.isEmpty() == false;
+        }
+    }
+
+    /**
+     * Set the file information for a file record. Size and date/time updates are queued, other updates are
+     * written to the database after any queued update for the file.
+     *
+     * @param dirId int
+     * @param fid   int
+     * @param finfo FileInfo
+     * @exception DBException Database error
+     */
+    public final void setFileInformation(int dirId, int fid, FileInfo finfo)
+        throws DBException {
+
+        // Check if the update can be queued
+        if (DBFileUpdate.isMergeable(finfo)) {
+
+            boolean flushNow = false;
+
+            synchronized (m_pending) {
+
+                // Merge with a pending update for the file, or queue a copy of the update
+                DBFileUpdate update = m_pending.get(fid);
+
+                if (update == null) {
+                    update = new DBFileUpdate(dirId, fid, new FileInfo());
+                    update.mergeUpdate(finfo);
+
+                    m_pending.put(fid, update);
+                } else {
+                    update.mergeUpdate(finfo);
+
+                    synchronized (this) {
+                        m_mergedCount++;
+                    }
+                }
+
+                synchronized (this) {
+                    m_queuedCount++;
+                }
+
+                flushNow = m_pending.size() >= m_maxPending;
+            }
+
+            // Write the pending updates if the queue is full
+            if (flushNow)
+                flush();
+            return;
+        }
+
+        // Write any pending update for the file, then the new update
+        m_flushLock.readLock().lock();
+
+        try {
+            writePendingUpdate(fid);
+            m_dbInterface.setFileInformation(dirId, fid, finfo);
+        }
+        finally {
+            m_flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write any pending update for a file, used before a file record is renamed or moved to the trash can
+     *
+     * @param fid int
+     * @exception DBException Database error
+     */
+    public final void flushFile(int fid)
+        throws DBException {
+
+        m_flushLock.readLock().lock();
+
+        try {
+            writePendingUpdate(fid);
+        }
+        finally {
+            m_flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Apply any pending update to file information loaded from the database
+     *
+     * @param fid   int
+     * @param finfo FileInfo
+     */
+    public final void applyPendingUpdate(int fid, FileInfo finfo) {
+        synchronized (m_pending) {
+
+            // Apply any update being written, then any newer pending update
+            DBFileUpdate update = m_flushing != null ? m_flushing.get(fid) : null;
+            if (update != null)
+                update.applyTo(finfo);
+
+            update = m_pending.get(fid);
+            if (update != null)
+                update.applyTo(finfo);
+        }
+    }
+
+    /**
+     * Discard any pending update for a file that is being deleted
+     *
+     * @param fid int
+     */
+    public final void removeFile(int fid) {
+        synchronized (m_pending) {
+            m_pending.remove(fid);
+        }
+    }
+
+    /**
+     * Write the pending updates to the database
+     *
+     * @return boolean
+     */
+    public final boolean flush() {
+
+        m_flushLock.writeLock().lock();
+
+        try {
+
+            // Get the pending updates
+            List<DBFileUpdate> updates = null;
+
+            synchronized (m_pending) {
+                if (m_pending.isEmpty())
+                    return true;
+
+                updates = new ArrayList<DBFileUpdate>(m_pending.values());
+                m_flushing = new HashMap<Integer, DBFileUpdate>(m_pending);
+                m_pending.clear();
+            }
+
+            try {
+
+                // Write the updates, as a batch if supported by the database interface
+                long startTime = System.currentTimeMillis();
+                List<DBFileUpdate> failedUpdates = null;
+
+                if (m_dbInterface instanceof DBBatchInterface)
+                    failedUpdates = ((DBBatchInterface) m_dbInterface).setFileInformationBatch(updates);
+                else {
+                    failedUpdates = new ArrayList<DBFileUpdate>();
+
+                    for (DBFileUpdate update : updates) {
+                        try {
+                            m_dbInterface.setFileInformation(update.getDirectoryId(), update.getFileId(), update.getFileInformation());
+                        }
+                        catch (DBException ex) {
+                            failedUpdates.add(update);
+                        }
+                    }
+                }
+
+                // Requeue the updates that could not be written, later updates take precedence. Only count the
+                // failure against the record if the database is online.
+                boolean recordError = failedUpdates.isEmpty() == false && m_dbInterface.isOnline();
+
+                for (DBFileUpdate update : failedUpdates)
+                    requeueUpdate(update, recordError);
+
+                synchronized (this) {
+                    m_flushCount++;
+                    m_writeCount += updates.size() - failedUpdates.size();
+                    m_errorCount += failedUpdates.size();
+                }
+
+                if (failedUpdates.isEmpty() == false) {
+
+                    // DEBUG
+                    if (Debug.EnableError && hasDebug())
+                        Debug.println("DBUpdateCoalescer failed to write " + failedUpdates.size() + " of " + updates.size() + " updates");
+                    return false;
+                }
+
+                // DEBUG
+                if (Debug.EnableInfo && hasDebug())
+                    Debug.println("DBUpdateCoalescer wrote " + updates.size() + " updates in " + (System.currentTimeMillis() - startTime) + "ms");
+
+                return true;
+            }
+            finally {
+
+                // Updates have been written, or requeued
+                synchronized (m_pending) {
+                    m_flushing = null;
+                }
+            }
+        }
+        finally {
+            m_flushLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Start the flush thread
+     *
+     * @param name String
+     */
+    public final void startCoalescer(String name) {
+        m_thread = new Thread(this);
+        m_thread.setName("DBWriteBehind_" + name);
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+
+    /**
+     * Stop the flush thread, and write the pending updates
+     */
+    public final void shutdownCoalescer() {
+
+        // Stop the flush thread
+        m_shutdown = true;
+
+        if (m_thread != null) {
+            m_thread.interrupt();
+
+            try {
+                m_thread.join(m_interval * 4);
+            }
+            catch (InterruptedException ex) {
+            }
+            m_thread = null;
+        }
+
+        // Write the pending updates
+        if (flush() == false && Debug.EnableError)
+            Debug.println("DBUpdateCoalescer failed to write pending updates at shutdown");
+    }
+
+    /**
+     * Flush thread
+     */
+    public void run() {
+
+        while (m_shutdown == false) {
+
+            // Wait for the flush interval
+            try {
+                Thread.sleep(m_interval);
+            }
+            catch (InterruptedException ex) {
+            }
+
+            // Write the pending updates
+            if (m_shutdown == false)
+                flush();
+        }
+    }
+
+    /**
+     * Write any pending update for a file, the caller must hold the flush read lock
+     *
+     * @param fid int
+     * @exception DBException Database error
+     */
+    private void writePendingUpdate(int fid)
+        throws DBException {
+
+        DBFileUpdate pending = null;
+
+        synchronized (m_pending) {
+            pending = m_pending.remove(fid);
+        }
+
+        if (pending != null) {
+            try {
+                m_dbInterface.setFileInformation(pending.getDirectoryId(), pending.getFileId(), pending.getFileInformation());
+            }
+            catch (DBException ex) {
+
+                // Requeue the pending update
+                requeueUpdate(pending, false);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Requeue an update that could not be written, any later update for the file takes precedence. The update
+     * is discarded if the failure is specific to the record and it has failed too many times.
+     *
+     * @param update      DBFileUpdate
+     * @param recordError boolean
+     */
+    private void requeueUpdate(DBFileUpdate update, boolean recordError) {
+
+        if (recordError && update.incrementFailCount() >= MaxWriteFailures) {
+
+            // DEBUG
+            if (Debug.EnableError)
+                Debug.println("DBUpdateCoalescer discarded update after " + update.getFailCount() + " failures, " + update);
+            return;
+        }
+
+        synchronized (m_pending) {
+            DBFileUpdate curUpdate = m_pending.get(update.getFileId());
+            if (curUpdate == null)
+                m_pending.put(update.getFileId(), update);
+            else
+                curUpdate.mergeEarlierUpdate(update.getFileInformation());
+        }
+    }
+
+    /**
+     * Return the update coalescer details as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[Interval=");
+        str.append(getInterval());
+        str.append("ms,maxPending=");
+        str.append(getMaximumPending());
+        str.append(",queued=");
+        str.append(getQueuedCount());
+        str.append(",merged=");
+        str.append(getMergedCount());
+        str.append(",written=");
+        str.append(getWriteCount());
+        str.append("]");
+
+        return str.toString();
+    }
+}
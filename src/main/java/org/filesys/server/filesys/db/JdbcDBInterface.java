@@ -20,8 +20,12 @@
 package org.filesys.server.filesys.db;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.filesys.debug.Debug;
 import org.filesys.server.config.InvalidConfigurationException;
@@ -42,9 +46,13 @@ import org.springframework.extensions.config.ConfigElement;
  * <p>Provides the standard variables for a JDBC based database interface, including the parsing of the
  * parameters in the initialization method.
  *
+ * <p>Batched file information updates and file record deletes are executed as a single JDBC batch for the
+ * records that the implementation adds to the batch statement, any other records are updated/deleted
+ * individually.
+ *
  * @author gkspencer
  */
-public abstract class JdbcDBInterface implements DBInterface, DBConnectionPoolListener {
+public abstract class JdbcDBInterface implements DBInterface, DBBatchInterface, DBConnectionPoolListener {
 
     //	Constants
     //
@@ -926,20 +934,24 @@ public abstract class JdbcDBInterface implements DBInterface, DBConnectionPoolLi
 
                 // Get the list of files to be deleted
                 FileRequestQueue deleteList = m_dbCtx.getOfflineFileDeletes(true);
+                List<DeleteFileRequest> fileDeletes = new ArrayList<DeleteFileRequest>();
 
-                for (int i = 0; i < deleteList.numberOfRequests(); i++) {
+                while (deleteList.numberOfRequests() > 0) {
 
                     //  Get the current delete file request
                     DeleteFileRequest deleteReq = (DeleteFileRequest) deleteList.removeRequestNoWait();
 
-                    //  Delete the file record from the database
+                    //  File record deletes are batched, delete streams individually
+                    if (deleteReq.getStreamId() == 0) {
+                        fileDeletes.add(deleteReq);
+                        continue;
+                    }
+
+                    //  Delete the stream record from the database
                     try {
 
-                        // Check if the delete is for a file or stream
-                        if (deleteReq.getStreamId() == 0)
-                            deleteFileRecord(-1, deleteReq.getFileId(), m_dbCtx.isTrashCanEnabled());
-                        else
-                            deleteStreamRecord(deleteReq.getFileId(), deleteReq.getStreamId(), m_dbCtx.isTrashCanEnabled());
+                        // Delete the stream
+                        deleteStreamRecord(deleteReq.getFileId(), deleteReq.getStreamId(), m_dbCtx.isTrashCanEnabled());
 
                         // Remove the file state for the file/stream
                         m_dbCtx.getStateCache().removeFileState(deleteReq.getFileState().getPath());
@@ -951,8 +963,49 @@ public abstract class JdbcDBInterface implements DBInterface, DBConnectionPoolLi
                     catch (Exception ex) {
 
                         //  Requeue the delete file request
+                        m_dbCtx.addOfflineFileDelete(deleteReq);
+                    }
+                }
+
+                //  Delete the file records as a batch
+                if (fileDeletes.size() > 0) {
+
+                    int[] dirIds = new int[fileDeletes.size()];
+                    int[] fids = new int[fileDeletes.size()];
+
+                    for (int i = 0; i < fids.length; i++) {
+                        dirIds[i] = -1;
+                        fids[i] = fileDeletes.get(i).getFileId();
+                    }
+
+                    //  Delete the file records from the database, get the list of records that could not be deleted
+                    List<Integer> failedDeletes = deleteFileRecordBatch(dirIds, fids, m_dbCtx.isTrashCanEnabled());
+                    boolean[] failed = new boolean[fids.length];
+
+                    for (Integer idx : failedDeletes)
+                        failed[idx] = true;
+
+                    for (int i = 0; i < fids.length; i++) {
+                        DeleteFileRequest deleteReq = fileDeletes.get(i);
+
+                        if (failed[i]) {
+
+                            //  Requeue the delete file request
+                            m_dbCtx.addOfflineFileDelete(deleteReq);
+                        }
+                        else {
 
-                        // TODO:
+                            //  Remove the file state for the file
+                            m_dbCtx.getStateCache().removeFileState(deleteReq.getFileState().getPath());
+
+                            //  Discard any queued update for the file, unless the record has been moved to the trash can
+                            if (m_dbCtx.hasUpdateCoalescer() && m_dbCtx.isTrashCanEnabled() == false)
+                                m_dbCtx.getUpdateCoalescer().removeFile(deleteReq.getFileId());
+
+                            // DEBUG
+                            if (hasDebug())
+                                Debug.println("JDBCInterface: Offline delete of file " + deleteReq.getVirtualPath() + ", fid=" + deleteReq.getFileId());
+                        }
                     }
                 }
             }
@@ -1115,4 +1168,237 @@ public abstract class JdbcDBInterface implements DBInterface, DBConnectionPoolLi
         //	Indicate that the feature is not implemented
         throw new DBException("Feature not implemented");
     }
+
+    /**
+     * Set the file information for a batch of file records. File records that are added to the batch
+     * statement by the implementation are updated using a single JDBC batch, any other records, or all
+     * records if the batch fails, are updated individually.
+     *
+     * @param updates List&lt;DBFileUpdate&gt;
+     * @return List&lt;DBFileUpdate&gt;
+     */
+    public List<DBFileUpdate> setFileInformationBatch(List<DBFileUpdate> updates) {
+
+        //  Add the updates to the batch
+        List<DBFileUpdate> singleUpdates = new ArrayList<DBFileUpdate>();
+        Connection conn = null;
+        Statement stmt = null;
+
+        try {
+
+            //  Get a connection to the database, and create the batch statement
+            conn = getConnection();
+            stmt = conn.createStatement();
+
+            int batchCnt = 0;
+
+            for (DBFileUpdate update : updates) {
+
+                if (addFileInformationBatch(stmt, update))
+                    batchCnt++;
+                else
+                    singleUpdates.add(update);
+            }
+
+            //  Run the batch
+            if (batchCnt > 0)
+                executeBatch(conn, stmt, batchCnt);
+        }
+        catch (SQLException ex) {
+
+            // DEBUG
+            if (hasDebug())
+                Debug.println("JDBCInterface: Batch set file information error, updating individually, " + ex.getMessage());
+
+            //  The batch has been rolled back, update all of the records individually
+            singleUpdates.clear();
+            singleUpdates.addAll(updates);
+        }
+        finally {
+
+            //  Close the statement, release the database connection
+            closeBatch(conn, stmt);
+        }
+
+        //  Update any records that could not be batched, and build the list of updates that could not be written
+        List<DBFileUpdate> failedUpdates = new ArrayList<DBFileUpdate>();
+
+        for (DBFileUpdate update : singleUpdates) {
+            try {
+                setFileInformation(update.getDirectoryId(), update.getFileId(), update.getFileInformation());
+            }
+            catch (Exception ex) {
+                failedUpdates.add(update);
+
+                // DEBUG
+                if (hasDebug())
+                    Debug.println("JDBCInterface: Set file information error, fid=" + update.getFileId() + ", " + ex.getMessage());
+            }
+        }
+
+        return failedUpdates;
+    }
+
+    /**
+     * Delete a batch of file records. File records that are added to the batch statement by the implementation
+     * are deleted using a single JDBC batch, any other records, or all records if the batch fails, are deleted
+     * individually.
+     *
+     * @param dirIds   int[]
+     * @param fids     int[]
+     * @param markOnly boolean
+     * @return List&lt;Integer&gt;
+     */
+    public List<Integer> deleteFileRecordBatch(int[] dirIds, int[] fids, boolean markOnly) {
+
+        //  Add the deletes to the batch
+        List<Integer> singleDeletes = new ArrayList<Integer>();
+        Connection conn = null;
+        Statement stmt = null;
+
+        try {
+
+            //  Get a connection to the database, and create the batch statement
+            conn = getConnection();
+            stmt = conn.createStatement();
+
+            int batchCnt = 0;
+
+            for (int i = 0; i < fids.length; i++) {
+
+                if (addDeleteFileRecordBatch(stmt, dirIds[i], fids[i], markOnly))
+                    batchCnt++;
+                else
+                    singleDeletes.add(i);
+            }
+
+            //  Run the batch
+            if (batchCnt > 0)
+                executeBatch(conn, stmt, batchCnt);
+        }
+        catch (SQLException ex) {
+
+            // DEBUG
+            if (hasDebug())
+                Debug.println("JDBCInterface: Batch delete file record error, deleting individually, " + ex.getMessage());
+
+            //  The batch has been rolled back, delete all of the records individually
+            singleDeletes.clear();
+
+            for (int i = 0; i < fids.length; i++)
+                singleDeletes.add(i);
+        }
+        finally {
+
+            //  Close the statement, release the database connection
+            closeBatch(conn, stmt);
+        }
+
+        //  Delete any records that could not be batched, and build the list of records that could not be deleted
+        List<Integer> failedDeletes = new ArrayList<Integer>();
+
+        for (Integer idx : singleDeletes) {
+            try {
+                deleteFileRecord(dirIds[idx], fids[idx], markOnly);
+            }
+            catch (Exception ex) {
+                failedDeletes.add(idx);
+
+                // DEBUG
+                if (hasDebug())
+                    Debug.println("JDBCInterface: Delete file record error, fid=" + fids[idx] + ", " + ex.getMessage());
+            }
+        }
+
+        return failedDeletes;
+    }
+
+    /**
+     * Add the SQL to set the file information for a file record to a batch statement, using
+     * Statement.addBatch(). Returns false if the file information update cannot be batched, the default
+     * implementation does not batch updates.
+     *
+     * @param stmt   Statement
+     * @param update DBFileUpdate
+     * @return boolean
+     * @throws SQLException SQL error
+     */
+    protected boolean addFileInformationBatch(Statement stmt, DBFileUpdate update)
+            throws SQLException {
+        return false;
+    }
+
+    /**
+     * Add the SQL to delete a file record to a batch statement, using Statement.addBatch(). Returns false if the
+     * file record delete cannot be batched, the default implementation does not batch deletes.
+     *
+     * @param stmt     Statement
+     * @param dirId    int
+     * @param fid      int
+     * @param markOnly boolean
+     * @return boolean
+     * @throws SQLException SQL error
+     */
+    protected boolean addDeleteFileRecordBatch(Statement stmt, int dirId, int fid, boolean markOnly)
+            throws SQLException {
+        return false;
+    }
+
+    /**
+     * Run a batch statement as a single transaction
+     *
+     * @param conn     Connection
+     * @param stmt     Statement
+     * @param batchCnt int
+     * @throws SQLException SQL error
+     */
+    private void executeBatch(Connection conn, Statement stmt, int batchCnt)
+            throws SQLException {
+
+        //  Run the batch as a single transaction
+        boolean autoCommit = conn.getAutoCommit();
+        long startTime = System.currentTimeMillis();
+
+        try {
+            if (autoCommit)
+                conn.setAutoCommit(false);
+
+            stmt.executeBatch();
+            conn.commit();
+        }
+        catch (SQLException ex) {
+            conn.rollback();
+            throw ex;
+        }
+        finally {
+            if (autoCommit)
+                conn.setAutoCommit(true);
+        }
+
+        // DEBUG
+        if (hasSQLDebug())
+            Debug.println("JDBCInterface: Executed batch, records=" + batchCnt + ", in " + (System.currentTimeMillis() - startTime) + "ms");
+    }
+
+    /**
+     * Close a batch statement and release the database connection
+     *
+     * @param conn Connection
+     * @param stmt Statement
+     */
+    private void closeBatch(Connection conn, Statement stmt) {
+
+        //  Close the statement
+        if (stmt != null) {
+            try {
+                stmt.close();
+            }
+            catch (SQLException ex) {
+            }
+        }
+
+        //  Release the database connection
+        if (conn != null)
+            releaseConnection(conn);
+    }
 }
@@ -48,6 +48,8 @@ import org.filesys.server.filesys.loader.FileRequestQueue;
 import org.filesys.server.filesys.loader.FileSegment;
 import org.filesys.server.filesys.loader.FileSegmentInfo;
 import org.filesys.server.filesys.loader.SingleFileRequest;
+import org.filesys.server.filesys.loader.SparseFileLoader;
+import org.filesys.server.filesys.loader.TempFileCache;
 import org.filesys.util.NameValue;
 import org.filesys.util.NameValueList;
 import org.filesys.util.StringList;
@@ -65,7 +67,7 @@ import org.springframework.extensions.config.ConfigElement;
  *
  * @author gkspencer
  */
-public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLoader, FileStateListener {
+public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLoader, FileStateListener, SparseFileLoader {
 
     // Status codes returned from the load/save worker thread processing
     public final static int StsSuccess  = 0;
@@ -145,6 +147,9 @@ public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLo
     private int m_tempCount;
     private int m_tempMax;
 
+    // Size bounded temporary file cache, optional
+    private TempFileCache m_tempCache;
+
     // List of file processors that process cached files before storing and after loading.
     private FileProcessorList m_fileProcessors;
 
@@ -312,6 +317,15 @@ public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLo
         return m_tempFilePrefix;
     }
 
+    /**
+     * Return the temporary file cache, or null if not configured
+     *
+     * @return TempFileCache
+     */
+    public final TempFileCache getTempFileCache() {
+        return m_tempCache;
+    }
+
     /**
      * Set the worker thread name prefix
      *
@@ -549,6 +563,8 @@ public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLo
                         fileSegInfo.setStatus(FileSegmentInfo.Initial);
 
                         // Delete the temporary file
+                        if (m_tempCache != null)
+                            m_tempCache.removeFile(fileSegInfo);
                         fileSegInfo.deleteTemporaryFile();
                     }
                     catch (Exception ex) {
@@ -634,8 +650,11 @@ public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLo
 
             if (objectId != null) {
 
-                // Load the file data
-                loadFileData(fileId, strmId, objectId, fileSeg);
+                // Load the file data, in the order requested by readers if the file is being loaded sparsely
+                if (fileSeg.isSparseLoad())
+                    loadSparseFileData(fileId, strmId, objectId, fileSeg);
+                else
+                    loadFileData(fileId, strmId, objectId, fileSeg);
 
                 // Set the load status
                 loadSts = StsSuccess;
@@ -707,6 +726,10 @@ public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLo
 
             // Run the file load processors
             runFileLoadedProcessors(getContext(), loadReq.getFileState(), fileSeg);
+
+            // Add the loaded file to the temporary file cache
+            if (m_tempCache != null)
+                m_tempCache.addFile(fileId, strmId, fileSeg.getInfo(), loadReq.getFileState());
         } else if (loadSts == StsError) {
 
             // Set the file status to indicate error to any client reading threads
@@ -717,6 +740,8 @@ public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLo
             fileSeg.signalDataAvailable();
 
             // Delete the temporary file
+            if (m_tempCache != null)
+                m_tempCache.removeFile(fileSeg.getInfo());
             fileSeg.deleteTemporaryFile();
         }
 
@@ -812,6 +837,60 @@ public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLo
     public abstract void loadFileData(int fileId, int streamId, String objectId, FileSegment fileSeg)
             throws IOException;
 
+    /**
+     * Check if the file loader supports sparse loading of file data, the default implementation does not. A file
+     * loader that can load byte ranges of the file data should override this method and loadFileDataRange().
+     *
+     * @return boolean
+     */
+    public boolean supportsSparseLoad() {
+        return false;
+    }
+
+    /**
+     * Load a byte range of the file data, the data should be written using FileSegment.writeLoadedBytes()
+     *
+     * @param fileId   int
+     * @param streamId int
+     * @param objectId String
+     * @param fileSeg  FileSegment
+     * @param fileOff  long
+     * @param len      long
+     * @exception IOException I/O error
+     */
+    public void loadFileDataRange(int fileId, int streamId, String objectId, FileSegment fileSeg, long fileOff, long len)
+            throws IOException {
+        throw new IOException("Sparse file load not supported");
+    }
+
+    /**
+     * Load the file data in blocks, requested blocks are loaded first then the remaining file data
+     *
+     * @param fileId   int
+     * @param streamId int
+     * @param objectId String
+     * @param fileSeg  FileSegment
+     * @exception IOException I/O error
+     */
+    protected final void loadSparseFileData(int fileId, int streamId, String objectId, FileSegment fileSeg)
+            throws IOException {
+
+        // Load the file data ranges until all blocks have been loaded
+        FileSegmentInfo segInfo = fileSeg.getInfo();
+        long[] range = null;
+
+        while ((range = segInfo.getNextLoadRange(FileSegmentInfo.LoadRangeBlocks)) != null) {
+
+            // Load the file data range, and wakeup any readers waiting for the data
+            loadFileDataRange(fileId, streamId, objectId, fileSeg, range[0], range[1]);
+            segInfo.setRangeLoaded(range[0], range[1]);
+
+            // DEBUG
+            if (Debug.EnableDbg && hasDebug())
+                Debug.println("## ObjIdLoader loaded range fid=" + fileId + ", stream=" + streamId + ", off=" + range[0] + ", len=" + range[1]);
+        }
+    }
+
     /**
      * Save file data
      *
@@ -935,6 +1014,13 @@ public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLo
         } else
             m_tempMax = MaximumFilesPerSubDir;
 
+        // Check if the size bounded temporary file cache is enabled
+        ConfigElement tempCache = params.getChild("TempFileCache");
+        if (tempCache != null) {
+            m_tempCache = TempFileCache.createCache(tempCache, DBFileSegmentInfo);
+            m_tempCache.setDebug(hasDebug());
+        }
+
         // Check if there are any file processors configured
         ConfigElement fileProcs = params.getChild("FileProcessors");
         if (fileProcs != null) {
@@ -1044,6 +1130,10 @@ public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLo
                 Debug.println(ex);
         }
 
+        // Load the temporary file cache index, files cached before the server was shutdown are used again
+        if (m_tempCache != null)
+            m_tempCache.loadIndex(m_tempDir);
+
         // Check if there are any file save requests pending in the queue database
         FileRequestQueue saveQueue = new FileRequestQueue();
 
@@ -1083,6 +1173,10 @@ public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLo
         // Shutdown the background load/save thread pool
         if (m_backgroundLoader != null)
             m_backgroundLoader.shutdownThreads();
+
+        // Save the temporary file cache index so the cached files can be used after a restart
+        if (m_tempCache != null)
+            m_tempCache.saveIndex();
     }
 
     /**
@@ -1295,20 +1389,23 @@ public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLo
                     // if required.
                     if (segInfo.hasStatus() != FileSegmentInfo.Initial) {
 
-                        // Delete the temporary file
-                        try {
-                            segInfo.deleteTemporaryFile();
-                        }
-                        catch (IOException ex) {
-
-                            // DEBUG
-                            if (Debug.EnableError) {
-                                Debug.println("Delete temp file error: " + ex.toString());
-                                File tempFile = new File(segInfo.getTemporaryFile());
-                                Debug.println("  TempFile file=" + tempFile.getAbsolutePath() + ", exists=" + tempFile.exists());
-                                Debug.println("  FileState state=" + state);
-                                Debug.println("  FileSegmentInfo segInfo=" + segInfo);
-                                Debug.println("  StateCache size=" + m_stateCache.numberOfStates());
+                        // Keep the temporary file in the temporary file cache if the file data is clean, else delete
+                        // the temporary file
+                        if (m_tempCache == null || m_tempCache.detachFile(segInfo, state) == false) {
+                            try {
+                                segInfo.deleteTemporaryFile();
+                            }
+                            catch (IOException ex) {
+
+                                // DEBUG
+                                if (Debug.EnableError) {
+                                    Debug.println("Delete temp file error: " + ex.toString());
+                                    File tempFile = new File(segInfo.getTemporaryFile());
+                                    Debug.println("  TempFile file=" + tempFile.getAbsolutePath() + ", exists=" + tempFile.exists());
+                                    Debug.println("  FileState state=" + state);
+                                    Debug.println("  FileSegmentInfo segInfo=" + segInfo);
+                                    Debug.println("  StateCache size=" + m_stateCache.numberOfStates());
+                                }
                             }
                         }
 
@@ -1400,7 +1497,8 @@ public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLo
         // Check if the file state has an associated file
         FileSegmentInfo segInfo = (FileSegmentInfo) state.findAttribute(DBFileSegmentInfo);
 
-        if (segInfo != null && segInfo.isQueued() == false && segInfo.hasStatus() != FileSegmentInfo.SaveWait) {
+        if (segInfo != null && segInfo.isQueued() == false && segInfo.hasStatus() != FileSegmentInfo.SaveWait &&
+                (m_tempCache == null || m_tempCache.isCachedFile(segInfo) == false)) {
 
             try {
 
@@ -1464,10 +1562,21 @@ public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLo
 
                 tempName.append(".tmp");
 
-                // Create a new file segment
-                fileSegInfo = new FileSegmentInfo();
-                fileSeg = FileSegment.createSegment(fileSegInfo, tempName.toString(), m_curTempDir,
-                        params.isReadOnlyAccess() == false);
+                // Check if the temporary file cache has valid data for the file
+                if (m_tempCache != null)
+                    fileSegInfo = m_tempCache.reuseFile(fid, stid, state, new File(m_curTempDir, tempName.toString()));
+
+                if (fileSegInfo != null) {
+
+                    // Use the cached file data
+                    fileSeg = new FileSegment(fileSegInfo, params.isReadOnlyAccess() == false);
+                } else {
+
+                    // Create a new file segment
+                    fileSegInfo = new FileSegmentInfo();
+                    fileSeg = FileSegment.createSegment(fileSegInfo, tempName.toString(), m_curTempDir,
+                            params.isReadOnlyAccess() == false);
+                }
 
                 // Add the segment to the file state cache
                 state.addAttribute(DBFileSegmentInfo, fileSegInfo);
@@ -1481,6 +1590,10 @@ public abstract class ObjectIdFileLoader implements FileLoader, BackgroundFileLo
                 // Create the file segment to map to the existing temporary file
                 fileSeg = new FileSegment(fileSegInfo, params.isReadOnlyAccess() == false);
 
+                // Update the temporary file cache access details
+                if (m_tempCache != null)
+                    m_tempCache.accessFile(fileSegInfo);
+
                 // Check if the temporary file exists, if not then create it
                 File tempFile = new File(fileSeg.getTemporaryFile());
                 if (tempFile.exists() == false) {
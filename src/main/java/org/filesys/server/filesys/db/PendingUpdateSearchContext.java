@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.db;
+
+import org.filesys.server.filesys.FileInfo;
+import org.filesys.server.filesys.SearchContext;
+
+/**
+ * Pending Update Search Context Class
+ *
+ * <p>Wraps a database search context and applies any file record updates that are queued by the write-behind
+ * update coalescer to the returned file information, so that searches return the latest file sizes and
+ * date/times.
+ *
+ * @author gkspencer
+ */
+public class PendingUpdateSearchContext extends SearchContext {
+
+    //	Database search context
+    private SearchContext m_search;
+
+    //	Update coalescer holding the queued file record updates
+    private DBUpdateCoalescer m_coalescer;
+
+    /**
+     * Class constructor
+     *
+     * @param search    SearchContext
+     * @param coalescer DBUpdateCoalescer
+     */
+    public PendingUpdateSearchContext(SearchContext search, DBUpdateCoalescer coalescer) {
+        super();
+
+        m_search = search;
+        m_coalescer = coalescer;
+    }
+
+    /**
+     * Return the resume id for the current file/directory in the search.
+     *
+     * @return int
+     */
+    public int getResumeId() {
+        return m_search.getResumeId();
+    }
+
+    /**
+     * Determine if there are more files for the active search.
+     *
+     * @return boolean
+     */
+    public boolean hasMoreFiles() {
+        return m_search.hasMoreFiles();
+    }
+
+    /**
+     * Return file information for the next file in the active search, with any queued update applied. Returns
+     * false if the search is complete.
+     *
+     * @param info FileInfo to return the file information.
+     * @return true if the file information is valid, else false
+     */
+    public boolean nextFileInfo(FileInfo info) {
+
+        if (m_search.nextFileInfo(info) == false)
+            return false;
+
+        //	Apply any queued update for the file
+        if (info.getFileId() != -1)
+            m_coalescer.applyPendingUpdate(info.getFileId(), info);
+        return true;
+    }
+
+    /**
+     * Return the file name of the next file in the active search. Returns null is the search is complete.
+     *
+     * @return String
+     */
+    public String nextFileName() {
+        return m_search.nextFileName();
+    }
+
+    /**
+     * Return the total number of file entries for this search if known, else return -1
+     *
+     * @return int
+     */
+    public int numberOfEntries() {
+        return m_search.numberOfEntries();
+    }
+
+    /**
+     * Restart a search at the specified resume point.
+     *
+     * @param resumeId Resume point id.
+     * @return true if the search can be restarted, else false.
+     */
+    public boolean restartAt(int resumeId) {
+        return m_search.restartAt(resumeId);
+    }
+
+    /**
+     * Restart the current search at the specified file.
+     *
+     * @param info File to restart the search at.
+     * @return true if the search can be restarted, else false.
+     */
+    public boolean restartAt(FileInfo info) {
+        return m_search.restartAt(info);
+    }
+
+    /**
+     * Wildcard searches return entries for the '.' and '..' pseudo entries
+     *
+     * @return boolean
+     */
+    public boolean hasDotFiles() {
+        return m_search.hasDotFiles();
+    }
+
+    /**
+     * Return the '.' pseudo entry details
+     *
+     * @param finfo FileInfo
+     * @return boolean
+     */
+    public boolean getDotInfo(FileInfo finfo) {
+        return m_search.getDotInfo(finfo);
+    }
+
+    /**
+     * Return the '..' pseudo entry details
+     *
+     * @param finfo FileInfo
+     * @return boolean
+     */
+    public boolean getDotDotInfo(FileInfo finfo) {
+        return m_search.getDotDotInfo(finfo);
+    }
+
+    /**
+     * Close the search.
+     */
+    public void closeSearch() {
+        m_search.closeSearch();
+        super.closeSearch();
+    }
+}
@@ -0,0 +1,473 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Small File Bundle Class
+ *
+ * <p>Index of a small file bundle, used to store a number of small files as a single item of file data in the
+ * database. A bundle contains a header, the data for each file, an index with the location of each file in the
+ * bundle, and a fixed length trailer that contains the location of the index.
+ *
+ * <p>The index can be loaded by reading the trailer and then the index from the end of the bundle, the data for
+ * a single file can then be read directly from its offset without reading the rest of the bundle. The data for
+ * each file may be stored as is or deflate compressed.
+ *
+ * <p>All values are stored in network byte order.
+ *
+ * @author gkspencer
+ */
+public class SmallFileBundle {
+
+    // Bundle signature, 'JFSB', and format version
+    public static final int Signature   = 0x4A465342;
+    public static final int Version     = 1;
+
+    // Header length, signature and version
+    public static final int HeaderLength = 8;
+
+    // Trailer length, index offset, entry count, version and signature
+    public static final int TrailerLength = 20;
+
+    // Index entry length, file id, stream id, data offset, stored length, file length, flags and CRC
+    public static final int IndexEntryLength = 32;
+
+    // Index entry flags
+    public static final int EntryCompressed = 0x0001;
+
+    /**
+     * Bundle Entry Class
+     *
+     * <p>Location and length of the data for a file/stream within the bundle.
+     */
+    public static class Entry {
+
+        // File id and stream id
+        private int mi_fileId;
+        private int mi_streamId;
+
+        // Offset of the file data within the bundle, length of the stored data and the file length
+        private long mi_offset;
+        private int mi_storedLen;
+        private int mi_length;
+
+        // Entry flags and CRC of the uncompressed file data
+        private int mi_flags;
+        private int mi_crc;
+
+        /**
+         * Class constructor
+         *
+         * @param fid       int
+         * @param stid      int
+         * @param offset    long
+         * @param storedLen int
+         * @param len       int
+         * @param flags     int
+         * @param crc       int
+         */
+        public Entry(int fid, int stid, long offset, int storedLen, int len, int flags, int crc) {
+            mi_fileId = fid;
+            mi_streamId = stid;
+            mi_offset = offset;
+            mi_storedLen = storedLen;
+            mi_length = len;
+            mi_flags = flags;
+            mi_crc = crc;
+        }
+
+        /**
+         * Return the file id
+         *
+         * @return int
+         */
+        public final int getFileId() {
+            return mi_fileId;
+        }
+
+        /**
+         * Return the stream id
+         *
+         * @return int
+         */
+        public final int getStreamId() {
+            return mi_streamId;
+        }
+
+        /**
+         * Return the offset of the file data within the bundle
+         *
+         * @return long
+         */
+        public final long getOffset() {
+            return mi_offset;
+        }
+
+        /**
+         * Return the length of the stored file data
+         *
+         * @return int
+         */
+        public final int getStoredLength() {
+            return mi_storedLen;
+        }
+
+        /**
+         * Return the file length
+         *
+         * @return int
+         */
+        public final int getLength() {
+            return mi_length;
+        }
+
+        /**
+         * Return the entry flags
+         *
+         * @return int
+         */
+        public final int getFlags() {
+            return mi_flags;
+        }
+
+        /**
+         * Check if the file data is compressed
+         *
+         * @return boolean
+         */
+        public final boolean isCompressed() {
+            return (mi_flags & EntryCompressed) != 0;
+        }
+
+        /**
+         * Return the CRC of the file data
+         *
+         * @return int
+         */
+        public final int getCRC() {
+            return mi_crc;
+        }
+
+        /**
+         * Return the entry as a string
+         *
+         * @return String
+         */
+        public String toString() {
+            StringBuilder str = new StringBuilder();
+
+            str.append("[fid=");
+            str.append(getFileId());
+            str.append(",stid=");
+            str.append(getStreamId());
+            str.append(",off=");
+            str.append(getOffset());
+            str.append(",stored=");
+            str.append(getStoredLength());
+            str.append(",len=");
+            str.append(getLength());
+
+            if (isCompressed())
+                str.append(",Compressed");
+            str.append("]");
+
+            return str.toString();
+        }
+    }
+
+    // Bundle entries, indexed by file id/stream id
+    private HashMap<Long, Entry> m_entries;
+
+    /**
+     * Class constructor
+     *
+     * @param numEntries int
+     */
+    protected SmallFileBundle(int numEntries) {
+        m_entries = new HashMap<Long, Entry>(numEntries * 2);
+    }
+
+    /**
+     * Return the number of entries in the bundle
+     *
+     * @return int
+     */
+    public final int numberOfEntries() {
+        return m_entries.size();
+    }
+
+    /**
+     * Find the entry for the specified file/stream
+     *
+     * @param fid  int
+     * @param stid int
+     * @return Entry
+     */
+    public final Entry findEntry(int fid, int stid) {
+        return m_entries.get(makeKey(fid, stid));
+    }
+
+    /**
+     * Add an entry to the bundle index
+     *
+     * @param entry Entry
+     */
+    protected final void addEntry(Entry entry) {
+        m_entries.put(makeKey(entry.getFileId(), entry.getStreamId()), entry);
+    }
+
+    /**
+     * Check if the trailer data is from a small file bundle
+     *
+     * @param trailer byte[]
+     * @param off     int
+     * @return boolean
+     */
+    public static boolean isBundleTrailer(byte[] trailer, int off) {
+        if (trailer == null || trailer.length - off < TrailerLength)
+            return false;
+
+        ByteBuffer buf = ByteBuffer.wrap(trailer, off, TrailerLength);
+        return buf.getInt(off + 16) == Signature && buf.getInt(off + 12) == Version;
+    }
+
+    /**
+     * Return the index offset from the trailer data
+     *
+     * @param trailer byte[]
+     * @param off     int
+     * @return long
+     */
+    public static long getIndexOffset(byte[] trailer, int off) {
+        return ByteBuffer.wrap(trailer).getLong(off);
+    }
+
+    /**
+     * Return the index length from the trailer data
+     *
+     * @param trailer byte[]
+     * @param off     int
+     * @return int
+     */
+    public static int getIndexLength(byte[] trailer, int off) {
+        return ByteBuffer.wrap(trailer).getInt(off + 8) * IndexEntryLength;
+    }
+
+    /**
+     * Parse the bundle index
+     *
+     * @param index   byte[]
+     * @param off     int
+     * @param len     int
+     * @param dataEnd long
+     * @return SmallFileBundle
+     * @exception IOException Invalid index
+     */
+    public static SmallFileBundle parseIndex(byte[] index, int off, int len, long dataEnd)
+        throws IOException {
+
+        // Validate the index length
+        if (len < 0 || (len % IndexEntryLength) != 0 || index.length - off < len)
+            throw new IOException("Invalid small file bundle index length, " + len);
+
+        // Unpack the index entries
+        int numEntries = len / IndexEntryLength;
+        SmallFileBundle bundle = new SmallFileBundle(numEntries);
+        ByteBuffer buf = ByteBuffer.wrap(index, off, len);
+
+        for (int i = 0; i < numEntries; i++) {
+
+            // Unpack the entry
+            Entry entry = new Entry(buf.getInt(), buf.getInt(), buf.getLong(), buf.getInt(), buf.getInt(), buf.getInt(),
+                    buf.getInt());
+
+            // Validate the entry location
+            if (entry.getOffset() < HeaderLength || entry.getStoredLength() < 0 || entry.getLength() < 0 ||
+                    entry.getOffset() + entry.getStoredLength() > dataEnd)
+                throw new IOException("Invalid small file bundle entry, " + entry);
+
+            bundle.addEntry(entry);
+        }
+
+        // Return the bundle index
+        return bundle;
+    }
+
+    /**
+     * Read the bundle index from a local bundle file, or return null if the file is not a small file bundle
+     *
+     * @param bundleFile RandomAccessFile
+     * @return SmallFileBundle
+     * @exception IOException I/O error
+     */
+    public static SmallFileBundle readIndex(RandomAccessFile bundleFile)
+        throws IOException {
+
+        // Read the trailer
+        long bundleLen = bundleFile.length();
+        if (bundleLen < HeaderLength + TrailerLength)
+            return null;
+
+        byte[] trailer = new byte[TrailerLength];
+        bundleFile.seek(bundleLen - TrailerLength);
+        bundleFile.readFully(trailer);
+
+        if (isBundleTrailer(trailer, 0) == false)
+            return null;
+
+        // Read the index
+        long indexOff = getIndexOffset(trailer, 0);
+        int indexLen = getIndexLength(trailer, 0);
+
+        if (indexOff < HeaderLength || indexOff + indexLen != bundleLen - TrailerLength)
+            throw new IOException("Invalid small file bundle index offset, " + indexOff);
+
+        byte[] index = new byte[indexLen];
+        bundleFile.seek(indexOff);
+        bundleFile.readFully(index);
+
+        return parseIndex(index, 0, indexLen, indexOff);
+    }
+
+    /**
+     * Check if a local file is a small file bundle
+     *
+     * @param fileName String
+     * @return boolean
+     * @exception IOException I/O error
+     */
+    public static boolean isBundleFile(String fileName)
+        throws IOException {
+
+        RandomAccessFile bundleFile = null;
+
+        try {
+
+            // Check for a valid trailer
+            bundleFile = new RandomAccessFile(new File(fileName), "r");
+            long bundleLen = bundleFile.length();
+
+            if (bundleLen < HeaderLength + TrailerLength)
+                return false;
+
+            byte[] trailer = new byte[TrailerLength];
+            bundleFile.seek(bundleLen - TrailerLength);
+            bundleFile.readFully(trailer);
+
+            return isBundleTrailer(trailer, 0);
+        }
+        finally {
+            if (bundleFile != null)
+                bundleFile.close();
+        }
+    }
+
+    /**
+     * Read the data for an entry from a local bundle file and write the file data to the output stream
+     *
+     * @param bundleFile RandomAccessFile
+     * @param entry      Entry
+     * @param out        OutputStream
+     * @exception IOException I/O error
+     */
+    public static void extractEntry(RandomAccessFile bundleFile, Entry entry, OutputStream out)
+        throws IOException {
+
+        // Read the stored data for the entry
+        byte[] stored = new byte[entry.getStoredLength()];
+        bundleFile.seek(entry.getOffset());
+        bundleFile.readFully(stored);
+
+        extractEntry(entry, stored, out);
+    }
+
+    /**
+     * Uncompress the stored data for an entry, if required, check the data and write the file data to the
+     * output stream
+     *
+     * @param entry  Entry
+     * @param stored byte[]
+     * @param out    OutputStream
+     * @exception IOException I/O error
+     */
+    public static void extractEntry(Entry entry, byte[] stored, OutputStream out)
+        throws IOException {
+
+        byte[] data = stored;
+
+        if (entry.isCompressed()) {
+
+            // Inflate the file data
+            Inflater inflater = new Inflater(true);
+            data = new byte[entry.getLength()];
+
+            try {
+                inflater.setInput(stored, 0, entry.getStoredLength());
+
+                int len = 0;
+                while (len < data.length && inflater.finished() == false) {
+                    int inLen = inflater.inflate(data, len, data.length - len);
+                    if (inLen == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    len += inLen;
+                }
+
+                if (len != data.length)
+                    throw new IOException("Small file bundle entry length mismatch, " + entry);
+            }
+            catch (DataFormatException ex) {
+                throw new IOException("Invalid compressed data in small file bundle entry, " + entry, ex);
+            }
+            finally {
+                inflater.end();
+            }
+        } else if (stored.length != entry.getLength())
+            throw new IOException("Small file bundle entry length mismatch, " + entry);
+
+        // Check the file data
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+
+        if ((int) crc.getValue() != entry.getCRC())
+            throw new IOException("Small file bundle entry CRC error, " + entry);
+
+        // Write the file data
+        out.write(data, 0, data.length);
+    }
+
+    /**
+     * Make the index key for a file/stream
+     *
+     * @param fid  int
+     * @param stid int
+     * @return Long
+     */
+    private static Long makeKey(int fid, int stid) {
+        return Long.valueOf(((long) fid << 32) | (stid & 0xFFFFFFFFL));
+    }
+}
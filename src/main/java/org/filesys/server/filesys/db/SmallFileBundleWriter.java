@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.db;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Small File Bundle Writer Class
+ *
+ * <p>Creates a small file bundle, see {@link SmallFileBundle}. The data for each file is deflate compressed if
+ * a compression level is set and the compressed data is smaller than the file, otherwise the file data is
+ * stored as is. The index and trailer are written when the bundle is closed.
+ *
+ * <p>The data for each file is held in memory whilst it is added to the bundle, the bundle is only used for
+ * small files.
+ *
+ * @author gkspencer
+ */
+public class SmallFileBundleWriter {
+
+    // Bundle output stream, and current offset within the bundle
+    private OutputStream m_out;
+    private long m_offset;
+
+    // Compression level, 0 = no compression, 9 = highest compression
+    private int m_level;
+
+    // Entries written to the bundle
+    private List<SmallFileBundle.Entry> m_entries = new ArrayList<SmallFileBundle.Entry>();
+
+    /**
+     * Class constructor
+     *
+     * @param bundleFile File
+     * @param level      int
+     * @exception IOException I/O error
+     */
+    public SmallFileBundleWriter(File bundleFile, int level)
+        throws IOException {
+
+        m_level = level;
+        m_out = new BufferedOutputStream(new FileOutputStream(bundleFile), 65536);
+
+        // Write the header
+        ByteBuffer hdr = ByteBuffer.allocate(SmallFileBundle.HeaderLength);
+        hdr.putInt(SmallFileBundle.Signature);
+        hdr.putInt(SmallFileBundle.Version);
+
+        writeBytes(hdr.array(), hdr.position());
+    }
+
+    /**
+     * Return the number of files added to the bundle
+     *
+     * @return int
+     */
+    public final int numberOfEntries() {
+        return m_entries.size();
+    }
+
+    /**
+     * Add a file to the bundle
+     *
+     * @param fid      int
+     * @param stid     int
+     * @param dataFile File
+     * @return SmallFileBundle.Entry
+     * @exception IOException I/O error
+     */
+    public final SmallFileBundle.Entry addFile(int fid, int stid, File dataFile)
+        throws IOException {
+
+        // Read the file data
+        long fileLen = dataFile.length();
+        if (fileLen > Integer.MAX_VALUE)
+            throw new IOException("File too large for small file bundle, " + dataFile.getAbsolutePath());
+
+        byte[] data = new byte[(int) fileLen];
+        FileInputStream in = new FileInputStream(dataFile);
+
+        try {
+            int len = 0;
+            while (len < data.length) {
+                int rdlen = in.read(data, len, data.length - len);
+                if (rdlen <= 0)
+                    throw new IOException("File truncated whilst adding to small file bundle, " + dataFile.getAbsolutePath());
+                len += rdlen;
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        return addFile(fid, stid, data, data.length);
+    }
+
+    /**
+     * Add file data to the bundle
+     *
+     * @param fid  int
+     * @param stid int
+     * @param data byte[]
+     * @param len  int
+     * @return SmallFileBundle.Entry
+     * @exception IOException I/O error
+     */
+    public final SmallFileBundle.Entry addFile(int fid, int stid, byte[] data, int len)
+        throws IOException {
+
+        // Calculate the CRC of the file data
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, len);
+
+        // Compress the file data, only use the compressed data if it is smaller
+        byte[] stored = data;
+        int storedLen = len;
+        int flags = 0;
+
+        if (m_level > 0 && len > 0) {
+
+            Deflater deflater = new Deflater(m_level, true);
+            byte[] compBuf = new byte[len];
+            int compLen = 0;
+
+            try {
+                deflater.setInput(data, 0, len);
+                deflater.finish();
+
+                while (deflater.finished() == false && compLen < compBuf.length)
+                    compLen += deflater.deflate(compBuf, compLen, compBuf.length - compLen);
+
+                if (deflater.finished() && compLen < len) {
+                    stored = compBuf;
+                    storedLen = compLen;
+                    flags = SmallFileBundle.EntryCompressed;
+                }
+            }
+            finally {
+                deflater.end();
+            }
+        }
+
+        // Write the stored data, and add the index entry
+        SmallFileBundle.Entry entry = new SmallFileBundle.Entry(fid, stid, m_offset, storedLen, len, flags, (int) crc.getValue());
+
+        writeBytes(stored, storedLen);
+        m_entries.add(entry);
+
+        return entry;
+    }
+
+    /**
+     * Write the index and trailer, and close the bundle
+     *
+     * @exception IOException I/O error
+     */
+    public final void close()
+        throws IOException {
+
+        if (m_out == null)
+            return;
+
+        try {
+
+            // Write the index
+            long indexOff = m_offset;
+            ByteBuffer buf = ByteBuffer.allocate(m_entries.size() * SmallFileBundle.IndexEntryLength);
+
+            for (SmallFileBundle.Entry entry : m_entries) {
+                buf.putInt(entry.getFileId());
+                buf.putInt(entry.getStreamId());
+                buf.putLong(entry.getOffset());
+                buf.putInt(entry.getStoredLength());
+                buf.putInt(entry.getLength());
+                buf.putInt(entry.getFlags());
+                buf.putInt(entry.getCRC());
+            }
+
+            writeBytes(buf.array(), buf.position());
+
+            // Write the trailer
+            ByteBuffer trailer = ByteBuffer.allocate(SmallFileBundle.TrailerLength);
+            trailer.putLong(indexOff);
+            trailer.putInt(m_entries.size());
+            trailer.putInt(SmallFileBundle.Version);
+            trailer.putInt(SmallFileBundle.Signature);
+
+            writeBytes(trailer.array(), trailer.position());
+        }
+        finally {
+            m_out.close();
+            m_out = null;
+        }
+    }
+
+    /**
+     * Close the bundle without writing the index, the bundle file is not valid
+     */
+    public final void abort() {
+        if (m_out != null) {
+            try {
+                m_out.close();
+            }
+            catch (IOException ex) {
+            }
+            m_out = null;
+        }
+    }
+
+    /**
+     * Write data to the bundle
+     *
+     * @param buf byte[]
+     * @param len int
+     * @exception IOException I/O error
+     */
+    private void writeBytes(byte[] buf, int len)
+        throws IOException {
+        m_out.write(buf, 0, len);
+        m_offset += len;
+    }
+}
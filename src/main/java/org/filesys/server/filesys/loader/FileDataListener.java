@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.loader;
+
+/**
+ * File Data Listener Interface
+ *
+ * <p>Callback used to resume a request that has been deferred whilst waiting for file data to be loaded by a
+ * background file loader, rather than blocking the worker thread until the data is available.
+ *
+ * @author gkspencer
+ */
+public interface FileDataListener {
+
+    /**
+     * The file data range that the listener is waiting on has been loaded, or the file data load has completed
+     * or failed. The callback is made from the file loader thread so should not block.
+     */
+    public void fileDataLoaded();
+}
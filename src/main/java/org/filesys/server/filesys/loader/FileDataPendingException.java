@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.loader;
+
+import java.io.IOException;
+
+/**
+ * File Data Pending Exception Class
+ *
+ * <p>Thrown by a read on a network file that allows deferred reads when the requested file data has not been loaded
+ * yet. The caller can register a FileDataListener to be notified when the data is available, and run the read
+ * again, instead of blocking the current thread.
+ *
+ * @author gkspencer
+ */
+public class FileDataPendingException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    // File segment that is being loaded, and the file data range required by the read
+    private transient FileSegmentInfo m_segInfo;
+
+    private long m_fileOff;
+    private long m_len;
+
+    /**
+     * Class constructor
+     *
+     * @param segInfo FileSegmentInfo
+     * @param fileOff long
+     * @param len     long
+     */
+    public FileDataPendingException(FileSegmentInfo segInfo, long fileOff, long len) {
+        super("File data pending");
+
+        m_segInfo = segInfo;
+        m_fileOff = fileOff;
+        m_len = len;
+    }
+
+    /**
+     * Return the file offset of the required data
+     *
+     * @return long
+     */
+    public final long getFileOffset() {
+        return m_fileOff;
+    }
+
+    /**
+     * Return the length of the required data
+     *
+     * @return long
+     */
+    public final long getLength() {
+        return m_len;
+    }
+
+    /**
+     * Check if another listener can wait on the file data, else the caller should wait for the data using the
+     * request thread
+     *
+     * @return boolean
+     */
+    public final boolean hasDataWaiterSlot() {
+        return m_segInfo.hasDataWaiterSlot();
+    }
+
+    /**
+     * Add a listener to be called when the required file data is available. If the data has already been loaded
+     * the listener is called immediately.
+     *
+     * @param listener FileDataListener
+     * @return boolean false if the maximum number of listeners are already waiting on the file data
+     */
+    public final boolean addDataListener(FileDataListener listener) {
+        return m_segInfo.addDataListener(m_fileOff, m_len, listener);
+    }
+
+    /**
+     * Remove a listener that is waiting on the file data
+     *
+     * @param listener FileDataListener
+     * @return boolean true if the listener was removed, false if it has already been called
+     */
+    public final boolean removeDataListener(FileDataListener listener) {
+        return m_segInfo.removeDataListener(listener);
+    }
+}
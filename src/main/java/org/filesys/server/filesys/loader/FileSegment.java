@@ -149,6 +149,36 @@ public class FileSegment {
         m_info.setReadableLength(readable);
     }
 
+    /**
+     * Check if the file data is being loaded sparsely
+     *
+     * @return boolean
+     */
+    public final boolean isSparseLoad() {
+        return m_info.isSparseLoad();
+    }
+
+    /**
+     * Check if the specified byte range has been loaded, for a sparse load
+     *
+     * @param fileOff long
+     * @param len     long
+     * @return boolean
+     */
+    public final boolean isRangeLoaded(long fileOff, long len) {
+        return m_info.isRangeLoaded(fileOff, len);
+    }
+
+    /**
+     * Request that a byte range is loaded ahead of the remaining file data, for a sparse load
+     *
+     * @param fileOff long
+     * @param len     long
+     */
+    public final void requestRange(long fileOff, long len) {
+        m_info.requestRange(fileOff, len);
+    }
+
     /**
      * Set the segment load/update status
      *
@@ -410,6 +440,36 @@ public class FileSegment {
      */
     public synchronized final void writeBytes(byte[] buf, int len, int pos, long fileOff)
             throws IOException {
+        writeData(buf, len, pos, fileOff, true);
+    }
+
+    /**
+     * Write a block of loaded file data to the segment file, used by file loaders to write a range of the
+     * file data. The segment is not marked as updated.
+     *
+     * @param buf     byte[]
+     * @param len     int
+     * @param pos     int
+     * @param fileOff long
+     * @throws IOException Failed to write the file
+     */
+    public synchronized final void writeLoadedBytes(byte[] buf, int len, int pos, long fileOff)
+            throws IOException {
+        writeData(buf, len, pos, fileOff, false);
+    }
+
+    /**
+     * Write a block of data to the segment file
+     *
+     * @param buf     byte[]
+     * @param len     int
+     * @param pos     int
+     * @param fileOff long
+     * @param update  boolean
+     * @throws IOException Failed to write the file
+     */
+    private final void writeData(byte[] buf, int len, int pos, long fileOff, boolean update)
+            throws IOException {
 
         //	Check if the temporary file is open
         if (m_segment == null) {
@@ -444,7 +504,7 @@ public class FileSegment {
         m_segment.write(buf, pos, len);
 
         //	Update the file segment status to indicate the data has been updated
-        if (m_info.isUpdated() == false)
+        if (update && m_info.isUpdated() == false)
             m_info.setUpdated(true);
     }
 
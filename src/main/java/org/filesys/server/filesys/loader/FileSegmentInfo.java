@@ -21,6 +21,11 @@ package org.filesys.server.filesys.loader;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 
 import org.filesys.debug.Debug;
 
@@ -30,6 +35,14 @@ import org.filesys.debug.Debug;
  *
  * <p>Contains the details of a file segment that may be shared by many users/sessions.
  *
+ * <p>If the file loader supports sparse loading the file data is loaded in LoadBlockSize blocks, with a bitmap of
+ * the loaded blocks. Blocks requested by readers are loaded first, the remaining blocks are then loaded in the
+ * background, continuing from the last requested block.
+ *
+ * <p>Requests that have been deferred whilst the file data is loaded register a FileDataListener, which is called
+ * when the required data range has been loaded, or the load completes or fails. The number of waiting listeners is
+ * limited, further requests must wait for the data using the request thread.
+ *
  * @author gkspencer
  */
 public class FileSegmentInfo {
@@ -50,6 +63,13 @@ public class FileSegmentInfo {
     private static final int RequestQueued  = 0x0002;
     private static final int DeleteOnStore  = 0x0004;
 
+    //  Block size used for sparse loading, and the maximum number of blocks to load per loader request
+    public final static int LoadBlockSize   = 256 * 1024;
+    public final static int LoadRangeBlocks = 4;
+
+    //  Maximum number of listeners that can wait on file data to be loaded
+    public final static int MaxDataWaiters  = 16;
+
     //	Segment status strings
     private static final String[] _statusStr = {"Initial", "LoadWait", "Loading", "Available", "SaveWait", "Saving", "Saved", "Error"};
 
@@ -65,6 +85,47 @@ public class FileSegmentInfo {
     //  Amount of valid data in the file, used to allow reads during data loading
     private long m_readable;
 
+    //  Sparse load details, the file data length, bitmap of loaded blocks, and requested blocks waiting to be
+    //  loaded. The loaded blocks bitmap is null if the file data is loaded sequentially.
+    private long m_dataLength;
+    private int m_numBlocks;
+
+    private BitSet m_loadedBlocks;
+    private BitSet m_requestedBlocks;
+    private LinkedList<Integer> m_requestQueue;
+
+    //  Next block to load when there are no requested blocks
+    private int m_fillBlock;
+
+    //  Listeners waiting for a range of the file data to be loaded
+    private List<DataWaiter> m_dataWaiters;
+
+    /**
+     * Data Waiter Class
+     *
+     * <p>Contains the file data range a listener is waiting on.
+     */
+    private static class DataWaiter {
+
+        // File data range and listener
+        private long mi_fileOff;
+        private long mi_len;
+        private FileDataListener mi_listener;
+
+        /**
+         * Class constructor
+         *
+         * @param fileOff  long
+         * @param len      long
+         * @param listener FileDataListener
+         */
+        public DataWaiter(long fileOff, long len, FileDataListener listener) {
+            mi_fileOff = fileOff;
+            mi_len = len;
+            mi_listener = listener;
+        }
+    }
+
     /**
      * Default constructor
      */
@@ -192,6 +253,173 @@ public class FileSegmentInfo {
      */
     public final void setReadableLength(long readable) {
         m_readable = readable;
+
+        // Update the loaded blocks if the file is being loaded sparsely
+        if (m_loadedBlocks != null && readable > 0)
+            setRangeLoaded(0L, readable);
+        else
+            notifyDataListeners();
+    }
+
+    /**
+     * Enable sparse loading of the file data, the file data is loaded in blocks in the order requested
+     *
+     * @param dataLen long
+     */
+    public final synchronized void enableSparseLoad(long dataLen) {
+
+        // Check if sparse loading is already enabled
+        if (m_loadedBlocks != null)
+            return;
+
+        // Allocate the loaded and requested block bitmaps
+        m_dataLength = dataLen;
+        m_numBlocks = (int) ((dataLen + LoadBlockSize - 1) / LoadBlockSize);
+
+        m_loadedBlocks = new BitSet(m_numBlocks);
+        m_requestedBlocks = new BitSet(m_numBlocks);
+        m_requestQueue = new LinkedList<Integer>();
+        m_fillBlock = 0;
+    }
+
+    /**
+     * Check if the file data is being loaded sparsely
+     *
+     * @return boolean
+     */
+    public final synchronized boolean isSparseLoad() {
+        return m_loadedBlocks != null;
+    }
+
+    /**
+     * Check if the specified byte range has been loaded, for a sparse load
+     *
+     * @param fileOff long
+     * @param len     long
+     * @return boolean
+     */
+    public final synchronized boolean isRangeLoaded(long fileOff, long len) {
+
+        // Check if the file is being loaded sparsely
+        if (m_loadedBlocks == null)
+            return false;
+
+        // A read at or beyond the end of the file does not require any data
+        if (fileOff >= m_dataLength || len <= 0)
+            return true;
+
+        // Check if all blocks in the range are loaded
+        long endOff = Math.min(fileOff + len, m_dataLength);
+
+        int firstBlk = (int) (fileOff / LoadBlockSize);
+        int lastBlk = (int) ((endOff - 1) / LoadBlockSize);
+
+        return m_loadedBlocks.nextClearBit(firstBlk) > lastBlk;
+    }
+
+    /**
+     * Mark a byte range as loaded, and wakeup any threads waiting for file data. Partial blocks are only marked
+     * as loaded if the range extends to the end of the file data.
+     *
+     * @param fileOff long
+     * @param len     long
+     */
+    public final void setRangeLoaded(long fileOff, long len) {
+
+        synchronized (this) {
+
+            // Check if the file is being loaded sparsely
+            if (m_loadedBlocks == null)
+                return;
+
+            // Calculate the blocks that are completely covered by the range
+            int firstBlk = (int) ((fileOff + LoadBlockSize - 1) / LoadBlockSize);
+            int endBlk = fileOff + len >= m_dataLength ? m_numBlocks : (int) ((fileOff + len) / LoadBlockSize);
+
+            if (endBlk > firstBlk)
+                m_loadedBlocks.set(firstBlk, endBlk);
+
+            // Wakeup any threads waiting for data
+            notifyAll();
+        }
+
+        // Resume any requests that were waiting for the loaded data
+        notifyDataListeners();
+    }
+
+    /**
+     * Request that a byte range is loaded ahead of the background load of the remaining file data
+     *
+     * @param fileOff long
+     * @param len     long
+     */
+    public final synchronized void requestRange(long fileOff, long len) {
+
+        // Check if the file is being loaded sparsely, and the range is within the file data
+        if (m_loadedBlocks == null || fileOff >= m_dataLength || len <= 0)
+            return;
+
+        // Queue the blocks in the range that have not been loaded, or already requested
+        long endOff = Math.min(fileOff + len, m_dataLength);
+        int lastBlk = (int) ((endOff - 1) / LoadBlockSize);
+
+        for (int blk = (int) (fileOff / LoadBlockSize); blk <= lastBlk; blk++) {
+            if (m_loadedBlocks.get(blk) == false && m_requestedBlocks.get(blk) == false) {
+                m_requestedBlocks.set(blk);
+                m_requestQueue.add(blk);
+            }
+        }
+    }
+
+    /**
+     * Return the next byte range to be loaded, for a sparse load. Requested blocks are returned first, then the
+     * remaining blocks are returned in file order, continuing from the last requested block.
+     *
+     * @param maxBlocks int
+     * @return long[] offset and length, or null if all blocks have been loaded
+     */
+    public final synchronized long[] getNextLoadRange(int maxBlocks) {
+
+        // Check if the file is being loaded sparsely
+        if (m_loadedBlocks == null)
+            return null;
+
+        // Check for a requested block that has not been loaded
+        int startBlk = -1;
+
+        while (startBlk == -1 && m_requestQueue.isEmpty() == false) {
+            int blk = m_requestQueue.removeFirst();
+            m_requestedBlocks.clear(blk);
+
+            if (m_loadedBlocks.get(blk) == false)
+                startBlk = blk;
+        }
+
+        // Find the next block to load, wrap around to the start of the file
+        if (startBlk == -1) {
+            startBlk = m_loadedBlocks.nextClearBit(m_fillBlock);
+
+            if (startBlk >= m_numBlocks) {
+                startBlk = m_loadedBlocks.nextClearBit(0);
+                if (startBlk >= m_numBlocks)
+                    return null;
+            }
+        }
+
+        // Extend the range over the following blocks that have not been loaded
+        int endBlk = startBlk + 1;
+
+        while (endBlk < m_numBlocks && endBlk - startBlk < maxBlocks && m_loadedBlocks.get(endBlk) == false)
+            endBlk++;
+
+        // Continue the background load from the end of this range
+        m_fillBlock = endBlk;
+
+        // Return the byte range to load
+        long rangeOff = (long) startBlk * LoadBlockSize;
+        long rangeEnd = Math.min((long) endBlk * LoadBlockSize, m_dataLength);
+
+        return new long[]{rangeOff, rangeEnd - rangeOff};
     }
 
     /**
@@ -199,9 +427,14 @@ public class FileSegmentInfo {
      *
      * @param sts int
      */
-    public synchronized final void setStatus(int sts) {
-        m_status = sts;
-        notifyAll();
+    public final void setStatus(int sts) {
+        synchronized (this) {
+            m_status = sts;
+            notifyAll();
+        }
+
+        // Resume any requests that were waiting for the file data
+        notifyDataListeners();
     }
 
     /**
@@ -279,10 +512,133 @@ public class FileSegmentInfo {
      * Signal that the file data is available, any threads using the waitForData() method
      * will return so that the threads can access the file data.
      */
-    public final synchronized void signalDataAvailable() {
+    public final void signalDataAvailable() {
 
         //	Notify any waiting threads that the file data ia available
-        notifyAll();
+        synchronized (this) {
+            notifyAll();
+        }
+
+        // Resume any requests that were waiting for the file data
+        notifyDataListeners();
+    }
+
+    /**
+     * Check if another listener can wait on the file data
+     *
+     * @return boolean
+     */
+    public final synchronized boolean hasDataWaiterSlot() {
+        return m_dataWaiters == null || m_dataWaiters.size() < MaxDataWaiters;
+    }
+
+    /**
+     * Add a listener to be called when the specified file data range is available, or the file data load
+     * completes or fails. If the data is already available the listener is called immediately.
+     *
+     * @param fileOff  long
+     * @param len      long
+     * @param listener FileDataListener
+     * @return boolean false if the maximum number of listeners are already waiting
+     */
+    public final boolean addDataListener(long fileOff, long len, FileDataListener listener) {
+
+        synchronized (this) {
+
+            // Queue the listener if the data is not available yet
+            if (isDataReady(fileOff, len) == false) {
+
+                if (m_dataWaiters == null)
+                    m_dataWaiters = new ArrayList<DataWaiter>();
+                else if (m_dataWaiters.size() >= MaxDataWaiters)
+                    return false;
+
+                m_dataWaiters.add(new DataWaiter(fileOff, len, listener));
+                return true;
+            }
+        }
+
+        // Data is already available
+        listener.fileDataLoaded();
+        return true;
+    }
+
+    /**
+     * Remove a waiting listener
+     *
+     * @param listener FileDataListener
+     * @return boolean true if the listener was waiting, false if it has already been called
+     */
+    public final synchronized boolean removeDataListener(FileDataListener listener) {
+
+        if (m_dataWaiters == null)
+            return false;
+
+        Iterator<DataWaiter> iter = m_dataWaiters.iterator();
+
+        while (iter.hasNext()) {
+            if (iter.next().mi_listener == listener) {
+                iter.remove();
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Check if the specified file data range can be read, or the file data load has completed or failed
+     *
+     * @param fileOff long
+     * @param len     long
+     * @return boolean
+     */
+    private final boolean isDataReady(long fileOff, long len) {
+
+        // Check if the file data load has finished, or failed
+        if (m_status >= Available)
+            return true;
+
+        // Check the loaded blocks for a sparse load, or the amount of data loaded for a sequential load
+        if (m_loadedBlocks != null)
+            return isRangeLoaded(fileOff, len);
+        return m_readable >= fileOff + len;
+    }
+
+    /**
+     * Call any data listeners that are waiting on file data that is now available. The listeners are called
+     * without the segment lock held.
+     */
+    private final void notifyDataListeners() {
+
+        // Build a list of the listeners that can be resumed
+        List<FileDataListener> readyList = null;
+
+        synchronized (this) {
+
+            // Check if there are any waiting listeners
+            if (m_dataWaiters == null || m_dataWaiters.isEmpty())
+                return;
+
+            Iterator<DataWaiter> iter = m_dataWaiters.iterator();
+
+            while (iter.hasNext()) {
+                DataWaiter waiter = iter.next();
+
+                if (isDataReady(waiter.mi_fileOff, waiter.mi_len)) {
+                    if (readyList == null)
+                        readyList = new ArrayList<FileDataListener>();
+                    readyList.add(waiter.mi_listener);
+                    iter.remove();
+                }
+            }
+        }
+
+        // Call the listeners
+        if (readyList != null) {
+            for (FileDataListener listener : readyList)
+                listener.fileDataLoaded();
+        }
     }
 
     /**
@@ -304,6 +660,18 @@ public class FileSegmentInfo {
         if (isQueued())
             str.append(",Queued");
 
+        if (m_dataWaiters != null && m_dataWaiters.isEmpty() == false) {
+            str.append(",Waiters=");
+            str.append(m_dataWaiters.size());
+        }
+
+        if (m_loadedBlocks != null) {
+            str.append(",Sparse=");
+            str.append(m_loadedBlocks.cardinality());
+            str.append("/");
+            str.append(m_numBlocks);
+        }
+
         str.append("]");
 
         return str.toString();
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.loader;
+
+/**
+ * Sparse File Loader Interface
+ *
+ * <p>Optional interface implemented by file loaders that can load byte ranges of the file data in any order. File
+ * data for a sparse load is loaded in blocks, blocks requested by client reads are loaded first so that random
+ * and tail reads do not wait for the whole file to be loaded.
+ *
+ * @author gkspencer
+ */
+public interface SparseFileLoader {
+
+    /**
+     * Check if the file loader supports sparse loading of file data
+     *
+     * @return boolean
+     */
+    public boolean supportsSparseLoad();
+}
@@ -0,0 +1,993 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.loader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.filesys.debug.Debug;
+import org.filesys.server.filesys.FileInfo;
+import org.filesys.server.filesys.cache.FileState;
+import org.filesys.util.MemorySize;
+import org.springframework.extensions.config.ConfigElement;
+
+/**
+ * Temporary File Cache Class
+ *
+ * <p>Manages the temporary files that a file loader uses to hold local copies of file data as a size bounded cache.
+ * When the cached file data goes above the high water mark the least recently used, or least frequently used, files
+ * are evicted until the cache is below the low water mark. Only clean files that are not open and do not have a
+ * queued request are evicted.
+ *
+ * <p>When a file state expires the temporary file is kept in the cache, and is used again if the file is opened
+ * and the file modification date/time and size have not changed. The cache index is saved when the file loader
+ * shuts down, the cached files are moved to a sub-directory of the temporary area that is not cleaned up by the
+ * queue cleanup so that the cached file data survives a server restart.
+ *
+ * @author gkspencer
+ */
+public class TempFileCache implements TempFileCacheMXBean {
+
+    // Eviction policies
+    public enum Policy {
+        LRU,    // least recently used
+        LFU     // least frequently used
+    };
+
+    // Default high/low water marks, as a percentage of the maximum cache size
+    public static final int DefaultHighWater    = 90;
+    public static final int DefaultLowWater     = 75;
+
+    // Sub-directory of the temporary area used to hold cached files over a restart, and the cache index file name
+    public static final String CacheDirName     = "tempcache";
+    public static final String IndexFileName    = "cache.idx";
+
+    // Cached file name prefix, within the cache sub-directory
+    private static final String CacheFilePrefix = "cache_";
+
+    // Eviction order comparators
+    private static final Comparator<CacheEntry> LRUOrder = new Comparator<CacheEntry>() {
+        public int compare(CacheEntry e1, CacheEntry e2) {
+            return compareLong(e1.mi_lastAccess, e2.mi_lastAccess);
+        }
+    };
+
+    private static final Comparator<CacheEntry> LFUOrder = new Comparator<CacheEntry>() {
+        public int compare(CacheEntry e1, CacheEntry e2) {
+            if (e1.mi_accessCount != e2.mi_accessCount)
+                return compareLong(e1.mi_accessCount, e2.mi_accessCount);
+            return compareLong(e1.mi_lastAccess, e2.mi_lastAccess);
+        }
+    };
+
+    /**
+     * Cache Entry Class
+     *
+     * <p>Contains the details of a cached temporary file. An attached entry has a file segment that is referenced by
+     * a file state, a detached entry is only referenced by the cache.
+     */
+    private static class CacheEntry {
+
+        // File id and stream id
+        private int mi_fileId;
+        private int mi_streamId;
+
+        // Temporary file path and size
+        private String mi_tempFile;
+        private long mi_size;
+
+        // File modification date/time that the cached data is valid for, set when the entry is detached
+        private long mi_modifyDate;
+
+        // Last access time and access count
+        private long mi_lastAccess;
+        private long mi_accessCount;
+
+        // File segment and file state, if attached
+        private FileSegmentInfo mi_segInfo;
+        private FileState mi_state;
+
+        /**
+         * Class constructor
+         *
+         * @param fileId   int
+         * @param streamId int
+         * @param tempFile String
+         */
+        public CacheEntry(int fileId, int streamId, String tempFile) {
+            mi_fileId = fileId;
+            mi_streamId = streamId;
+            mi_tempFile = tempFile;
+        }
+
+        /**
+         * Update the access details
+         */
+        public final void accessed() {
+            mi_lastAccess = System.currentTimeMillis();
+            mi_accessCount++;
+        }
+
+        /**
+         * Attach the entry to a file segment
+         *
+         * @param segInfo FileSegmentInfo
+         * @param state   FileState
+         */
+        public final void attach(FileSegmentInfo segInfo, FileState state) {
+            mi_segInfo = segInfo;
+            mi_state = state;
+        }
+
+        /**
+         * Detach the entry from the file segment
+         *
+         * @param modifyDate long
+         */
+        public final void detach(long modifyDate) {
+            mi_segInfo = null;
+            mi_state = null;
+            mi_modifyDate = modifyDate;
+        }
+    }
+
+    // Maximum cache size, and high/low water marks as a percentage of the maximum size
+    private long m_maxSize;
+    private int m_highWater = DefaultHighWater;
+    private int m_lowWater = DefaultLowWater;
+
+    // Eviction policy
+    private Policy m_policy = Policy.LRU;
+
+    // File state attribute name used by the file loader for the file segment
+    private String m_segAttr;
+
+    // Directory used to hold the cached files over a restart
+    private File m_cacheDir;
+
+    // Cache entries, indexed by file/stream id and by temporary file path
+    private HashMap<String, CacheEntry> m_entries = new HashMap<String, CacheEntry>();
+    private HashMap<String, CacheEntry> m_paths = new HashMap<String, CacheEntry>();
+
+    // Current size of the cached files
+    private long m_usedSize;
+
+    // Statistics
+    private long m_hits;
+    private long m_misses;
+    private long m_evictions;
+    private long m_evictedBytes;
+
+    // Enable debug output
+    private boolean m_debug;
+
+    /**
+     * Class constructor
+     *
+     * @param maxSize   long
+     * @param highWater int
+     * @param lowWater  int
+     * @param policy    Policy
+     * @param segAttr   String
+     */
+    public TempFileCache(long maxSize, int highWater, int lowWater, Policy policy, String segAttr) {
+        m_maxSize = maxSize;
+        m_highWater = highWater;
+        m_lowWater = lowWater;
+        m_policy = policy;
+        m_segAttr = segAttr;
+    }
+
+    /**
+     * Create a temporary file cache using the configuration values
+     *
+     * @param config  ConfigElement
+     * @param segAttr String
+     * @return TempFileCache
+     * @exception FileLoaderException Invalid configuration
+     */
+    public static final TempFileCache createCache(ConfigElement config, String segAttr)
+            throws FileLoaderException {
+
+        // Get the maximum cache size
+        long maxSize = 0L;
+
+        try {
+            maxSize = MemorySize.getByteValue(config.getAttribute("size"));
+        }
+        catch (NumberFormatException ex) {
+            throw new FileLoaderException("TempFileCache invalid size, " + config.getAttribute("size"));
+        }
+
+        if (maxSize <= 0L)
+            throw new FileLoaderException("TempFileCache size not specified or invalid");
+
+        // Get the high/low water marks
+        int highWater = parsePercentage(config, "highWater", DefaultHighWater);
+        int lowWater = parsePercentage(config, "lowWater", DefaultLowWater);
+
+        if (lowWater >= highWater)
+            throw new FileLoaderException("TempFileCache lowWater must be less than highWater");
+
+        // Get the eviction policy
+        Policy policy = Policy.LRU;
+        String policyStr = config.getAttribute("policy");
+
+        if (policyStr != null && policyStr.length() > 0) {
+            try {
+                policy = Policy.valueOf(policyStr.toUpperCase());
+            }
+            catch (IllegalArgumentException ex) {
+                throw new FileLoaderException("TempFileCache invalid policy, " + policyStr + ", valid policies are LRU or LFU");
+            }
+        }
+
+        // Create the cache
+        return new TempFileCache(maxSize, highWater, lowWater, policy, segAttr);
+    }
+
+    /**
+     * Return the maximum size of the cached file data, in bytes
+     *
+     * @return long
+     */
+    public final long getMaximumSize() {
+        return m_maxSize;
+    }
+
+    /**
+     * Return the current size of the cached file data, in bytes
+     *
+     * @return long
+     */
+    public final synchronized long getUsedSize() {
+        return m_usedSize;
+    }
+
+    /**
+     * Return the high water mark, as a percentage of the maximum size
+     *
+     * @return int
+     */
+    public final int getHighWaterMark() {
+        return m_highWater;
+    }
+
+    /**
+     * Return the low water mark, as a percentage of the maximum size
+     *
+     * @return int
+     */
+    public final int getLowWaterMark() {
+        return m_lowWater;
+    }
+
+    /**
+     * Return the eviction policy name
+     *
+     * @return String
+     */
+    public final String getEvictionPolicy() {
+        return m_policy.name();
+    }
+
+    /**
+     * Return the number of files in the cache
+     *
+     * @return int
+     */
+    public final synchronized int getNumberOfFiles() {
+        return m_entries.size();
+    }
+
+    /**
+     * Return the count of file opens that used cached file data
+     *
+     * @return long
+     */
+    public final synchronized long getHitCount() {
+        return m_hits;
+    }
+
+    /**
+     * Return the count of file opens that required the file data to be loaded
+     *
+     * @return long
+     */
+    public final synchronized long getMissCount() {
+        return m_misses;
+    }
+
+    /**
+     * Return the count of cached files that have been evicted
+     *
+     * @return long
+     */
+    public final synchronized long getEvictionCount() {
+        return m_evictions;
+    }
+
+    /**
+     * Return the count of bytes evicted from the cache
+     *
+     * @return long
+     */
+    public final synchronized long getEvictedBytes() {
+        return m_evictedBytes;
+    }
+
+    /**
+     * Check if debug output is enabled
+     *
+     * @return boolean
+     */
+    public final boolean hasDebug() {
+        return m_debug;
+    }
+
+    /**
+     * Enable/disable debug output
+     *
+     * @param dbg boolean
+     */
+    public final void setDebug(boolean dbg) {
+        m_debug = dbg;
+    }
+
+    /**
+     * Add a loaded temporary file to the cache, evict files if the cache is over the high water mark
+     *
+     * @param fileId   int
+     * @param streamId int
+     * @param segInfo  FileSegmentInfo
+     * @param state    FileState
+     */
+    public final void addFile(int fileId, int streamId, FileSegmentInfo segInfo, FileState state) {
+
+        synchronized (this) {
+
+            // Check for an existing entry for the file, a detached entry has out of date file data
+            String key = makeKey(fileId, streamId);
+            CacheEntry entry = m_entries.get(key);
+
+            if (entry != null && entry.mi_segInfo != segInfo) {
+                removeEntry(entry, entry.mi_segInfo == null);
+                entry = null;
+            }
+
+            // Create a new entry for the file
+            if (entry == null) {
+                entry = new CacheEntry(fileId, streamId, segInfo.getTemporaryFile());
+
+                m_entries.put(key, entry);
+                m_paths.put(entry.mi_tempFile, entry);
+            }
+
+            // Update the entry size and access details
+            setEntrySize(entry, new File(entry.mi_tempFile).length());
+
+            entry.attach(segInfo, state);
+            entry.accessed();
+        }
+
+        // Evict files if the cache is too large
+        checkCacheSize();
+    }
+
+    /**
+     * Check if the cache has a detached temporary file for the file that is still valid, if so then move the cached
+     * file to the new temporary file path and return a file segment for the cached data.
+     *
+     * @param fileId   int
+     * @param streamId int
+     * @param state    FileState
+     * @param tempFile File
+     * @return FileSegmentInfo, or null if there is no valid cached data for the file
+     */
+    public final FileSegmentInfo reuseFile(int fileId, int streamId, FileState state, File tempFile) {
+
+        // Get the current file details, used to validate the cached data
+        FileInfo finfo = (FileInfo) state.findAttribute(FileState.FileInformation);
+
+        synchronized (this) {
+
+            // Check for a detached entry for the file
+            CacheEntry entry = m_entries.get(makeKey(fileId, streamId));
+
+            if (entry != null && entry.mi_segInfo == null) {
+
+                // Check that the file has not changed since the data was cached, and move the cached file to the
+                // new temporary file path
+                File cacheFile = new File(entry.mi_tempFile);
+
+                if (finfo != null && finfo.getModifyDateTime() == entry.mi_modifyDate && finfo.getSize() == entry.mi_size &&
+                        cacheFile.length() == entry.mi_size && (cacheFile.equals(tempFile) || cacheFile.renameTo(tempFile))) {
+
+                    // Update the entry path
+                    m_paths.remove(entry.mi_tempFile);
+                    entry.mi_tempFile = tempFile.getAbsolutePath();
+                    m_paths.put(entry.mi_tempFile, entry);
+
+                    // Create a file segment for the cached file data
+                    FileSegmentInfo segInfo = new FileSegmentInfo(entry.mi_tempFile);
+                    segInfo.setStatus(FileSegmentInfo.Available);
+
+                    entry.attach(segInfo, state);
+                    entry.accessed();
+
+                    m_hits++;
+
+                    // DEBUG
+                    if (Debug.EnableInfo && hasDebug())
+                        Debug.println("TempFileCache hit fid=" + fileId + ", stream=" + streamId + ", file=" + entry.mi_tempFile);
+
+                    return segInfo;
+                }
+
+                // Cached file data is out of date, remove the entry and delete the file
+                removeEntry(entry, true);
+            }
+
+            // File data must be loaded
+            m_misses++;
+        }
+
+        return null;
+    }
+
+    /**
+     * Update the access details for a cached file that is attached to a file state
+     *
+     * @param segInfo FileSegmentInfo
+     */
+    public final synchronized void accessFile(FileSegmentInfo segInfo) {
+
+        // Find the entry for the file, count a hit if the file data does not need to be loaded
+        CacheEntry entry = m_paths.get(segInfo.getTemporaryFile());
+
+        if (entry != null) {
+            entry.accessed();
+
+            if (segInfo.isDataAvailable())
+                m_hits++;
+        }
+    }
+
+    /**
+     * File state has expired, detach the cached file so that it can be used again if the file data has not been
+     * updated. The file loader must delete the temporary file if the cached file is not kept.
+     *
+     * @param segInfo FileSegmentInfo
+     * @param state   FileState
+     * @return boolean true if the temporary file is kept in the cache
+     */
+    public final boolean detachFile(FileSegmentInfo segInfo, FileState state) {
+
+        // Get the current file details, used to validate the cached data when the file is opened again
+        FileInfo finfo = (FileInfo) state.findAttribute(FileState.FileInformation);
+
+        synchronized (this) {
+
+            // Find the entry for the file
+            CacheEntry entry = m_paths.get(segInfo.getTemporaryFile());
+
+            if (entry == null || entry.mi_segInfo != segInfo)
+                return false;
+
+            // Keep the file if the cached data matches the stored file data
+            long fileLen = new File(entry.mi_tempFile).length();
+
+            if (isCleanSegment(segInfo) && finfo != null && finfo.getModifyDateTime() != 0L && finfo.getSize() == fileLen) {
+
+                // Detach the entry
+                setEntrySize(entry, fileLen);
+                entry.detach(finfo.getModifyDateTime());
+
+                // DEBUG
+                if (Debug.EnableInfo && hasDebug())
+                    Debug.println("TempFileCache detached file=" + entry.mi_tempFile + ", size=" + fileLen);
+
+                return true;
+            }
+
+            // Remove the entry, the file loader will delete the temporary file
+            removeEntry(entry, false);
+        }
+
+        return false;
+    }
+
+    /**
+     * Check if the temporary file is held by the cache
+     *
+     * @param segInfo FileSegmentInfo
+     * @return boolean
+     */
+    public final synchronized boolean isCachedFile(FileSegmentInfo segInfo) {
+        return m_paths.containsKey(segInfo.getTemporaryFile());
+    }
+
+    /**
+     * Remove a file from the cache, the file loader deletes the temporary file
+     *
+     * @param segInfo FileSegmentInfo
+     */
+    public final synchronized void removeFile(FileSegmentInfo segInfo) {
+        CacheEntry entry = m_paths.get(segInfo.getTemporaryFile());
+
+        if (entry != null)
+            removeEntry(entry, false);
+    }
+
+    /**
+     * Check if the cache is over the high water mark, if so then evict files until the cache is below the low
+     * water mark
+     */
+    public final void checkCacheSize() {
+
+        // Check if the cache is over the high water mark, build a list of the entries in eviction order
+        List<CacheEntry> evictList = null;
+        long lowWater = (m_maxSize / 100L) * m_lowWater;
+
+        synchronized (this) {
+            if (m_usedSize <= (m_maxSize / 100L) * m_highWater)
+                return;
+
+            evictList = new ArrayList<CacheEntry>(m_entries.values());
+            Collections.sort(evictList, m_policy == Policy.LFU ? LFUOrder : LRUOrder);
+        }
+
+        // Evict files until the cache is below the low water mark
+        int evictCnt = 0;
+
+        for (CacheEntry entry : evictList) {
+
+            // Check if enough files have been evicted
+            synchronized (this) {
+                if (m_usedSize <= lowWater)
+                    break;
+            }
+
+            if (evictFile(entry))
+                evictCnt++;
+        }
+
+        // DEBUG
+        if (Debug.EnableInfo && hasDebug())
+            Debug.println("TempFileCache evicted " + evictCnt + " files, cache=" + this);
+    }
+
+    /**
+     * Load the cache index that was saved when the server was shutdown, any files in the cache sub-directory that
+     * are not in the index are deleted
+     *
+     * @param tempDir File
+     */
+    public final void loadIndex(File tempDir) {
+
+        synchronized (this) {
+
+            // Create the cache sub-directory, if it does not exist
+            m_cacheDir = new File(tempDir, CacheDirName);
+
+            if (m_cacheDir.exists() == false) {
+                m_cacheDir.mkdir();
+                return;
+            }
+
+            // Load the index, the index is deleted once loaded so that a server crash does not use out of date data
+            File idxFile = new File(m_cacheDir, IndexFileName);
+            BufferedReader idxIn = null;
+
+            if (idxFile.exists()) {
+
+                try {
+
+                    // Each index line contains the file id, stream id, size, modify date/time, last access time
+                    // and access count
+                    idxIn = new BufferedReader(new FileReader(idxFile));
+                    String line = null;
+
+                    while ((line = idxIn.readLine()) != null) {
+
+                        String[] vals = line.split(",");
+                        if (vals.length != 6)
+                            continue;
+
+                        try {
+
+                            // Check that the cached file exists
+                            int fileId = Integer.parseInt(vals[0]);
+                            int streamId = Integer.parseInt(vals[1]);
+                            long size = Long.parseLong(vals[2]);
+
+                            File cacheFile = makeCacheFile(fileId, streamId);
+
+                            if (cacheFile.length() == size && cacheFile.isFile()) {
+
+                                // Add a detached entry for the cached file
+                                CacheEntry entry = new CacheEntry(fileId, streamId, cacheFile.getAbsolutePath());
+                                entry.detach(Long.parseLong(vals[3]));
+                                entry.mi_lastAccess = Long.parseLong(vals[4]);
+                                entry.mi_accessCount = Long.parseLong(vals[5]);
+
+                                m_entries.put(makeKey(fileId, streamId), entry);
+                                m_paths.put(entry.mi_tempFile, entry);
+
+                                setEntrySize(entry, size);
+                            }
+                        }
+                        catch (NumberFormatException ex) {
+                        }
+                    }
+                }
+                catch (IOException ex) {
+
+                    // DEBUG
+                    if (Debug.EnableError && hasDebug())
+                        Debug.println("TempFileCache failed to load index, " + ex.toString());
+                }
+                finally {
+                    if (idxIn != null) {
+                        try {
+                            idxIn.close();
+                        }
+                        catch (IOException ex) {
+                        }
+                    }
+                }
+
+                idxFile.delete();
+            }
+
+            // Delete any files in the cache sub-directory that are not in the index
+            File[] files = m_cacheDir.listFiles();
+
+            if (files != null) {
+                for (File curFile : files) {
+                    if (m_paths.containsKey(curFile.getAbsolutePath()) == false)
+                        curFile.delete();
+                }
+            }
+
+            // DEBUG
+            if (Debug.EnableInfo && hasDebug())
+                Debug.println("TempFileCache loaded index, cache=" + this);
+        }
+
+        // Evict files if the cache size has been reduced
+        checkCacheSize();
+    }
+
+    /**
+     * Save the cache index, the cached files are moved to the cache sub-directory. Files that are not clean are
+     * removed from the cache.
+     */
+    public final synchronized void saveIndex() {
+
+        // Check if the cache sub-directory has been set
+        if (m_cacheDir == null)
+            return;
+
+        // Move the clean cached files to the cache sub-directory and write the index
+        File idxFile = new File(m_cacheDir, IndexFileName);
+        BufferedWriter idxOut = null;
+
+        List<CacheEntry> entries = new ArrayList<CacheEntry>(m_entries.values());
+        m_entries.clear();
+        m_paths.clear();
+        m_usedSize = 0L;
+
+        try {
+            idxOut = new BufferedWriter(new FileWriter(idxFile));
+
+            for (CacheEntry entry : entries) {
+
+                // Check if the file is attached, if so then get the current file details
+                long modifyDate = entry.mi_modifyDate;
+                File tempFile = new File(entry.mi_tempFile);
+
+                if (entry.mi_segInfo != null) {
+
+                    // Only save clean files that match the stored file data
+                    FileInfo finfo = (FileInfo) entry.mi_state.findAttribute(FileState.FileInformation);
+
+                    if (isCleanSegment(entry.mi_segInfo) == false || finfo == null || finfo.getModifyDateTime() == 0L ||
+                            finfo.getSize() != tempFile.length())
+                        continue;
+
+                    modifyDate = finfo.getModifyDateTime();
+                }
+
+                // Move the file to the cache sub-directory
+                File cacheFile = makeCacheFile(entry.mi_fileId, entry.mi_streamId);
+
+                if (cacheFile.equals(tempFile) == false) {
+                    cacheFile.delete();
+
+                    if (tempFile.renameTo(cacheFile) == false)
+                        continue;
+
+                    // Update the file segment path, so the file is not deleted when the file state is closed
+                    if (entry.mi_segInfo != null)
+                        entry.mi_segInfo.setTemporaryFile(cacheFile.getAbsolutePath());
+                }
+
+                // Write the index record
+                StringBuilder str = new StringBuilder();
+
+                str.append(entry.mi_fileId);
+                str.append(",");
+                str.append(entry.mi_streamId);
+                str.append(",");
+                str.append(cacheFile.length());
+                str.append(",");
+                str.append(modifyDate);
+                str.append(",");
+                str.append(entry.mi_lastAccess);
+                str.append(",");
+                str.append(entry.mi_accessCount);
+
+                idxOut.write(str.toString());
+                idxOut.newLine();
+
+                // Keep the entry, until the file states are closed
+                entry.mi_tempFile = cacheFile.getAbsolutePath();
+                entry.mi_size = 0L;
+
+                m_entries.put(makeKey(entry.mi_fileId, entry.mi_streamId), entry);
+                m_paths.put(entry.mi_tempFile, entry);
+
+                setEntrySize(entry, cacheFile.length());
+            }
+        }
+        catch (IOException ex) {
+
+            // DEBUG
+            if (Debug.EnableError && hasDebug())
+                Debug.println("TempFileCache failed to save index, " + ex.toString());
+
+            // Do not leave a partial index
+            m_entries.clear();
+            m_paths.clear();
+            m_usedSize = 0L;
+        }
+        finally {
+            if (idxOut != null) {
+                try {
+                    idxOut.close();
+                }
+                catch (IOException ex) {
+                }
+            }
+
+            if (m_entries.isEmpty())
+                idxFile.delete();
+        }
+
+        // DEBUG
+        if (Debug.EnableInfo && hasDebug())
+            Debug.println("TempFileCache saved index, files=" + m_entries.size());
+    }
+
+    /**
+     * Evict a file from the cache
+     *
+     * @param entry CacheEntry
+     * @return boolean true if the file was evicted
+     */
+    private final boolean evictFile(CacheEntry entry) {
+
+        // Get the file segment and state, a detached entry can be evicted immediately
+        FileSegmentInfo segInfo = null;
+        FileState state = null;
+
+        synchronized (this) {
+
+            // Check that the entry is still in the cache
+            if (m_paths.get(entry.mi_tempFile) != entry)
+                return false;
+
+            if (entry.mi_segInfo == null) {
+                removeEntry(entry, true);
+                m_evictions++;
+                m_evictedBytes += entry.mi_size;
+                return true;
+            }
+
+            segInfo = entry.mi_segInfo;
+            state = entry.mi_state;
+        }
+
+        // Attached file, check that the file is not open and the file data is clean, the file state lock is held
+        // whilst the file segment is removed so that the file cannot be opened
+        synchronized (state) {
+
+            if (state.getOpenCount() > 0 || isCleanSegment(segInfo) == false)
+                return false;
+
+            synchronized (this) {
+
+                // Check that the entry has not changed
+                if (entry.mi_segInfo != segInfo)
+                    return false;
+
+                // Remove the file segment from the file state, the file data will be loaded again if required
+                if (state.findAttribute(m_segAttr) == segInfo) {
+                    state.removeAttribute(m_segAttr);
+                    state.setDataStatus(FileState.DataStatus.LoadWait);
+                }
+
+                segInfo.setStatus(FileSegmentInfo.Initial);
+
+                // Remove the entry and delete the file
+                removeEntry(entry, true);
+                m_evictions++;
+                m_evictedBytes += entry.mi_size;
+            }
+        }
+
+        // DEBUG
+        if (Debug.EnableInfo && hasDebug())
+            Debug.println("TempFileCache evicted file=" + entry.mi_tempFile + ", size=" + entry.mi_size);
+
+        return true;
+    }
+
+    /**
+     * Remove an entry from the cache, and optionally delete the temporary file
+     *
+     * @param entry      CacheEntry
+     * @param deleteFile boolean
+     */
+    private final void removeEntry(CacheEntry entry, boolean deleteFile) {
+
+        // Remove the entry
+        m_entries.remove(makeKey(entry.mi_fileId, entry.mi_streamId));
+        m_paths.remove(entry.mi_tempFile);
+
+        m_usedSize -= entry.mi_size;
+
+        // Delete the temporary file
+        if (deleteFile)
+            new File(entry.mi_tempFile).delete();
+    }
+
+    /**
+     * Set the size of a cache entry, and update the cache size
+     *
+     * @param entry CacheEntry
+     * @param size  long
+     */
+    private final void setEntrySize(CacheEntry entry, long size) {
+        m_usedSize += size - entry.mi_size;
+        entry.mi_size = size;
+    }
+
+    /**
+     * Check if a file segment has loaded data that has not been updated, and has no queued requests
+     *
+     * @param segInfo FileSegmentInfo
+     * @return boolean
+     */
+    private static final boolean isCleanSegment(FileSegmentInfo segInfo) {
+        if (segInfo.isUpdated() || segInfo.isQueued())
+            return false;
+        return segInfo.hasStatus() == FileSegmentInfo.Available || segInfo.hasStatus() == FileSegmentInfo.Saved;
+    }
+
+    /**
+     * Return the path of the file used to hold the cached data over a restart
+     *
+     * @param fileId   int
+     * @param streamId int
+     * @return File
+     */
+    private final File makeCacheFile(int fileId, int streamId) {
+        return new File(m_cacheDir, CacheFilePrefix + fileId + "_" + streamId + ".tmp");
+    }
+
+    /**
+     * Make the cache key for a file/stream
+     *
+     * @param fileId   int
+     * @param streamId int
+     * @return String
+     */
+    private static final String makeKey(int fileId, int streamId) {
+        return fileId + ":" + streamId;
+    }
+
+    /**
+     * Compare long values
+     *
+     * @param val1 long
+     * @param val2 long
+     * @return int
+     */
+    private static final int compareLong(long val1, long val2) {
+        return val1 < val2 ? -1 : (val1 == val2 ? 0 : 1);
+    }
+
+    /**
+     * Parse a percentage value from the configuration
+     *
+     * @param config  ConfigElement
+     * @param name    String
+     * @param defVal  int
+     * @return int
+     * @exception FileLoaderException Invalid percentage value
+     */
+    private static final int parsePercentage(ConfigElement config, String name, int defVal)
+            throws FileLoaderException {
+
+        // Check if the value has been specified
+        String val = config.getAttribute(name);
+        if (val == null || val.length() == 0)
+            return defVal;
+
+        // Parse and range check the value
+        int pct = -1;
+
+        try {
+            pct = Integer.parseInt(val);
+        }
+        catch (NumberFormatException ex) {
+        }
+
+        if (pct < 1 || pct > 100)
+            throw new FileLoaderException("TempFileCache invalid " + name + ", " + val + ", valid range is 1-100");
+        return pct;
+    }
+
+    /**
+     * Return the temporary file cache details as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[TempFileCache used=");
+        str.append(MemorySize.asScaledString(getUsedSize()));
+        str.append("/");
+        str.append(MemorySize.asScaledString(getMaximumSize()));
+        str.append(",files=");
+        str.append(getNumberOfFiles());
+        str.append(",policy=");
+        str.append(getEvictionPolicy());
+        str.append(",hits=");
+        str.append(getHitCount());
+        str.append(",misses=");
+        str.append(getMissCount());
+        str.append(",evicted=");
+        str.append(getEvictionCount());
+        str.append("]");
+
+        return str.toString();
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.loader;
+
+/**
+ * Temporary File Cache MXBean Interface
+ *
+ * <p>Management interface for the file loader temporary file cache statistics.
+ *
+ * @author gkspencer
+ */
+public interface TempFileCacheMXBean {
+
+    /**
+     * Return the maximum size of the cached file data, in bytes
+     *
+     * @return long
+     */
+    public long getMaximumSize();
+
+    /**
+     * Return the current size of the cached file data, in bytes
+     *
+     * @return long
+     */
+    public long getUsedSize();
+
+    /**
+     * Return the high water mark, as a percentage of the maximum size, that starts eviction of cached files
+     *
+     * @return int
+     */
+    public int getHighWaterMark();
+
+    /**
+     * Return the low water mark, as a percentage of the maximum size, that eviction stops at
+     *
+     * @return int
+     */
+    public int getLowWaterMark();
+
+    /**
+     * Return the eviction policy name
+     *
+     * @return String
+     */
+    public String getEvictionPolicy();
+
+    /**
+     * Return the number of files in the cache
+     *
+     * @return int
+     */
+    public int getNumberOfFiles();
+
+    /**
+     * Return the count of file opens that used cached file data
+     *
+     * @return long
+     */
+    public long getHitCount();
+
+    /**
+     * Return the count of file opens that required the file data to be loaded
+     *
+     * @return long
+     */
+    public long getMissCount();
+
+    /**
+     * Return the count of cached files that have been evicted
+     *
+     * @return long
+     */
+    public long getEvictionCount();
+
+    /**
+     * Return the count of bytes evicted from the cache
+     *
+     * @return long
+     */
+    public long getEvictedBytes();
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.readahead;
+
+import org.filesys.debug.Debug;
+import org.filesys.server.SrvSession;
+import org.filesys.server.filesys.DiskInterface;
+import org.filesys.server.filesys.NetworkFile;
+import org.filesys.server.filesys.TreeConnection;
+import org.filesys.server.thread.ThreadRequest;
+
+/**
+ * Read-Ahead Block Class
+ *
+ * <p>Contains a block of file data that is loaded asynchronously, using the core thread pool, ahead of a sequential
+ * reader. The block buffer is allocated from the global memory pool and is released back to the pool once the block
+ * has been consumed, discarded or has expired.
+ *
+ * @author gkspencer
+ */
+class ReadAheadBlock implements ThreadRequest {
+
+    // Block status
+    public enum Status {
+        Queued,
+        Loading,
+        Loaded,
+        Failed
+    }
+
+    // Read-ahead cache that owns the block buffer
+    private ReadAheadCache m_cache;
+
+    // Details required to load the block
+    private SrvSession m_sess;
+    private TreeConnection m_tree;
+    private DiskInterface m_disk;
+    private NetworkFile m_netFile;
+
+    // Key used to find all blocks for the file, across network files
+    private Object m_fileKey;
+
+    // File offset and requested length of the block
+    private long m_offset;
+    private int m_length;
+
+    // Block buffer, and length of valid data in the buffer
+    private byte[] m_buf;
+    private int m_dataLen;
+
+    // Block status, and time the load completed
+    private Status m_status = Status.Queued;
+    private long m_loadTime;
+
+    // Count of readers currently copying data from the block
+    private int m_users;
+
+    // Block has been discarded, the buffer will be released when no longer in use
+    private boolean m_discard;
+
+    // Block data has been returned to a reader
+    private boolean m_used;
+
+    /**
+     * Class constructor
+     *
+     * @param cache   ReadAheadCache
+     * @param sess    SrvSession
+     * @param tree    TreeConnection
+     * @param disk    DiskInterface
+     * @param netFile NetworkFile
+     * @param fileKey Object
+     * @param offset  long
+     * @param buf     byte[]
+     * @param len     int
+     */
+    protected ReadAheadBlock(ReadAheadCache cache, SrvSession sess, TreeConnection tree, DiskInterface disk, NetworkFile netFile,
+                             Object fileKey, long offset, byte[] buf, int len) {
+        m_cache = cache;
+
+        m_sess = sess;
+        m_tree = tree;
+        m_disk = disk;
+        m_netFile = netFile;
+        m_fileKey = fileKey;
+
+        m_offset = offset;
+        m_buf = buf;
+        m_length = len;
+    }
+
+    /**
+     * Return the key of the file the block belongs to
+     *
+     * @return Object
+     */
+    public final Object getFileKey() {
+        return m_fileKey;
+    }
+
+    /**
+     * Return the file offset of the block
+     *
+     * @return long
+     */
+    public final long getOffset() {
+        return m_offset;
+    }
+
+    /**
+     * Return the requested block length
+     *
+     * @return int
+     */
+    public final int getLength() {
+        return m_length;
+    }
+
+    /**
+     * Return the block status
+     *
+     * @return Status
+     */
+    public final synchronized Status getStatus() {
+        return m_status;
+    }
+
+    /**
+     * Check if the block has been discarded
+     *
+     * @return boolean
+     */
+    public final synchronized boolean isDiscarded() {
+        return m_discard;
+    }
+
+    /**
+     * Check if the block covers the specified file range
+     *
+     * @param offset long
+     * @param len    int
+     * @return boolean
+     */
+    public final boolean containsRange(long offset, int len) {
+        return offset >= m_offset && offset + len <= m_offset + m_length;
+    }
+
+    /**
+     * Check if the block overlaps the specified file range
+     *
+     * @param offset long
+     * @param len    long, or -1 for the range to extend to the end of file
+     * @return boolean
+     */
+    public final boolean overlapsRange(long offset, long len) {
+        if (offset >= m_offset + m_length)
+            return false;
+        return len < 0 || offset + len > m_offset;
+    }
+
+    /**
+     * Check if the block has completed loading and is older than the maximum age
+     *
+     * @param now    long
+     * @param maxAge long
+     * @return boolean
+     */
+    public final synchronized boolean isExpired(long now, long maxAge) {
+        if (m_status == Status.Loaded || m_status == Status.Failed)
+            return (now - m_loadTime) > maxAge;
+        return false;
+    }
+
+    /**
+     * Load the block data
+     */
+    public void runRequest() {
+
+        // Check if the block was discarded before the load started
+        synchronized (this) {
+            if (m_discard || m_status != Status.Queued) {
+                checkRelease();
+                return;
+            }
+
+            m_status = Status.Loading;
+        }
+
+        // Read the block of data from the file
+        int rdlen = -1;
+
+        try {
+
+            // Synchronize with other readers/writers using the network file
+            synchronized (m_netFile) {
+                if (m_netFile.isClosed() == false)
+                    rdlen = m_disk.readFile(m_sess, m_tree, m_netFile, m_buf, 0, m_length, m_offset);
+            }
+        }
+        catch (Exception ex) {
+
+            // The reader will retry the read directly, and receive the error
+            if (Debug.EnableInfo && m_cache.hasDebug())
+                Debug.println("[ReadAhead] Load failed, file=" + m_netFile.getFullName() + ", offset=" + m_offset + ", ex=" + ex);
+        }
+
+        // Update the block status, wakeup any waiting reader
+        synchronized (this) {
+            if (rdlen >= 0) {
+                m_dataLen = rdlen;
+                m_status = Status.Loaded;
+
+                m_cache.blockLoaded(rdlen);
+            }
+            else
+                m_status = Status.Failed;
+
+            m_loadTime = System.currentTimeMillis();
+
+            checkRelease();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Claim the block to copy data from it. Waits for a load that is in progress, a block that is still queued
+     * is not waited for as the request may be queued behind the caller on the same thread pool.
+     *
+     * @param waitTime long
+     * @param maxAge   long
+     * @return boolean
+     */
+    public final synchronized boolean claimBlock(long waitTime, long maxAge) {
+
+        // Wait for an active load to complete
+        long endTime = System.currentTimeMillis() + waitTime;
+
+        while (m_status == Status.Loading && m_discard == false) {
+            long waitFor = endTime - System.currentTimeMillis();
+            if (waitFor <= 0)
+                break;
+
+            try {
+                wait(waitFor);
+            }
+            catch (InterruptedException ex) {
+                break;
+            }
+        }
+
+        // Check if the block data is valid, and recent
+        if (m_discard || m_status != Status.Loaded || (System.currentTimeMillis() - m_loadTime) > maxAge)
+            return false;
+
+        // Claim the block
+        m_users++;
+        m_used = true;
+
+        return true;
+    }
+
+    /**
+     * Release a claim on the block
+     *
+     * @param consumed boolean
+     */
+    public final synchronized void releaseClaim(boolean consumed) {
+        m_users--;
+
+        if (consumed)
+            m_discard = true;
+
+        checkRelease();
+    }
+
+    /**
+     * Copy data from the block to the user buffer, the block must have been claimed
+     *
+     * @param offset long
+     * @param buf    byte[]
+     * @param bufPos int
+     * @param len    int
+     * @return int
+     */
+    public final int copyData(long offset, byte[] buf, int bufPos, int len) {
+
+        // Check how much data is available at the required offset, the block may be short at the end of file
+        int blkPos = (int) (offset - m_offset);
+        int cpyLen = Math.min(len, m_dataLen - blkPos);
+
+        if (cpyLen <= 0)
+            return 0;
+
+        System.arraycopy(m_buf, blkPos, buf, bufPos, cpyLen);
+        return cpyLen;
+    }
+
+    /**
+     * Check if the end of the specified range reaches the end of the valid block data
+     *
+     * @param offset long
+     * @param len    int
+     * @return boolean
+     */
+    public final boolean isEndOfData(long offset, int len) {
+        return offset + len >= m_offset + m_dataLen;
+    }
+
+    /**
+     * Discard the block, the buffer is released when there are no active users
+     *
+     * @return boolean true if the block had loaded data that was never used
+     */
+    public final synchronized boolean discardBlock() {
+
+        // Check if the block has already been discarded
+        if (m_discard)
+            return false;
+
+        m_discard = true;
+
+        checkRelease();
+        notifyAll();
+
+        return m_status == Status.Loaded && m_used == false;
+    }
+
+    /**
+     * Release the block buffer back to the cache if the block has been discarded and is not in use
+     */
+    private final void checkRelease() {
+        if (m_discard && m_users == 0 && m_status != Status.Loading && m_buf != null) {
+            m_cache.releaseBlock(this, m_buf);
+            m_buf = null;
+
+            // Release references to the file and session
+            m_sess = null;
+            m_tree = null;
+            m_disk = null;
+            m_netFile = null;
+        }
+    }
+
+    /**
+     * Return the block details as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[ReadAheadBlock offset=");
+        str.append(m_offset);
+        str.append(", len=");
+        str.append(m_length);
+        str.append(", status=");
+        str.append(m_status);
+        str.append(", data=");
+        str.append(m_dataLen);
+        str.append(", users=");
+        str.append(m_users);
+
+        if (m_discard)
+            str.append(", Discarded");
+        str.append("]");
+
+        return str.toString();
+    }
+}
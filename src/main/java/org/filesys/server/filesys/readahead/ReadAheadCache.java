@@ -0,0 +1,744 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.readahead;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.filesys.debug.Debug;
+import org.filesys.server.SrvSession;
+import org.filesys.server.filesys.DiskInterface;
+import org.filesys.server.filesys.NetworkFile;
+import org.filesys.server.filesys.TreeConnection;
+import org.filesys.server.filesys.cache.FileState;
+import org.filesys.server.filesys.cache.NetworkFileStateInterface;
+import org.filesys.server.memory.ByteBufferPool;
+import org.filesys.server.thread.ThreadRequestPool;
+import org.filesys.server.thread.TimedThreadRequest;
+
+/**
+ * Read-Ahead Cache Class
+ *
+ * <p>Detects sequential reads on an open file and loads the following blocks of the file asynchronously, using the
+ * core thread pool, so that later read requests can be satisfied from memory. The read-ahead is layered around the
+ * DiskInterface.readFile() call so may be used with any disk driver.
+ *
+ * <p>Read-ahead blocks are allocated from the global memory pool, the total memory used is limited, with the oldest
+ * blocks being discarded to make room for new blocks. Loaded blocks are only used for a short time.
+ *
+ * <p>Blocks are also indexed by file, using the shared file state if the network file has one, or the share and path
+ * of the file, so that a write or truncate via any network file discards the overlapping blocks that were read ahead
+ * for all open instances of the file.
+ *
+ * @author gkspencer
+ */
+public class ReadAheadCache implements ReadAheadCacheMXBean {
+
+    // Default read-ahead settings
+    public static final long DefaultMemorySize          = 32L * 1024L * 1024L;
+    public static final int DefaultBlockSize            = 64 * 1024;
+    public static final int DefaultReadAheadDepth       = 4;
+    public static final int MaximumReadAheadDepth       = 32;
+    public static final int DefaultSequentialThreshold  = 2;
+    public static final long DefaultMaximumAge          = 2000L;     // milliseconds
+
+    // Time to wait for a block load that is in progress
+    public static final long LoadWaitTime = 5000L;
+
+    // Interval to check for expired blocks
+    public static final long ExpiryIntervalSecs = 5L;
+
+    // Memory pool to allocate block buffers from, and thread pool to run block loads
+    private ByteBufferPool m_bufferPool;
+    private ThreadRequestPool m_threadPool;
+
+    // Memory limit, and memory currently used by blocks
+    private long m_maxMemory;
+    private AtomicLong m_usedMemory = new AtomicLong();
+
+    // Minimum block size, and largest block that can be allocated from the memory pool
+    private int m_blockSize;
+    private int m_maxBlockSize;
+
+    // Number of blocks to read ahead, and count of sequential requests before read-ahead starts
+    private int m_depth;
+    private int m_seqThreshold = DefaultSequentialThreshold;
+
+    // Maximum age of a loaded block, in milliseconds
+    private long m_maxAge;
+
+    // Queue of allocated blocks, oldest first
+    private ConcurrentLinkedQueue<ReadAheadBlock> m_blocks = new ConcurrentLinkedQueue<ReadAheadBlock>();
+
+    // Allocated blocks indexed by file key, used to discard blocks when the file is modified
+    private HashMap<Object, List<ReadAheadBlock>> m_fileBlocks = new HashMap<Object, List<ReadAheadBlock>>();
+
+    // Block expiry timed request
+    private ReadAheadExpiryTimedRequest m_expiryReq;
+
+    // Statistics
+    private AtomicLong m_hitCount = new AtomicLong();
+    private AtomicLong m_missCount = new AtomicLong();
+    private AtomicLong m_hitBytes = new AtomicLong();
+    private AtomicLong m_seqCount = new AtomicLong();
+    private AtomicLong m_loadCount = new AtomicLong();
+    private AtomicLong m_loadBytes = new AtomicLong();
+    private AtomicLong m_wastedCount = new AtomicLong();
+    private AtomicLong m_allocFailures = new AtomicLong();
+
+    // Debug enable
+    private boolean m_debug;
+
+    /**
+     * Read-Ahead Block Expiry Timed Thread Request Class
+     */
+    private class ReadAheadExpiryTimedRequest extends TimedThreadRequest {
+
+        /**
+         * Constructor
+         */
+        public ReadAheadExpiryTimedRequest() {
+            super("ReadAheadExpiry", -ExpiryIntervalSecs, ExpiryIntervalSecs);
+        }
+
+        /**
+         * Expiry checker method
+         */
+        protected void runTimedRequest() {
+
+            // Discard expired blocks, releases the memory held by files that are no longer being read
+            expireBlocks();
+        }
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param bufPool    ByteBufferPool
+     * @param threadPool ThreadRequestPool
+     * @param maxMemory  long
+     * @param blockSize  int
+     * @param depth      int
+     * @param maxAge     long
+     */
+    public ReadAheadCache(ByteBufferPool bufPool, ThreadRequestPool threadPool, long maxMemory, int blockSize, int depth, long maxAge) {
+        m_bufferPool = bufPool;
+        m_threadPool = threadPool;
+
+        m_maxMemory = maxMemory;
+        m_depth = depth;
+        m_maxAge = maxAge;
+
+        // Block buffers must fit into the largest memory pool buffer
+        m_maxBlockSize = m_bufferPool.getLargestSize();
+        m_blockSize = Math.min(blockSize, m_maxBlockSize);
+
+        // Queue the block expiry timed request
+        m_expiryReq = new ReadAheadExpiryTimedRequest();
+        m_threadPool.queueTimedRequest(m_expiryReq);
+    }
+
+    /**
+     * Read a block of data from a file, using read-ahead data if available and queueing further read-ahead loads
+     * if the file is being read sequentially. The caller must not hold the network file lock.
+     *
+     * @param sess    SrvSession
+     * @param tree    TreeConnection
+     * @param disk    DiskInterface
+     * @param netFile NetworkFile
+     * @param buf     byte[]
+     * @param bufPos  int
+     * @param len     int
+     * @param offset  long
+     * @return int
+     * @exception IOException Error reading the file
+     */
+    public final int readFile(SrvSession sess, TreeConnection tree, DiskInterface disk, NetworkFile netFile, byte[] buf,
+                              int bufPos, int len, long offset)
+            throws IOException {
+
+        // Large requests and files with byte range locks are read directly
+        ReadAheadFile raFile = null;
+
+        if (len > 0 && len <= m_maxBlockSize && hasByteRangeLocks(netFile) == false) {
+
+            // Get, or create, the read-ahead state for the file
+            synchronized (netFile) {
+                raFile = netFile.getReadAheadFile();
+
+                if (raFile == null) {
+                    raFile = new ReadAheadFile(this);
+                    netFile.setReadAheadFile(raFile);
+                }
+            }
+        }
+        else
+            netFile.discardReadAhead();
+
+        // Check for sequential access, find a block containing the requested data and queue further read-ahead
+        ReadAheadBlock hitBlk = null;
+        List<ReadAheadBlock> loadList = null;
+
+        if (raFile != null) {
+
+            synchronized (raFile) {
+                if (raFile.checkSequential(offset, len)) {
+
+                    // Check for read-ahead data
+                    hitBlk = raFile.findBlock(offset, len);
+
+                    // Queue read-ahead blocks once the sequential threshold is reached
+                    int seqCnt = raFile.getSequentialCount();
+
+                    if (seqCnt == m_seqThreshold) {
+                        m_seqCount.incrementAndGet();
+
+                        // DEBUG
+                        if (Debug.EnableInfo && hasDebug())
+                            Debug.println("[ReadAhead] Sequential access, file=" + netFile.getFullName() + ", offset=" + offset + ", len=" + len);
+                    }
+
+                    if (seqCnt >= m_seqThreshold)
+                        loadList = allocateBlocks(sess, tree, disk, netFile, raFile, offset + len, len);
+                }
+            }
+        }
+
+        // Queue the block loads
+        if (loadList != null) {
+            for (ReadAheadBlock loadBlk : loadList)
+                m_threadPool.queueRequest(loadBlk);
+        }
+
+        // Return the data from the read-ahead block, if available
+        if (hitBlk != null) {
+
+            // If the block load has not started yet load it using the current thread, rather than waiting for a
+            // thread pool worker
+            boolean loadNow = hitBlk.getStatus() == ReadAheadBlock.Status.Queued;
+            if (loadNow)
+                hitBlk.runRequest();
+
+            if (hitBlk.claimBlock(LoadWaitTime, m_maxAge)) {
+                int rdlen = 0;
+                boolean consumed = true;
+
+                try {
+                    rdlen = hitBlk.copyData(offset, buf, bufPos, len);
+                    consumed = hitBlk.isEndOfData(offset, len);
+                }
+                finally {
+                    hitBlk.releaseClaim(consumed);
+                }
+
+                // Short data may be at the end of file, which may have changed since the block was loaded, so only
+                // complete reads are returned
+                if (rdlen == len) {
+
+                    // A block loaded by the current thread counts as a miss
+                    if (loadNow)
+                        m_missCount.incrementAndGet();
+                    else {
+                        m_hitCount.incrementAndGet();
+                        m_hitBytes.addAndGet(rdlen);
+                    }
+
+                    return rdlen;
+                }
+            }
+            else
+                discardBlock(hitBlk);
+        }
+
+        // Read the data directly from the file
+        m_missCount.incrementAndGet();
+
+        synchronized (netFile) {
+            return disk.readFile(sess, tree, netFile, buf, bufPos, len, offset);
+        }
+    }
+
+    /**
+     * Allocate read-ahead blocks ahead of the current request, must be called with the file state locked
+     *
+     * @param sess    SrvSession
+     * @param tree    TreeConnection
+     * @param disk    DiskInterface
+     * @param netFile NetworkFile
+     * @param raFile  ReadAheadFile
+     * @param reqEnd  long
+     * @param reqLen  int
+     * @return List&lt;ReadAheadBlock&gt;
+     */
+    private final List<ReadAheadBlock> allocateBlocks(SrvSession sess, TreeConnection tree, DiskInterface disk, NetworkFile netFile,
+                                                      ReadAheadFile raFile, long reqEnd, int reqLen) {
+
+        // Use a multiple of the request length for the block size, so that requests do not span blocks
+        int blkSize = reqLen;
+        if (reqLen < m_blockSize)
+            blkSize = reqLen * (m_blockSize / reqLen);
+
+        // Allocate blocks up to the read-ahead depth, or the end of file
+        long fileSize = netFile.getFileSize();
+        long raOffset = raFile.getReadAheadOffset(reqEnd);
+        int activeCnt = raFile.numberOfActiveBlocks();
+
+        List<ReadAheadBlock> loadList = null;
+
+        while (activeCnt < m_depth && raOffset < fileSize) {
+
+            // Allocate a block
+            ReadAheadBlock raBlk = allocateBlock(sess, tree, disk, netFile, raOffset, blkSize);
+            if (raBlk == null)
+                break;
+
+            // Add the block to the file, and the list of blocks to be loaded
+            raFile.addBlock(raBlk);
+
+            if (loadList == null)
+                loadList = new ArrayList<ReadAheadBlock>(m_depth);
+            loadList.add(raBlk);
+
+            raOffset += blkSize;
+            activeCnt++;
+        }
+
+        return loadList;
+    }
+
+    /**
+     * Allocate a read-ahead block, discarding the oldest blocks if the memory limit has been reached
+     *
+     * @param sess    SrvSession
+     * @param tree    TreeConnection
+     * @param disk    DiskInterface
+     * @param netFile NetworkFile
+     * @param offset  long
+     * @param len     int
+     * @return ReadAheadBlock
+     */
+    private final ReadAheadBlock allocateBlock(SrvSession sess, TreeConnection tree, DiskInterface disk, NetworkFile netFile,
+                                               long offset, int len) {
+
+        // Make room for the new block
+        if (m_usedMemory.get() + len > m_maxMemory)
+            evictBlocks(len);
+
+        // Reserve memory for the block
+        if (m_usedMemory.addAndGet(len) > m_maxMemory) {
+            m_usedMemory.addAndGet(-len);
+            m_allocFailures.incrementAndGet();
+
+            return null;
+        }
+
+        // Allocate the block buffer from the memory pool, do not wait for a buffer
+        byte[] buf = m_bufferPool.allocateBuffer(len);
+
+        if (buf == null) {
+            m_usedMemory.addAndGet(-len);
+            m_allocFailures.incrementAndGet();
+
+            return null;
+        }
+
+        // Create the block
+        Object fileKey = getFileKey(tree, netFile);
+        ReadAheadBlock raBlk = new ReadAheadBlock(this, sess, tree, disk, netFile, fileKey, offset, buf, len);
+        m_blocks.add(raBlk);
+
+        // Add the block to the per file index
+        synchronized (m_fileBlocks) {
+            List<ReadAheadBlock> blkList = m_fileBlocks.get(fileKey);
+
+            if (blkList == null) {
+                blkList = new ArrayList<ReadAheadBlock>(m_depth);
+                m_fileBlocks.put(fileKey, blkList);
+            }
+
+            blkList.add(raBlk);
+        }
+
+        return raBlk;
+    }
+
+    /**
+     * Discard the oldest loaded blocks to make room for a new block
+     *
+     * @param len int
+     */
+    private final void evictBlocks(int len) {
+
+        for (ReadAheadBlock curBlk : m_blocks) {
+
+            // Only discard blocks that have completed loading, queued blocks are likely to be used soon
+            ReadAheadBlock.Status sts = curBlk.getStatus();
+
+            if (sts == ReadAheadBlock.Status.Loaded || sts == ReadAheadBlock.Status.Failed) {
+                discardBlock(curBlk);
+
+                if (m_usedMemory.get() + len <= m_maxMemory)
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Discard blocks that are older than the maximum block age
+     */
+    protected final void expireBlocks() {
+
+        long now = System.currentTimeMillis();
+        int expireCnt = 0;
+
+        for (ReadAheadBlock curBlk : m_blocks) {
+
+            if (curBlk.isExpired(now, m_maxAge)) {
+                discardBlock(curBlk);
+                expireCnt++;
+            }
+        }
+
+        // DEBUG
+        if (Debug.EnableInfo && hasDebug() && expireCnt > 0)
+            Debug.println("[ReadAhead] Expired " + expireCnt + " blocks, used=" + m_usedMemory.get());
+    }
+
+    /**
+     * Discard a read-ahead block
+     *
+     * @param raBlk ReadAheadBlock
+     */
+    protected final void discardBlock(ReadAheadBlock raBlk) {
+        if (raBlk.discardBlock())
+            m_wastedCount.incrementAndGet();
+    }
+
+    /**
+     * Release a block buffer back to the memory pool
+     *
+     * @param raBlk ReadAheadBlock
+     * @param buf   byte[]
+     */
+    protected final void releaseBlock(ReadAheadBlock raBlk, byte[] buf) {
+        m_bufferPool.releaseBuffer(buf);
+
+        m_usedMemory.addAndGet(-raBlk.getLength());
+        m_blocks.remove(raBlk);
+
+        // Remove the block from the per file index
+        synchronized (m_fileBlocks) {
+            List<ReadAheadBlock> blkList = m_fileBlocks.get(raBlk.getFileKey());
+
+            if (blkList != null && blkList.remove(raBlk) && blkList.isEmpty())
+                m_fileBlocks.remove(raBlk.getFileKey());
+        }
+    }
+
+    /**
+     * Discard read-ahead data for a file that has been written to or truncated. Overlapping blocks are discarded
+     * for all open instances of the file, not just the network file used for the update. Must be called after the
+     * disk driver has completed the update.
+     *
+     * @param tree    TreeConnection
+     * @param netFile NetworkFile
+     * @param offset  long
+     * @param len     long, or -1 if the file was truncated or extended at the offset
+     */
+    public final void fileModified(TreeConnection tree, NetworkFile netFile, long offset, long len) {
+
+        // Restart read-ahead on the network file used for the update
+        netFile.discardReadAhead();
+
+        // Find the blocks for the file that overlap the modified range
+        List<ReadAheadBlock> discardList = null;
+
+        synchronized (m_fileBlocks) {
+            List<ReadAheadBlock> blkList = m_fileBlocks.get(getFileKey(tree, netFile));
+
+            if (blkList != null) {
+                for (ReadAheadBlock curBlk : blkList) {
+                    if (curBlk.overlapsRange(offset, len)) {
+                        if (discardList == null)
+                            discardList = new ArrayList<ReadAheadBlock>();
+                        discardList.add(curBlk);
+                    }
+                }
+            }
+        }
+
+        // Discard the blocks, outside of the index lock as the block buffer may be released back to the cache
+        if (discardList != null) {
+            for (ReadAheadBlock curBlk : discardList)
+                discardBlock(curBlk);
+
+            // DEBUG
+            if (Debug.EnableInfo && hasDebug())
+                Debug.println("[ReadAhead] File modified, file=" + netFile.getFullName() + ", offset=" + offset + ", len=" + len +
+                        ", discarded=" + discardList.size());
+        }
+    }
+
+    /**
+     * Return the key used to index the read-ahead blocks for a file. Uses the shared file state if available, else
+     * the share name and normalized path, so that all network files for the same file map to the same key.
+     *
+     * @param tree    TreeConnection
+     * @param netFile NetworkFile
+     * @return Object
+     */
+    private final Object getFileKey(TreeConnection tree, NetworkFile netFile) {
+
+        // Use the file state, shared by all open instances of the file
+        if (netFile instanceof NetworkFileStateInterface) {
+            FileState fState = ((NetworkFileStateInterface) netFile).getFileState();
+            if (fState != null)
+                return fState;
+        }
+
+        // Build a key from the share name and path
+        StringBuilder key = new StringBuilder();
+
+        if (tree != null && tree.getSharedDevice() != null)
+            key.append(tree.getSharedDevice().getName());
+        key.append(":");
+
+        String path = netFile.getFullName();
+        if (path != null)
+            key.append(path.replace('/', '\\').toUpperCase(Locale.ENGLISH));
+        else
+            key.append(netFile.getFileId());
+
+        return key.toString();
+    }
+
+    /**
+     * Update the load statistics when a block has been loaded
+     *
+     * @param len int
+     */
+    protected final void blockLoaded(int len) {
+        m_loadCount.incrementAndGet();
+        m_loadBytes.addAndGet(len);
+    }
+
+    /**
+     * Check if the file has byte range locks, the lock checks are done by the disk driver so reads are not satisfied
+     * from read-ahead data
+     *
+     * @param netFile NetworkFile
+     * @return boolean
+     */
+    private final boolean hasByteRangeLocks(NetworkFile netFile) {
+
+        // Check for locks owned by this file handle
+        if (netFile.hasLocks())
+            return true;
+
+        // Check for locks on the file state, from other sessions
+        if (netFile instanceof NetworkFileStateInterface) {
+            FileState fState = ((NetworkFileStateInterface) netFile).getFileState();
+            if (fState != null && fState.hasActiveLocks())
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Close the read-ahead cache, discard all blocks
+     */
+    public final void closeCache() {
+
+        // Stop the block expiry timed request
+        m_threadPool.removeTimedRequest(m_expiryReq);
+
+        // Discard all blocks, buffers for blocks that are loading are released when the load completes
+        for (ReadAheadBlock curBlk : m_blocks)
+            discardBlock(curBlk);
+    }
+
+    /**
+     * Set the count of sequential requests before read-ahead starts
+     *
+     * @param seqCnt int
+     */
+    public final void setSequentialThreshold(int seqCnt) {
+        if (seqCnt > 0)
+            m_seqThreshold = seqCnt;
+    }
+
+    /**
+     * Check if debug output is enabled
+     *
+     * @return boolean
+     */
+    public final boolean hasDebug() {
+        return m_debug;
+    }
+
+    /**
+     * Enable/disable debug output
+     *
+     * @param dbg boolean
+     */
+    public final void setDebug(boolean dbg) {
+        m_debug = dbg;
+    }
+
+    /**
+     * Return the maximum memory that can be used for read-ahead blocks
+     *
+     * @return long
+     */
+    public long getMaximumMemory() {
+        return m_maxMemory;
+    }
+
+    /**
+     * Return the memory currently used by read-ahead blocks
+     *
+     * @return long
+     */
+    public long getUsedMemory() {
+        return m_usedMemory.get();
+    }
+
+    /**
+     * Return the minimum read-ahead block size
+     *
+     * @return int
+     */
+    public int getBlockSize() {
+        return m_blockSize;
+    }
+
+    /**
+     * Return the number of blocks read ahead of a sequential reader
+     *
+     * @return int
+     */
+    public int getReadAheadDepth() {
+        return m_depth;
+    }
+
+    /**
+     * Return the count of read requests satisfied from read-ahead data
+     *
+     * @return long
+     */
+    public long getHitCount() {
+        return m_hitCount.get();
+    }
+
+    /**
+     * Return the count of read requests that had to be read from the file
+     *
+     * @return long
+     */
+    public long getMissCount() {
+        return m_missCount.get();
+    }
+
+    /**
+     * Return the count of bytes returned from read-ahead data
+     *
+     * @return long
+     */
+    public long getHitBytes() {
+        return m_hitBytes.get();
+    }
+
+    /**
+     * Return the count of sequential access streams detected
+     *
+     * @return long
+     */
+    public long getSequentialCount() {
+        return m_seqCount.get();
+    }
+
+    /**
+     * Return the count of read-ahead blocks loaded
+     *
+     * @return long
+     */
+    public long getLoadCount() {
+        return m_loadCount.get();
+    }
+
+    /**
+     * Return the count of bytes loaded into read-ahead blocks
+     *
+     * @return long
+     */
+    public long getLoadBytes() {
+        return m_loadBytes.get();
+    }
+
+    /**
+     * Return the count of loaded read-ahead blocks that were discarded without being used
+     *
+     * @return long
+     */
+    public long getWastedCount() {
+        return m_wastedCount.get();
+    }
+
+    /**
+     * Return the count of read-ahead blocks that could not be allocated due to the memory limit, or no free pooled
+     * buffers
+     *
+     * @return long
+     */
+    public long getAllocationFailures() {
+        return m_allocFailures.get();
+    }
+
+    /**
+     * Return the read-ahead cache details as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[ReadAhead mem=");
+        str.append(m_usedMemory.get());
+        str.append("/");
+        str.append(m_maxMemory);
+        str.append(", blocks=");
+        str.append(m_blocks.size());
+        str.append(", hits=");
+        str.append(m_hitCount.get());
+        str.append(", misses=");
+        str.append(m_missCount.get());
+        str.append(", loads=");
+        str.append(m_loadCount.get());
+        str.append(", wasted=");
+        str.append(m_wastedCount.get());
+        str.append("]");
+
+        return str.toString();
+    }
+}
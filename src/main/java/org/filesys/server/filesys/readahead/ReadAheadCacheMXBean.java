@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.readahead;
+
+/**
+ * Read-Ahead Cache MXBean Interface
+ *
+ * <p>Management interface for the read-ahead cache statistics.
+ *
+ * @author gkspencer
+ */
+public interface ReadAheadCacheMXBean {
+
+    /**
+     * Return the maximum memory that can be used for read-ahead blocks
+     *
+     * @return long
+     */
+    public long getMaximumMemory();
+
+    /**
+     * Return the memory currently used by read-ahead blocks
+     *
+     * @return long
+     */
+    public long getUsedMemory();
+
+    /**
+     * Return the minimum read-ahead block size
+     *
+     * @return int
+     */
+    public int getBlockSize();
+
+    /**
+     * Return the number of blocks read ahead of a sequential reader
+     *
+     * @return int
+     */
+    public int getReadAheadDepth();
+
+    /**
+     * Return the count of read requests satisfied from read-ahead data
+     *
+     * @return long
+     */
+    public long getHitCount();
+
+    /**
+     * Return the count of read requests that had to be read from the file
+     *
+     * @return long
+     */
+    public long getMissCount();
+
+    /**
+     * Return the count of bytes returned from read-ahead data
+     *
+     * @return long
+     */
+    public long getHitBytes();
+
+    /**
+     * Return the count of sequential access streams detected
+     *
+     * @return long
+     */
+    public long getSequentialCount();
+
+    /**
+     * Return the count of read-ahead blocks loaded
+     *
+     * @return long
+     */
+    public long getLoadCount();
+
+    /**
+     * Return the count of bytes loaded into read-ahead blocks
+     *
+     * @return long
+     */
+    public long getLoadBytes();
+
+    /**
+     * Return the count of loaded read-ahead blocks that were discarded without being used
+     *
+     * @return long
+     */
+    public long getWastedCount();
+
+    /**
+     * Return the count of read-ahead blocks that could not be allocated due to the memory limit, or no free pooled
+     * buffers
+     *
+     * @return long
+     */
+    public long getAllocationFailures();
+}
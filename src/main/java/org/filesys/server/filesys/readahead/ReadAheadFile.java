@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.filesys.readahead;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Read-Ahead File Class
+ *
+ * <p>Per open file read-ahead state. Detects sequential access to the file and holds the list of read-ahead blocks
+ * that have been queued, or loaded, ahead of the reader.
+ *
+ * <p>Requests are considered sequential if they start close to the end of the previous requests, within a window of
+ * a few request lengths, as NFS clients and SMB clients with multiple outstanding reads may deliver sequential
+ * requests slightly out of order.
+ *
+ * @author gkspencer
+ */
+public class ReadAheadFile {
+
+    // Sequential window, in multiples of the request length
+    public static final int SequentialWindow = 4;
+
+    // Read-ahead cache
+    private ReadAheadCache m_cache;
+
+    // End offset of the sequential run, and count of sequential requests
+    private long m_nextOffset;
+    private int m_seqCount;
+
+    // File offset of the next block to be read ahead
+    private long m_raOffset;
+
+    // List of read-ahead blocks, in file offset order
+    private List<ReadAheadBlock> m_blocks = new ArrayList<ReadAheadBlock>();
+
+    /**
+     * Class constructor
+     *
+     * @param cache ReadAheadCache
+     */
+    protected ReadAheadFile(ReadAheadCache cache) {
+        m_cache = cache;
+    }
+
+    /**
+     * Return the count of sequential requests in the current run
+     *
+     * @return int
+     */
+    public final synchronized int getSequentialCount() {
+        return m_seqCount;
+    }
+
+    /**
+     * Return the count of read-ahead blocks
+     *
+     * @return int
+     */
+    public final synchronized int numberOfBlocks() {
+        return m_blocks.size();
+    }
+
+    /**
+     * Update the sequential access detector with a new read request, must be called with the file state locked
+     *
+     * @param offset long
+     * @param len    int
+     * @return boolean true if the request continues a sequential run
+     */
+    protected final boolean checkSequential(long offset, int len) {
+
+        // Check if the request is within the sequential window of the end of the previous requests
+        long window = (long) len * SequentialWindow;
+        boolean seq = offset >= m_nextOffset - window && offset <= m_nextOffset + window;
+
+        if (seq) {
+
+            // Continue the sequential run
+            m_seqCount++;
+
+            if (offset + len > m_nextOffset)
+                m_nextOffset = offset + len;
+        }
+        else {
+
+            // Random access, start a new run and drop any read-ahead data
+            m_seqCount = 1;
+            m_nextOffset = offset + len;
+            m_raOffset = 0L;
+
+            discardAllBlocks();
+        }
+
+        return seq;
+    }
+
+    /**
+     * Find a read-ahead block that contains the requested range, must be called with the file state locked. Blocks
+     * that have been discarded, or that are behind the reader, are removed from the list.
+     *
+     * @param offset long
+     * @param len    int
+     * @return ReadAheadBlock
+     */
+    protected final ReadAheadBlock findBlock(long offset, int len) {
+
+        ReadAheadBlock foundBlk = null;
+        Iterator<ReadAheadBlock> iter = m_blocks.iterator();
+
+        while (iter.hasNext()) {
+            ReadAheadBlock curBlk = iter.next();
+
+            // Remove discarded blocks
+            if (curBlk.isDiscarded())
+                iter.remove();
+            else if (curBlk.containsRange(offset, len))
+                foundBlk = curBlk;
+            else if (curBlk.getOffset() + curBlk.getLength() <= offset - (long) len * SequentialWindow) {
+
+                // Block is behind the reader, it will not be used
+                m_cache.discardBlock(curBlk);
+                iter.remove();
+            }
+        }
+
+        return foundBlk;
+    }
+
+    /**
+     * Return the file offset of the next block to be read ahead, must be called with the file state locked
+     *
+     * @param reqEnd long
+     * @return long
+     */
+    protected final long getReadAheadOffset(long reqEnd) {
+        if (m_raOffset < reqEnd)
+            m_raOffset = reqEnd;
+        return m_raOffset;
+    }
+
+    /**
+     * Add a read-ahead block, must be called with the file state locked
+     *
+     * @param blk ReadAheadBlock
+     */
+    protected final void addBlock(ReadAheadBlock blk) {
+        m_blocks.add(blk);
+        m_raOffset = blk.getOffset() + blk.getLength();
+    }
+
+    /**
+     * Return the count of blocks that are still active, must be called with the file state locked
+     *
+     * @return int
+     */
+    protected final int numberOfActiveBlocks() {
+        int cnt = 0;
+
+        for (ReadAheadBlock curBlk : m_blocks) {
+            if (curBlk.isDiscarded() == false)
+                cnt++;
+        }
+
+        return cnt;
+    }
+
+    /**
+     * Discard all read-ahead blocks for the file, called when the file data is modified
+     */
+    public final synchronized void discardBlocks() {
+
+        // Discard the blocks and restart read-ahead from the next request
+        discardAllBlocks();
+        m_raOffset = 0L;
+    }
+
+    /**
+     * Discard all read-ahead blocks, must be called with the file state locked
+     */
+    private final void discardAllBlocks() {
+
+        for (ReadAheadBlock curBlk : m_blocks)
+            m_cache.discardBlock(curBlk);
+        m_blocks.clear();
+    }
+
+    /**
+     * Return the read-ahead file state as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[ReadAheadFile seq=");
+        str.append(m_seqCount);
+        str.append(", next=");
+        str.append(m_nextOffset);
+        str.append(", raOffset=");
+        str.append(m_raOffset);
+        str.append(", blocks=");
+        str.append(m_blocks.size());
+        str.append("]");
+
+        return str.toString();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.filesys.server.memory;
+
+/**
+ * Buffer List Interface
+ *
+ * <p>Pool of byte buffers of the same size, with an initial and maximum allocation.
+ *
+ * @author gkspencer
+ */
+public interface BufferList {
+
+    /**
+     * Return the buffer size
+     *
+     * @return int
+     */
+    public int getBufferSize();
+
+    /**
+     * Return the initial allocation size
+     *
+     * @return int
+     */
+    public int getInitialAllocation();
+
+    /**
+     * Return the maximum allocation size
+     *
+     * @return int
+     */
+    public int getMaximumAllocation();
+
+    /**
+     * Return the count of available buffers
+     *
+     * @return int
+     */
+    public int getAvailableCount();
+
+    /**
+     * Return the count of buffers currently allocated out
+     *
+     * @return int
+     */
+    public int getAllocatedCount();
+
+    /**
+     * Return the allocations statistic
+     *
+     * @return long
+     */
+    public long getStatAllocationCounter();
+
+    /**
+     * Return the allocation wait statistic
+     *
+     * @return long
+     */
+    public long getStatAllocationWaits();
+
+    /**
+     * Return the allocation wait expired statistic
+     *
+     * @return long
+     */
+    public long getStatAllocationWaitsExpired();
+
+    /**
+     * Allocate a buffer, wait up to the specified time if the list is at its maximum allocation
+     *
+     * @param waitTime long
+     * @return byte[], or null if no buffer is available
+     */
+    public byte[] allocateBuffer(long waitTime);
+
+    /**
+     * Release a buffer back to the pool
+     *
+     * @param buf byte[]
+     */
+    public void releaseBuffer(byte[] buf);
+
+    /**
+     * Shrink the buffer list back to the initial allocation size
+     *
+     * @return Count of buffers released
+     */
+    public int shrinkList();
+}
@@ -30,7 +30,7 @@ import java.util.List;
  *
  * @author gkspencer
  */
-public class ByteBufferList {
+public class ByteBufferList implements BufferList {
 
     // Buffer size, initial allocation and maximum allocation
     private int m_bufSize;
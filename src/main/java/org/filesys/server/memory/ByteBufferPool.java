@@ -22,14 +22,24 @@ package org.filesys.server.memory;
 /**
  * Byte buffer Pool Class
  *
- * <p>Memory pool of different sized byte buffers.
+ * <p>Memory pool of different sized byte buffers. The standard pool uses a single lock per buffer size, the
+ * striped pool uses per-CPU lock-free buffer lists to reduce lock contention with large numbers of sessions.
  *
  * @author gkspencer
  */
-public class ByteBufferPool {
+public class ByteBufferPool implements ByteBufferPoolMXBean {
+
+    // Buffer pool types
+    public enum PoolType {
+        Standard,
+        Striped
+    }
 
     // List of byte buffer pools
-    private ByteBufferList[] m_bufferLists;
+    private BufferList[] m_bufferLists;
+
+    // Pool type
+    private PoolType m_poolType;
 
     // Buffer sizes, initial allocation and maximum allocation
     private int[] m_bufSizes;
@@ -44,6 +54,18 @@ public class ByteBufferPool {
      * @param maxAlloc  Maximim allocations for each size int[]
      */
     public ByteBufferPool(int[] bufSizes, int[] initAlloc, int[] maxAlloc) {
+        this(bufSizes, initAlloc, maxAlloc, PoolType.Standard);
+    }
+
+    /**
+     * Class constuctor
+     *
+     * @param bufSizes  Buffer sizes int[]
+     * @param initAlloc Initial allocations for each size int[]
+     * @param maxAlloc  Maximim allocations for each size int[]
+     * @param poolType  PoolType
+     */
+    public ByteBufferPool(int[] bufSizes, int[] initAlloc, int[] maxAlloc, PoolType poolType) {
 
         // Validate the buffer size, initial allocation and max allocation arrays
         if ((bufSizes.length != initAlloc.length) && (bufSizes.length != maxAlloc.length))
@@ -54,14 +76,22 @@ public class ByteBufferPool {
         m_initAlloc = initAlloc;
         m_maxAlloc = maxAlloc;
 
+        m_poolType = poolType;
+
         // Allocate the buffer list
-        m_bufferLists = new ByteBufferList[m_bufSizes.length];
+        m_bufferLists = new BufferList[m_bufSizes.length];
 
         // Allocate the byte buffer lists
         for (int i = 0; i < m_bufSizes.length; i++) {
 
             // Allocate a byte buffer list for the current buffer size
-            ByteBufferList bufList = new ByteBufferList(m_bufSizes[i], m_initAlloc[i], m_maxAlloc[i]);
+            BufferList bufList = null;
+
+            if (poolType == PoolType.Striped)
+                bufList = new StripedByteBufferList(m_bufSizes[i], m_initAlloc[i], m_maxAlloc[i]);
+            else
+                bufList = new ByteBufferList(m_bufSizes[i], m_initAlloc[i], m_maxAlloc[i]);
+
             m_bufferLists[i] = bufList;
         }
     }
@@ -146,15 +176,102 @@ public class ByteBufferPool {
         return m_bufSizes[m_bufSizes.length - 1];
     }
 
+    /**
+     * Return the pool type
+     *
+     * @return PoolType
+     */
+    public final PoolType getPoolType() {
+        return m_poolType;
+    }
+
     /**
      * Return the buffer list
      *
-     * @return ByteBufferList[]
+     * @return BufferList[]
      */
-    public final ByteBufferList[] getBufferList() {
+    public final BufferList[] getBufferList() {
         return m_bufferLists;
     }
 
+    /**
+     * Return the buffer sizes
+     *
+     * @return int[]
+     */
+    public final int[] getBufferSizes() {
+        int[] sizes = new int[m_bufferLists.length];
+
+        for (int i = 0; i < m_bufferLists.length; i++)
+            sizes[i] = m_bufferLists[i].getBufferSize();
+        return sizes;
+    }
+
+    /**
+     * Return the count of available buffers for each buffer size
+     *
+     * @return int[]
+     */
+    public final int[] getAvailableCounts() {
+        int[] counts = new int[m_bufferLists.length];
+
+        for (int i = 0; i < m_bufferLists.length; i++)
+            counts[i] = m_bufferLists[i].getAvailableCount();
+        return counts;
+    }
+
+    /**
+     * Return the count of allocated buffers for each buffer size
+     *
+     * @return int[]
+     */
+    public final int[] getAllocatedCounts() {
+        int[] counts = new int[m_bufferLists.length];
+
+        for (int i = 0; i < m_bufferLists.length; i++)
+            counts[i] = m_bufferLists[i].getAllocatedCount();
+        return counts;
+    }
+
+    /**
+     * Return the count of allocations for each buffer size
+     *
+     * @return long[]
+     */
+    public final long[] getAllocationCounts() {
+        long[] counts = new long[m_bufferLists.length];
+
+        for (int i = 0; i < m_bufferLists.length; i++)
+            counts[i] = m_bufferLists[i].getStatAllocationCounter();
+        return counts;
+    }
+
+    /**
+     * Return the count of allocations that had to wait for a buffer for each buffer size
+     *
+     * @return long[]
+     */
+    public final long[] getAllocationWaits() {
+        long[] counts = new long[m_bufferLists.length];
+
+        for (int i = 0; i < m_bufferLists.length; i++)
+            counts[i] = m_bufferLists[i].getStatAllocationWaits();
+        return counts;
+    }
+
+    /**
+     * Return the count of allocations that timed out waiting for a buffer for each buffer size
+     *
+     * @return long[]
+     */
+    public final long[] getAllocationWaitsExpired() {
+        long[] counts = new long[m_bufferLists.length];
+
+        for (int i = 0; i < m_bufferLists.length; i++)
+            counts[i] = m_bufferLists[i].getStatAllocationWaitsExpired();
+        return counts;
+    }
+
     /**
      * Return the byte buffer pool details as a string
      *
@@ -163,7 +280,9 @@ public class ByteBufferPool {
     public String toString() {
         StringBuilder str = new StringBuilder();
 
-        str.append("[BufferLists:\n");
+        str.append("[BufferLists:");
+        str.append(getPoolType().name());
+        str.append("\n");
 
         for (int i = 0; i < m_bufferLists.length; i++) {
             str.append("  ");
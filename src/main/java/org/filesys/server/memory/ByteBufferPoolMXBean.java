@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.filesys.server.memory;
+
+/**
+ * Byte Buffer Pool MXBean Interface
+ *
+ * <p>Management interface for the byte buffer pool. Per buffer size values are returned as arrays in the same order as
+ * the buffer sizes.
+ *
+ * @author gkspencer
+ */
+public interface ByteBufferPoolMXBean {
+
+    /**
+     * Return the pool type
+     *
+     * @return ByteBufferPool.PoolType
+     */
+    public ByteBufferPool.PoolType getPoolType();
+
+    /**
+     * Return the length of the smallest packet size available
+     *
+     * @return int
+     */
+    public int getSmallestSize();
+
+    /**
+     * Return the length of the largest packet size available
+     *
+     * @return int
+     */
+    public int getLargestSize();
+
+    /**
+     * Return the buffer sizes
+     *
+     * @return int[]
+     */
+    public int[] getBufferSizes();
+
+    /**
+     * Return the count of available buffers for each buffer size
+     *
+     * @return int[]
+     */
+    public int[] getAvailableCounts();
+
+    /**
+     * Return the count of allocated buffers for each buffer size
+     *
+     * @return int[]
+     */
+    public int[] getAllocatedCounts();
+
+    /**
+     * Return the count of allocations for each buffer size
+     *
+     * @return long[]
+     */
+    public long[] getAllocationCounts();
+
+    /**
+     * Return the count of allocations that had to wait for a buffer for each buffer size
+     *
+     * @return long[]
+     */
+    public long[] getAllocationWaits();
+
+    /**
+     * Return the count of allocations that timed out waiting for a buffer for each buffer size
+     *
+     * @return long[]
+     */
+    public long[] getAllocationWaitsExpired();
+}
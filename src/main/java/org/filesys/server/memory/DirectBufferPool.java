@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.filesys.server.memory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Direct Buffer Pool Class
+ *
+ * <p>Pool of fixed size off-heap (direct) byte buffers used for socket channel I/O. Buffers are sliced from larger
+ * direct memory slabs, with the buffer size rounded up to the alignment size so that each buffer starts on an
+ * aligned offset within its slab. Using pooled direct buffers avoids the per-thread temporary direct buffers
+ * that the JDK allocates when a heap buffer is passed to a socket channel.
+ *
+ * <p>The SMB packets remain heap byte arrays, the data is still copied once between the packet and the direct
+ * buffer for each socket read/write, the same copy the JDK makes using its temporary buffer. The pool bounds and
+ * reuses the off-heap memory used for the copy, it does not reduce the number of copies.
+ *
+ * <p>Allocations do not wait, if the pool is at its maximum allocation a null buffer is returned and the caller
+ * should fall back to heap buffer I/O.
+ *
+ * @author gkspencer
+ */
+public class DirectBufferPool {
+
+    // Default buffer alignment and buffers per slab
+    public static final int DefaultAlignment      = 4096;
+    public static final int DefaultBuffersPerSlab = 16;
+
+    // Buffer size, buffers per slab and maximum number of buffers
+    private int m_bufSize;
+    private int m_slabBuffers;
+    private int m_maxBuffers;
+
+    // Available buffers
+    private ConcurrentLinkedQueue<ByteBuffer> m_freeList = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    // Count of buffers that have been sliced from slabs, and count of buffers allocated out
+    private AtomicInteger m_bufCount = new AtomicInteger();
+    private AtomicInteger m_allocCount = new AtomicInteger();
+
+    // Lock used when allocating a new slab
+    private final Object m_slabLock = new Object();
+
+    // Statistics
+    private AtomicLong m_statAllocs = new AtomicLong();
+    private AtomicLong m_statFailed = new AtomicLong();
+
+    /**
+     * Class constructor
+     *
+     * @param bufSize    int
+     * @param maxBuffers int
+     */
+    public DirectBufferPool(int bufSize, int maxBuffers) {
+        this(bufSize, maxBuffers, DefaultBuffersPerSlab, DefaultAlignment);
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param bufSize     int
+     * @param maxBuffers  int
+     * @param slabBuffers int
+     * @param alignment   int
+     */
+    public DirectBufferPool(int bufSize, int maxBuffers, int slabBuffers, int alignment) {
+
+        // Validate the settings
+        if (bufSize <= 0 || maxBuffers <= 0 || slabBuffers <= 0 || alignment <= 0 || Integer.bitCount(alignment) != 1)
+            throw new RuntimeException("Invalid DirectBufferPool parameters, size=" + bufSize + ", max=" + maxBuffers + ", slab=" + slabBuffers +
+                    ", align=" + alignment);
+
+        // Round the buffer size up to the alignment size
+        m_bufSize = (bufSize + alignment - 1) & ~(alignment - 1);
+
+        m_maxBuffers = maxBuffers;
+        m_slabBuffers = slabBuffers > maxBuffers ? maxBuffers : slabBuffers;
+    }
+
+    /**
+     * Return the buffer size
+     *
+     * @return int
+     */
+    public final int getBufferSize() {
+        return m_bufSize;
+    }
+
+    /**
+     * Return the maximum number of buffers
+     *
+     * @return int
+     */
+    public final int getMaximumBuffers() {
+        return m_maxBuffers;
+    }
+
+    /**
+     * Return the count of buffers currently allocated out
+     *
+     * @return int
+     */
+    public final int getAllocatedCount() {
+        return m_allocCount.get();
+    }
+
+    /**
+     * Return the count of buffers that have been sliced from direct memory slabs
+     *
+     * @return int
+     */
+    public final int getBufferCount() {
+        return m_bufCount.get();
+    }
+
+    /**
+     * Return the allocations statistic
+     *
+     * @return long
+     */
+    public final long getStatAllocationCounter() {
+        return m_statAllocs.get();
+    }
+
+    /**
+     * Return the failed allocations statistic
+     *
+     * @return long
+     */
+    public final long getStatAllocationFailed() {
+        return m_statFailed.get();
+    }
+
+    /**
+     * Allocate a direct buffer, the buffer is cleared ready for use
+     *
+     * @return ByteBuffer, or null if there are no buffers available
+     */
+    public final ByteBuffer allocateBuffer() {
+
+        // Get a buffer from the available list, or allocate a new slab of buffers
+        ByteBuffer buf = m_freeList.poll();
+
+        if (buf == null && m_bufCount.get() < m_maxBuffers) {
+            allocateSlab();
+            buf = m_freeList.poll();
+        }
+
+        // Update the stats
+        if (buf != null) {
+            buf.clear();
+
+            m_allocCount.incrementAndGet();
+            m_statAllocs.incrementAndGet();
+        }
+        else
+            m_statFailed.incrementAndGet();
+
+        return buf;
+    }
+
+    /**
+     * Release a direct buffer back to the pool
+     *
+     * @param buf ByteBuffer
+     */
+    public final void releaseBuffer(ByteBuffer buf) {
+
+        // Make sure it is one of our buffers
+        if (buf == null || buf.isDirect() == false || buf.capacity() != m_bufSize)
+            return;
+
+        m_allocCount.decrementAndGet();
+        m_freeList.offer(buf);
+    }
+
+    /**
+     * Allocate a new slab of direct memory and slice it into buffers
+     */
+    private final void allocateSlab() {
+
+        synchronized (m_slabLock) {
+
+            // Check if another thread has already allocated a slab
+            if (m_freeList.isEmpty() == false)
+                return;
+
+            // Determine how many buffers to add
+            int slabCnt = m_maxBuffers - m_bufCount.get();
+            if (slabCnt > m_slabBuffers)
+                slabCnt = m_slabBuffers;
+
+            if (slabCnt <= 0)
+                return;
+
+            // Allocate the slab and slice into buffers
+            ByteBuffer slab = ByteBuffer.allocateDirect(m_bufSize * slabCnt);
+
+            for (int i = 0; i < slabCnt; i++) {
+                slab.limit((i + 1) * m_bufSize);
+                slab.position(i * m_bufSize);
+
+                m_freeList.offer(slab.slice());
+            }
+
+            m_bufCount.addAndGet(slabCnt);
+        }
+    }
+
+    /**
+     * Return the direct buffer pool details as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[Direct bufsize=");
+        str.append(getBufferSize());
+        str.append(",Max=");
+        str.append(getMaximumBuffers());
+        str.append(",Bufs=");
+        str.append(getBufferCount());
+        str.append(",Alloc=");
+        str.append(getAllocatedCount());
+        str.append(",Stats=");
+        str.append(getStatAllocationCounter());
+        str.append("/");
+        str.append(getStatAllocationFailed());
+        str.append("]");
+
+        return str.toString();
+    }
+}
@@ -0,0 +1,530 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.filesys.server.memory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Striped Byte Buffer List Class
+ *
+ * <p>Contains a list of byte buffers of the same size, the list has an initial and maximum size. Free buffers
+ * are held in a set of per-CPU stripes of buffer slots, with a shared lock-free overflow stack, so that
+ * allocations and releases from different threads do not contend on a single lock. Threads only synchronize
+ * when they have to wait for a buffer to be released because the list is at its maximum allocation.
+ *
+ * @author gkspencer
+ */
+public class StripedByteBufferList implements BufferList {
+
+    // Number of buffer slots per stripe
+    public static final int SlotsPerStripe = 8;
+
+    // Spacing between per-stripe counters, to keep counters for different stripes on different cache lines
+    private static final int CounterSpacing = 16;
+
+    // Buffer size, initial allocation and maximum allocation
+    private int m_bufSize;
+
+    private int m_initAlloc;
+    private int m_maxAlloc;
+
+    // Per stripe buffer slots, and mask used to map a thread to a stripe
+    private AtomicReferenceArray<byte[]> m_slots;
+    private int m_stripeMask;
+
+    // Overflow stack for released buffers that do not fit into a stripe
+    private AtomicReference<BufferNode> m_overflow = new AtomicReference<BufferNode>();
+
+    // Count of buffers that have been created by this list, allocated out or available
+    private AtomicInteger m_totalCount = new AtomicInteger();
+
+    // Per stripe count of buffers allocated out, and statistics
+    private AtomicLongArray m_allocCounts;
+    private AtomicLongArray m_statAllocs;
+
+    private AtomicLong m_statWaits = new AtomicLong();
+    private AtomicLong m_statWaitExpired = new AtomicLong();
+
+    // Lock and count of threads waiting for a buffer to be released
+    private final Object m_waitLock = new Object();
+    private AtomicInteger m_waiters = new AtomicInteger();
+
+    /**
+     * Overflow Stack Node Class
+     */
+    private static class BufferNode {
+
+        // Buffer and next node in the stack
+        final byte[] buffer;
+        BufferNode next;
+
+        /**
+         * Class constructor
+         *
+         * @param buf byte[]
+         */
+        BufferNode(byte[] buf) {
+            buffer = buf;
+        }
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param bufSize   int
+     * @param initAlloc int
+     * @param maxAlloc  int
+     */
+    public StripedByteBufferList(int bufSize, int initAlloc, int maxAlloc) {
+        this(bufSize, initAlloc, maxAlloc, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param bufSize   int
+     * @param initAlloc int
+     * @param maxAlloc  int
+     * @param stripes   int
+     */
+    public StripedByteBufferList(int bufSize, int initAlloc, int maxAlloc, int stripes) {
+        m_bufSize = bufSize;
+
+        m_initAlloc = initAlloc;
+        m_maxAlloc = maxAlloc;
+
+        // Validate the settings
+        if (m_bufSize <= 0 || m_initAlloc < 0 || m_maxAlloc <= 0 || (m_initAlloc > m_maxAlloc) || stripes <= 0)
+            throw new RuntimeException("Invalid StripedByteBufferList parameters, size=" + m_bufSize + ", alloc=" + m_initAlloc + "/" + m_maxAlloc +
+                    ", stripes=" + stripes);
+
+        // Round the stripe count up to a power of two
+        int stripeCnt = 1;
+
+        while (stripeCnt < stripes)
+            stripeCnt <<= 1;
+
+        m_stripeMask = stripeCnt - 1;
+
+        // Allocate the stripe slots and counters
+        m_slots = new AtomicReferenceArray<byte[]>(stripeCnt * SlotsPerStripe);
+
+        m_allocCounts = new AtomicLongArray(stripeCnt * CounterSpacing);
+        m_statAllocs = new AtomicLongArray(stripeCnt * CounterSpacing);
+
+        // Allocate the initial buffers
+        allocateInitialBuffers();
+    }
+
+    /**
+     * Return the buffer size
+     *
+     * @return int
+     */
+    public final int getBufferSize() {
+        return m_bufSize;
+    }
+
+    /**
+     * Return the initial allocation size
+     *
+     * @return int
+     */
+    public final int getInitialAllocation() {
+        return m_initAlloc;
+    }
+
+    /**
+     * Return the maximum allocation size
+     *
+     * @return int
+     */
+    public final int getMaximumAllocation() {
+        return m_maxAlloc;
+    }
+
+    /**
+     * Return the number of stripes
+     *
+     * @return int
+     */
+    public final int getStripeCount() {
+        return m_stripeMask + 1;
+    }
+
+    /**
+     * Return the count of available buffers
+     *
+     * @return int
+     */
+    public final int getAvailableCount() {
+        int availCnt = m_totalCount.get() - getAllocatedCount();
+        return availCnt > 0 ? availCnt : 0;
+    }
+
+    /**
+     * Return the count of buffers currently allocated out
+     *
+     * @return int
+     */
+    public final int getAllocatedCount() {
+        return (int) sumCounters(m_allocCounts);
+    }
+
+    /**
+     * Return the allocations statistic
+     *
+     * @return long
+     */
+    public final long getStatAllocationCounter() {
+        return sumCounters(m_statAllocs);
+    }
+
+    /**
+     * Return the allocation wait statistic
+     *
+     * @return long
+     */
+    public final long getStatAllocationWaits() {
+        return m_statWaits.get();
+    }
+
+    /**
+     * Return the allocation wait expired statistic
+     *
+     * @return long
+     */
+    public final long getStatAllocationWaitsExpired() {
+        return m_statWaitExpired.get();
+    }
+
+    /**
+     * Allocate a buffer
+     *
+     * @param waitTime long
+     * @return byte[]
+     */
+    public final byte[] allocateBuffer(long waitTime) {
+
+        // Get the stripe for the current thread
+        int stripe = getStripe();
+
+        // Try and get a free buffer, or allocate a new buffer if below the maximum allocation
+        byte[] buf = takeBuffer(stripe);
+
+        if (buf == null)
+            buf = createBuffer();
+
+        if (buf == null && waitTime > 0) {
+
+            // Update the stats
+            m_statWaits.incrementAndGet();
+
+            synchronized (m_waitLock) {
+
+                // Indicate there is a waiting thread, then check again in case a buffer was released before
+                // the releasing thread could see the waiter
+                m_waiters.incrementAndGet();
+
+                try {
+                    buf = takeBuffer(stripe);
+
+                    if (buf == null) {
+
+                        // Wait for a buffer to be released
+                        m_waitLock.wait(waitTime);
+
+                        // Check if there is a buffer
+                        buf = takeBuffer(stripe);
+                    }
+                }
+                catch (InterruptedException ex) {
+                }
+                finally {
+                    m_waiters.decrementAndGet();
+                }
+            }
+
+            // Update the stats
+            if (buf == null)
+                m_statWaitExpired.incrementAndGet();
+        }
+
+        // Update the allocated count and stats
+        if (buf != null) {
+            m_allocCounts.incrementAndGet(stripe * CounterSpacing);
+            m_statAllocs.incrementAndGet(stripe * CounterSpacing);
+        }
+
+        // Return the allocated buffer, or null if there are no buffers available
+        return buf;
+    }
+
+    /**
+     * Release a buffer back to the pool
+     *
+     * @param buf byte[]
+     */
+    public final void releaseBuffer(byte[] buf) {
+
+        // Make sure it is one of our buffers
+        if (buf == null || buf.length != m_bufSize)
+            return;
+
+        // Release the buffer back to the available buffers
+        int stripe = getStripe();
+
+        m_allocCounts.decrementAndGet(stripe * CounterSpacing);
+        putBuffer(stripe, buf);
+
+        // Signal any threads waiting for a buffer
+        if (m_waiters.get() > 0) {
+            synchronized (m_waitLock) {
+                m_waitLock.notify();
+            }
+        }
+    }
+
+    /**
+     * Shrink the buffer list back to the initial allocation size
+     *
+     * @return Count of buffers released
+     */
+    public final int shrinkList() {
+
+        // Remove available buffers until the list is back at the initial allocation
+        int removedCnt = 0;
+
+        while (m_totalCount.get() > m_initAlloc) {
+
+            // Remove an available buffer, from the overflow stack first
+            byte[] buf = popOverflow();
+
+            if (buf == null)
+                buf = takeFromStripes(0);
+
+            if (buf == null)
+                break;
+
+            m_totalCount.decrementAndGet();
+            removedCnt++;
+        }
+
+        // Return the count of buffers removed from the list
+        return removedCnt;
+    }
+
+    /**
+     * Return the stripe for the current thread
+     *
+     * @return int
+     */
+    private final int getStripe() {
+
+        // Spread the thread id bits so that sequential ids map to different stripes
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+
+        return (hash ^ (hash >>> 16)) & m_stripeMask;
+    }
+
+    /**
+     * Take an available buffer, checking the stripe for the current thread first, then the overflow stack
+     * and then the other stripes
+     *
+     * @param stripe int
+     * @return byte[], or null if there are no available buffers
+     */
+    private final byte[] takeBuffer(int stripe) {
+
+        // Check the slots for the current thread stripe
+        byte[] buf = takeFromStripe(stripe);
+
+        // Check the overflow stack
+        if (buf == null)
+            buf = popOverflow();
+
+        // Steal a buffer from another stripe
+        if (buf == null && m_stripeMask > 0)
+            buf = takeFromStripes(stripe + 1);
+
+        return buf;
+    }
+
+    /**
+     * Take an available buffer from a stripe
+     *
+     * @param stripe int
+     * @return byte[], or null if the stripe has no available buffers
+     */
+    private final byte[] takeFromStripe(int stripe) {
+
+        int base = stripe * SlotsPerStripe;
+
+        for (int i = base; i < base + SlotsPerStripe; i++) {
+            if (m_slots.get(i) != null) {
+                byte[] buf = m_slots.getAndSet(i, null);
+                if (buf != null)
+                    return buf;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Take an available buffer from any stripe, starting at the specified stripe
+     *
+     * @param startStripe int
+     * @return byte[], or null if there are no available buffers
+     */
+    private final byte[] takeFromStripes(int startStripe) {
+
+        int stripeCnt = m_stripeMask + 1;
+
+        for (int i = 0; i < stripeCnt; i++) {
+            byte[] buf = takeFromStripe((startStripe + i) & m_stripeMask);
+            if (buf != null)
+                return buf;
+        }
+
+        return null;
+    }
+
+    /**
+     * Put an available buffer into a stripe, or the overflow stack if the stripe is full
+     *
+     * @param stripe int
+     * @param buf    byte[]
+     */
+    private final void putBuffer(int stripe, byte[] buf) {
+
+        int base = stripe * SlotsPerStripe;
+
+        for (int i = base; i < base + SlotsPerStripe; i++) {
+            if (m_slots.get(i) == null && m_slots.compareAndSet(i, null, buf))
+                return;
+        }
+
+        // Stripe is full, push the buffer onto the overflow stack
+        BufferNode node = new BufferNode(buf);
+        BufferNode head;
+
+        do {
+            head = m_overflow.get();
+            node.next = head;
+        } while (m_overflow.compareAndSet(head, node) == false);
+    }
+
+    /**
+     * Pop a buffer from the overflow stack
+     *
+     * @return byte[], or null if the overflow stack is empty
+     */
+    private final byte[] popOverflow() {
+
+        BufferNode head;
+
+        do {
+            head = m_overflow.get();
+            if (head == null)
+                return null;
+        } while (m_overflow.compareAndSet(head, head.next) == false);
+
+        return head.buffer;
+    }
+
+    /**
+     * Create a new buffer if the list is below the maximum allocation
+     *
+     * @return byte[], or null if the list is at the maximum allocation
+     */
+    private final byte[] createBuffer() {
+
+        int curCnt;
+
+        do {
+            curCnt = m_totalCount.get();
+            if (curCnt >= m_maxAlloc)
+                return null;
+        } while (m_totalCount.compareAndSet(curCnt, curCnt + 1) == false);
+
+        return new byte[m_bufSize];
+    }
+
+    /**
+     * Sum a set of per stripe counters
+     *
+     * @param counters AtomicLongArray
+     * @return long
+     */
+    private final long sumCounters(AtomicLongArray counters) {
+
+        long total = 0L;
+
+        for (int i = 0; i < counters.length(); i += CounterSpacing)
+            total += counters.get(i);
+
+        return total;
+    }
+
+    /**
+     * Allocate the initial byte buffers, spread across the stripes
+     */
+    private final void allocateInitialBuffers() {
+
+        for (int i = 0; i < getInitialAllocation(); i++)
+            putBuffer(i & m_stripeMask, new byte[getBufferSize()]);
+
+        m_totalCount.set(getInitialAllocation());
+    }
+
+    /**
+     * Return the buffer list as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[Bufsize=");
+        str.append(getBufferSize());
+        str.append(",Init=");
+        str.append(getInitialAllocation());
+        str.append(",Max=");
+        str.append(getMaximumAllocation());
+        str.append(",Stripes=");
+        str.append(getStripeCount());
+        str.append(",Avail=");
+        str.append(getAvailableCount());
+        str.append(",Alloc=");
+        str.append(getAllocatedCount());
+        str.append(",Stats=");
+        str.append(getStatAllocationCounter());
+        str.append("/");
+        str.append(getStatAllocationWaits());
+        str.append("/");
+        str.append(getStatAllocationWaitsExpired());
+        str.append("]");
+
+        return str.toString();
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Command Statistics Class
+ *
+ * <p>Request, error and byte counters and a latency histogram for a single protocol command.
+ *
+ * @author gkspencer
+ */
+public class CommandStatistics implements CommandStatisticsMXBean {
+
+    // Protocol and command names, and the command id
+    private String m_protocol;
+    private String m_name;
+    private int m_id;
+
+    // Request, error and byte counters
+    private final AtomicLong m_requests = new AtomicLong();
+    private final AtomicLong m_errors = new AtomicLong();
+    private final AtomicLong m_bytesIn = new AtomicLong();
+    private final AtomicLong m_bytesOut = new AtomicLong();
+
+    // Request latencies
+    private final LatencyHistogram m_latency = new LatencyHistogram();
+
+    // Time the statistics were created or reset
+    private volatile long m_resetTime;
+
+    /**
+     * Class constructor
+     *
+     * @param protocol String
+     * @param name     String
+     * @param id       int
+     */
+    public CommandStatistics(String protocol, String name, int id) {
+        m_protocol = protocol;
+        m_name = name;
+        m_id = id;
+
+        m_resetTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Record a completed request
+     *
+     * @param startTime long Request start time, from System.nanoTime()
+     * @param error     boolean
+     * @param bytesIn   long
+     * @param bytesOut  long
+     */
+    public final void requestCompleted(long startTime, boolean error, long bytesIn, long bytesOut) {
+        m_latency.record(System.nanoTime() - startTime);
+        m_requests.incrementAndGet();
+
+        if (error)
+            m_errors.incrementAndGet();
+        if (bytesIn > 0)
+            m_bytesIn.addAndGet(bytesIn);
+        if (bytesOut > 0)
+            m_bytesOut.addAndGet(bytesOut);
+    }
+
+    /**
+     * Add to the count of bytes received
+     *
+     * @param bytes long
+     */
+    public final void addBytesIn(long bytes) {
+        m_bytesIn.addAndGet(bytes);
+    }
+
+    /**
+     * Add to the count of bytes sent
+     *
+     * @param bytes long
+     */
+    public final void addBytesOut(long bytes) {
+        m_bytesOut.addAndGet(bytes);
+    }
+
+    /**
+     * Return the command id
+     *
+     * @return int
+     */
+    public final int getCommandId() {
+        return m_id;
+    }
+
+    /**
+     * Return the latency histogram
+     *
+     * @return LatencyHistogram
+     */
+    public final LatencyHistogram getLatency() {
+        return m_latency;
+    }
+
+    /**
+     * Return the protocol name
+     *
+     * @return String
+     */
+    public String getProtocol() {
+        return m_protocol;
+    }
+
+    /**
+     * Return the command name
+     *
+     * @return String
+     */
+    public String getCommand() {
+        return m_name;
+    }
+
+    /**
+     * Return the number of requests processed
+     *
+     * @return long
+     */
+    public long getRequestCount() {
+        return m_requests.get();
+    }
+
+    /**
+     * Return the number of requests that returned an error
+     *
+     * @return long
+     */
+    public long getErrorCount() {
+        return m_errors.get();
+    }
+
+    /**
+     * Return the number of bytes received
+     *
+     * @return long
+     */
+    public long getBytesIn() {
+        return m_bytesIn.get();
+    }
+
+    /**
+     * Return the number of bytes sent
+     *
+     * @return long
+     */
+    public long getBytesOut() {
+        return m_bytesOut.get();
+    }
+
+    /**
+     * Return the average number of requests per second since the statistics were reset
+     *
+     * @return double
+     */
+    public double getRequestsPerSecond() {
+        long elapsed = System.currentTimeMillis() - m_resetTime;
+        return elapsed > 0 ? (m_requests.get() * 1000.0) / elapsed : 0.0;
+    }
+
+    /**
+     * Return the mean request latency
+     *
+     * @return long
+     */
+    public long getMeanLatency() {
+        return m_latency.getMean() / 1000L;
+    }
+
+    /**
+     * Return the median request latency
+     *
+     * @return long
+     */
+    public long getLatency50th() {
+        return m_latency.getPercentile(50.0) / 1000L;
+    }
+
+    /**
+     * Return the 90th percentile request latency
+     *
+     * @return long
+     */
+    public long getLatency90th() {
+        return m_latency.getPercentile(90.0) / 1000L;
+    }
+
+    /**
+     * Return the 99th percentile request latency
+     *
+     * @return long
+     */
+    public long getLatency99th() {
+        return m_latency.getPercentile(99.0) / 1000L;
+    }
+
+    /**
+     * Return the 99.9th percentile request latency
+     *
+     * @return long
+     */
+    public long getLatency999th() {
+        return m_latency.getPercentile(99.9) / 1000L;
+    }
+
+    /**
+     * Return the maximum request latency
+     *
+     * @return long
+     */
+    public long getMaximumLatency() {
+        return m_latency.getMaximum() / 1000L;
+    }
+
+    /**
+     * Reset the statistics
+     */
+    public void reset() {
+        m_requests.set(0L);
+        m_errors.set(0L);
+        m_bytesIn.set(0L);
+        m_bytesOut.set(0L);
+        m_latency.reset();
+
+        m_resetTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Return the command statistics as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[");
+        str.append(getProtocol());
+        str.append(":");
+        str.append(getCommand());
+        str.append(",Requests=");
+        str.append(getRequestCount());
+        str.append(",Errors=");
+        str.append(getErrorCount());
+        str.append(",In=");
+        str.append(getBytesIn());
+        str.append(",Out=");
+        str.append(getBytesOut());
+        str.append(",Latency=");
+        str.append(m_latency);
+        str.append("]");
+
+        return str.toString();
+    }
+}
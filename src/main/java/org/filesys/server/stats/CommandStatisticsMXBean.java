@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.stats;
+
+/**
+ * Command Statistics MXBean Interface
+ *
+ * <p>Management interface for the statistics of a single protocol command. Latencies are in microseconds.
+ *
+ * @author gkspencer
+ */
+public interface CommandStatisticsMXBean {
+
+    /**
+     * Return the protocol name
+     *
+     * @return String
+     */
+    public String getProtocol();
+
+    /**
+     * Return the command name
+     *
+     * @return String
+     */
+    public String getCommand();
+
+    /**
+     * Return the number of requests processed
+     *
+     * @return long
+     */
+    public long getRequestCount();
+
+    /**
+     * Return the number of requests that returned an error
+     *
+     * @return long
+     */
+    public long getErrorCount();
+
+    /**
+     * Return the number of bytes received
+     *
+     * @return long
+     */
+    public long getBytesIn();
+
+    /**
+     * Return the number of bytes sent
+     *
+     * @return long
+     */
+    public long getBytesOut();
+
+    /**
+     * Return the average number of requests per second since the statistics were reset
+     *
+     * @return double
+     */
+    public double getRequestsPerSecond();
+
+    /**
+     * Return the mean request latency
+     *
+     * @return long
+     */
+    public long getMeanLatency();
+
+    /**
+     * Return the median request latency
+     *
+     * @return long
+     */
+    public long getLatency50th();
+
+    /**
+     * Return the 90th percentile request latency
+     *
+     * @return long
+     */
+    public long getLatency90th();
+
+    /**
+     * Return the 99th percentile request latency
+     *
+     * @return long
+     */
+    public long getLatency99th();
+
+    /**
+     * Return the 99.9th percentile request latency
+     *
+     * @return long
+     */
+    public long getLatency999th();
+
+    /**
+     * Return the maximum request latency
+     *
+     * @return long
+     */
+    public long getMaximumLatency();
+
+    /**
+     * Reset the statistics
+     */
+    public void reset();
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency Histogram Class
+ *
+ * <p>Records request latencies, in nanoseconds, into log-linear buckets with 16 sub-buckets per power of two, so
+ * percentiles are accurate to within about six percent without storing the individual samples. Recording is
+ * lock-free and may be called by any number of threads.
+ *
+ * @author gkspencer
+ */
+public class LatencyHistogram {
+
+    // Sub-bucket bits and count per power of two
+    private static final int SubBucketBits = 4;
+    private static final int SubBuckets = 1 << SubBucketBits;
+
+    // Values below this limit are recorded exactly
+    private static final int ExactLimit = SubBuckets * 2;
+
+    // Number of buckets required to cover the full range of a long value
+    private static final int BucketCount = ExactLimit + (63 - SubBucketBits) * SubBuckets;
+
+    // Bucket counts
+    private final AtomicLongArray m_counts = new AtomicLongArray(BucketCount);
+
+    // Sample count, total and maximum values
+    private final AtomicLong m_count = new AtomicLong();
+    private final AtomicLong m_total = new AtomicLong();
+    private final AtomicLong m_max = new AtomicLong();
+
+    /**
+     * Record a latency value
+     *
+     * @param nanos long
+     */
+    public final void record(long nanos) {
+
+        // Clamp negative values, the clock may step
+        if (nanos < 0)
+            nanos = 0;
+
+        m_counts.incrementAndGet(bucketIndex(nanos));
+        m_count.incrementAndGet();
+        m_total.addAndGet(nanos);
+
+        // Update the maximum value
+        long curMax = m_max.get();
+
+        while (nanos > curMax && m_max.compareAndSet(curMax, nanos) == false)
+            curMax = m_max.get();
+    }
+
+    /**
+     * Add the samples from another histogram to this histogram
+     *
+     * @param hist LatencyHistogram
+     */
+    public final void add(LatencyHistogram hist) {
+
+        for (int i = 0; i < BucketCount; i++) {
+            long cnt = hist.m_counts.get(i);
+            if (cnt != 0L)
+                m_counts.addAndGet(i, cnt);
+        }
+
+        m_count.addAndGet(hist.m_count.get());
+        m_total.addAndGet(hist.m_total.get());
+
+        // Update the maximum value
+        long histMax = hist.m_max.get();
+        long curMax = m_max.get();
+
+        while (histMax > curMax && m_max.compareAndSet(curMax, histMax) == false)
+            curMax = m_max.get();
+    }
+
+    /**
+     * Return the number of samples
+     *
+     * @return long
+     */
+    public final long getCount() {
+        return m_count.get();
+    }
+
+    /**
+     * Return the mean latency, in nanoseconds
+     *
+     * @return long
+     */
+    public final long getMean() {
+        long count = m_count.get();
+        return count > 0 ? m_total.get() / count : 0L;
+    }
+
+    /**
+     * Return the maximum latency, in nanoseconds
+     *
+     * @return long
+     */
+    public final long getMaximum() {
+        return m_max.get();
+    }
+
+    /**
+     * Return the latency at the specified percentile, in nanoseconds
+     *
+     * @param pct double
+     * @return long
+     */
+    public final long getPercentile(double pct) {
+
+        // Take a snapshot of the bucket counts, samples may be recorded whilst the snapshot is taken
+        long[] counts = new long[BucketCount];
+        long total = 0L;
+
+        for (int i = 0; i < BucketCount; i++) {
+            counts[i] = m_counts.get(i);
+            total += counts[i];
+        }
+
+        if (total == 0L)
+            return 0L;
+
+        // Find the bucket that contains the required sample
+        long target = (long) Math.ceil((pct / 100.0) * total);
+        if (target < 1)
+            target = 1;
+
+        long seen = 0L;
+
+        for (int i = 0; i < BucketCount; i++) {
+            seen += counts[i];
+
+            if (seen >= target)
+                return Math.min(bucketMidpoint(i), m_max.get());
+        }
+
+        return m_max.get();
+    }
+
+    /**
+     * Clear all samples
+     */
+    public final void reset() {
+        for (int i = 0; i < BucketCount; i++)
+            m_counts.set(i, 0L);
+
+        m_count.set(0L);
+        m_total.set(0L);
+        m_max.set(0L);
+    }
+
+    /**
+     * Return the bucket index for a value
+     *
+     * @param val long
+     * @return int
+     */
+    private static int bucketIndex(long val) {
+
+        if (val < ExactLimit)
+            return (int) val;
+
+        // Use the bits below the most significant bit to select the sub-bucket
+        int shift = (63 - Long.numberOfLeadingZeros(val)) - SubBucketBits;
+        int mant = (int) (val >>> shift);
+
+        return ExactLimit + (shift - 1) * SubBuckets + (mant - SubBuckets);
+    }
+
+    /**
+     * Return the value at the middle of a bucket
+     *
+     * @param idx int
+     * @return long
+     */
+    private static long bucketMidpoint(int idx) {
+
+        if (idx < ExactLimit)
+            return idx;
+
+        int shift = (idx - ExactLimit) / SubBuckets + 1;
+        long mant = ((idx - ExactLimit) % SubBuckets) + SubBuckets;
+
+        return (mant << shift) + ((1L << shift) >>> 1);
+    }
+
+    /**
+     * Return the histogram summary as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[Count=");
+        str.append(getCount());
+        str.append(",Mean=");
+        str.append(getMean() / 1000L);
+        str.append("us,p50=");
+        str.append(getPercentile(50.0) / 1000L);
+        str.append("us,p99=");
+        str.append(getPercentile(99.0) / 1000L);
+        str.append("us,Max=");
+        str.append(getMaximum() / 1000L);
+        str.append("us]");
+
+        return str.toString();
+    }
+}
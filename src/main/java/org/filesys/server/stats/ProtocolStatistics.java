@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.stats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Protocol Statistics Class
+ *
+ * <p>Holds the per command statistics for a protocol, indexed by the protocol command id. The statistics for a
+ * command are created, and published via JMX, when the command is first used.
+ *
+ * @author gkspencer
+ */
+public class ProtocolStatistics {
+
+    // JMX type for command statistics
+    public static final String CommandStatsType = "CommandStatistics";
+
+    // Protocol name
+    private String m_protocol;
+
+    // Per command statistics, indexed by command id
+    private AtomicReferenceArray<CommandStatistics> m_commands;
+
+    // Server statistics that publishes the command statistics
+    private ServerStatistics m_serverStats;
+
+    /**
+     * Class constructor
+     *
+     * @param protocol    String
+     * @param maxCommands int
+     * @param serverStats ServerStatistics
+     */
+    protected ProtocolStatistics(String protocol, int maxCommands, ServerStatistics serverStats) {
+        m_protocol = protocol;
+        m_commands = new AtomicReferenceArray<CommandStatistics>(maxCommands);
+        m_serverStats = serverStats;
+    }
+
+    /**
+     * Return the protocol name
+     *
+     * @return String
+     */
+    public final String getProtocol() {
+        return m_protocol;
+    }
+
+    /**
+     * Return the statistics for a command, create the statistics if this is the first request for the command
+     *
+     * @param id   int
+     * @param name String
+     * @return CommandStatistics, or null if the command id is out of range
+     */
+    public final CommandStatistics getCommand(int id, String name) {
+
+        // Range check the command id
+        if (id < 0 || id >= m_commands.length())
+            return null;
+
+        CommandStatistics cmdStats = m_commands.get(id);
+
+        if (cmdStats == null) {
+
+            // Create the command statistics, another thread may have created the statistics for the command
+            cmdStats = new CommandStatistics(m_protocol, name != null && name.length() > 0 ? name : "0x" + Integer.toHexString(id), id);
+
+            if (m_commands.compareAndSet(id, null, cmdStats))
+                m_serverStats.registerMBean(CommandStatsType, m_protocol + "." + cmdStats.getCommand(), cmdStats);
+            else
+                cmdStats = m_commands.get(id);
+        }
+
+        return cmdStats;
+    }
+
+    /**
+     * Return the list of commands that have statistics
+     *
+     * @return List of CommandStatistics
+     */
+    public final List<CommandStatistics> getCommands() {
+        List<CommandStatistics> cmdList = new ArrayList<CommandStatistics>();
+
+        for (int i = 0; i < m_commands.length(); i++) {
+            CommandStatistics cmdStats = m_commands.get(i);
+            if (cmdStats != null)
+                cmdList.add(cmdStats);
+        }
+
+        return cmdList;
+    }
+
+    /**
+     * Reset the statistics for all commands
+     */
+    public final void reset() {
+        for (CommandStatistics cmdStats : getCommands())
+            cmdStats.reset();
+    }
+
+    /**
+     * Return the protocol statistics as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[");
+        str.append(getProtocol());
+
+        for (CommandStatistics cmdStats : getCommands()) {
+            str.append(",");
+            str.append(cmdStats);
+        }
+
+        str.append("]");
+        return str.toString();
+    }
+}
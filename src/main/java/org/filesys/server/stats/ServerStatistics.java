@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.stats;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.filesys.debug.Debug;
+
+/**
+ * Server Statistics Class
+ *
+ * <p>Holds the per protocol command statistics, and publishes the command statistics and the server pools as
+ * JMX MBeans using object names of the form 'org.filesys:type=CommandStatistics,name=SMB.ReadAndX'.
+ *
+ * @author gkspencer
+ */
+public class ServerStatistics {
+
+    // Default JMX domain
+    public static final String DefaultDomain = "org.filesys";
+
+    // JMX domain, and flag to indicate if MBeans are registered
+    private String m_domain;
+    private boolean m_jmx;
+
+    // Protocol statistics, by protocol name
+    private ConcurrentHashMap<String, ProtocolStatistics> m_protocols = new ConcurrentHashMap<String, ProtocolStatistics>();
+
+    // Registered MBean names
+    private List<ObjectName> m_mbeanNames = new ArrayList<ObjectName>();
+
+    /**
+     * Class constructor
+     *
+     * @param domain String
+     * @param jmx    boolean
+     */
+    public ServerStatistics(String domain, boolean jmx) {
+        m_domain = domain != null && domain.length() > 0 ? domain : DefaultDomain;
+        m_jmx = jmx;
+    }
+
+    /**
+     * Return the JMX domain
+     *
+     * @return String
+     */
+    public final String getDomain() {
+        return m_domain;
+    }
+
+    /**
+     * Check if statistics are published via JMX
+     *
+     * @return boolean
+     */
+    public final boolean isJMXEnabled() {
+        return m_jmx;
+    }
+
+    /**
+     * Return the statistics for a protocol, create the protocol statistics if not already created
+     *
+     * @param protocol    String
+     * @param maxCommands int
+     * @return ProtocolStatistics
+     */
+    public final ProtocolStatistics getProtocolStatistics(String protocol, int maxCommands) {
+        ProtocolStatistics protoStats = m_protocols.get(protocol);
+
+        if (protoStats == null) {
+            protoStats = new ProtocolStatistics(protocol, maxCommands, this);
+            ProtocolStatistics curStats = m_protocols.putIfAbsent(protocol, protoStats);
+
+            if (curStats != null)
+                protoStats = curStats;
+        }
+
+        return protoStats;
+    }
+
+    /**
+     * Find the statistics for a protocol
+     *
+     * @param protocol String
+     * @return ProtocolStatistics, or null if not found
+     */
+    public final ProtocolStatistics findProtocolStatistics(String protocol) {
+        return m_protocols.get(protocol);
+    }
+
+    /**
+     * Register an MBean, if JMX is enabled
+     *
+     * @param type String
+     * @param name String
+     * @param mbean Object
+     */
+    public final void registerMBean(String type, String name, Object mbean) {
+
+        // Check if JMX is enabled
+        if (m_jmx == false)
+            return;
+
+        try {
+
+            // Build the object name
+            Hashtable<String, String> props = new Hashtable<String, String>();
+            props.put("type", type);
+            props.put("name", quoteValue(name));
+
+            ObjectName objName = new ObjectName(m_domain, props);
+
+            // Register the MBean, replace an MBean left registered by an earlier server instance
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+
+            if (mbeanServer.isRegistered(objName))
+                mbeanServer.unregisterMBean(objName);
+
+            mbeanServer.registerMBean(mbean, objName);
+
+            synchronized (m_mbeanNames) {
+                m_mbeanNames.add(objName);
+            }
+        }
+        catch (JMException ex) {
+            Debug.println("[Stats] Failed to register MBean " + type + "/" + name + ", " + ex);
+        }
+    }
+
+    /**
+     * Unregister an MBean
+     *
+     * @param type  String
+     * @param name  String
+     */
+    public final void unregisterMBean(String type, String name) {
+
+        // Check if JMX is enabled
+        if (m_jmx == false)
+            return;
+
+        try {
+
+            // Build the object name
+            Hashtable<String, String> props = new Hashtable<String, String>();
+            props.put("type", type);
+            props.put("name", quoteValue(name));
+
+            ObjectName objName = new ObjectName(m_domain, props);
+
+            synchronized (m_mbeanNames) {
+                if (m_mbeanNames.remove(objName))
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objName);
+            }
+        }
+        catch (JMException ex) {
+            Debug.println("[Stats] Failed to unregister MBean " + type + "/" + name + ", " + ex);
+        }
+    }
+
+    /**
+     * Quote an object name property value, if it contains characters that are not allowed in an unquoted value
+     *
+     * @param val String
+     * @return String
+     */
+    private static String quoteValue(String val) {
+        for (int i = 0; i < val.length(); i++) {
+            if (",=:\"*?\n".indexOf(val.charAt(i)) != -1)
+                return ObjectName.quote(val);
+        }
+        return val;
+    }
+
+    /**
+     * Unregister all MBeans registered by this server
+     */
+    public final void close() {
+
+        if (m_jmx == false)
+            return;
+
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+
+        synchronized (m_mbeanNames) {
+            for (ObjectName objName : m_mbeanNames) {
+                try {
+                    if (mbeanServer.isRegistered(objName))
+                        mbeanServer.unregisterMBean(objName);
+                }
+                catch (JMException ex) {
+                    Debug.println("[Stats] Failed to unregister MBean " + objName + ", " + ex);
+                }
+            }
+
+            m_mbeanNames.clear();
+        }
+    }
+
+    /**
+     * Return the server statistics as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[Domain=");
+        str.append(getDomain());
+        str.append(",JMX=");
+        str.append(isJMXEnabled());
+
+        for (ProtocolStatistics protoStats : m_protocols.values()) {
+            str.append(",");
+            str.append(protoStats);
+        }
+
+        str.append("]");
+        return str.toString();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.thread;
+
+import java.util.List;
+
+/**
+ * Request Queue Interface
+ *
+ * <p>
+ * Queue of thread requests used by the worker threads of a thread request pool.
+ *
+ * @author gkspencer
+ */
+public interface RequestQueueInterface {
+
+    /**
+     * Return the number of requests in the queue
+     *
+     * @return int
+     */
+    public int numberOfRequests();
+
+    /**
+     * Add a request to the queue
+     *
+     * @param req ThreadRequest
+     */
+    public void addRequest(ThreadRequest req);
+
+    /**
+     * Add requests to the queue
+     *
+     * @param reqList List of ThreadRequest objects
+     */
+    public void addRequests(List<ThreadRequest> reqList);
+
+    /**
+     * Add as many requests from the head of the list as the queue has space for, without waiting
+     *
+     * @param reqList List of ThreadRequest objects
+     * @return int Number of requests that were queued
+     */
+    public int offerRequests(List<ThreadRequest> reqList);
+
+    /**
+     * Remove a request from the head of the queue
+     *
+     * @return ThreadRequest
+     * @throws InterruptedException Wait interrupted
+     */
+    public ThreadRequest removeRequest()
+            throws InterruptedException;
+
+    /**
+     * Remove up to the specified number of requests from the head of the queue, wait if the queue is empty
+     *
+     * @param reqList List to add the requests to
+     * @param maxReqs int
+     * @return int Number of requests removed
+     * @throws InterruptedException Wait interrupted
+     */
+    public int drainRequests(List<ThreadRequest> reqList, int maxReqs)
+            throws InterruptedException;
+
+    /**
+     * Wait for a request to be added to the queue
+     *
+     * @throws InterruptedException Wait interrupted
+     */
+    public void waitWhileEmpty()
+            throws InterruptedException;
+
+    /**
+     * Wait for the request queue to be emptied
+     *
+     * @throws InterruptedException Wait interrupted
+     */
+    public void waitUntilEmpty()
+            throws InterruptedException;
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.server.thread;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ring Thread Request Queue Class
+ *
+ * <p>
+ * Bounded multi-producer/multi-consumer request queue using a lock-free ring buffer. Each slot has a sequence
+ * number that indicates if the slot is free or holds a request for the current pass of the ring, producers and
+ * consumers claim a run of slots with a single compare-and-set on the tail/head position so batches of requests
+ * can be added and removed in one step.
+ *
+ * <p>
+ * Worker threads that find the queue empty spin briefly then park, a producer unparks parked workers after adding
+ * requests.
+ *
+ * <p>
+ * The ring capacity only applies to {@link #offerRequests(List)}, which is used by the socket request handlers to
+ * apply backpressure. Requests added via {@link #addRequest(ThreadRequest)} or {@link #addRequests(List)} when the
+ * ring is full are held on an overflow queue, so internal requests, such as timed requests or requests queued by a
+ * worker thread, cannot block.
+ *
+ * @author gkspencer
+ */
+public class RingThreadRequestQueue implements RequestQueueInterface {
+
+    // Default and minimum ring size
+    public static final int DefaultQueueSize = 4096;
+    public static final int MinimumQueueSize = 16;
+
+    // Number of times to check the queue before parking the worker thread
+    private static final int SpinCount = 64;
+
+    // Maximum time to park a waiting worker, guards against a missed wakeup
+    private static final long MaxParkTime = TimeUnit.MILLISECONDS.toNanos(100L);
+
+    // Interval to sleep when waiting for the queue to empty
+    private static final long EmptyCheckInterval = 5L;
+
+    // Ring slots, slot sequence numbers and ring mask
+    private AtomicReferenceArray<ThreadRequest> m_slots;
+    private AtomicLongArray m_sequence;
+    private int m_mask;
+
+    // Consumer and producer positions
+    private AtomicLong m_head = new AtomicLong();
+    private AtomicLong m_tail = new AtomicLong();
+
+    // Overflow queue for requests that must be queued when the ring is full
+    private Queue<ThreadRequest> m_overflow = new ConcurrentLinkedQueue<ThreadRequest>();
+    private AtomicInteger m_overflowCount = new AtomicInteger();
+
+    // Parked worker threads
+    private Queue<Thread> m_waiters = new ConcurrentLinkedQueue<Thread>();
+
+    /**
+     * Default constructor
+     */
+    public RingThreadRequestQueue() {
+        this(DefaultQueueSize);
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param queueSize int
+     */
+    public RingThreadRequestQueue(int queueSize) {
+
+        // Check the queue size
+        if (queueSize < MinimumQueueSize)
+            throw new RuntimeException("Invalid request queue size, " + queueSize);
+
+        // Round the queue size up to a power of two
+        int ringSize = Integer.highestOneBit(queueSize);
+        if (ringSize < queueSize)
+            ringSize <<= 1;
+
+        // Allocate the ring, each slot is initially free for the first pass of the ring
+        m_slots = new AtomicReferenceArray<ThreadRequest>(ringSize);
+        m_sequence = new AtomicLongArray(ringSize);
+        m_mask = ringSize - 1;
+
+        for (int i = 0; i < ringSize; i++)
+            m_sequence.set(i, i);
+    }
+
+    /**
+     * Return the ring capacity
+     *
+     * @return int
+     */
+    public final int getQueueSize() {
+        return m_mask + 1;
+    }
+
+    /**
+     * Return the number of requests in the queue
+     *
+     * @return int
+     */
+    public final int numberOfRequests() {
+        long ringCnt = m_tail.get() - m_head.get();
+        if (ringCnt < 0)
+            ringCnt = 0;
+        return (int) ringCnt + m_overflowCount.get();
+    }
+
+    /**
+     * Add a request to the queue, if the ring is full the request is added to the overflow queue
+     *
+     * @param req ThreadRequest
+     */
+    public final void addRequest(ThreadRequest req) {
+
+        // Add the request to the ring, or the overflow queue if the ring is full
+        if (offerToRing(req) == false) {
+            m_overflow.add(req);
+            m_overflowCount.incrementAndGet();
+        }
+
+        // Wakeup a worker
+        signalWaiters(1);
+    }
+
+    /**
+     * Add requests to the queue, any requests that do not fit in the ring are added to the overflow queue
+     *
+     * @param reqList List of ThreadRequest objects
+     */
+    public final void addRequests(List<ThreadRequest> reqList) {
+
+        // Add as many requests to the ring as possible
+        int reqCnt = reqList.size();
+        int idx = offerToRing(reqList, 0);
+
+        // Add the remaining requests to the overflow queue
+        while (idx < reqCnt) {
+            m_overflow.add(reqList.get(idx++));
+            m_overflowCount.incrementAndGet();
+        }
+
+        // Wakeup workers to process the requests
+        signalWaiters(reqCnt);
+    }
+
+    /**
+     * Add as many requests from the head of the list as the ring has space for, without waiting
+     *
+     * @param reqList List of ThreadRequest objects
+     * @return int Number of requests that were queued
+     */
+    public final int offerRequests(List<ThreadRequest> reqList) {
+
+        // Add requests to the ring until it is full
+        int reqCnt = offerToRing(reqList, 0);
+
+        // Wakeup workers to process the requests
+        if (reqCnt > 0)
+            signalWaiters(reqCnt);
+
+        return reqCnt;
+    }
+
+    /**
+     * Remove a request from the head of the queue
+     *
+     * @return ThreadRequest
+     * @throws InterruptedException Wait interrupted
+     */
+    public final ThreadRequest removeRequest()
+            throws InterruptedException {
+
+        ThreadRequest req = null;
+
+        while (req == null) {
+
+            // Wait for a request to be queued, then try and remove it
+            waitWhileEmpty();
+            req = pollRequest();
+        }
+
+        // Pass the wakeup on if there are more requests
+        if (numberOfRequests() > 0)
+            signalWaiters(1);
+
+        return req;
+    }
+
+    /**
+     * Remove up to the specified number of requests from the head of the queue, wait if the queue is empty
+     *
+     * @param reqList List to add the requests to
+     * @param maxReqs int
+     * @return int Number of requests removed
+     * @throws InterruptedException Wait interrupted
+     */
+    public final int drainRequests(List<ThreadRequest> reqList, int maxReqs)
+            throws InterruptedException {
+
+        int reqCnt = 0;
+
+        while (reqCnt == 0) {
+
+            // Wait for a request to be queued, then try and remove a batch of requests
+            waitWhileEmpty();
+            reqCnt = pollRequests(reqList, maxReqs);
+        }
+
+        // Pass the wakeup on if there are more requests
+        if (numberOfRequests() > 0)
+            signalWaiters(1);
+
+        return reqCnt;
+    }
+
+    /**
+     * Wait for a request to be added to the queue
+     *
+     * @throws InterruptedException Wait interrupted
+     */
+    public final void waitWhileEmpty()
+            throws InterruptedException {
+
+        // Spin for a short time, requests often arrive in bursts
+        for (int i = 0; i < SpinCount; i++) {
+            if (numberOfRequests() > 0)
+                return;
+        }
+
+        // Park the thread until a request is queued
+        Thread curThread = Thread.currentThread();
+
+        while (numberOfRequests() == 0) {
+
+            // Register as a waiter then recheck the queue, so that a request queued in between is not missed
+            m_waiters.add(curThread);
+
+            try {
+                if (numberOfRequests() == 0)
+                    LockSupport.parkNanos(this, MaxParkTime);
+            }
+            finally {
+                m_waiters.remove(curThread);
+            }
+
+            // Check if the thread has been interrupted
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Wait for the request queue to be emptied
+     *
+     * @throws InterruptedException Wait interrupted
+     */
+    public final void waitUntilEmpty()
+            throws InterruptedException {
+
+        // Wait until the request queue is empty
+        while (numberOfRequests() != 0)
+            Thread.sleep(EmptyCheckInterval);
+    }
+
+    /**
+     * Add a request to the ring
+     *
+     * @param req ThreadRequest
+     * @return boolean false if the ring is full
+     */
+    private boolean offerToRing(ThreadRequest req) {
+
+        while (true) {
+
+            // Check if the slot at the tail of the ring is free for this pass
+            long tail = m_tail.get();
+            int slot = (int) (tail & m_mask);
+            long seq = m_sequence.get(slot);
+
+            if (seq == tail) {
+
+                // Claim the slot, then publish the request
+                if (m_tail.compareAndSet(tail, tail + 1)) {
+                    m_slots.set(slot, req);
+                    m_sequence.set(slot, tail + 1);
+                    return true;
+                }
+            }
+            else if (seq < tail) {
+
+                // Slot has not been consumed on the previous pass, ring is full
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Add a run of requests from the list to the ring, until the ring is full
+     *
+     * @param reqList List of ThreadRequest objects
+     * @param idx     int
+     * @return int Index of the first request not added
+     */
+    private int offerToRing(List<ThreadRequest> reqList, int idx) {
+
+        int reqCnt = reqList.size();
+
+        while (idx < reqCnt) {
+
+            // Count the free slots at the tail of the ring
+            long tail = m_tail.get();
+            int avail = 0;
+
+            while (idx + avail < reqCnt && m_sequence.get((int) ((tail + avail) & m_mask)) == tail + avail)
+                avail++;
+
+            if (avail == 0) {
+
+                // Check if the ring is full, or another producer has moved the tail
+                if (m_sequence.get((int) (tail & m_mask)) < tail)
+                    return idx;
+            }
+            else if (m_tail.compareAndSet(tail, tail + avail)) {
+
+                // Slots have been claimed, publish the requests
+                for (int i = 0; i < avail; i++) {
+                    int slot = (int) ((tail + i) & m_mask);
+
+                    m_slots.set(slot, reqList.get(idx + i));
+                    m_sequence.set(slot, tail + i + 1);
+                }
+
+                idx += avail;
+            }
+        }
+
+        return idx;
+    }
+
+    /**
+     * Remove a request from the head of the ring, or the overflow queue
+     *
+     * @return ThreadRequest, or null if the queue is empty
+     */
+    private ThreadRequest pollRequest() {
+
+        while (true) {
+
+            // Check if the slot at the head of the ring has a request for this pass
+            long head = m_head.get();
+            int slot = (int) (head & m_mask);
+            long seq = m_sequence.get(slot);
+
+            if (seq == head + 1) {
+
+                // Claim the slot, then free it for the next pass of the ring
+                if (m_head.compareAndSet(head, head + 1)) {
+                    ThreadRequest req = m_slots.getAndSet(slot, null);
+                    m_sequence.set(slot, head + m_mask + 1);
+                    return req;
+                }
+            }
+            else if (seq < head + 1) {
+
+                // Ring is empty, check the overflow queue
+                return pollOverflow();
+            }
+        }
+    }
+
+    /**
+     * Remove a run of requests from the head of the ring, and then the overflow queue
+     *
+     * @param reqList List to add the requests to
+     * @param maxReqs int
+     * @return int Number of requests removed
+     */
+    private int pollRequests(List<ThreadRequest> reqList, int maxReqs) {
+
+        int reqCnt = 0;
+
+        while (true) {
+
+            // Count the published requests at the head of the ring
+            long head = m_head.get();
+            int avail = 0;
+
+            while (avail < maxReqs && m_sequence.get((int) ((head + avail) & m_mask)) == head + avail + 1)
+                avail++;
+
+            if (avail == 0) {
+
+                // Check if the ring is empty, or another consumer has moved the head
+                if (m_sequence.get((int) (head & m_mask)) < head + 1)
+                    break;
+            }
+            else if (m_head.compareAndSet(head, head + avail)) {
+
+                // Slots have been claimed, take the requests and free the slots for the next pass of the ring
+                for (int i = 0; i < avail; i++) {
+                    int slot = (int) ((head + i) & m_mask);
+
+                    reqList.add(m_slots.getAndSet(slot, null));
+                    m_sequence.set(slot, head + i + m_mask + 1);
+                }
+
+                reqCnt = avail;
+                break;
+            }
+        }
+
+        // Fill the remainder of the batch from the overflow queue
+        while (reqCnt < maxReqs) {
+            ThreadRequest req = pollOverflow();
+            if (req == null)
+                break;
+
+            reqList.add(req);
+            reqCnt++;
+        }
+
+        return reqCnt;
+    }
+
+    /**
+     * Remove a request from the overflow queue
+     *
+     * @return ThreadRequest, or null if the overflow queue is empty
+     */
+    private ThreadRequest pollOverflow() {
+        if (m_overflowCount.get() == 0)
+            return null;
+
+        ThreadRequest req = m_overflow.poll();
+        if (req != null)
+            m_overflowCount.decrementAndGet();
+        return req;
+    }
+
+    /**
+     * Wakeup parked worker threads
+     *
+     * @param cnt int
+     */
+    private void signalWaiters(int cnt) {
+
+        while (cnt-- > 0) {
+            Thread waiter = m_waiters.poll();
+            if (waiter == null)
+                break;
+
+            LockSupport.unpark(waiter);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.filesys.server.thread;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread Pool Statistics Class
+ *
+ * <p>Request counts, queue depth and queue wait/run time statistics for a request thread pool. Times are recorded
+ * in nanoseconds and reported in microseconds.
+ *
+ * @author gkspencer
+ */
+public class ThreadPoolStatistics implements ThreadPoolStatisticsMXBean {
+
+    // Request counters
+    private AtomicLong m_queued = new AtomicLong();
+    private AtomicLong m_started = new AtomicLong();
+    private AtomicLong m_completed = new AtomicLong();
+
+    // Count of requests that could not be queued as the request queue was full
+    private AtomicLong m_deferred = new AtomicLong();
+
+    // Peak queue depth
+    private AtomicLong m_peakDepth = new AtomicLong();
+
+    // Queue wait and run times
+    private AtomicLong m_waitTotal = new AtomicLong();
+    private AtomicLong m_waitMax = new AtomicLong();
+
+    private AtomicLong m_runTotal = new AtomicLong();
+    private AtomicLong m_runMax = new AtomicLong();
+
+    /**
+     * Record that a request has been queued
+     *
+     * @return long Queue time to pass to requestStarted()
+     */
+    public final long requestQueued() {
+
+        // Update the queued count and peak queue depth
+        long depth = m_queued.incrementAndGet() - m_started.get();
+        updateMaximum(m_peakDepth, depth);
+
+        return System.nanoTime();
+    }
+
+    /**
+     * Record that a request could not be queued as the request queue was full, the request will be queued again
+     * later. Called once per request, the request is still counted as waiting to run.
+     */
+    public final void requestDeferred() {
+        m_deferred.incrementAndGet();
+    }
+
+    /**
+     * Record that a request has started running
+     *
+     * @param queueTime long
+     * @return long Start time to pass to requestCompleted()
+     */
+    public final long requestStarted(long queueTime) {
+        m_started.incrementAndGet();
+
+        // Update the queue wait time
+        long startTime = System.nanoTime();
+        long waitTime = startTime - queueTime;
+
+        m_waitTotal.addAndGet(waitTime);
+        updateMaximum(m_waitMax, waitTime);
+
+        return startTime;
+    }
+
+    /**
+     * Record that a request has completed
+     *
+     * @param startTime long
+     */
+    public final void requestCompleted(long startTime) {
+        m_completed.incrementAndGet();
+
+        // Update the run time
+        long runTime = System.nanoTime() - startTime;
+
+        m_runTotal.addAndGet(runTime);
+        updateMaximum(m_runMax, runTime);
+    }
+
+    /**
+     * Return the count of requests that could not be queued as the request queue was full
+     *
+     * @return long
+     */
+    public final long getDeferredCount() {
+        return m_deferred.get();
+    }
+
+    /**
+     * Return the count of requests queued
+     *
+     * @return long
+     */
+    public final long getQueuedCount() {
+        return m_queued.get();
+    }
+
+    /**
+     * Return the count of completed requests
+     *
+     * @return long
+     */
+    public final long getCompletedCount() {
+        return m_completed.get();
+    }
+
+    /**
+     * Return the count of requests currently running
+     *
+     * @return long
+     */
+    public final long getActiveCount() {
+        return m_started.get() - m_completed.get();
+    }
+
+    /**
+     * Return the count of requests waiting to run, including requests deferred as the request queue was full
+     *
+     * @return long
+     */
+    public final long getQueueDepth() {
+        return m_queued.get() - m_started.get();
+    }
+
+    /**
+     * Return the peak queue depth
+     *
+     * @return long
+     */
+    public final long getPeakQueueDepth() {
+        return m_peakDepth.get();
+    }
+
+    /**
+     * Return the average queue wait time, in microseconds
+     *
+     * @return long
+     */
+    public final long getAverageQueueWait() {
+        long started = m_started.get();
+        return started > 0 ? (m_waitTotal.get() / started) / 1000L : 0L;
+    }
+
+    /**
+     * Return the maximum queue wait time, in microseconds
+     *
+     * @return long
+     */
+    public final long getMaximumQueueWait() {
+        return m_waitMax.get() / 1000L;
+    }
+
+    /**
+     * Return the average request run time, in microseconds
+     *
+     * @return long
+     */
+    public final long getAverageRunTime() {
+        long completed = m_completed.get();
+        return completed > 0 ? (m_runTotal.get() / completed) / 1000L : 0L;
+    }
+
+    /**
+     * Return the maximum request run time, in microseconds
+     *
+     * @return long
+     */
+    public final long getMaximumRunTime() {
+        return m_runMax.get() / 1000L;
+    }
+
+    /**
+     * Update a maximum value
+     *
+     * @param maxVal AtomicLong
+     * @param val    long
+     */
+    private final void updateMaximum(AtomicLong maxVal, long val) {
+        long curMax = maxVal.get();
+
+        while (val > curMax && maxVal.compareAndSet(curMax, val) == false)
+            curMax = maxVal.get();
+    }
+
+    /**
+     * Return the statistics as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[Queued=");
+        str.append(getQueuedCount());
+        str.append(",Completed=");
+        str.append(getCompletedCount());
+        str.append(",Active=");
+        str.append(getActiveCount());
+        str.append(",Depth=");
+        str.append(getQueueDepth());
+        str.append("/");
+        str.append(getPeakQueueDepth());
+        str.append(",Deferred=");
+        str.append(getDeferredCount());
+        str.append(",Wait=");
+        str.append(getAverageQueueWait());
+        str.append("/");
+        str.append(getMaximumQueueWait());
+        str.append("us,Run=");
+        str.append(getAverageRunTime());
+        str.append("/");
+        str.append(getMaximumRunTime());
+        str.append("us]");
+
+        return str.toString();
+    }
+}
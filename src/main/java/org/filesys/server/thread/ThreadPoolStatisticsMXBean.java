@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.filesys.server.thread;
+
+/**
+ * Thread Pool Statistics MXBean Interface
+ *
+ * <p>Management interface for the request thread pool statistics. Times are in microseconds.
+ *
+ * @author gkspencer
+ */
+public interface ThreadPoolStatisticsMXBean {
+
+    /**
+     * Return the count of requests that could not be queued as the request queue was full
+     *
+     * @return long
+     */
+    public long getDeferredCount();
+
+    /**
+     * Return the count of requests queued
+     *
+     * @return long
+     */
+    public long getQueuedCount();
+
+    /**
+     * Return the count of completed requests
+     *
+     * @return long
+     */
+    public long getCompletedCount();
+
+    /**
+     * Return the count of requests currently running
+     *
+     * @return long
+     */
+    public long getActiveCount();
+
+    /**
+     * Return the count of requests waiting to run
+     *
+     * @return long
+     */
+    public long getQueueDepth();
+
+    /**
+     * Return the peak queue depth
+     *
+     * @return long
+     */
+    public long getPeakQueueDepth();
+
+    /**
+     * Return the average queue wait time, in microseconds
+     *
+     * @return long
+     */
+    public long getAverageQueueWait();
+
+    /**
+     * Return the maximum queue wait time, in microseconds
+     *
+     * @return long
+     */
+    public long getMaximumQueueWait();
+
+    /**
+     * Return the average request run time, in microseconds
+     *
+     * @return long
+     */
+    public long getAverageRunTime();
+
+    /**
+     * Return the maximum request run time, in microseconds
+     *
+     * @return long
+     */
+    public long getMaximumRunTime();
+}
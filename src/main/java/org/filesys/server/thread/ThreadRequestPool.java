@@ -19,8 +19,10 @@
 
 package org.filesys.server.thread;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 
 import org.filesys.debug.Debug;
 
@@ -30,6 +32,14 @@ import org.filesys.debug.Debug;
  * <p>
  * Thread pool that processes a queue of thread requests.
  *
+ * <p>
+ * If virtual threads are enabled, and supported by the JVM, each request is run on a new virtual thread instead of
+ * being queued to the pool of worker threads.
+ *
+ * <p>
+ * If a request queue size is specified the worker threads use a bounded lock-free request queue, and take batches of
+ * requests from the queue when the queue is backed up.
+ *
  * @author gkspencer
  */
 public class ThreadRequestPool {
@@ -39,6 +49,9 @@ public class ThreadRequestPool {
     public static final int MinimumWorkerThreads = 4;
     public static final int MaximumWorkerThreads = 250;
 
+    // Maximum number of requests a worker takes from the queue in one batch
+    public static final int MaximumWorkerBatch = 4;
+
     // Initial size of the timed request queue
     public static final int TimedQueueInitialSize = 20;
 
@@ -46,7 +59,7 @@ public class ThreadRequestPool {
     private static long WaitForRequestSleep = 24 * 60 * 60000L; //  1 day
 
     // Queue of requests
-    private ThreadRequestQueue m_queue;
+    private RequestQueueInterface m_queue;
 
     // Queue of timed requests, in time order, and timed request processing thread
     private PriorityBlockingQueue<TimedThreadRequest> m_timedQueue;
@@ -57,6 +70,12 @@ public class ThreadRequestPool {
     // Worker threads
     private ThreadWorker[] m_workers;
 
+    // Virtual thread factory, if requests are run using virtual threads
+    private ThreadFactory m_virtualFactory;
+
+    // Request statistics
+    private ThreadPoolStatistics m_stats = new ThreadPoolStatistics();
+
     // Debug enable flag
     protected boolean m_debug;
     protected boolean m_timedDebug;
@@ -72,6 +91,9 @@ public class ThreadRequestPool {
         // Shutdown flag
         private boolean mi_shutdown = false;
 
+        // Batch of requests taken from the queue
+        private List<ThreadRequest> mi_reqList = new ArrayList<ThreadRequest>(MaximumWorkerBatch);
+
         /**
          * Class constructor
          *
@@ -104,14 +126,13 @@ public class ThreadRequestPool {
         public void run() {
 
             // Loop until shutdown
-            ThreadRequest threadReq = null;
-
             while (mi_shutdown == false) {
 
                 try {
 
-                    // Wait for an request to be queued
-                    threadReq = m_queue.removeRequest();
+                    // Wait for requests to be queued, take a batch of requests if the queue is backed up
+                    mi_reqList.clear();
+                    m_queue.drainRequests(mi_reqList, getWorkerBatchSize());
                 }
                 catch (InterruptedException ex) {
 
@@ -123,8 +144,8 @@ public class ThreadRequestPool {
                     ex2.printStackTrace();
                 }
 
-                // If the request is valid process it
-                if (threadReq != null) {
+                // Process the requests
+                for (ThreadRequest threadReq : mi_reqList) {
 
                     // DEBUG
                     if (hasDebug())
@@ -150,6 +171,87 @@ public class ThreadRequestPool {
 
     ;
 
+    /**
+     * Queued Request Inner Class
+     *
+     * <p>Wraps a thread request to record the queue wait and run time statistics
+     */
+    protected class QueuedRequest implements ThreadRequest, Runnable {
+
+        // Thread request and time the request was queued
+        private ThreadRequest mi_request;
+        private long mi_queueTime;
+
+        // Request could not be queued as the request queue was full
+        private boolean mi_deferred;
+
+        /**
+         * Class constructor
+         *
+         * @param req ThreadRequest
+         */
+        public QueuedRequest(ThreadRequest req) {
+            mi_request = req;
+            mi_queueTime = m_stats.requestQueued();
+        }
+
+        /**
+         * Mark the request as deferred, returns true the first time the request is deferred
+         *
+         * @return boolean
+         */
+        public final boolean setDeferred() {
+            if (mi_deferred)
+                return false;
+
+            mi_deferred = true;
+            return true;
+        }
+
+        /**
+         * Run the request
+         */
+        public void runRequest() {
+            long startTime = m_stats.requestStarted(mi_queueTime);
+
+            try {
+                mi_request.runRequest();
+            }
+            finally {
+                m_stats.requestCompleted(startTime);
+            }
+        }
+
+        /**
+         * Run the request using a virtual thread
+         */
+        public void run() {
+
+            // DEBUG
+            if (hasDebug())
+                Debug.println("Virtual worker " + Thread.currentThread().getName() + ": Req=" + mi_request);
+
+            try {
+
+                // Process the request
+                runRequest();
+            }
+            catch (Throwable ex) {
+                Debug.println("Virtual worker " + Thread.currentThread().getName() + ":");
+                Debug.println(ex);
+            }
+        }
+
+        /**
+         * Return the request details as a string
+         *
+         * @return String
+         */
+        public String toString() {
+            return mi_request.toString();
+        }
+    }
+
     /**
      * Timed Request Processor Thread Inner Class
      */
@@ -288,22 +390,60 @@ public class ThreadRequestPool {
      * @param poolSize   int
      */
     public ThreadRequestPool(String threadName, int poolSize) {
+        this(threadName, poolSize, false);
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param threadName        String
+     * @param poolSize          int
+     * @param useVirtualThreads boolean
+     */
+    public ThreadRequestPool(String threadName, int poolSize, boolean useVirtualThreads) {
+        this(threadName, poolSize, useVirtualThreads, 0);
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param threadName        String
+     * @param poolSize          int
+     * @param useVirtualThreads boolean
+     * @param queueSize         int Bounded request queue size, or zero to use an unbounded queue
+     */
+    public ThreadRequestPool(String threadName, int poolSize, boolean useVirtualThreads, int queueSize) {
 
         // Create the request queue
-        m_queue = new ThreadRequestQueue();
+        if (queueSize > 0)
+            m_queue = new RingThreadRequestQueue(queueSize);
+        else
+            m_queue = new ThreadRequestQueue();
 
         // Create the timed request queue
         m_timedQueue = new PriorityBlockingQueue<TimedThreadRequest>(TimedQueueInitialSize);
 
-        // Check that we have at least minimum worker threads
-        if (poolSize < MinimumWorkerThreads)
-            poolSize = MinimumWorkerThreads;
+        // Check if requests should be run using virtual threads
+        if (useVirtualThreads) {
+            m_virtualFactory = VirtualThreads.newThreadFactory(threadName);
+
+            if (m_virtualFactory == null)
+                Debug.println("[Thread] Virtual threads not available, using worker thread pool");
+        }
 
-        // Create the worker threads
-        m_workers = new ThreadWorker[poolSize];
+        // Create the worker threads, if not using virtual threads
+        if (m_virtualFactory == null) {
 
-        for (int i = 0; i < m_workers.length; i++)
-            m_workers[i] = new ThreadWorker(threadName + (i + 1));
+            // Check that we have at least minimum worker threads
+            if (poolSize < MinimumWorkerThreads)
+                poolSize = MinimumWorkerThreads;
+
+            // Create the worker threads
+            m_workers = new ThreadWorker[poolSize];
+
+            for (int i = 0; i < m_workers.length; i++)
+                m_workers[i] = new ThreadWorker(threadName + (i + 1));
+        }
 
         // Create the timed request processor
         m_timedProcessor = new TimedRequestProcessor();
@@ -327,22 +467,75 @@ public class ThreadRequestPool {
         return m_timedDebug;
     }
 
+    /**
+     * Check if requests are run using virtual threads
+     *
+     * @return boolean
+     */
+    public final boolean isUsingVirtualThreads() {
+        return m_virtualFactory != null;
+    }
+
     /**
      * Return the number of requests in the queue
      *
      * @return int
      */
     public final int getNumberOfRequests() {
+        if (isUsingVirtualThreads())
+            return (int) m_stats.getQueueDepth();
         return m_queue.numberOfRequests();
     }
 
+    /**
+     * Check if the request queue is bounded
+     *
+     * @return boolean
+     */
+    public final boolean hasBoundedQueue() {
+        return m_queue instanceof RingThreadRequestQueue && isUsingVirtualThreads() == false;
+    }
+
+    /**
+     * Return the number of requests a worker should take from the queue in one batch. Workers only take
+     * batches when there are more queued requests than worker threads.
+     *
+     * @return int
+     */
+    protected final int getWorkerBatchSize() {
+        int batchSize = m_queue.numberOfRequests() / m_workers.length;
+
+        if (batchSize < 1)
+            return 1;
+        else if (batchSize > MaximumWorkerBatch)
+            return MaximumWorkerBatch;
+        return batchSize;
+    }
+
+    /**
+     * Return the request statistics
+     *
+     * @return ThreadPoolStatistics
+     */
+    public final ThreadPoolStatistics getStatistics() {
+        return m_stats;
+    }
+
     /**
      * Queue a request to the thread pool for processing
      *
      * @param req ThreadRequest
      */
     public final void queueRequest(ThreadRequest req) {
-        m_queue.addRequest(req);
+
+        // Wrap the request to record statistics
+        QueuedRequest queuedReq = new QueuedRequest(req);
+
+        // Run the request on a new virtual thread, or queue to the worker threads
+        if (isUsingVirtualThreads())
+            m_virtualFactory.newThread(queuedReq).start();
+        else
+            m_queue.addRequest(queuedReq);
     }
 
     /**
@@ -351,7 +544,64 @@ public class ThreadRequestPool {
      * @param reqList List of thread requests
      */
     public final void queueRequests(List<ThreadRequest> reqList) {
-        m_queue.addRequests(reqList);
+
+        // Run the requests on new virtual threads
+        if (isUsingVirtualThreads()) {
+            for (ThreadRequest req : reqList)
+                queueRequest(req);
+            return;
+        }
+
+        // Wrap the requests to record statistics, and queue to the worker threads
+        List<ThreadRequest> queuedList = new ArrayList<ThreadRequest>(reqList.size());
+
+        for (ThreadRequest req : reqList)
+            queuedList.add(new QueuedRequest(req));
+
+        m_queue.addRequests(queuedList);
+    }
+
+    /**
+     * Queue as many requests from the head of the list as the request queue has space for, without waiting.
+     * Used by the socket request handlers to stop reading sockets when the request queue is full.
+     *
+     * <p>Requests that are not queued are replaced in the list by their statistics wrapper, so that a deferred
+     * request keeps its original queue time and is only counted once when it is offered again.
+     *
+     * @param reqList List of thread requests
+     * @return int Number of requests queued
+     */
+    public final int offerRequests(List<ThreadRequest> reqList) {
+
+        // Virtual threads and the unbounded queue accept all requests
+        if (hasBoundedQueue() == false) {
+            queueRequests(reqList);
+            return reqList.size();
+        }
+
+        // Wrap the requests to record statistics, requests deferred by an earlier call are already wrapped, and
+        // queue to the worker threads
+        List<ThreadRequest> queuedList = new ArrayList<ThreadRequest>(reqList.size());
+
+        for (ThreadRequest req : reqList) {
+            if (req instanceof QueuedRequest)
+                queuedList.add(req);
+            else
+                queuedList.add(new QueuedRequest(req));
+        }
+
+        int queuedCnt = m_queue.offerRequests(queuedList);
+
+        // Keep the wrappers for requests that were not queued, and count each deferred request once
+        for (int i = queuedCnt; i < queuedList.size(); i++) {
+            QueuedRequest queuedReq = (QueuedRequest) queuedList.get(i);
+
+            if (queuedReq.setDeferred())
+                m_stats.requestDeferred();
+            reqList.set(i, queuedReq);
+        }
+
+        return queuedCnt;
     }
 
     /**
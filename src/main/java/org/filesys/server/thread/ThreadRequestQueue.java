@@ -31,7 +31,7 @@ import java.util.Queue;
  *
  * @author gkspencer
  */
-public class ThreadRequestQueue {
+public class ThreadRequestQueue implements RequestQueueInterface {
 
     // List of requests
     private Queue<ThreadRequest> m_queue;
@@ -86,6 +86,17 @@ public class ThreadRequestQueue {
         }
     }
 
+    /**
+     * Add requests to the queue, the queue is unbounded so all requests are queued
+     *
+     * @param reqList List of ThreadRequest objects
+     * @return int Number of requests that were queued
+     */
+    public final int offerRequests(List<ThreadRequest> reqList) {
+        addRequests(reqList);
+        return reqList.size();
+    }
+
     /**
      * Remove a request from the head of the queue
      *
@@ -106,6 +117,35 @@ public class ThreadRequestQueue {
         }
     }
 
+    /**
+     * Remove up to the specified number of requests from the head of the queue, wait if the queue is empty
+     *
+     * @param reqList List to add the requests to
+     * @param maxReqs int
+     * @return int Number of requests removed
+     * @throws InterruptedException Wait interrupted
+     */
+    public final int drainRequests(List<ThreadRequest> reqList, int maxReqs)
+            throws InterruptedException {
+
+        synchronized (m_queue) {
+
+            // Wait until there is a request
+            while (m_queue.size() == 0)
+                m_queue.wait();
+
+            // Move requests from the head of the queue to the callers list
+            int reqCnt = 0;
+
+            while (reqCnt < maxReqs && m_queue.size() > 0) {
+                reqList.add(m_queue.poll());
+                reqCnt++;
+            }
+
+            return reqCnt;
+        }
+    }
+
     /**
      * Wait for a request to be added to the queue
      *
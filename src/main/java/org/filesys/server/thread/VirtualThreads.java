@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.filesys.server.thread;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+import org.filesys.debug.Debug;
+
+/**
+ * Virtual Threads Class
+ *
+ * <p>Creates virtual thread factories when running on a JVM that supports virtual threads (JDK 21 or later). The
+ * virtual thread API is accessed via reflection so that the server can still be built for, and run on, older JVMs.
+ *
+ * @author gkspencer
+ */
+public class VirtualThreads {
+
+    // Thread.ofVirtual() method and Thread.Builder methods, null if virtual threads are not available
+    private static Method _ofVirtual;
+    private static Method _builderName;
+    private static Method _builderFactory;
+
+    static {
+
+        try {
+
+            // Check if the JVM supports virtual threads
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+            _ofVirtual = Thread.class.getMethod("ofVirtual");
+            _builderName = builderClass.getMethod("name", String.class, long.class);
+            _builderFactory = builderClass.getMethod("factory");
+        }
+        catch (Exception ex) {
+
+            // Virtual threads not available
+            _ofVirtual = null;
+        }
+    }
+
+    /**
+     * Check if virtual threads are supported by the JVM
+     *
+     * @return boolean
+     */
+    public static final boolean isSupported() {
+        return _ofVirtual != null;
+    }
+
+    /**
+     * Create a thread factory that creates virtual threads, named using the specified prefix and a sequence number
+     *
+     * @param namePrefix String
+     * @return ThreadFactory, or null if virtual threads are not supported
+     */
+    public static final ThreadFactory newThreadFactory(String namePrefix) {
+
+        // Check if virtual threads are available
+        if (isSupported() == false)
+            return null;
+
+        try {
+
+            // Build the virtual thread factory
+            Object builder = _ofVirtual.invoke(null);
+            builder = _builderName.invoke(builder, namePrefix, 1L);
+
+            return (ThreadFactory) _builderFactory.invoke(builder);
+        }
+        catch (Exception ex) {
+            Debug.println("Failed to create virtual thread factory, " + ex.getMessage());
+        }
+
+        return null;
+    }
+}
@@ -30,6 +30,7 @@ import org.filesys.server.core.InvalidDeviceInterfaceException;
 import org.filesys.server.core.ShareType;
 import org.filesys.server.core.SharedDevice;
 import org.filesys.server.filesys.*;
+import org.filesys.server.filesys.readahead.ReadAheadCache;
 import org.filesys.smb.*;
 import org.filesys.smb.PacketTypeV1;
 import org.filesys.util.DataPacker;
@@ -3033,11 +3034,13 @@ class CoreProtocolHandler extends ProtocolHandler {
 
                 // Truncate/extend the file to the write offset
                 disk.truncateFile(m_sess, conn, netFile, wrtoff);
+                discardReadAhead(conn, netFile, wrtoff, -1L);
             }
             else {
 
                 // Write to the file
                 wrtlen = disk.writeFile(m_sess, conn, netFile, buf, pos, wrtcnt, wrtoff);
+                discardReadAhead(conn, netFile, wrtoff, wrtcnt);
             }
         }
         catch (InvalidDeviceInterfaceException ex) {
@@ -3136,6 +3139,7 @@ class CoreProtocolHandler extends ProtocolHandler {
 
             // Write to the file
             wrtlen = disk.writeFile(m_sess, conn, netFile, buf, pos, wrtcnt, wrtoff);
+            discardReadAhead(conn, netFile, wrtoff, wrtcnt);
 
             // Close the file
             //
@@ -3174,6 +3178,24 @@ class CoreProtocolHandler extends ProtocolHandler {
         m_sess.sendResponseSMB(smbPkt);
     }
 
+    /**
+     * Discard read-ahead data that overlaps a range of a file that has been written to or truncated, for all open
+     * instances of the file
+     *
+     * @param conn    TreeConnection
+     * @param netFile NetworkFile
+     * @param offset  long
+     * @param len     long, or -1 if the file was truncated or extended at the offset
+     */
+    protected final void discardReadAhead(TreeConnection conn, NetworkFile netFile, long offset, long len) {
+        ReadAheadCache readAhead = m_sess.getSMBServer().getReadAheadCache();
+
+        if (readAhead != null)
+            readAhead.fileModified(conn, netFile, offset, len);
+        else
+            netFile.discardReadAhead();
+    }
+
     /**
      * Run the core SMB protocol handler.
      *
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.smb.server;
+
+import java.io.IOException;
+
+import org.filesys.debug.Debug;
+import org.filesys.server.filesys.loader.FileDataListener;
+import org.filesys.server.filesys.loader.FileDataPendingException;
+import org.filesys.server.locking.DeferredRequest;
+import org.filesys.server.thread.ThreadRequestPool;
+import org.filesys.server.thread.TimedThreadRequest;
+import org.filesys.smb.SMBStatus;
+
+/**
+ * Deferred Read Request Class
+ *
+ * <p>Holds the session and request details for a file read that is waiting for the file data to be loaded by a
+ * background file loader. The request is queued to the thread pool again when the file data is available.
+ *
+ * <p>The request packet lease is refreshed whilst the request is waiting. If the file data is not available within
+ * the deferred read timeout the request is failed with a file offline error, the same as a read that waits for the
+ * file data using the request thread.
+ *
+ * @author gkspencer
+ */
+public class DeferredReadRequest extends DeferredRequest implements FileDataListener {
+
+    // Maximum time to wait for the file data
+    public static final long DeferredReadTimeout = 20000L;  // 20 seconds
+
+    // Interval to refresh the request packet lease and check for a timeout
+    public static final long LeaseCheckSecs = 2L;
+
+    // File data the request is waiting on
+    private FileDataPendingException m_pending;
+
+    // Time the request times out
+    private long m_timeoutAt;
+
+    // Packet lease/timeout checker
+    private DeferredReadTimer m_timer;
+
+    // Request has been requeued or failed, the packet is no longer owned by this request
+    private volatile boolean m_done;
+
+    /**
+     * Deferred Read Timer Class
+     */
+    private class DeferredReadTimer extends TimedThreadRequest {
+
+        /**
+         * Constructor
+         */
+        public DeferredReadTimer() {
+            super("DeferredReadTimer", -LeaseCheckSecs, LeaseCheckSecs);
+        }
+
+        /**
+         * Refresh the packet lease, or fail the request if it has timed out
+         */
+        protected void runTimedRequest() {
+            checkDeferredRead();
+        }
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param sess    SMBSrvSession
+     * @param reqPkt  SMBSrvPacket
+     * @param pending FileDataPendingException
+     */
+    public DeferredReadRequest(SMBSrvSession sess, SMBSrvPacket reqPkt, FileDataPendingException pending) {
+        super(sess, reqPkt);
+
+        m_pending = pending;
+    }
+
+    /**
+     * Defer the read request until the file data is available
+     *
+     * @return boolean false if the maximum number of requests are already waiting on the file data
+     */
+    public final boolean deferRequest() {
+
+        // Update the deferred processing count and lease time for the request packet
+        SMBSrvPacket pkt = getDeferredPacket();
+
+        pkt.incrementDeferredCount();
+        pkt.setLeaseTime(System.currentTimeMillis() + SMBPacketPool.SMBLeaseTime);
+
+        // Start the lease/timeout checker before adding the listener, the listener may be called immediately
+        m_timeoutAt = System.currentTimeMillis() + DeferredReadTimeout;
+        m_timer = new DeferredReadTimer();
+
+        getDeferredSession().getThreadPool().queueTimedRequest(m_timer);
+
+        if (m_pending.addDataListener(this))
+            return true;
+
+        // No more deferred slots for the file data
+        stopTimer();
+        return false;
+    }
+
+    /**
+     * The file data the read is waiting on is available, requeue the read request to the thread pool
+     */
+    public void fileDataLoaded() {
+
+        // Stop the lease/timeout checker
+        m_done = true;
+        stopTimer();
+
+        // Get the deferred session/packet details
+        SMBSrvSession sess = getDeferredSession();
+        SMBSrvPacket pkt = getDeferredPacket();
+
+        // DEBUG
+        if (Debug.EnableInfo && sess.hasDebug(SMBSrvSession.DBG_FILEIO))
+            sess.debugPrintln("File data loaded, queued deferred read to thread pool pkt=" + pkt);
+
+        try {
+
+            // Queue the deferred request to the thread pool for processing
+            sess.getThreadPool().queueRequest(new SMBThreadRequest(sess, pkt));
+        }
+        catch (Throwable ex) {
+
+            // Failed to queue the request to the thread pool, release the deferred packet back to the
+            // memory pool
+            sess.getPacketPool().releasePacket(pkt);
+        }
+    }
+
+    /**
+     * Refresh the request packet lease whilst waiting for the file data, or fail the request if it has timed out
+     */
+    protected final void checkDeferredRead() {
+
+        // Get the deferred session/packet details
+        SMBSrvSession sess = getDeferredSession();
+        SMBSrvPacket pkt = getDeferredPacket();
+
+        long timeNow = System.currentTimeMillis();
+
+        if (m_done) {
+            stopTimer();
+            return;
+        }
+        else if (timeNow < m_timeoutAt) {
+
+            // Update the packet lease to prevent the packet timing out
+            pkt.setLeaseTime(timeNow + SMBPacketPool.SMBLeaseTime);
+            return;
+        }
+
+        // Stop the checker, and remove the listener, if the listener has already been called the request has been
+        // requeued
+        stopTimer();
+
+        if (m_pending.removeDataListener(this) == false)
+            return;
+
+        m_done = true;
+
+        try {
+
+            // Return a file offline error for the read request
+            boolean sentOK = sess.sendAsyncErrorResponseSMB(pkt, SMBStatus.NTFileOffline, SMBStatus.NTErr);
+
+            // DEBUG
+            if (Debug.EnableInfo && sess.hasDebug(SMBSrvSession.DBG_FILEIO))
+                sess.debugPrintln("Deferred read timed out waiting for file data, sent=" + sentOK + ", pkt=" + pkt);
+        }
+        catch (IOException ex) {
+        }
+        finally {
+
+            // Make sure the packet is released back to the memory pool
+            sess.getPacketPool().releasePacket(pkt);
+        }
+    }
+
+    /**
+     * Stop the lease/timeout checker
+     */
+    private final void stopTimer() {
+        ThreadRequestPool threadPool = m_timer != null ? m_timer.getThreadRequestPool() : null;
+
+        if (threadPool != null)
+            threadPool.removeTimedRequest(m_timer);
+    }
+}
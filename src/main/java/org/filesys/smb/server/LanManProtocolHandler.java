@@ -2973,6 +2973,7 @@ class LanManProtocolHandler extends CoreProtocolHandler {
 
             // Write to the file
             wrtlen = disk.writeFile(m_sess, conn, netFile, buf, dataPos, dataLen, offset);
+            discardReadAhead(conn, netFile, offset, dataLen);
         }
         catch (InvalidDeviceInterfaceException ex) {
 
@@ -3078,6 +3079,7 @@ class LanManProtocolHandler extends CoreProtocolHandler {
 
             // Write to the file
             wrtlen = disk.writeFile(m_sess, conn, netFile, buf, dataPos, dataLen, offset);
+            discardReadAhead(conn, netFile, offset, dataLen);
 
             // Return the initial MPX response
             parser.setParameterCount(1);
@@ -3123,6 +3125,7 @@ class LanManProtocolHandler extends CoreProtocolHandler {
 
                 // Write the block of data
                 wrtlen = disk.writeFile(m_sess, conn, netFile, buf, dataPos, dataLen, offset);
+                discardReadAhead(conn, netFile, offset, dataLen);
 
                 // Update the remaining data length and write offset
                 totLen -= wrtlen;
@@ -38,6 +38,8 @@ import org.filesys.server.core.InvalidDeviceInterfaceException;
 import org.filesys.server.core.ShareType;
 import org.filesys.server.core.SharedDevice;
 import org.filesys.server.filesys.*;
+import org.filesys.server.filesys.loader.FileDataPendingException;
+import org.filesys.server.filesys.readahead.ReadAheadCache;
 import org.filesys.server.locking.*;
 import org.filesys.smb.*;
 import org.filesys.smb.nt.LoadException;
@@ -86,6 +88,10 @@ public class NTProtocolHandler extends CoreProtocolHandler {
     // NTFS streams information buffer size
     public static final int NTFSStreamsInfoBufsize = 4096;    // 4K buffer
 
+    // Minimum read size to transfer file data directly from the file to the network connection, smaller reads
+    // are copied into the response packet
+    public static final int DirectTransferMinimumSize = 8192;
+
     // Security descriptor to allow Everyone access, returned by the QuerySecurityDescrptor NT
     // transaction when NTFS streams are enabled for a virtual filesystem.
     private static byte[] _sdEveryOne = {0x01, 0x00, 0x04, (byte) 0x80, 0x14, 0x00, 0x00, 0x00, 0x20, 0x00, 0x00, 0x00, 0x00,
@@ -588,10 +594,17 @@ public class NTProtocolHandler extends CoreProtocolHandler {
             if (dataLen < maxCount)
                 maxCount = dataLen;
 
-            // Read from the file
-            // Synchronize reads using the network file
-            synchronized (netFile) {
-                rdlen = disk.readFile(m_sess, conn, netFile, buf, dataPos, maxCount, offset);
+            // Read from the file, via the read-ahead cache if enabled
+            ReadAheadCache readAhead = m_sess.getSMBServer().getReadAheadCache();
+
+            if (readAhead != null)
+                rdlen = readAhead.readFile(m_sess, conn, disk, netFile, buf, dataPos, maxCount, offset);
+            else {
+
+                // Synchronize reads using the network file
+                synchronized (netFile) {
+                    rdlen = disk.readFile(m_sess, conn, netFile, buf, dataPos, maxCount, offset);
+                }
             }
 
             // Return the data block
@@ -1930,6 +1943,7 @@ public class NTProtocolHandler extends CoreProtocolHandler {
 
                     // Truncate the existing file
                     disk.truncateFile(m_sess, conn, netFile, 0L);
+                    discardReadAhead(conn, netFile, 0L, -1L);
 
                     // Set the response
                     respAction = FileAction.FileTruncated;
@@ -2089,12 +2103,26 @@ public class NTProtocolHandler extends CoreProtocolHandler {
         if (Debug.EnableInfo && m_sess.hasDebug(SMBSrvSession.DBG_FILEIO))
             m_sess.debugPrintln("File Read AndX [" + netFile.getFileId() + "] : Size=" + maxCount + " ,Pos=" + offset);
 
+        // Check if the file data can be transferred directly from the file to the network connection, rather than
+        // being copied into the response packet
+        if (maxCount >= DirectTransferMinimumSize && parser.hasAndXCommand() == false && netFile.allowsDirectTransfer() &&
+                netFile instanceof FileTransferInterface && m_sess.getPacketHandler().supportsFileTransfer() &&
+                m_sess.getPacketHandler().getEncryptionOverhead() == 0) {
+
+            // Send the read response with the file data transferred directly
+            if (procReadAndXTransfer(smbPkt, parser, netFile, offset, maxCount))
+                return;
+        }
+
         // Read data from the file
         SMBSrvPacket respPkt = smbPkt;
         byte[] buf = respPkt.getBuffer();
         int dataPos = 0;
         int rdlen = 0;
 
+        // Save the request parameter count, in case the request is deferred and has to be processed again
+        int reqParamCnt = parser.getParameterCount();
+
         try {
 
             // Access the disk interface that is associated with the shared device
@@ -2125,10 +2153,34 @@ public class NTProtocolHandler extends CoreProtocolHandler {
             if (dataLen < maxCount)
                 maxCount = dataLen;
 
-            // Read from the file
-            // Synchronize reads using the network file
-            synchronized (netFile) {
-                rdlen = disk.readFile(m_sess, conn, netFile, buf, dataPos, maxCount, offset);
+            // Read from the file, via the read-ahead cache if enabled
+            ReadAheadCache readAhead = m_sess.getSMBServer().getReadAheadCache();
+
+            if (readAhead != null)
+                rdlen = readAhead.readFile(m_sess, conn, disk, netFile, buf, dataPos, maxCount, offset);
+            else {
+
+                // Synchronize reads using the network file, allow the read to be deferred if the file data is
+                // still being loaded
+                synchronized (netFile) {
+                    try {
+                        netFile.setAllowDeferredRead(true);
+                        rdlen = disk.readFile(m_sess, conn, netFile, buf, dataPos, maxCount, offset);
+                    }
+                    catch (FileDataPendingException ex) {
+
+                        // If too many requests are already waiting on the file data then wait for the data using
+                        // the current thread
+                        if (ex.hasDataWaiterSlot())
+                            throw ex;
+
+                        netFile.setAllowDeferredRead(false);
+                        rdlen = disk.readFile(m_sess, conn, netFile, buf, dataPos, maxCount, offset);
+                    }
+                    finally {
+                        netFile.setAllowDeferredRead(false);
+                    }
+                }
             }
         }
         catch (InvalidDeviceInterfaceException ex) {
@@ -2143,6 +2195,29 @@ public class NTProtocolHandler extends CoreProtocolHandler {
             m_sess.sendErrorResponseSMB(smbPkt, SMBStatus.NTFileOffline, SMBStatus.HRDReadFault, SMBStatus.ErrHrd);
             return;
         }
+        catch (FileDataPendingException ex) {
+
+            // Release the response packet, if allocated
+            if (respPkt != smbPkt) {
+                smbPkt.clearAssociatedPacket();
+                m_sess.getPacketPool().releasePacket(respPkt);
+            }
+
+            // Restore the request parameter count, the request will be processed again when the file data is available
+            ((SMBV1Parser) smbPkt.getParser()).setParameterCount(reqParamCnt);
+
+            // Debug
+            if (Debug.EnableInfo && m_sess.hasDebug(SMBSrvSession.DBG_FILEIO))
+                m_sess.debugPrintln("File Read AndX [" + netFile.getFileId() + "] deferred, waiting for file data Size=" + maxCount + " ,Pos=" + offset);
+
+            // Requeue the request when the file data has been loaded, and release the worker thread. If another
+            // request took the last deferred slot requeue the request now, it will wait using the request thread.
+            DeferredReadRequest deferReq = new DeferredReadRequest(m_sess, smbPkt, ex);
+
+            if (deferReq.deferRequest() == false)
+                deferReq.fileDataLoaded();
+            throw new DeferredPacketException("Waiting for file data");
+        }
         catch (LockConflictException ex) {
 
             // Debug
@@ -2220,6 +2295,65 @@ public class NTProtocolHandler extends CoreProtocolHandler {
         }
     }
 
+    /**
+     * Send a file read response with the file data transferred directly from the file to the network connection
+     *
+     * @param smbPkt   SMBSrvPacket
+     * @param parser   SMBV1Parser
+     * @param netFile  NetworkFile
+     * @param offset   long
+     * @param maxCount int
+     * @return boolean true if the response was sent, false if the caller should use a normal read
+     * @exception IOException I/O error
+     */
+    private final boolean procReadAndXTransfer(SMBSrvPacket smbPkt, SMBV1Parser parser, NetworkFile netFile, long offset, int maxCount)
+            throws IOException {
+
+        // Get the length of file data available at the read offset
+        FileTransferInterface xferFile = (FileTransferInterface) netFile;
+        int xferLen = 0;
+
+        try {
+            long fileSize = xferFile.getTransferFileSize();
+
+            if (offset < fileSize)
+                xferLen = (int) Math.min((long) maxCount, fileSize - offset);
+        }
+        catch (IOException ex) {
+
+            // Let the normal read path handle/report the error
+            return false;
+        }
+
+        // Set the returned parameter count so that the byte offset can be calculated
+        parser.setParameterCount(12);
+        int dataPos = DataPacker.wordAlign(parser.getByteOffset());
+
+        // Return the data block details, the data is sent directly from the file
+        parser.setAndXCommand(0xFF); // no chained command
+        parser.setParameter(1, 0);
+        parser.setParameter(2, 0); // bytes remaining, for pipes only
+        parser.setParameter(3, 0); // data compaction mode
+        parser.setParameter(4, 0); // reserved
+        parser.setParameter(5, xferLen); // data length
+        parser.setParameter(6, dataPos - RFCNetBIOSProtocol.HEADER_LEN); // offset to data
+
+        // Clear the reserved parameters
+        for (int i = 7; i < 12; i++)
+            parser.setParameter(i, 0);
+
+        // Set the byte count
+        parser.setByteCount((dataPos + xferLen) - parser.getByteOffset());
+
+        // Debug
+        if (Debug.EnableInfo && m_sess.hasDebug(SMBSrvSession.DBG_FILEIO))
+            m_sess.debugPrintln("File Read AndX [" + netFile.getFileId() + "] : Direct transfer len=" + xferLen);
+
+        // Send the response header followed by the file data
+        m_sess.sendResponseSMB(smbPkt, parser.getLength(), xferFile, offset, xferLen);
+        return true;
+    }
+
     /**
      * Rename a file.
      *
@@ -2906,7 +3040,7 @@ public class NTProtocolHandler extends CoreProtocolHandler {
 
             paramBuf.putShort(searchId);
             paramBuf.putShort(fileCnt);
-            paramBuf.putShort(ctx.hasMoreFiles() ? 0 : 1);
+            paramBuf.putShort((searchDone == false && ctx.hasMoreFiles()) ? 0 : 1);
             paramBuf.putShort(0);
             paramBuf.putShort(lastNameOff);
 
@@ -3142,7 +3276,7 @@ public class NTProtocolHandler extends CoreProtocolHandler {
             paramBuf = replyBuf.getParameterBuffer();
 
             paramBuf.putShort(fileCnt);
-            paramBuf.putShort(ctx.hasMoreFiles() ? 0 : 1);
+            paramBuf.putShort((searchDone == false && ctx.hasMoreFiles()) ? 0 : 1);
             paramBuf.putShort(0);
             paramBuf.putShort(lastNameOff);
 
@@ -3972,6 +4106,7 @@ public class NTProtocolHandler extends CoreProtocolHandler {
 
                     // Set the new end of file position
                     disk.truncateFile(m_sess, conn, netFile, eofPos);
+                    discardReadAhead(conn, netFile, eofPos, -1L);
 
                     // Debug
                     if (Debug.EnableInfo && m_sess.hasDebug(SMBSrvSession.DBG_INFO))
@@ -3987,6 +4122,7 @@ public class NTProtocolHandler extends CoreProtocolHandler {
 
                     // Set the new end of file position
                     disk.truncateFile(m_sess, conn, netFile, allocSize);
+                    discardReadAhead(conn, netFile, allocSize, -1L);
 
                     // Debug
                     if (Debug.EnableInfo && m_sess.hasDebug(SMBSrvSession.DBG_INFO))
@@ -4570,6 +4706,9 @@ public class NTProtocolHandler extends CoreProtocolHandler {
                 // Write to the file
                 wrtlen = disk.writeFile(m_sess, conn, netFile, buf, dataPos, dataLen, offset);
             }
+
+            // Discard any read-ahead data for the file
+            discardReadAhead(conn, netFile, offset, dataLen);
         }
         catch (InvalidDeviceInterfaceException ex) {
 
@@ -4988,6 +5127,7 @@ public class NTProtocolHandler extends CoreProtocolHandler {
 
                     // Truncate the file
                     disk.truncateFile(m_sess, conn, netFile, 0L);
+                    discardReadAhead(conn, netFile, 0L, -1L);
 
                     // Debug
                     if (Debug.EnableInfo && m_sess.hasDebug(SMBSrvSession.DBG_FILE))
@@ -5776,6 +5916,7 @@ public class NTProtocolHandler extends CoreProtocolHandler {
 
                     // Truncate the file
                     disk.truncateFile(m_sess, conn, netFile, 0L);
+                    discardReadAhead(conn, netFile, 0L, -1L);
 
                     // Debug
                     if (Debug.EnableInfo && m_sess.hasDebug(SMBSrvSession.DBG_FILE))
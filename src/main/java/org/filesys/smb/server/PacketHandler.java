@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 
 import org.filesys.debug.Debug;
+import org.filesys.server.filesys.FileTransferInterface;
 
 /**
  * Protocol Packet Handler Class
@@ -246,6 +247,30 @@ public abstract class PacketHandler {
         writePacket(pkt, pkt.getLength());
     }
 
+    /**
+     * Check if the packet handler can transfer file data directly to the network connection
+     *
+     * @return boolean
+     */
+    public boolean supportsFileTransfer() {
+        return false;
+    }
+
+    /**
+     * Send an SMB response packet followed by file data that is transferred directly from the file
+     *
+     * @param pkt      SMBSrvPacket
+     * @param len      int
+     * @param xferFile FileTransferInterface
+     * @param fileOff  long
+     * @param xferLen  int
+     * @throws IOException If a network error occurs.
+     */
+    public void writePacket(SMBSrvPacket pkt, int len, FileTransferInterface xferFile, long fileOff, int xferLen)
+            throws IOException {
+        throw new IOException("File transfer not supported by " + isProtocolName() + " handler");
+    }
+
     /**
      * Flush the output socket
      *
@@ -20,10 +20,12 @@ package org.filesys.smb.server;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.filesys.debug.Debug;
 import org.filesys.server.core.NoPooledMemoryException;
 import org.filesys.server.memory.ByteBufferPool;
+import org.filesys.server.memory.DirectBufferPool;
 import org.filesys.server.thread.ThreadRequestPool;
 import org.filesys.server.thread.TimedThreadRequest;
 
@@ -34,7 +36,7 @@ import org.filesys.server.thread.TimedThreadRequest;
  *
  * @author gkspencer
  */
-public class SMBPacketPool {
+public class SMBPacketPool implements SMBPacketPoolMXBean {
 
     // Constants
     public static final long SMBAllocateWaitTime   = 250;    // milliseconds
@@ -48,6 +50,9 @@ public class SMBPacketPool {
     private ByteBufferPool m_bufferPool;
     private ThreadRequestPool m_threadPool;
 
+    // Direct buffer pool used for socket channel I/O, optional
+    private DirectBufferPool m_directPool;
+
     // Track leased out packets/byte buffers
     private HashMap<SMBSrvPacket, SMBSrvPacket> m_leasedPkts = new HashMap<SMBSrvPacket, SMBSrvPacket>();
 
@@ -62,6 +67,12 @@ public class SMBPacketPool {
     // Maximum buffer size that the pool provides
     private int m_maxPoolBufSize;
 
+    // Allocation statistics
+    private AtomicLong m_allocCount = new AtomicLong();
+    private AtomicLong m_overSizeCount = new AtomicLong();
+    private AtomicLong m_nonPooledCount = new AtomicLong();
+    private AtomicLong m_allocFailures = new AtomicLong();
+
     /**
      * SMB Packet Pool Lease Expiry Timed Thread Request Class
      */
@@ -115,6 +126,8 @@ public class SMBPacketPool {
         byte[] buf = null;
         boolean nonPooled = false;
 
+        m_allocCount.incrementAndGet();
+
         if (reqSiz <= m_maxPoolBufSize) {
 
             // Allocate the byte buffer for the SMB packet
@@ -131,6 +144,8 @@ public class SMBPacketPool {
             // Allocate an over sized packet
             buf = new byte[reqSiz];
             nonPooled = true;
+
+            m_overSizeCount.incrementAndGet();
         }
 
         // Check if the buffer was allocated
@@ -142,6 +157,8 @@ public class SMBPacketPool {
 
                 // Mark as a non-pooled buffer so there is no lease, it is not from the pool
                 nonPooled = true;
+
+                m_nonPooledCount.incrementAndGet();
             }
             else {
 
@@ -149,6 +166,8 @@ public class SMBPacketPool {
                 if (Debug.EnableDbg && hasDebug())
                     Debug.println("[SMB] Packet allocate failed, reqSiz=" + reqSiz);
 
+                m_allocFailures.incrementAndGet();
+
                 // Throw an exception, no memory available
                 throw new NoPooledMemoryException("Request size " + reqSiz + "/max size=" + m_maxPoolBufSize);
             }
@@ -335,6 +354,33 @@ public class SMBPacketPool {
         return m_bufferPool;
     }
 
+    /**
+     * Check if there is a direct buffer pool for socket channel I/O
+     *
+     * @return boolean
+     */
+    public final boolean hasDirectBufferPool() {
+        return m_directPool != null;
+    }
+
+    /**
+     * Get the direct buffer pool
+     *
+     * @return DirectBufferPool
+     */
+    public final DirectBufferPool getDirectBufferPool() {
+        return m_directPool;
+    }
+
+    /**
+     * Set the direct buffer pool used for socket channel I/O
+     *
+     * @param directPool DirectBufferPool
+     */
+    public final void setDirectBufferPool(DirectBufferPool directPool) {
+        m_directPool = directPool;
+    }
+
     /**
      * Return the length of the smallest packet size available
      *
@@ -371,6 +417,53 @@ public class SMBPacketPool {
         return m_maxOverSize;
     }
 
+    /**
+     * Return the count of packets currently leased from the pool
+     *
+     * @return int
+     */
+    public final int getLeasedCount() {
+        synchronized (m_leasedPkts) {
+            return m_leasedPkts.size();
+        }
+    }
+
+    /**
+     * Return the count of packet allocations
+     *
+     * @return long
+     */
+    public final long getAllocationCount() {
+        return m_allocCount.get();
+    }
+
+    /**
+     * Return the count of over sized packet allocations
+     *
+     * @return long
+     */
+    public final long getOverSizedCount() {
+        return m_overSizeCount.get();
+    }
+
+    /**
+     * Return the count of allocations that used a non-pooled buffer as the pool was exhausted
+     *
+     * @return long
+     */
+    public final long getNonPooledCount() {
+        return m_nonPooledCount.get();
+    }
+
+    /**
+     * Return the count of failed packet allocations
+     *
+     * @return long
+     */
+    public final long getAllocationFailures() {
+        return m_allocFailures.get();
+    }
+
     /**
      * Enable/disable debug output
      *
@@ -431,6 +524,8 @@ public class SMBPacketPool {
      * @return String
      */
     public String toString() {
+        if (hasDirectBufferPool())
+            return m_bufferPool.toString() + m_directPool.toString();
         return m_bufferPool.toString();
     }
 }
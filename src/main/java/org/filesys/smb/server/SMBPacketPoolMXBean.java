@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.filesys.smb.server;
+
+/**
+ * SMB Packet Pool MXBean Interface
+ *
+ * <p>Management interface for the SMB packet pool allocation statistics.
+ *
+ * @author gkspencer
+ */
+public interface SMBPacketPoolMXBean {
+
+    /**
+     * Return the length of the smallest packet size available
+     *
+     * @return int
+     */
+    public int getSmallestSize();
+
+    /**
+     * Return the length of the largest packet size available
+     *
+     * @return int
+     */
+    public int getLargestSize();
+
+    /**
+     * Return the maximum over sized packet that can be allocated
+     *
+     * @return int
+     */
+    public int getMaximumOverSizedAllocation();
+
+    /**
+     * Return the count of packets currently leased from the pool
+     *
+     * @return int
+     */
+    public int getLeasedCount();
+
+    /**
+     * Return the count of packet allocations
+     *
+     * @return long
+     */
+    public long getAllocationCount();
+
+    /**
+     * Return the count of over sized packet allocations
+     *
+     * @return long
+     */
+    public long getOverSizedCount();
+
+    /**
+     * Return the count of allocations that used a non-pooled buffer as the pool was exhausted
+     *
+     * @return long
+     */
+    public long getNonPooledCount();
+
+    /**
+     * Return the count of failed packet allocations
+     *
+     * @return long
+     */
+    public long getAllocationFailures();
+}
@@ -45,6 +45,8 @@ import org.filesys.server.core.ShareType;
 import org.filesys.server.core.SharedDevice;
 import org.filesys.server.filesys.DiskInterface;
 import org.filesys.server.filesys.NetworkFileServer;
+import org.filesys.server.filesys.readahead.ReadAheadCache;
+import org.filesys.server.stats.ProtocolStatistics;
 import org.filesys.server.thread.ThreadRequestPool;
 import org.filesys.server.thread.TimedThreadRequest;
 import org.filesys.smb.Dialect;
@@ -98,6 +100,9 @@ public class SMBServer extends NetworkFileServer implements Runnable, Configurat
     // SMB packet pool
     private SMBPacketPool m_packetPool;
 
+    // SMB command statistics, if statistics are enabled
+    private ProtocolStatistics m_cmdStats;
+
     // NetBIOS LANA monitor
     private LANAMonitor m_lanaMonitor;
 
@@ -249,12 +254,22 @@ public class SMBServer extends NetworkFileServer implements Runnable, Configurat
                 // Set the maximum oversized packet size
                 m_packetPool.setMaximumOverSizedAllocation( m_coreConfig.getMaximumOversizedPacket());
 
+                // Use direct buffers for socket channel I/O, if configured
+                if ( m_coreConfig.hasDirectBufferPool())
+                    m_packetPool.setDirectBufferPool( m_coreConfig.getDirectBufferPool());
+
                 // Check if packet pool debugging is enabled
                 if ((m_smbConfig.getSessionDebugFlags() & SMBSrvSession.DBG_PKTPOOL) != 0)
                     m_packetPool.setDebug(true);
 
                 if ((m_smbConfig.getSessionDebugFlags() & SMBSrvSession.DBG_PKTALLOC) != 0)
                     m_packetPool.setAllocateDebug(true);
+
+                // Create the per command statistics and publish the packet pool statistics, if enabled
+                if ( m_coreConfig.hasStatistics()) {
+                    m_cmdStats = m_coreConfig.getStatistics().getProtocolStatistics("SMB", 256);
+                    m_coreConfig.getStatistics().registerMBean("MemoryPool", "SMBPacketPool", m_packetPool);
+                }
             }
         }
         else
@@ -354,6 +369,24 @@ public class SMBServer extends NetworkFileServer implements Runnable, Configurat
         return m_packetPool;
     }
 
+    /**
+     * Return the SMB command statistics, or null if statistics are not enabled
+     *
+     * @return ProtocolStatistics
+     */
+    public final ProtocolStatistics getCommandStatistics() {
+        return m_cmdStats;
+    }
+
+    /**
+     * Return the read-ahead cache, or null if read-ahead is not enabled
+     *
+     * @return ReadAheadCache
+     */
+    public final ReadAheadCache getReadAheadCache() {
+        return m_coreConfig != null ? m_coreConfig.getReadAheadCache() : null;
+    }
+
     /**
      * Return the thread pool
      *
@@ -37,10 +37,13 @@ import org.filesys.server.auth.AuthenticatorException;
 import org.filesys.server.auth.ClientInfo;
 import org.filesys.server.filesys.*;
 import org.filesys.server.filesys.postprocess.PostRequestProcessor;
+import org.filesys.server.stats.CommandStatistics;
+import org.filesys.server.stats.ProtocolStatistics;
 import org.filesys.server.thread.ThreadRequestPool;
 import org.filesys.smb.*;
 import org.filesys.smb.server.notify.NotifyRequest;
 import org.filesys.smb.server.notify.NotifyRequestList;
+import org.filesys.util.DataPacker;
 import org.filesys.util.HexDump;
 import org.filesys.util.StringList;
 
@@ -151,6 +154,10 @@ public class SMBSrvSession extends SrvSession implements Runnable {
     // Session keys/contexts, for signing/encryption
 	private HashMap<String, Object> m_sessionKeys;
 
+	// Response bytes and error status for the request being processed, used by the command statistics
+	private long m_statBytesOut;
+	private boolean m_statError;
+
 	/**
 	 * Class constructor.
 	 *
@@ -1268,11 +1275,50 @@ public class SMBSrvSession extends SrvSession implements Runnable {
 		if (Debug.EnableInfo && hasDebug(DBG_PKTTYPE))
 			debugPrintln("Rx packet - " + smbPkt.getParser().toShortString());
 
-		// Call the protocol handler
-		if (m_handler.runProtocol(smbPkt) == false) {
+		// Get the command statistics, if enabled
+		ProtocolStatistics cmdStats = getSMBServer().getCommandStatistics();
+		long startTime = 0L;
+
+		if (cmdStats != null) {
+			startTime = System.nanoTime();
+			m_statBytesOut = 0L;
+			m_statError = false;
+		}
+
+		// Save the command and request length, the request buffer may be reused for the response
+		int cmd = smbPkt.getBuffer()[SMBV1.COMMAND] & 0xFF;
+		int rxLen = smbPkt.getReceivedLength();
+
+		try {
+
+			// Call the protocol handler
+			if (m_handler.runProtocol(smbPkt) == false) {
 
-			// The sessions protocol handler did not process the request, return an unsupported SMB error status.
-			sendErrorResponseSMB(smbPkt, SMBStatus.SRVNotSupported, SMBStatus.ErrSrv);
+				// The sessions protocol handler did not process the request, return an unsupported SMB error status.
+				sendErrorResponseSMB(smbPkt, SMBStatus.SRVNotSupported, SMBStatus.ErrSrv);
+			}
+		}
+		catch (DeferredPacketException ex) {
+
+			// Request will be run again when the deferred processing completes, do not record it
+			cmdStats = null;
+			throw ex;
+		}
+		catch (IOException ex) {
+			m_statError = true;
+			throw ex;
+		}
+		catch (SMBSrvException ex) {
+			m_statError = true;
+			throw ex;
+		}
+		finally {
+
+			// Update the command statistics
+			if (cmdStats != null) {
+				CommandStatistics stats = cmdStats.getCommand(cmd, PacketTypeV1.getCommandName(cmd));
+				stats.requestCompleted(startTime, m_statError, rxLen, m_statBytesOut);
+			}
 		}
 
 		// Commit/rollback any active transaction
@@ -1486,6 +1532,87 @@ public class SMBSrvSession extends SrvSession implements Runnable {
 	public synchronized final void sendResponseSMB(SMBSrvPacket pkt, int len)
 			throws IOException {
 
+		// Do any final updates before the response is sent
+		preSendResponseSMB(pkt);
+
+		// Send the response packet
+		m_pktHandler.writePacket(pkt, len);
+		m_pktHandler.flushPacket();
+
+		// Update the response statistics
+		updateResponseStatistics(pkt, len);
+
+		// Debug
+		if (Debug.EnableInfo && hasDebug(DBG_TXDATA)) {
+			debugPrintln("Tx Data len=" + len);
+			HexDump.Dump(pkt.getBuffer(), len, 0, Debug.getDebugInterface());
+		}
+	}
+
+	/**
+	 * Send an SMB response with file data that is transferred directly from the file to the network connection.
+	 * The response packet contains the SMB header and parameters, the length includes the transferred data.
+	 *
+	 * @param pkt      SMBSrvPacket
+	 * @param len      int
+	 * @param xferFile FileTransferInterface
+	 * @param fileOff  long
+	 * @param xferLen  int
+	 * @throws IOException I/O error
+	 */
+	public synchronized final void sendResponseSMB(SMBSrvPacket pkt, int len, FileTransferInterface xferFile, long fileOff, int xferLen)
+			throws IOException {
+
+		// Do any final updates before the response is sent
+		preSendResponseSMB(pkt);
+
+		// Send the response packet and file data
+		m_pktHandler.writePacket(pkt, len, xferFile, fileOff, xferLen);
+		m_pktHandler.flushPacket();
+
+		// Update the response statistics
+		updateResponseStatistics(pkt, len);
+
+		// Debug
+		if (Debug.EnableInfo && hasDebug(DBG_TXDATA)) {
+			debugPrintln("Tx Data len=" + len + ", transferred=" + xferLen);
+			HexDump.Dump(pkt.getBuffer(), len - xferLen, 0, Debug.getDebugInterface());
+		}
+	}
+
+	/**
+	 * Update the response byte count and error status for the command statistics
+	 *
+	 * @param pkt SMBSrvPacket
+	 * @param len int
+	 */
+	private final void updateResponseStatistics(SMBSrvPacket pkt, int len) {
+
+		// Check if statistics are enabled
+		if (getSMBServer().getCommandStatistics() == null)
+			return;
+
+		m_statBytesOut += len;
+
+		// Check the response status, NT status codes with the error severity or any DOS error class
+		byte[] buf = pkt.getBuffer();
+		int flags2 = DataPacker.getIntelShort(buf, SMBV1.FLAGS2);
+
+		if ((flags2 & SMBV1.FLG2_LONGERRORCODE) != 0) {
+			if ((DataPacker.getIntelInt(buf, SMBV1.ERRORCODE) & 0xC0000000) == 0xC0000000)
+				m_statError = true;
+		}
+		else if (buf[SMBV1.ERRORCLASS] != 0)
+			m_statError = true;
+	}
+
+	/**
+	 * Complete any active transaction and do final updates to a response before it is sent
+	 *
+	 * @param pkt SMBSrvPacket
+	 */
+	private final void preSendResponseSMB(SMBSrvPacket pkt) {
+
 		// Commit/rollback any active transactions before sending the response
 		if (hasTransaction()) {
 
@@ -1508,16 +1635,6 @@ public class SMBSrvSession extends SrvSession implements Runnable {
 
 		// Do any final updates before the response is sent
         pkt.getParser().responsePreSend(this, pkt);
-
-		// Send the response packet
-		m_pktHandler.writePacket(pkt, len);
-		m_pktHandler.flushPacket();
-
-		// Debug
-		if (Debug.EnableInfo && hasDebug(DBG_TXDATA)) {
-			debugPrintln("Tx Data len=" + len);
-			HexDump.Dump(pkt.getBuffer(), len, 0, Debug.getDebugInterface());
-		}
 	}
 
 	/**
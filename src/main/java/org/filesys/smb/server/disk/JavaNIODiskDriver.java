@@ -246,6 +246,9 @@ public class JavaNIODiskDriver implements DiskInterface {
         netFile.setGrantedAccess(NetworkFile.Access.READ_WRITE);
         netFile.setFullName(params.getPath());
 
+        //  File data can be sent directly from the file channel to the network
+        netFile.setAllowDirectTransfer(true);
+
         //  Return the network file
         return netFile;
     }
@@ -722,6 +725,11 @@ public class JavaNIODiskDriver implements DiskInterface {
         //  Check if the file is actually a directory
         if ( Files.isDirectory( filePath))
             netFile.setAttributes(FileAttribute.Directory);
+        else {
+
+            // File data can be sent directly from the file channel to the network
+            netFile.setAllowDirectTransfer(true);
+        }
 
         //  Return the network file
         return netFile;
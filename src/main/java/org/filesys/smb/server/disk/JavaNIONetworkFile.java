@@ -22,12 +22,14 @@ package org.filesys.smb.server.disk;
 
 import org.filesys.debug.Debug;
 import org.filesys.server.filesys.DiskFullException;
+import org.filesys.server.filesys.FileTransferInterface;
 import org.filesys.server.filesys.NetworkFile;
 import org.filesys.smb.SeekType;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -41,7 +43,7 @@ import java.util.Set;
  *
  * @author gkspencer
  */
-public class JavaNIONetworkFile extends NetworkFile {
+public class JavaNIONetworkFile extends NetworkFile implements FileTransferInterface {
 
     //	File path
     protected Path m_path;
@@ -240,6 +242,46 @@ public class JavaNIONetworkFile extends NetworkFile {
         return rdlen;
     }
 
+    /**
+     * Return the current size of the file data available for transfer
+     *
+     * @return long
+     * @exception IOException I/O error
+     */
+    public long getTransferFileSize()
+            throws IOException {
+
+        //  Open the file, if not already open
+        if (m_io == null)
+            openFile(false);
+
+        return m_io.size();
+    }
+
+    /**
+     * Transfer file data directly to a channel
+     *
+     * @param fileOff long
+     * @param len     long
+     * @param channel WritableByteChannel
+     * @return Number of bytes transferred, or -1 if the file offset is at/beyond the end of file
+     * @exception IOException I/O error
+     */
+    public long transferFile(long fileOff, long len, WritableByteChannel channel)
+            throws IOException {
+
+        //  Open the file, if not already open
+        if (m_io == null)
+            openFile(false);
+
+        //  Check for end of file
+        if (fileOff >= m_io.size())
+            return -1;
+
+        //  Transfer the file data, does not change the current file position
+        return m_io.transferTo(fileOff, len, channel);
+    }
+
     /**
      * Seek to the specified file position.
      *
@@ -25,9 +25,12 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 
 import org.filesys.debug.Debug;
+import org.filesys.server.filesys.FileTransferInterface;
+import org.filesys.server.memory.DirectBufferPool;
 import org.filesys.smb.server.SMBPacketPool;
 import org.filesys.smb.server.PacketHandler;
 import org.filesys.smb.server.Protocol;
+import org.filesys.smb.server.SMBSrvPacket;
 import org.filesys.util.HexDump;
 
 /**
@@ -36,6 +39,11 @@ import org.filesys.util.HexDump;
  * <p>
  * Provides the base class for Java SocketChannel based packet handler implementations.
  *
+ * <p>
+ * If the packet pool has a direct buffer pool then socket reads and writes go through pooled direct buffers, rather
+ * than the temporary direct buffers the JDK allocates per thread when a heap buffer is used for channel I/O. The
+ * packet data is still copied between the heap packet buffer and the direct buffer, this is not a zero-copy path.
+ *
  * @author gkspencer
  */
 public abstract class ChannelPacketHandler extends PacketHandler {
@@ -104,9 +112,37 @@ public abstract class ChannelPacketHandler extends PacketHandler {
     protected int readBytes(byte[] pkt, int offset, int len)
             throws IOException {
 
-        // Wrap the buffer and read into it
-        ByteBuffer buf = ByteBuffer.wrap(pkt, offset, len);
-        return m_sockChannel.read(buf);
+        // Check if the read can use a pooled direct buffer
+        DirectBufferPool directPool = getPacketPool().getDirectBufferPool();
+        ByteBuffer directBuf = directPool != null ? directPool.allocateBuffer() : null;
+
+        if (directBuf == null) {
+
+            // Wrap the buffer and read into it
+            ByteBuffer buf = ByteBuffer.wrap(pkt, offset, len);
+            return m_sockChannel.read(buf);
+        }
+
+        try {
+
+            // Read into the direct buffer, then copy to the packet buffer
+            if (len < directBuf.capacity())
+                directBuf.limit(len);
+
+            int rdlen = m_sockChannel.read(directBuf);
+
+            if (rdlen > 0) {
+                directBuf.flip();
+                directBuf.get(pkt, offset, rdlen);
+            }
+
+            return rdlen;
+        }
+        finally {
+
+            // Release the direct buffer back to the pool
+            directPool.releaseBuffer(directBuf);
+        }
     }
 
     /**
@@ -120,13 +156,102 @@ public abstract class ChannelPacketHandler extends PacketHandler {
     protected void writeBytes(byte[] pkt, int off, int len)
             throws IOException {
 
-        // Wrap the buffer and output to the socket channel
-        ByteBuffer buf = ByteBuffer.wrap(pkt, off, len);
+        // Check if the write can use a pooled direct buffer
+        DirectBufferPool directPool = getPacketPool().getDirectBufferPool();
+        ByteBuffer directBuf = directPool != null ? directPool.allocateBuffer() : null;
+
+        if (directBuf == null) {
+
+            // Wrap the buffer and output to the socket channel
+            ByteBuffer buf = ByteBuffer.wrap(pkt, off, len);
+
+            while (buf.hasRemaining())
+                m_sockChannel.write(buf);
+            return;
+        }
+
+        try {
+
+            // Copy the data to the direct buffer and output to the socket channel, large packets may need
+            // several passes
+            while (len > 0) {
+
+                int wrlen = len < directBuf.capacity() ? len : directBuf.capacity();
+
+                directBuf.clear();
+                directBuf.put(pkt, off, wrlen);
+                directBuf.flip();
+
+                while (directBuf.hasRemaining())
+                    m_sockChannel.write(directBuf);
+
+                off += wrlen;
+                len -= wrlen;
+            }
+        }
+        finally {
+
+            // Release the direct buffer back to the pool
+            directPool.releaseBuffer(directBuf);
+        }
+    }
+
+    /**
+     * Check if the packet handler can transfer file data directly to the network connection
+     *
+     * @return boolean
+     */
+    public boolean supportsFileTransfer() {
+        return true;
+    }
+
+    /**
+     * Send an SMB response packet followed by file data that is transferred directly from the file to the
+     * socket channel
+     *
+     * @param pkt      SMBSrvPacket
+     * @param len      int
+     * @param xferFile FileTransferInterface
+     * @param fileOff  long
+     * @param xferLen  int
+     * @throws IOException If a network error occurs.
+     */
+    public void writePacket(SMBSrvPacket pkt, int len, FileTransferInterface xferFile, long fileOff, int xferLen)
+            throws IOException {
+
+        // Fill in the packet header, the length includes the file data that follows the packet
+        byte[] buf = pkt.getBuffer();
+        int totLen = packHeader(buf, len);
+
+        // Output the packet, without the file data
+        writeBytes(buf, 0, totLen - xferLen);
+
+        // Transfer the file data to the socket channel
+        long xferPos = fileOff;
+        long xferRemaining = xferLen;
+
+        while (xferRemaining > 0) {
+
+            long xferCnt = xferFile.transferFile(xferPos, xferRemaining, m_sockChannel);
+
+            // Check for a short file, the packet header has already been sent with the full length
+            if (xferCnt == -1)
+                throw new IOException("File transfer failed, end of file at offset " + xferPos);
 
-        while (buf.hasRemaining())
-            m_sockChannel.write(buf);
+            xferPos += xferCnt;
+            xferRemaining -= xferCnt;
+        }
     }
 
+    /**
+     * Fill in the packet header
+     *
+     * @param buf byte[]
+     * @param len int
+     * @return Length of the packet including the header
+     */
+    protected abstract int packHeader(byte[] buf, int len);
+
     /**
      * Flush the output socket
      *
@@ -140,31 +140,41 @@ public class NetBIOSSMBChannelHandler extends ChannelPacketHandler {
         // Update the NetBIOS header, unless this is  write raw request
         byte[] buf = pkt.getBuffer();
 
-        if (writeRaw == false) {
+        if (writeRaw == false)
+            len = packHeader(buf, len);
 
-            // Fill in the NetBIOS message header, this is already allocated as part of the users buffer.
-            buf[0] = (byte) RFCNetBIOSProtocol.MsgType.MESSAGE.intValue();
-            buf[1] = (byte) 0;
+        // Output the data packet
+        writeBytes(buf, 0, len);
+    }
+
+    /**
+     * Fill in the NetBIOS message header
+     *
+     * @param buf byte[]
+     * @param len int
+     * @return Length of the packet including the header
+     */
+    protected int packHeader(byte[] buf, int len) {
 
-            if (len > 0xFFFF) {
+        // Fill in the NetBIOS message header, this is already allocated as part of the users buffer.
+        buf[0] = (byte) RFCNetBIOSProtocol.MsgType.MESSAGE.intValue();
+        buf[1] = (byte) 0;
 
-                // Set the >64K flag
-                buf[1] = (byte) 0x01;
+        if (len > 0xFFFF) {
 
-                // Set the low word of the data length
-                DataPacker.putShort((short) (len & 0xFFFF), buf, 2);
-            }
-            else {
+            // Set the >64K flag
+            buf[1] = (byte) 0x01;
 
-                // Set the data length
-                DataPacker.putShort((short) len, buf, 2);
-            }
+            // Set the low word of the data length
+            DataPacker.putShort((short) (len & 0xFFFF), buf, 2);
+        }
+        else {
 
-            // Update the length to include the NetBIOS header
-            len += RFCNetBIOSProtocol.HEADER_LEN;
+            // Set the data length
+            DataPacker.putShort((short) len, buf, 2);
         }
 
-        // Output the data packet
-        writeBytes(buf, 0, len);
+        // Return the length including the NetBIOS header
+        return len + RFCNetBIOSProtocol.HEADER_LEN;
     }
 }
@@ -44,6 +44,10 @@ import org.filesys.smb.server.SessionState;
  *
  * <p>Handles the receiving of SMB requests for a number of SMB sessions.
  *
+ * <p>If the thread pool request queue is full the requests are held by the request handler, with socket read events
+ * disabled for the sessions, until there is space on the queue. This stops the server reading further requests from
+ * the sockets rather than growing the request queue.
+ *
  * @author gkspencer
  */
 public class SMBRequestHandler extends RequestHandler implements Runnable {
@@ -51,12 +55,18 @@ public class SMBRequestHandler extends RequestHandler implements Runnable {
     // Request handler index, used to generate the thread name
     private static int _handlerId;
 
+    // Interval to wait before retrying to queue requests when the request queue is full, in milliseconds
+    private static final long QueueFullRetryInterval = 10L;
+
     // Selector used to monitor a group of socket channels for incoming requests
     private Selector m_selector;
 
     // List of thread requests, used during socket event processing
     private List<ThreadRequest> m_reqList = new ArrayList<ThreadRequest>();
 
+    // List of thread requests waiting for space on the thread pool request queue
+    private List<ThreadRequest> m_deferList = new ArrayList<ThreadRequest>();
+
     // Count of the number of selector channels, maintained by the main thread
     private AtomicInteger m_sessionCount = new AtomicInteger();
 
@@ -234,9 +244,12 @@ public class SMBRequestHandler extends RequestHandler implements Runnable {
                 }
                 else {
 
-                    // Wait for client requests
+                    // Wait for client requests, if there are deferred requests only wait for a short time
                     try {
-                        sessCnt = m_selector.select();
+                        if (m_deferList.size() > 0)
+                            sessCnt = m_selector.select(QueueFullRetryInterval);
+                        else
+                            sessCnt = m_selector.select();
                     }
                     catch (CancelledKeyException ex) {
 
@@ -260,6 +273,10 @@ public class SMBRequestHandler extends RequestHandler implements Runnable {
                 if (m_shutdown == true)
                     continue;
 
+                // Check if there are deferred requests waiting for space on the request queue
+                if (m_deferList.size() > 0)
+                    queueDeferredRequests();
+
                 // Check if there are any events to process
                 if (sessCnt > 0) {
 
@@ -403,7 +420,7 @@ public class SMBRequestHandler extends RequestHandler implements Runnable {
 //						Debug.println( "[SMB] Queueing " + reqList.size() + " thread requests");
 
                     // Queue the requests to the thread pool
-                    m_threadPool.queueRequests(m_reqList);
+                    queueRequests(m_reqList);
                     m_reqList.clear();
                 }
             }
@@ -433,11 +450,52 @@ public class SMBRequestHandler extends RequestHandler implements Runnable {
 //				Debug.println( "[SMB] Queueing " + reqList.size() + " thread requests (last)");
 
             // Queue the requests to the thread pool
-            m_threadPool.queueRequests(m_reqList);
+            queueRequests(m_reqList);
             m_reqList.clear();
         }
     }
 
+    /**
+     * Queue requests to the thread pool, any requests that cannot be queued as the request queue is full
+     * are deferred until there is space on the queue
+     *
+     * @param reqList List of thread requests
+     */
+    private void queueRequests(List<ThreadRequest> reqList) {
+
+        // If there are already deferred requests then add to the deferred list, to keep the request order
+        if (m_deferList.size() > 0) {
+            m_deferList.addAll(reqList);
+            return;
+        }
+
+        // Queue as many requests as possible
+        int queuedCnt = m_threadPool.offerRequests(reqList);
+
+        if (queuedCnt < reqList.size()) {
+
+            // Defer the remaining requests, socket read events stay disabled for the sessions until the requests
+            // have been queued
+            m_deferList.addAll(reqList.subList(queuedCnt, reqList.size()));
+
+            // DEBUG
+            if (Debug.EnableInfo && hasDebug())
+                Debug.println("[SMB] Request queue full, deferred " + m_deferList.size() + " requests, handler=" + getName());
+        }
+    }
+
+    /**
+     * Queue deferred requests to the thread pool
+     */
+    private void queueDeferredRequests() {
+
+        // Queue as many deferred requests as possible
+        int queuedCnt = m_threadPool.offerRequests(m_deferList);
+
+        if (queuedCnt > 0)
+            m_deferList.subList(0, queuedCnt).clear();
+    }
+
     /**
      * Add new sockets/sessions to the event listener list
      */
@@ -623,7 +681,7 @@ public class SMBRequestHandler extends RequestHandler implements Runnable {
         Debug.println("  Session Queue: " + m_sessQueue.numberOfSessions());
         Debug.println("  Selector: " + m_selector);
 
-        Debug.println("  ThreadRequestPool: queue=" + m_threadPool.getNumberOfRequests());
+        Debug.println("  ThreadRequestPool: queue=" + m_threadPool.getNumberOfRequests() + ", deferred=" + m_deferList.size());
         Debug.println("  NoPooledMemoryException: count=" + NoPooledMemoryException.getExceptionCounter());
     }
 }
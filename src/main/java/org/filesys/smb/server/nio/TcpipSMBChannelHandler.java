@@ -156,10 +156,21 @@ public class TcpipSMBChannelHandler extends ChannelPacketHandler {
         // Fill in the TCP SMB message header, this is already allocated as
         // part of the users buffer.
         byte[] buf = pkt.getBuffer();
-        DataPacker.putInt(len, buf, 0);
+        int bufSiz = packHeader(buf, len);
 
         // Output the data packet
-        int bufSiz = len + TcpipSMB.HEADER_LEN;
         writeBytes(buf, 0, bufSiz);
     }
+
+    /**
+     * Fill in the TCP SMB message header
+     *
+     * @param buf byte[]
+     * @param len int
+     * @return Length of the packet including the header
+     */
+    protected int packHeader(byte[] buf, int len) {
+        DataPacker.putInt(len, buf, 0);
+        return len + TcpipSMB.HEADER_LEN;
+    }
 }
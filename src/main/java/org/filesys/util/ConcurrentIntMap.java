@@ -0,0 +1,487 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrent Int Map Class
+ *
+ * <p>Hash map keyed by a primitive int value that avoids boxing the key on each lookup. The map is split into
+ * a number of segments, each segment is an open addressing table using linear probing that is guarded by its
+ * own lock, so that threads accessing different keys rarely contend.
+ *
+ * <p>Null values are not allowed, a null return value from a lookup indicates the key was not found.
+ *
+ * @param <V> Value type
+ * @author gkspencer
+ */
+public class ConcurrentIntMap<V> {
+
+    // Default number of segments and initial segment table size
+    public static final int DefaultSegments     = 16;
+    public static final int DefaultSegmentSize  = 16;
+
+    // Maximum number of segments
+    public static final int MaximumSegments     = 256;
+
+    // Load factor percentage at which a segment table is grown
+    private static final int LoadFactor = 75;
+
+    // Segments, and the mask/shift used to select a segment using the key hash
+    private Segment<V>[] m_segments;
+    private int m_segShift;
+
+    // Count of entries in all segments
+    private AtomicInteger m_size = new AtomicInteger();
+
+    /**
+     * Segment Class
+     *
+     * <p>Open addressing table of keys and values, the value slot is null for an unused slot.
+     */
+    private static final class Segment<V> {
+
+        // Keys and values
+        private int[] mi_keys;
+        private Object[] mi_values;
+
+        // Count of used slots, and the used slot count at which the table is grown
+        private int mi_size;
+        private int mi_threshold;
+
+        /**
+         * Class constructor
+         *
+         * @param capacity int
+         */
+        Segment(int capacity) {
+            allocate(capacity);
+        }
+
+        /**
+         * Allocate the key and value arrays
+         *
+         * @param capacity int
+         */
+        private void allocate(int capacity) {
+            mi_keys = new int[capacity];
+            mi_values = new Object[capacity];
+            mi_threshold = (capacity * LoadFactor) / 100;
+        }
+
+        /**
+         * Find the slot for a key, or -1 if the key is not in the table
+         *
+         * @param key int
+         * @param hash int
+         * @return int
+         */
+        final int findSlot(int key, int hash) {
+            int mask = mi_keys.length - 1;
+            int idx = hash & mask;
+
+            while (mi_values[idx] != null) {
+                if (mi_keys[idx] == key)
+                    return idx;
+                idx = (idx + 1) & mask;
+            }
+
+            return -1;
+        }
+
+        /**
+         * Add or replace a value, return the previous value
+         *
+         * @param key int
+         * @param hash int
+         * @param value Object
+         * @param onlyIfAbsent boolean
+         * @return Object
+         */
+        final Object put(int key, int hash, Object value, boolean onlyIfAbsent) {
+
+            // Check for an existing entry, or find the first unused slot
+            int mask = mi_keys.length - 1;
+            int idx = hash & mask;
+
+            while (mi_values[idx] != null) {
+                if (mi_keys[idx] == key) {
+                    Object oldVal = mi_values[idx];
+                    if (onlyIfAbsent == false)
+                        mi_values[idx] = value;
+                    return oldVal;
+                }
+                idx = (idx + 1) & mask;
+            }
+
+            // Add the new entry
+            mi_keys[idx] = key;
+            mi_values[idx] = value;
+
+            // Grow the table if the load factor has been reached
+            if (++mi_size > mi_threshold)
+                resize(mi_keys.length * 2);
+
+            return null;
+        }
+
+        /**
+         * Remove the entry in the specified slot, entries that follow in the same probe sequence are shifted back
+         * so that lookups do not need deleted slot markers
+         *
+         * @param slot int
+         */
+        final void removeSlot(int slot) {
+            int mask = mi_keys.length - 1;
+            int gap = slot;
+            int idx = slot;
+
+            while (true) {
+                idx = (idx + 1) & mask;
+                if (mi_values[idx] == null)
+                    break;
+
+                // Move the entry into the gap if its home slot is not between the gap and its current slot
+                int home = mix(mi_keys[idx]) & mask;
+
+                if (((idx - home) & mask) >= ((idx - gap) & mask)) {
+                    mi_keys[gap] = mi_keys[idx];
+                    mi_values[gap] = mi_values[idx];
+                    gap = idx;
+                }
+            }
+
+            mi_values[gap] = null;
+            mi_keys[gap] = 0;
+            mi_size--;
+        }
+
+        /**
+         * Resize the table
+         *
+         * @param capacity int
+         */
+        private void resize(int capacity) {
+            int[] oldKeys = mi_keys;
+            Object[] oldValues = mi_values;
+
+            allocate(capacity);
+            int mask = capacity - 1;
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    int idx = mix(oldKeys[i]) & mask;
+                    while (mi_values[idx] != null)
+                        idx = (idx + 1) & mask;
+
+                    mi_keys[idx] = oldKeys[i];
+                    mi_values[idx] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Default constructor
+     */
+    public ConcurrentIntMap() {
+        this(DefaultSegments, DefaultSegmentSize);
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param segments int
+     * @param segSize int
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ConcurrentIntMap(int segments, int segSize) {
+
+        // Round the segment count and size up to a power of two
+        int segCnt = powerOfTwo(Math.min(Math.max(segments, 1), MaximumSegments));
+        int tabSize = powerOfTwo(Math.max(segSize, 4));
+
+        m_segments = (Segment<V>[]) new Segment[segCnt];
+        for (int i = 0; i < segCnt; i++)
+            m_segments[i] = new Segment<V>(tabSize);
+
+        // Segments are selected using the high bits of the key hash, the table slot uses the low bits
+        m_segShift = 32 - Integer.numberOfTrailingZeros(segCnt);
+    }
+
+    /**
+     * Return the value for the specified key, or null if the key is not in the map
+     *
+     * @param key int
+     * @return V
+     */
+    @SuppressWarnings("unchecked")
+    public final V get(int key) {
+        int hash = mix(key);
+        Segment<V> seg = segmentFor(hash);
+
+        synchronized (seg) {
+            int slot = seg.findSlot(key, hash);
+            return slot != -1 ? (V) seg.mi_values[slot] : null;
+        }
+    }
+
+    /**
+     * Check if the map contains the specified key
+     *
+     * @param key int
+     * @return boolean
+     */
+    public final boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Add or replace the value for the specified key, return the previous value or null
+     *
+     * @param key int
+     * @param value V
+     * @return V
+     */
+    @SuppressWarnings("unchecked")
+    public final V put(int key, V value) {
+        if (value == null)
+            throw new NullPointerException("Null value");
+
+        int hash = mix(key);
+        Segment<V> seg = segmentFor(hash);
+
+        synchronized (seg) {
+            V oldVal = (V) seg.put(key, hash, value, false);
+            if (oldVal == null)
+                m_size.incrementAndGet();
+            return oldVal;
+        }
+    }
+
+    /**
+     * Add the value for the specified key if the key is not already in the map, return the existing value or
+     * null if the new value was added
+     *
+     * @param key int
+     * @param value V
+     * @return V
+     */
+    @SuppressWarnings("unchecked")
+    public final V putIfAbsent(int key, V value) {
+        if (value == null)
+            throw new NullPointerException("Null value");
+
+        int hash = mix(key);
+        Segment<V> seg = segmentFor(hash);
+
+        synchronized (seg) {
+            V oldVal = (V) seg.put(key, hash, value, true);
+            if (oldVal == null)
+                m_size.incrementAndGet();
+            return oldVal;
+        }
+    }
+
+    /**
+     * Remove the value for the specified key, return the removed value or null
+     *
+     * @param key int
+     * @return V
+     */
+    @SuppressWarnings("unchecked")
+    public final V remove(int key) {
+        int hash = mix(key);
+        Segment<V> seg = segmentFor(hash);
+
+        synchronized (seg) {
+            int slot = seg.findSlot(key, hash);
+            if (slot == -1)
+                return null;
+
+            V oldVal = (V) seg.mi_values[slot];
+            seg.removeSlot(slot);
+            m_size.decrementAndGet();
+            return oldVal;
+        }
+    }
+
+    /**
+     * Remove the entry for the specified key only if it is mapped to the specified value instance
+     *
+     * @param key int
+     * @param value V
+     * @return boolean
+     */
+    public final boolean remove(int key, V value) {
+        int hash = mix(key);
+        Segment<V> seg = segmentFor(hash);
+
+        synchronized (seg) {
+            int slot = seg.findSlot(key, hash);
+            if (slot == -1 || seg.mi_values[slot] != value)
+                return false;
+
+            seg.removeSlot(slot);
+            m_size.decrementAndGet();
+            return true;
+        }
+    }
+
+    /**
+     * Return the number of entries in the map
+     *
+     * @return int
+     */
+    public final int size() {
+        return m_size.get();
+    }
+
+    /**
+     * Check if the map is empty
+     *
+     * @return boolean
+     */
+    public final boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Return a snapshot of the keys in the map
+     *
+     * @return int[]
+     */
+    public final int[] keys() {
+        int[] keys = new int[0];
+        int cnt = 0;
+
+        for (Segment<V> seg : m_segments) {
+            synchronized (seg) {
+
+                // Make sure there is room for the segment keys
+                if (cnt + seg.mi_size > keys.length) {
+                    int[] newKeys = new int[cnt + seg.mi_size];
+                    System.arraycopy(keys, 0, newKeys, 0, cnt);
+                    keys = newKeys;
+                }
+
+                for (int i = 0; i < seg.mi_keys.length; i++) {
+                    if (seg.mi_values[i] != null)
+                        keys[cnt++] = seg.mi_keys[i];
+                }
+            }
+        }
+
+        // Trim the array if entries were removed whilst building the list
+        if (cnt < keys.length) {
+            int[] newKeys = new int[cnt];
+            System.arraycopy(keys, 0, newKeys, 0, cnt);
+            keys = newKeys;
+        }
+
+        return keys;
+    }
+
+    /**
+     * Return a snapshot of the values in the map
+     *
+     * @return List&lt;V&gt;
+     */
+    @SuppressWarnings("unchecked")
+    public final List<V> values() {
+        List<V> values = new ArrayList<V>();
+
+        for (Segment<V> seg : m_segments) {
+            synchronized (seg) {
+                for (int i = 0; i < seg.mi_values.length; i++) {
+                    if (seg.mi_values[i] != null)
+                        values.add((V) seg.mi_values[i]);
+                }
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Remove all entries from the map
+     */
+    public final void clear() {
+        for (Segment<V> seg : m_segments) {
+            synchronized (seg) {
+                m_size.addAndGet(-seg.mi_size);
+                seg.allocate(DefaultSegmentSize);
+                seg.mi_size = 0;
+            }
+        }
+    }
+
+    /**
+     * Return the segment for a key hash
+     *
+     * @param hash int
+     * @return Segment&lt;V&gt;
+     */
+    private Segment<V> segmentFor(int hash) {
+        return m_segments.length == 1 ? m_segments[0] : m_segments[hash >>> m_segShift];
+    }
+
+    /**
+     * Spread the bits of a key, file ids are often sequential
+     *
+     * @param key int
+     * @return int
+     */
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Round a value up to a power of two
+     *
+     * @param val int
+     * @return int
+     */
+    private static int powerOfTwo(int val) {
+        int pow = 1;
+        while (pow < val)
+            pow <<= 1;
+        return pow;
+    }
+
+    /**
+     * Return the map details as a string
+     *
+     * @return String
+     */
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+
+        str.append("[ConcurrentIntMap segments=");
+        str.append(m_segments.length);
+        str.append(", size=");
+        str.append(size());
+        str.append("]");
+
+        return str.toString();
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.filesys.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timer Wheel Class
+ *
+ * <p>Hashed timer wheel used to expire cache entries. Each slot holds the entries that are due to expire during
+ * one tick interval. Refreshing an entry only updates its expiry time, the entry is moved to its new slot when
+ * its original slot is processed, so that entries that are accessed often do not need the wheel lock.
+ *
+ * <p>The wheel is advanced by calling the advance() method, either from a timer thread or lazily from the cache
+ * that owns the wheel using the isDue() check.
+ *
+ * @param <E> Entry type
+ * @author gkspencer
+ */
+public class TimerWheel<E extends TimerWheel.Entry> {
+
+    // Default number of slots
+    public static final int DefaultSlots = 64;
+
+    // Tick interval, in milliseconds
+    private long m_tick;
+
+    // Wheel slots
+    private List<E>[] m_slots;
+
+    // Last tick that has been processed
+    private long m_curTick;
+
+    // Time that the next tick is due
+    private volatile long m_nextTickTime;
+
+    // Count of entries in the wheel
+    private int m_count;
+
+    /**
+     * Timer Wheel Entry Class
+     */
+    public static abstract class Entry {
+
+        // Expiry time, in milliseconds
+        private volatile long m_expiryTime;
+
+        // Cancelled flag
+        private volatile boolean m_cancelled;
+
+        // Entry is queued in a wheel slot, guarded by the wheel lock
+        boolean m_queued;
+
+        /**
+         * Return the expiry time
+         *
+         * @return long
+         */
+        public final long getExpiryTime() {
+            return m_expiryTime;
+        }
+
+        /**
+         * Set the expiry time
+         *
+         * @param expiry long
+         */
+        public final void setExpiryTime(long expiry) {
+            m_expiryTime = expiry;
+        }
+
+        /**
+         * Check if the entry has been cancelled
+         *
+         * @return boolean
+         */
+        public final boolean isCancelled() {
+            return m_cancelled;
+        }
+
+        /**
+         * Cancel the entry, it will be dropped from the wheel when its slot is processed
+         */
+        public final void cancel() {
+            m_cancelled = true;
+        }
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param tick long
+     * @param slots int
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimerWheel(long tick, int slots) {
+        m_tick = Math.max(tick, 1L);
+
+        m_slots = (List<E>[]) new List[Math.max(slots, 2)];
+        for (int i = 0; i < m_slots.length; i++)
+            m_slots[i] = new ArrayList<E>();
+
+        m_curTick = System.currentTimeMillis() / m_tick;
+        m_nextTickTime = (m_curTick + 1) * m_tick;
+    }
+
+    /**
+     * Return the tick interval, in milliseconds
+     *
+     * @return long
+     */
+    public final long getTickInterval() {
+        return m_tick;
+    }
+
+    /**
+     * Return the count of entries queued in the wheel, including cancelled entries that have not been dropped yet
+     *
+     * @return int
+     */
+    public final synchronized int numberOfEntries() {
+        return m_count;
+    }
+
+    /**
+     * Check if the wheel is due to be advanced
+     *
+     * @param timeNow long
+     * @return boolean
+     */
+    public final boolean isDue(long timeNow) {
+        return timeNow >= m_nextTickTime;
+    }
+
+    /**
+     * Add an entry to the wheel using its current expiry time. An entry that is already queued is not added again.
+     *
+     * @param entry E
+     */
+    public final synchronized void schedule(E entry) {
+        if (entry.m_queued == false)
+            queueEntry(entry);
+    }
+
+    /**
+     * Advance the wheel to the specified time, return the list of expired entries or null if no entries have
+     * expired. Expired entries are removed from the wheel, entries that have been refreshed are moved to the slot
+     * for their new expiry time and cancelled entries are dropped.
+     *
+     * @param timeNow long
+     * @return List&lt;E&gt;
+     */
+    public final synchronized List<E> advance(long timeNow) {
+
+        long targetTick = timeNow / m_tick;
+        List<E> expired = null;
+
+        // If the wheel has not been advanced for a full turn then each slot only needs to be processed once
+        if (targetTick - m_curTick > m_slots.length)
+            m_curTick = targetTick - m_slots.length;
+
+        while (m_curTick < targetTick) {
+
+            // Process the next slot
+            m_curTick++;
+
+            int idx = (int) (m_curTick % m_slots.length);
+            List<E> slot = m_slots[idx];
+
+            if (slot.isEmpty())
+                continue;
+
+            m_slots[idx] = new ArrayList<E>();
+
+            for (E entry : slot) {
+
+                // Remove the entry from the wheel
+                entry.m_queued = false;
+                m_count--;
+
+                if (entry.isCancelled())
+                    continue;
+
+                // Requeue refreshed entries, or add to the expired list
+                if (entry.getExpiryTime() > timeNow)
+                    queueEntry(entry);
+                else {
+                    if (expired == null)
+                        expired = new ArrayList<E>();
+                    expired.add(entry);
+                }
+            }
+        }
+
+        // Set the time the next tick is due
+        m_nextTickTime = (m_curTick + 1) * m_tick;
+
+        return expired;
+    }
+
+    /**
+     * Remove up to the specified number of entries from the wheel, in expiry order, and return them. Used to
+     * enforce a size limit on a cache. Entries that have been refreshed since they were queued are moved to their
+     * new slot rather than being returned.
+     *
+     * @param cnt int
+     * @return List&lt;E&gt;
+     */
+    public final synchronized List<E> removeOldest(int cnt) {
+
+        List<E> oldest = new ArrayList<E>(cnt);
+        long tick = m_curTick + 1;
+
+        for (int i = 0; i < m_slots.length && oldest.size() < cnt; i++, tick++) {
+
+            // Check the current slot
+            int idx = (int) (tick % m_slots.length);
+            List<E> slot = m_slots[idx];
+
+            if (slot.isEmpty())
+                continue;
+
+            List<E> keep = new ArrayList<E>();
+            long slotEnd = (tick + 1) * m_tick;
+
+            for (E entry : slot) {
+
+                if (entry.isCancelled()) {
+                    entry.m_queued = false;
+                    m_count--;
+                }
+                else if (oldest.size() < cnt && entry.getExpiryTime() < slotEnd) {
+                    entry.m_queued = false;
+                    m_count--;
+                    oldest.add(entry);
+                }
+                else
+                    keep.add(entry);
+            }
+
+            m_slots[idx] = keep;
+
+            // Move refreshed entries that were kept to their new slot
+            for (int j = keep.size() - 1; j >= 0; j--) {
+                E entry = keep.get(j);
+                if (entry.getExpiryTime() >= slotEnd && slotFor(entry) != idx) {
+                    keep.remove(j);
+                    m_count--;
+                    queueEntry(entry);
+                }
+            }
+        }
+
+        return oldest;
+    }
+
+    /**
+     * Remove all entries from the wheel, and return the entries that have not been cancelled
+     *
+     * @return List&lt;E&gt;
+     */
+    public final synchronized List<E> removeAll() {
+
+        List<E> entries = new ArrayList<E>(m_count);
+
+        for (int i = 0; i < m_slots.length; i++) {
+            for (E entry : m_slots[i]) {
+                entry.m_queued = false;
+                if (entry.isCancelled() == false)
+                    entries.add(entry);
+            }
+            m_slots[i] = new ArrayList<E>();
+        }
+
+        m_count = 0;
+        return entries;
+    }
+
+    /**
+     * Add an entry to the slot for its expiry time
+     *
+     * @param entry E
+     */
+    private void queueEntry(E entry) {
+        m_slots[slotFor(entry)].add(entry);
+        entry.m_queued = true;
+        m_count++;
+    }
+
+    /**
+     * Return the slot index for an entry, entries that are already due go in the next slot
+     *
+     * @param entry E
+     * @return int
+     */
+    private int slotFor(E entry) {
+        long tick = entry.getExpiryTime() / m_tick;
+        if (tick <= m_curTick)
+            tick = m_curTick + 1;
+
+        return (int) (tick % m_slots.length);
+    }
+}
@@ -35,7 +35,7 @@ import org.filesys.debug.Debug;
  *
  * @author gkspencer
  */
-public class DBConnectionPool {
+public class DBConnectionPool implements DBConnectionPoolMXBean {
 
     //	Permanent lease time
     public final static long PermanentLease = -1L;
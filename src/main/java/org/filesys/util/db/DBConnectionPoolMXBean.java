@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2019 GK Spencer
+ *
+ * JFileServer is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JFileServer is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with JFileServer. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.filesys.util.db;
+
+/**
+ * Database Connection Pool MXBean Interface
+ *
+ * <p>Management interface for a database connection pool. The connection password is not exposed.
+ *
+ * @author gkspencer
+ */
+public interface DBConnectionPoolMXBean {
+
+    /**
+     * Get the JDBC driver details
+     *
+     * @return String
+     */
+    public String getDriver();
+
+    /**
+     * Get the connection details
+     *
+     * @return String
+     */
+    public String getDSN();
+
+    /**
+     * Get the user name
+     *
+     * @return String
+     */
+    public String getUserName();
+
+    /**
+     * Get the minimum pool size
+     *
+     * @return int
+     */
+    public int getMinimumPoolSize();
+
+    /**
+     * Get the maximum pool size
+     *
+     * @return int
+     */
+    public int getMaximumPoolSize();
+
+    /**
+     * Get the connection lease time, in milliseconds
+     *
+     * @return long
+     */
+    public long getLeaseTime();
+
+    /**
+     * Get the available connection count
+     *
+     * @return int
+     */
+    public int getAvailableConnections();
+
+    /**
+     * Get the in use connection count
+     *
+     * @return int
+     */
+    public int getAllocatedConnections();
+
+    /**
+     * Check if the connection pool is online
+     *
+     * @return boolean
+     */
+    public boolean isOnline();
+}